@@ -0,0 +1,41 @@
+package rmit.s4134401.carehome.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import rmit.s4134401.carehome.ActionType;
+import rmit.s4134401.carehome.Prescription;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The JDBC repositories on their own, outside any unit of work.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RepositoryBench {
+    private int next;
+
+    // round robin over the residents; each holds about history / residents prescriptions
+    @Benchmark
+    public List<Prescription> loadForPatient(SeededFacility f){
+        String pid = f.residents.get(next++ % f.residents.size());
+        return f.rxRepo.loadForPatient(pid);
+    }
+
+    // autocommit, one row per call
+    @Benchmark
+    public void auditLog(SeededFacility f){
+        f.auditRepo.log(Instant.now(), SeededFacility.NURSE, ActionType.MED_ADMIN, "bench");
+    }
+}
@@ -0,0 +1,117 @@
+package rmit.s4134401.carehome.bench;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import rmit.s4134401.carehome.Doctor;
+import rmit.s4134401.carehome.Gender;
+import rmit.s4134401.carehome.Nurse;
+import rmit.s4134401.carehome.Patient;
+import rmit.s4134401.carehome.Shift;
+import rmit.s4134401.carehome.repo.cache.CachingBedRepository;
+import rmit.s4134401.carehome.repo.cache.CachingNurseRosterRepository;
+import rmit.s4134401.carehome.repo.cache.CachingPatientRepository;
+import rmit.s4134401.carehome.repo.jdbc.*;
+import rmit.s4134401.carehome.service.CareHomeService;
+import rmit.s4134401.carehome.service.FacilityImport;
+import rmit.s4134401.carehome.util.DB;
+import rmit.s4134401.carehome.util.SchemaMigrator;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+
+// A temp SQLite file holding a full facility: a manager, a doctor (90 minutes every day), nurse n1
+// on shift A and n2 on shift B every day, a resident in every bed of rooms 2-6 except ward B room 6
+// (left empty for moves), and `history` prescriptions, administrations and audit rows spread over
+// the residents. The service is wired the way CareHomeApp wires it.
+@State(Scope.Benchmark)
+public class SeededFacility {
+    static final String MANAGER = "m1";
+    static final String DOCTOR = "d1";
+    static final String NURSE = "n1";
+    static final String NURSE_B = "n2";
+    static final DayOfWeek DAY = DayOfWeek.WEDNESDAY;
+    static final LocalTime ON_SHIFT = LocalTime.of(10, 0);
+
+    // rows of each kind of history; the residents are fixed by the bed layout
+    @Param({"1000", "10000"})
+    public int history;
+
+    Path file;
+    CareHomeService svc;
+    JdbcPrescriptionRepository rxRepo;
+    JdbcAuditRepository auditRepo;
+    final List<String> residents = new ArrayList<>();
+
+    private CachingPatientRepository patients;
+    private CachingNurseRosterRepository roster;
+    private BatchingAuditRepository auditLog;
+
+    @Setup(Level.Trial)
+    public void seed() throws IOException {
+        file = Files.createTempFile("carehome-bench-", ".db");
+        DB.shutdown();
+        DB.init(file.toString());
+        SchemaMigrator.ensure();
+
+        rxRepo = new JdbcPrescriptionRepository();
+        auditRepo = new JdbcAuditRepository();
+        auditLog = new BatchingAuditRepository();
+        patients = new CachingPatientRepository(new JdbcPatientRepository());
+        roster = new CachingNurseRosterRepository(new JdbcNurseRosterRepository());
+        svc = new CareHomeService(new JdbcStaffRepository(), new CachingBedRepository(new JdbcBedRepository()),
+                patients, roster, new JdbcDoctorMinutesRepository(), auditLog, rxRepo,
+                new JdbcAdministrationRepository());
+
+        svc.addManager(MANAGER, "Bench Manager");
+        FacilityImport facility = new FacilityImport()
+                .staff(new Doctor(DOCTOR, "Bench Doctor"))
+                .staff(new Nurse(NURSE, "Bench Nurse A"))
+                .staff(new Nurse(NURSE_B, "Bench Nurse B"));
+        for (DayOfWeek d : DayOfWeek.values()) {
+            facility.shift(NURSE, new Shift(d, CareHomeService.SHIFT_A_START, CareHomeService.SHIFT_A_END));
+            facility.shift(NURSE_B, new Shift(d, CareHomeService.SHIFT_B_START, CareHomeService.SHIFT_B_END));
+        }
+        for (String ward : new String[]{"A", "B"}) {
+            for (int room = 2; room <= 6; room++) {
+                if (ward.equals("B") && room == 6) continue;
+                Gender g = room % 2 == 0 ? Gender.M : Gender.F;
+                for (int bed = 1; bed <= (room == 2 ? 2 : 4); bed++) {
+                    String id = "p" + ward + room + bed;
+                    facility.resident(new Patient(id, "Resident " + id, g, false), ward, room, bed);
+                    residents.add(id);
+                }
+            }
+        }
+        svc.importFacility(MANAGER, facility);
+        for (DayOfWeek d : DayOfWeek.values()) svc.setDoctorMinutes(MANAGER, DOCTOR, d, 90);
+
+        DB.inTransaction(() -> {
+            for (int i = 0; i < history; i++) {
+                String pid = residents.get(i % residents.size());
+                svc.doctorAddPrescription(DOCTOR, pid, DAY, "Med" + (i % 50), "10mg", "08:00,20:00");
+                svc.administerMedication(NURSE, DAY, ON_SHIFT, pid, "Med" + (i % 50), "10mg");
+            }
+        });
+        auditLog.flush();
+    }
+
+    @TearDown(Level.Trial)
+    public void drop() throws IOException {
+        patients.close();
+        roster.close();
+        auditLog.close();
+        DB.shutdown();
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(Path.of(file + "-wal"));
+        Files.deleteIfExists(Path.of(file + "-shm"));
+    }
+}
@@ -0,0 +1,44 @@
+package rmit.s4134401.carehome.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// One unit of work per call through CareHomeService, as the UI makes them.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ServiceBench {
+    // pA31 goes to the empty room B6 and back on alternate calls
+    private boolean moved;
+
+    @Benchmark
+    public void movePatient(SeededFacility f){
+        if (moved) f.svc.movePatient(SeededFacility.NURSE, SeededFacility.DAY, SeededFacility.ON_SHIFT, "B", 6, 1, "A", 3, 1);
+        else f.svc.movePatient(SeededFacility.NURSE, SeededFacility.DAY, SeededFacility.ON_SHIFT, "A", 3, 1, "B", 6, 1);
+        moved = !moved;
+    }
+
+    // each call adds a row, so the table grows past `history` over the run
+    @Benchmark
+    public void administerMedication(SeededFacility f){
+        f.svc.administerMedication(SeededFacility.NURSE, SeededFacility.DAY, SeededFacility.ON_SHIFT,
+                "pA41", "Paracetamol", "500mg");
+    }
+
+    @Benchmark
+    public void checkCompliance(SeededFacility f){
+        f.svc.checkCompliance();
+    }
+}
@@ -0,0 +1,97 @@
+package rmit.s4134401.carehome.bench;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import rmit.s4134401.carehome.Bed;
+import rmit.s4134401.carehome.CareHome;
+import rmit.s4134401.carehome.Gender;
+import rmit.s4134401.carehome.Patient;
+import rmit.s4134401.carehome.Prescription;
+import rmit.s4134401.carehome.RosterException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// The in-memory CareHome written to and read back from its serialized file, with every bed
+// filled and `history` prescriptions and administrations (each also an audit entry).
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SnapshotBench {
+    @Param({"1000", "10000"})
+    public int history;
+
+    private CareHome home;
+    private Path saved;
+    private Path scratch;
+
+    @Setup(Level.Trial)
+    public void seed() throws IOException {
+        home = new CareHome();
+        home.addManager("m1", "Bench Manager");
+        home.addDoctor("d1", "Bench Doctor");
+        home.addNurse("n1", "Bench Nurse");
+        for (DayOfWeek d : DayOfWeek.values()) {
+            home.assignNurseShift("m1", "n1", d, true);
+            home.setDoctorMinutes("m1", d, 90);
+        }
+        List<Bed> beds = new ArrayList<>();
+        for (int i = 0; ; i++) {
+            Bed b = home.findFirstVacant();
+            if (b == null) break;
+            // shared rooms take one gender; try the other when the first doesn't fit
+            try {
+                home.admitPatient("m1", new Patient("p" + i, "Resident " + i, Gender.M, false), b);
+            } catch (RosterException e) {
+                home.admitPatient("m1", new Patient("p" + i, "Resident " + i, Gender.F, false), b);
+            }
+            beds.add(b);
+        }
+        for (int i = 0; i < history; i++) {
+            Bed b = beds.get(i % beds.size());
+            Prescription rx = new Prescription(b.getOccupant().id());
+            rx.addLine("Med" + (i % 50), "10mg", "08:00,20:00");
+            home.doctorAddPrescription("d1", b, DayOfWeek.WEDNESDAY, rx);
+            home.administerMedication("n1", b, DayOfWeek.WEDNESDAY, LocalTime.of(10, 0), "Med" + (i % 50), "10mg");
+        }
+        saved = Files.createTempFile("carehome-bench-", ".bin");
+        scratch = Files.createTempFile("carehome-bench-", ".bin");
+        home.saveToFile(saved.toString());
+    }
+
+    @TearDown(Level.Trial)
+    public void drop() throws IOException {
+        Files.deleteIfExists(saved);
+        Files.deleteIfExists(scratch);
+    }
+
+    @Benchmark
+    public void saveToFile(){
+        home.saveToFile(scratch.toString());
+    }
+
+    @Benchmark
+    public CareHome loadFromFile(){
+        return CareHome.loadFromFile(saved.toString());
+    }
+}
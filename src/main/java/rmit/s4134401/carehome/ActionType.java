@@ -1,8 +1,20 @@
-
 package rmit.s4134401.carehome;
 
 public enum ActionType {
     ADD_STAFF, RENAME_STAFF, SET_PASSWORD,
     ADMIT, MOVE, RX_ADD, MED_ADMIN, MED_UPDATE,
-    SHIFT_ASSIGN, SHIFT_REMOVE, COMPLIANCE_CHECK, SET_DOCTOR_MINUTES
+    SHIFT_ASSIGN, SHIFT_REMOVE, COMPLIANCE_CHECK, SET_DOCTOR_MINUTES, IMPORT,
+    // recorded by the desktop app outside CareHomeService
+    DISCHARGE, UPDATE_RESIDENT, MODIFY_STAFF, RESET_PASSWORD, ARCHIVE, SNAPSHOT_SAVE, SNAPSHOT_RESTORE, STATUS,
+    // rows written by older builds under a name that is no longer used
+    LEGACY;
+
+    public static ActionType parse(String name){
+        if (name == null) return LEGACY;
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return LEGACY;
+        }
+    }
 }
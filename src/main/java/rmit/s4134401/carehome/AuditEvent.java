@@ -0,0 +1,78 @@
+package rmit.s4134401.carehome;
+
+import java.io.Serializable;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalTime;
+
+// One audit row. The typed fields are stored in their own columns so they can be queried;
+// details only carries what they don't cover (a dose, a staff member's role and name, ...).
+public final class AuditEvent implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public final long id;            // 0 until stored
+    public final Instant when;
+    public final String staffId;
+    public final ActionType type;
+    public final String patientId;
+    public final Integer bedId;
+    public final Integer fromBedId;  // a MOVE's source bed; bedId is where the patient went
+    public final DayOfWeek day;
+    public final LocalTime time;
+    public final String medicine;
+    public final String details;
+
+    public AuditEvent(long id, Instant when, String staffId, ActionType type, String patientId, Integer bedId,
+                      DayOfWeek day, LocalTime time, String medicine, String details){
+        this(id, when, staffId, type, patientId, bedId, null, day, time, medicine, details);
+    }
+
+    public AuditEvent(long id, Instant when, String staffId, ActionType type, String patientId, Integer bedId,
+                      Integer fromBedId, DayOfWeek day, LocalTime time, String medicine, String details){
+        if (when == null || type == null) throw new IllegalArgumentException("null audit field");
+        this.id = id; this.when = when; this.staffId = staffId; this.type = type;
+        this.patientId = patientId; this.bedId = bedId; this.fromBedId = fromBedId; this.day = day; this.time = time;
+        this.medicine = medicine; this.details = details == null ? "" : details;
+    }
+
+    public static AuditEvent of(ActionType type, String staffId){
+        return new AuditEvent(0, Instant.now(), staffId, type, null, null, null, null, null, "");
+    }
+
+    public AuditEvent patient(String patientId){
+        return new AuditEvent(id, when, staffId, type, patientId, bedId, fromBedId, day, time, medicine, details);
+    }
+    public AuditEvent bed(Integer bedId){
+        return new AuditEvent(id, when, staffId, type, patientId, bedId, fromBedId, day, time, medicine, details);
+    }
+    public AuditEvent movedFrom(Integer fromBedId){
+        return new AuditEvent(id, when, staffId, type, patientId, bedId, fromBedId, day, time, medicine, details);
+    }
+    public AuditEvent at(DayOfWeek day, LocalTime time){
+        return new AuditEvent(id, when, staffId, type, patientId, bedId, fromBedId, day, time, medicine, details);
+    }
+    public AuditEvent medicine(String medicine){
+        return new AuditEvent(id, when, staffId, type, patientId, bedId, fromBedId, day, time, medicine, details);
+    }
+    public AuditEvent details(String details){
+        return new AuditEvent(id, when, staffId, type, patientId, bedId, fromBedId, day, time, medicine, details);
+    }
+    public AuditEvent when(Instant when){
+        return new AuditEvent(id, when, staffId, type, patientId, bedId, fromBedId, day, time, medicine, details);
+    }
+    public AuditEvent withId(long id){
+        return new AuditEvent(id, when, staffId, type, patientId, bedId, fromBedId, day, time, medicine, details);
+    }
+
+    @Override public String toString(){
+        StringBuilder sb = new StringBuilder().append(when).append(" | ").append(staffId).append(" | ").append(type);
+        if (patientId != null) sb.append(" | patient=").append(patientId);
+        if (bedId != null) sb.append(" | bed=").append(bedId);
+        if (fromBedId != null) sb.append(" from ").append(fromBedId);
+        if (day != null) sb.append(" | ").append(day);
+        if (time != null) sb.append(' ').append(time);
+        if (medicine != null) sb.append(" | ").append(medicine);
+        if (!details.isEmpty()) sb.append(" | ").append(details);
+        return sb.toString();
+    }
+}
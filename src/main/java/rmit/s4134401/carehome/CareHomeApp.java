@@ -11,6 +11,8 @@ import javafx.scene.input.KeyCombination;
 import javafx.scene.layout.*;
 import javafx.scene.text.Text;
 import javafx.stage.Stage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import java.time.DayOfWeek;
 import java.time.LocalTime;
@@ -20,6 +22,12 @@ import java.util.List;
 import java.util.Map;
 
 import rmit.s4134401.carehome.service.CareHomeService;
+import rmit.s4134401.carehome.util.ChangeFeed;
+import rmit.s4134401.carehome.util.DayTime;
+import rmit.s4134401.carehome.util.Jfr;
+import rmit.s4134401.carehome.util.Metrics;
+import rmit.s4134401.carehome.repo.*;
+import rmit.s4134401.carehome.repo.cache.*;
 import rmit.s4134401.carehome.repo.jdbc.*;
 
 import java.nio.charset.StandardCharsets;
@@ -28,6 +36,7 @@ import java.nio.file.Path;
 import java.time.OffsetDateTime;
 
 public class CareHomeApp extends Application {
+	private static final Logger log = LoggerFactory.getLogger(CareHomeApp.class);
 
 	private String currentUserId = null;
 	private Role currentUserRole = null;
@@ -45,6 +54,7 @@ public class CareHomeApp extends Application {
 	private MenuItem miChangePw, miResetPw;
 	private MenuItem miUpdateResident;
 	private MenuItem miAddStaff;
+	private MenuItem miImport;
 	private MenuItem miModifyStaff;
 	private MenuItem miRemoveDocMins;
 
@@ -53,46 +63,38 @@ public class CareHomeApp extends Application {
 	private final Label userBadge = new Label("Not signed in");
 
 	private CareHomeService svc;
+	private CachingBedRepository beds;
+	private CachingPatientRepository patients;
+	private CachingNurseRosterRepository roster;
+	private CachingStaffRepository staff;
+	private BatchingAuditRepository auditLog;
+	// DB work started from the UI runs here, never on the FX thread
+	private final UiWorker ui = new UiWorker(2, (what, ex) -> showError(what + " failed", UiWorker.messageOf(ex)),
+			what -> setStatus(what + " cancelled"));
+	// set with -Dcarehome.audit.dir=<dir> to keep the audit trail in segment files instead of SQLite
+	private rmit.s4134401.carehome.repo.file.FileAuditRepository auditFile;
 	private CareHome app = new CareHome();
 
 	private final Text status = new Text("Ready");
 
+	// on the startup task, after the schema is in place. Each account is checked and then added
+	// through the service, which commits on its own; nothing is held open across the two.
 	private void ensureDemoAccounts() {
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get()) {
-			try (java.sql.PreparedStatement ps = c.prepareStatement("INSERT INTO staff(id,name,role,password) "
-					+ "SELECT 'm1', ?, 'MANAGER', 'm1' " + "WHERE NOT EXISTS (SELECT 1 FROM staff WHERE id='m1')")) {
-				ps.setString(1, DEFAULT_MANAGER_NAME);
-				ps.executeUpdate();
-			}
-
-			try (java.sql.PreparedStatement ps = c.prepareStatement("UPDATE staff SET password=? WHERE id=?")) {
-				ps.setString(1, "m1");
-				ps.setString(2, "m1");
-				ps.executeUpdate();
-			}
-
-			try (java.sql.PreparedStatement check = c.prepareStatement("SELECT 1 FROM staff WHERE id='d1' LIMIT 1");
-					java.sql.ResultSet rs = check.executeQuery()) {
-				if (!rs.next()) {
-					svc.addDoctor("d1", "Doctor One");
-					try (java.sql.PreparedStatement pw = c
-							.prepareStatement("UPDATE staff SET password='d1' WHERE id='d1'")) {
-						pw.executeUpdate();
-					}
-				}
-			}
+		ensureDemoAccount(DEFAULT_MANAGER_ID, () -> svc.addManager(DEFAULT_MANAGER_ID, DEFAULT_MANAGER_NAME), true);
+		ensureDemoAccount("d1", () -> svc.addDoctor("d1", "Doctor One"), false);
+		ensureDemoAccount("n1", () -> svc.addNurse("n1", "Nurse One"), false);
+	}
 
-			try (java.sql.PreparedStatement check = c.prepareStatement("SELECT 1 FROM staff WHERE id='n1' LIMIT 1");
-					java.sql.ResultSet rs = check.executeQuery()) {
-				if (!rs.next()) {
-					svc.addNurse("n1", "Nurse One");
-					try (java.sql.PreparedStatement pw = c
-							.prepareStatement("UPDATE staff SET password='n1' WHERE id='n1'")) {
-						pw.executeUpdate();
-					}
-				}
-			}
-		} catch (Exception ignore) {
+	// a missing account gets its id as password; resetPassword sets that again on every start
+	private void ensureDemoAccount(String id, Runnable add, boolean resetPassword) {
+		try {
+			boolean missing = staff.find(id).isEmpty();
+			if (missing)
+				add.run();
+			if (missing || resetPassword)
+				staff.setPassword(id, id);
+		} catch (RuntimeException e) {
+			log.warn("demo account {} not set up", id, e);
 		}
 	}
 
@@ -104,80 +106,80 @@ public class CareHomeApp extends Application {
 		};
 	}
 
-	private void ensureBedsLayout() {
-		String[] wards = { "A", "B" };
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get()) {
-			for (String w : wards) {
-				for (int room = 1; room <= 6; room++) {
-					int need = bedsInRoom(room);
-					for (int bed = 1; bed <= need; bed++) {
-						try (java.sql.PreparedStatement chk = c.prepareStatement(
-								"SELECT id FROM beds WHERE ward=? AND room=? AND bed_num=? LIMIT 1")) {
-							chk.setString(1, w);
-							chk.setInt(2, room);
-							chk.setInt(3, bed);
-							try (java.sql.ResultSet rs = chk.executeQuery()) {
-								if (!rs.next()) {
-									try (java.sql.PreparedStatement ins = c
-											.prepareStatement("INSERT INTO beds(ward, room, bed_num) VALUES(?,?,?)")) {
-										ins.setString(1, w);
-										ins.setInt(2, room);
-										ins.setInt(3, bed);
-										ins.executeUpdate();
-									}
-								}
-							}
-						}
-					}
-				}
+	@Override
+	public void start(Stage stage) {
+		ProgressIndicator spinner = new ProgressIndicator();
+		Label step = new Label();
+		VBox splash = new VBox(12, spinner, step);
+		splash.setAlignment(Pos.CENTER);
+		splash.setPadding(new Insets(24));
+		stage.setTitle("Resident HealthCare System — S2 2025");
+		stage.setScene(new Scene(splash, 360, 180));
+		stage.show();
+		ui.probeFxThread();
+
+		// opening, migrating and seeding can take a while on a large or busy file; the window
+		// stays responsive and shows which step it is on
+		javafx.concurrent.Task<Void> open = new javafx.concurrent.Task<>() {
+			@Override
+			protected Void call() {
+				openDatabase(this::updateMessage);
+				return null;
 			}
-		} catch (Exception ignore) {
-		}
-	}
-
-	private void ensureCoreTables() {
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
-				java.sql.Statement st = c.createStatement()) {
-
-			st.execute("""
-					    CREATE TABLE IF NOT EXISTS nurse_shifts(
-					      id INTEGER PRIMARY KEY AUTOINCREMENT,
-					      nurse_id TEXT NOT NULL,
-					      day TEXT NOT NULL,
-					      start TEXT NOT NULL,
-					      end TEXT NOT NULL
-					    )
-					""");
-
-			st.execute("""
-					    CREATE TABLE IF NOT EXISTS doctor_minutes(
-					      id INTEGER PRIMARY KEY AUTOINCREMENT,
-					      doctor_id TEXT NOT NULL,
-					      day TEXT NOT NULL,
-					      minutes INTEGER NOT NULL
-					    )
-					""");
-		} catch (Exception ignore) {
-		}
+		};
+		step.textProperty().bind(open.messageProperty());
+		open.setOnSucceeded(e -> signIn(stage));
+		open.setOnFailed(e -> {
+			log.error("startup failed", open.getException());
+			showError("Startup failed", UiWorker.messageOf(open.getException()));
+			Platform.exit();
+		});
+		ui.execute("Opening database", open, false);
 	}
 
-	@Override
-	public void start(Stage stage) {
+	// runs on the startup task; everything after it happens on the FX thread
+	private void openDatabase(java.util.function.Consumer<String> step) {
+		step.accept("Opening database…");
 		rmit.s4134401.carehome.util.DB.init("carehome.db");
-		ensureCoreTables();
-		ensureBedsLayout();
-		ensureAuditTable();
-
-		svc = new CareHomeService(new JdbcStaffRepository(), new JdbcBedRepository(), new JdbcPatientRepository(),
-				new JdbcNurseRosterRepository(), new JdbcDoctorMinutesRepository(), new JdbcAuditRepository(),
-				new JdbcPrescriptionRepository(), new JdbcAdministrationRepository());
-		try {
-			svc.addManager(DEFAULT_MANAGER_ID, DEFAULT_MANAGER_NAME);
-		} catch (RuntimeException ignore) {
+		step.accept("Updating schema…");
+		rmit.s4134401.carehome.util.SchemaMigrator.ensure();
+
+		step.accept("Loading…");
+		auditLog = new BatchingAuditRepository();
+		String auditDir = System.getProperty("carehome.audit.dir");
+		if (auditDir != null && !auditDir.isBlank()) {
+			auditFile = new rmit.s4134401.carehome.repo.file.FileAuditRepository(java.nio.file.Path.of(auditDir));
+			rmit.s4134401.carehome.util.DB.onShutdown(auditFile::close);
 		}
+		beds = new CachingBedRepository(new JdbcBedRepository());
+		patients = new CachingPatientRepository(new JdbcPatientRepository());
+		roster = new CachingNurseRosterRepository(new JdbcNurseRosterRepository());
+		staff = new CachingStaffRepository(new JdbcStaffRepository());
+		rmit.s4134401.carehome.util.DB.onShutdown(patients::close);
+		rmit.s4134401.carehome.util.DB.onShutdown(roster::close);
+		rmit.s4134401.carehome.util.DB.onShutdown(staff::close);
+		// the service's repository calls are timed as repo.<name>.<method>
+		svc = new CareHomeService(
+				Metrics.instrument(StaffRepository.class, staff, "repo.staff"),
+				Metrics.instrument(BedRepository.class, beds, "repo.beds"),
+				Metrics.instrument(PatientRepository.class, patients, "repo.patients"),
+				Metrics.instrument(NurseRosterRepository.class, roster, "repo.roster"),
+				Metrics.instrument(DoctorMinutesRepository.class, new JdbcDoctorMinutesRepository(), "repo.doctorMinutes"),
+				Metrics.instrument(AuditRepository.class, auditFile != null ? auditFile : auditLog, "repo.audit"),
+				Metrics.instrument(PrescriptionRepository.class, new JdbcPrescriptionRepository(), "repo.prescriptions"),
+				Metrics.instrument(AdministrationRepository.class, new JdbcAdministrationRepository(), "repo.administrations"));
+		Metrics.registerJmx();
+		// -Dcarehome.metrics.file= (empty) turns the dump off
+		String metricsFile = System.getProperty("carehome.metrics.file", "carehome-metrics.txt");
+		if (!metricsFile.isBlank())
+			Metrics.startDump(Path.of(metricsFile), Long.getLong("carehome.metrics.periodSeconds", 60));
+
+		step.accept("Checking accounts…");
 		ensureBootstrapManagerPassword();
 		ensureDemoAccounts();
+	}
 
+	private void signIn(Stage stage) {
 		if (!promptLogin()) {
 			Platform.exit();
 			return;
@@ -193,98 +195,103 @@ public class CareHomeApp extends Application {
 		updateUserBadge();
 
 		Scene scene = new Scene(root, 1000, 650);
-		stage.setTitle("Resident HealthCare System — S2 2025");
 		stage.setScene(scene);
+		stage.centerOnScreen();
 		stage.setOnCloseRequest(ev -> {
 			try {
 				savePatientsSnapshot("patients_snapshot.json");
 			} catch (Exception ignore) {
 			}
 		});
-		stage.show();
 
 		setStatus("Logged in: " + currentUserId + " (" + currentUserRole + ")");
 		refreshBeds();
+		changes = ChangeFeed.subscribe(ChangeFeed.lastSeq(), this::onChange);
+		ChangeFeed.watchExternalWrites(java.time.Duration.ofMillis(Long.getLong("carehome.feed.pollMillis", 1000)));
 	}
 
+	// the dialog stays up while the credentials are checked on a worker, so a wrong password or a
+	// database error leaves it open to try again
 	private boolean promptLogin() {
-		while (true) {
-			Dialog<Credentials> d = new Dialog<>();
-			d.setTitle("Login");
-			d.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
-
-			TextField tfId = new TextField();
-			tfId.setPromptText("Staff ID (e.g., m1, d1, n1)");
-			PasswordField tfPw = new PasswordField();
-			tfPw.setPromptText("Password");
-
-			Label demo = new Label("Demo accounts for testing:\n" + "Manager  →  ID: m1   Password: m1\n"
-					+ "Doctor   →  ID: d1   Password: d1\n" + "Nurse    →  ID: n1   Password: n1");
-			demo.setWrapText(true);
-			demo.setStyle("-fx-font-size: 11px; -fx-text-fill: #666;");
-
-			GridPane form = formGrid(new Label("Staff ID:"), tfId, new Label("Password:"), tfPw);
-			VBox box = new VBox(8, form, demo);
-			box.setPadding(new Insets(10));
-
-			d.getDialogPane().setContent(box);
-			d.setResultConverter(
-					btn -> btn == ButtonType.OK ? new Credentials(tfId.getText().trim(), tfPw.getText()) : null);
-
-			java.util.Optional<Credentials> res = d.showAndWait();
-			if (!res.isPresent())
-				return false;
-
-			String id = res.get().id;
-			String pw = res.get().pw;
-
-			Role role = authenticate(id, pw);
-			if (role == null) {
-				showError("Login failed", "Invalid ID or password.");
-				continue;
-			}
-
-			currentUserId = id;
-			currentUserRole = role;
+		Dialog<SignedIn> d = new Dialog<>();
+		d.setTitle("Login");
+		d.getDialogPane().getButtonTypes().addAll(ButtonType.OK, ButtonType.CANCEL);
 
-			Platform.runLater(() -> {
-				applyRolePermissions();
-				updateUserBadge();
+		TextField tfId = new TextField();
+		tfId.setPromptText("Staff ID (e.g., m1, d1, n1)");
+		PasswordField tfPw = new PasswordField();
+		tfPw.setPromptText("Password");
+
+		Label demo = new Label("Demo accounts for testing:\n" + "Manager  →  ID: m1   Password: m1\n"
+				+ "Doctor   →  ID: d1   Password: d1\n" + "Nurse    →  ID: n1   Password: n1");
+		demo.setWrapText(true);
+		demo.setStyle("-fx-font-size: 11px; -fx-text-fill: #666;");
+		Label failed = new Label();
+		failed.setStyle("-fx-text-fill: #b00020;");
+
+		GridPane form = formGrid(new Label("Staff ID:"), tfId, new Label("Password:"), tfPw);
+		VBox box = new VBox(8, form, failed, demo);
+		box.setPadding(new Insets(10));
+
+		d.getDialogPane().setContent(box);
+		// OK is handled below; only Cancel (or closing the window) gets here
+		d.setResultConverter(btn -> null);
+
+		Button ok = (Button) d.getDialogPane().lookupButton(ButtonType.OK);
+		ok.addEventFilter(javafx.event.ActionEvent.ACTION, ev -> {
+			ev.consume();
+			String id = tfId.getText().trim();
+			String pw = tfPw.getText();
+			failed.setText("");
+			javafx.concurrent.Task<Role> t = ui.load("Signing in", () -> authenticate(id, pw), role -> {
+				if (role == null) {
+					failed.setText("Invalid ID or password.");
+					return;
+				}
+				d.setResult(new SignedIn(id, role));
+				d.close();
 			});
+			ok.disableProperty().bind(t.runningProperty());
+		});
 
-			return true;
-		}
+		java.util.Optional<SignedIn> res = d.showAndWait();
+		if (!res.isPresent())
+			return false;
+
+		currentUserId = res.get().id;
+		currentUserRole = res.get().role;
+
+		Platform.runLater(() -> {
+			applyRolePermissions();
+			updateUserBadge();
+		});
+
+		return true;
 	}
 
-	private static final class Credentials {
+	private static final class SignedIn {
 		final String id;
-		final String pw;
+		final Role role;
 
-		Credentials(String i, String p) {
+		SignedIn(String i, Role r) {
 			id = i;
-			pw = p;
+			role = r;
 		}
 	}
 
 	private Role getRoleFor(String id) {
-		String sql = "SELECT role FROM staff WHERE id = ? LIMIT 1";
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
-				java.sql.PreparedStatement ps = c.prepareStatement(sql)) {
-			ps.setString(1, id.trim());
-			try (java.sql.ResultSet rs = ps.executeQuery()) {
-				if (!rs.next())
-					return null;
-				return Role.valueOf(rs.getString(1));
-			}
-		} catch (Exception e) {
+		try {
+			return staff.roleOf(id.trim()).orElse(null);
+		} catch (RuntimeException e) {
 			showError("DB Error", e.getMessage());
 			return null;
 		}
 	}
 
+	// on a worker (see promptLogin); null for a wrong id or password
 	private Role authenticate(String id, String pw) {
 		String sql = "SELECT role FROM staff WHERE id=? AND password=? LIMIT 1";
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
+		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.read();
 				java.sql.PreparedStatement ps = c.prepareStatement(sql)) {
 			ps.setString(1, id.trim());
 			ps.setString(2, pw.trim());
@@ -293,9 +300,8 @@ public class CareHomeApp extends Application {
 					return null;
 				return Role.valueOf(rs.getString("role"));
 			}
-		} catch (Exception e) {
-			showError("DB Error", e.getMessage());
-			return null;
+		} catch (java.sql.SQLException e) {
+			throw new RuntimeException("authenticate failed: " + e.getMessage(), e);
 		}
 	}
 
@@ -306,7 +312,8 @@ public class CareHomeApp extends Application {
 			ps.setString(1, DEFAULT_MANAGER_BOOTSTRAP_PASSWORD);
 			ps.setString(2, DEFAULT_MANAGER_ID);
 			ps.executeUpdate();
-		} catch (Exception ignore) {
+		} catch (java.sql.SQLException e) {
+			log.warn("bootstrap manager password not set", e);
 		}
 	}
 
@@ -364,6 +371,8 @@ public class CareHomeApp extends Application {
 
 			if (miAddStaff != null)
 				miAddStaff.setDisable(true);
+			if (miImport != null)
+				miImport.setDisable(true);
 			if (miModifyStaff != null)
 				miModifyStaff.setDisable(true);
 			return;
@@ -376,6 +385,8 @@ public class CareHomeApp extends Application {
 		// Staff admin (manager only)
 		if (miAddStaff != null)
 			miAddStaff.setDisable(!isMgr);
+		if (miImport != null)
+			miImport.setDisable(!isMgr);
 		if (miModifyStaff != null)
 			miModifyStaff.setDisable(!isMgr);
 		if (miSetDocMins != null)
@@ -468,25 +479,23 @@ public class CareHomeApp extends Application {
 				showError("Add Staff", "ID, name and password are required.");
 				return;
 			}
-			try {
-				Role r = role.getValue();
+			Role r = role.getValue();
+			String sid = id.getText().trim(), nm = name.getText().trim(), password = pw.getText().trim();
+			ui.submit("Add Staff", () -> {
 				switch (r) {
-				case MANAGER -> svc.addManager(id.getText().trim(), name.getText().trim());
-				case DOCTOR -> svc.addDoctor(id.getText().trim(), name.getText().trim());
-				case NURSE -> svc.addNurse(id.getText().trim(), name.getText().trim());
+				case MANAGER -> svc.addManager(sid, nm);
+				case DOCTOR -> svc.addDoctor(sid, nm);
+				case NURSE -> svc.addNurse(sid, nm);
 				}
 				try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
 						java.sql.PreparedStatement ps = c.prepareStatement("UPDATE staff SET password=? WHERE id=?")) {
-					ps.setString(1, pw.getText().trim());
-					ps.setString(2, id.getText().trim());
+					ps.setString(1, password);
+					ps.setString(2, sid);
 					ps.executeUpdate();
 				}
-				setStatus("Added " + r + ": " + id.getText().trim());
-				audit("ADD_STAFF_UI", "role=" + r + " id=" + id.getText().trim());
-			} catch (Exception ex) {
-				showError("Add Staff failed", ex.getMessage());
-			}
-
+				audit(AuditEvent.of(ActionType.ADD_STAFF, sid).details(r.name()));
+				return null;
+			}, v -> setStatus("Added " + r + ": " + sid));
 		});
 
 	}
@@ -529,67 +538,66 @@ public class CareHomeApp extends Application {
 		staffId.focusedProperty().addListener((o, was, isNow) -> {
 			if (!isNow && !staffId.getText().trim().isEmpty()) {
 				String sid = staffId.getText().trim();
-				try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
-						java.sql.PreparedStatement ps = c
-								.prepareStatement("SELECT name, role FROM staff WHERE id=? LIMIT 1")) {
-					ps.setString(1, sid);
-					try (java.sql.ResultSet rs = ps.executeQuery()) {
-						if (rs.next()) {
-							name.setText(rs.getString(1));
-							role.getSelectionModel().select(Role.valueOf(rs.getString(2)));
-						} else {
-							name.clear();
+				ui.load("Loading staff", () -> {
+					try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.read();
+							java.sql.PreparedStatement ps = c
+									.prepareStatement("SELECT name, role FROM staff WHERE id=? LIMIT 1")) {
+						ps.setString(1, sid);
+						try (java.sql.ResultSet rs = ps.executeQuery()) {
+							return rs.next() ? new String[] { rs.getString(1), rs.getString(2) } : null;
 						}
 					}
-				} catch (Exception ignore) {
-				}
+				}, found -> {
+					if (found != null) {
+						name.setText(found[0]);
+						role.getSelectionModel().select(Role.valueOf(found[1]));
+					} else {
+						name.clear();
+					}
+				});
 			}
 		});
 
 		btnAssign.setOnAction(e -> {
-			try {
-				if (!nurseExists(staffId.getText())) {
-					showError("Assign Shift", "Nurse '" + staffId.getText() + "' does not exist.");
-					return;
-				}
-				boolean shiftA = nsShift.getSelectionModel().getSelectedIndex() == 0;
-				svc.assignNurseShift(currentUserId, staffId.getText().trim(), nsDay.getValue(), shiftA);
-				setStatus("Shift assigned to " + staffId.getText().trim());
-			} catch (Exception ex) {
-				showError("Assign Shift", ex.getMessage());
-			}
+			String nurse = staffId.getText().trim();
+			DayOfWeek dy = nsDay.getValue();
+			boolean shiftA = nsShift.getSelectionModel().getSelectedIndex() == 0;
+			ui.submit("Assign Shift", () -> {
+				if (!nurseExists(nurse))
+					throw new IllegalArgumentException("Nurse '" + nurse + "' does not exist.");
+				svc.assignNurseShift(currentUserId, nurse, dy, shiftA);
+				return null;
+			}, v -> setStatus("Shift assigned to " + nurse));
 		});
 
 		btnRemove.setOnAction(e -> {
-			try {
-				if (!nurseExists(staffId.getText())) {
-					showError("Remove Shift", "Nurse '" + staffId.getText() + "' does not exist.");
-					return;
-				}
-				boolean shiftA = nsShift.getSelectionModel().getSelectedIndex() == 0;
-				svc.removeNurseShift(currentUserId, staffId.getText().trim(), nsDay.getValue(), shiftA);
-				setStatus("Shift removed for " + staffId.getText().trim());
-			} catch (Exception ex) {
-				showError("Remove Shift", ex.getMessage());
-			}
+			String nurse = staffId.getText().trim();
+			DayOfWeek dy = nsDay.getValue();
+			boolean shiftA = nsShift.getSelectionModel().getSelectedIndex() == 0;
+			ui.submit("Remove Shift", () -> {
+				if (!nurseExists(nurse))
+					throw new IllegalArgumentException("Nurse '" + nurse + "' does not exist.");
+				svc.removeNurseShift(currentUserId, nurse, dy, shiftA);
+				return null;
+			}, v -> setStatus("Shift removed for " + nurse));
 		});
 
 		btnSetMinutes.setOnAction(e -> {
+			String docId = staffId.getText().trim();
+			DayOfWeek dy = dmDay.getValue();
+			int mins;
 			try {
-				String docId = staffId.getText().trim();
-				if (!doctorExists(docId)) {
-					showError("Doctor Minutes", "Doctor '" + docId + "' does not exist.");
-					return;
-				}
-				int mins = Integer.parseInt(dmMinutes.getText().trim());
-				svc.setDoctorMinutes(currentUserId, staffId.getText().trim(), dmDay.getValue(),
-						Integer.parseInt(dmMinutes.getText().trim()));
-				setStatus("Doctor minutes set for " + docId + " on " + dmDay.getValue() + " = " + mins);
+				mins = Integer.parseInt(dmMinutes.getText().trim());
 			} catch (NumberFormatException nfe) {
 				showError("Doctor Minutes", "Enter a number in Minutes.");
-			} catch (Exception ex) {
-				showError("Doctor Minutes", ex.getMessage());
+				return;
 			}
+			ui.submit("Doctor Minutes", () -> {
+				if (!doctorExists(docId))
+					throw new IllegalArgumentException("Doctor '" + docId + "' does not exist.");
+				svc.setDoctorMinutes(currentUserId, docId, dy, mins);
+				return null;
+			}, v -> setStatus("Doctor minutes set for " + docId + " on " + dy + " = " + mins));
 		});
 
 		GridPane gp = new GridPane();
@@ -623,33 +631,38 @@ public class CareHomeApp extends Application {
 		d.showAndWait().ifPresent(ok -> {
 			if (!ok)
 				return;
-			try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get()) {
-				try (java.sql.PreparedStatement ps = c.prepareStatement("UPDATE staff SET name=?, role=? WHERE id=?")) {
-					ps.setString(1, name.getText().trim());
-					ps.setString(2, role.getValue().name());
-					ps.setString(3, staffId.getText().trim());
-					int rows = ps.executeUpdate();
-					if (rows == 0) {
-						showError("Modify Staff", "No such staff: " + staffId.getText().trim());
-						return;
+			String sid = staffId.getText().trim(), nm = name.getText().trim(), password = newPw.getText().trim();
+			Role newRole = role.getValue();
+			ui.submit("Modify Staff", () -> {
+				try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get()) {
+					try (java.sql.PreparedStatement ps = c
+							.prepareStatement("UPDATE staff SET name=?, role=? WHERE id=?")) {
+						ps.setString(1, nm);
+						ps.setString(2, newRole.name());
+						ps.setString(3, sid);
+						if (ps.executeUpdate() == 0)
+							throw new IllegalArgumentException("No such staff: " + sid);
 					}
-				}
-				if (!newPw.getText().trim().isEmpty()) {
-					try (java.sql.PreparedStatement ps = c.prepareStatement("UPDATE staff SET password=? WHERE id=?")) {
-						ps.setString(1, newPw.getText().trim());
-						ps.setString(2, staffId.getText().trim());
-						ps.executeUpdate();
+					if (!password.isEmpty()) {
+						try (java.sql.PreparedStatement ps = c
+								.prepareStatement("UPDATE staff SET password=? WHERE id=?")) {
+							ps.setString(1, password);
+							ps.setString(2, sid);
+							ps.executeUpdate();
+						}
 					}
 				}
-				setStatus("Updated staff: " + staffId.getText().trim());
-				if (staffId.getText().trim().equals(currentUserId))
+				// name and role changed outside the repository
+				staff.recheck();
+				return null;
+			}, v -> {
+				setStatus("Updated staff: " + sid);
+				if (sid.equals(currentUserId))
 					updateUserBadge();
-			} catch (Exception ex) {
-				showError("Modify Staff", ex.getMessage());
-			}
+			});
 		});
 
-		audit("MODIFY_STAFF", "staff_id=" + staffId.getText().trim() + " role=" + role.getValue().name()
+		audit(ActionType.MODIFY_STAFF, staffId.getText().trim() + " " + role.getValue().name()
 				+ (newPw.getText().trim().isEmpty() ? "" : " [password changed]"));
 
 	}
@@ -658,16 +671,16 @@ public class CareHomeApp extends Application {
 		StringBuilder sb = new StringBuilder("--- Nurse roster (week) ---\n");
 		for (DayOfWeek d : DayOfWeek.values()) {
 			sb.append("\n== ").append(d).append(" ==\n");
-			String sql = "SELECT nurse_id, start, end FROM nurse_shifts WHERE day=? ORDER BY nurse_id";
-			try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
+			String sql = "SELECT nurse_id, start_min, end_min FROM nurse_shifts WHERE day=? ORDER BY nurse_id";
+			try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.read();
 					java.sql.PreparedStatement ps = c.prepareStatement(sql)) {
-				ps.setString(1, d.name());
+				ps.setInt(1, DayTime.day(d));
 				try (java.sql.ResultSet rs = ps.executeQuery()) {
 					boolean any = false;
 					while (rs.next()) {
 						any = true;
-						sb.append(rs.getString("nurse_id")).append("  ").append(rs.getString("start")).append("–")
-								.append(rs.getString("end")).append('\n');
+						sb.append(rs.getString("nurse_id")).append("  ").append(DayTime.time(rs.getInt("start_min"))).append("–")
+								.append(DayTime.time(rs.getInt("end_min"))).append('\n');
 					}
 					if (!any)
 						sb.append("(no nurse on roster)\n");
@@ -688,12 +701,12 @@ public class CareHomeApp extends Application {
 				    WHERE doctor_id IS NOT NULL AND TRIM(doctor_id) <> ''
 				    GROUP BY day
 				""";
-		Map<String, Integer> totals = new HashMap<>();
-		try (var c = rmit.s4134401.carehome.util.DB.get();
+		Map<DayOfWeek, Integer> totals = new HashMap<>();
+		try (var c = rmit.s4134401.carehome.util.DB.read();
 				var st = c.createStatement();
 				var rs = st.executeQuery(totalsSql)) {
 			while (rs.next())
-				totals.put(rs.getString("day"), rs.getInt("mins"));
+				totals.put(DayTime.day(rs.getInt("day")), rs.getInt("mins"));
 		} catch (Exception ignore) {
 		}
 
@@ -705,12 +718,12 @@ public class CareHomeApp extends Application {
 				    GROUP BY dm.day, dm.doctor_id, s.name
 				    ORDER BY dm.day, dm.doctor_id
 				""";
-		Map<String, List<String>> perDay = new HashMap<>();
-		try (var c = rmit.s4134401.carehome.util.DB.get();
+		Map<DayOfWeek, List<String>> perDay = new HashMap<>();
+		try (var c = rmit.s4134401.carehome.util.DB.read();
 				var st = c.createStatement();
 				var rs = st.executeQuery(perDocSql)) {
 			while (rs.next()) {
-				String day = rs.getString("day");
+				DayOfWeek day = DayTime.day(rs.getInt("day"));
 				String id = rs.getString("doctor_id");
 				String nm = rs.getString("name");
 				int m = rs.getInt("mins");
@@ -720,9 +733,9 @@ public class CareHomeApp extends Application {
 		}
 
 		for (DayOfWeek d : DayOfWeek.values()) {
-			int m = totals.getOrDefault(d.name(), 0);
+			int m = totals.getOrDefault(d, 0);
 			sb.append(d).append(" : ").append(m).append(" min ").append(m < 60 ? "[Below 60]" : "").append('\n');
-			List<String> lines = perDay.get(d.name());
+			List<String> lines = perDay.get(d);
 			if (lines != null)
 				for (String ln : lines)
 					sb.append(ln).append('\n');
@@ -736,17 +749,16 @@ public class CareHomeApp extends Application {
 
 	private boolean doctorOnDuty(String docId, DayOfWeek day, int requiredMinutes) {
 		String sql = "SELECT COALESCE(SUM(minutes),0) FROM doctor_minutes WHERE doctor_id=? AND day=?";
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
+		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.read();
 				java.sql.PreparedStatement ps = c.prepareStatement(sql)) {
 			ps.setString(1, docId.trim());
-			ps.setString(2, day.name());
+			ps.setInt(2, DayTime.day(day));
 			try (java.sql.ResultSet rs = ps.executeQuery()) {
 				int mins = rs.next() ? rs.getInt(1) : 0;
 				return mins >= requiredMinutes;
 			}
-		} catch (Exception e) {
-			showError("DB Error", e.getMessage());
-			return false;
+		} catch (java.sql.SQLException e) {
+			throw new RuntimeException("roster lookup failed: " + e.getMessage(), e);
 		}
 	}
 
@@ -772,29 +784,32 @@ public class CareHomeApp extends Application {
 		CheckBox iso = new CheckBox("Requires isolation");
 
 		java.util.function.Consumer<Void> preload = v -> {
-			try {
-				String pid = svc.patientIdInBed(ward.getValue(), room.getValue(), bed.getValue());
-				if (pid == null) {
-					name.clear();
-					iso.setSelected(false);
-					return;
-				}
-				try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
+			String w = ward.getValue();
+			int rm = room.getValue(), bd = bed.getValue();
+			ui.load("Loading resident", () -> {
+				String pid = svc.patientIdInBed(w, rm, bd);
+				if (pid == null)
+					return null;
+				try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.read();
 						java.sql.PreparedStatement ps = c
 								.prepareStatement("SELECT full_name, gender, isolation FROM patients WHERE id=?")) {
 					ps.setString(1, pid);
 					try (java.sql.ResultSet rs = ps.executeQuery()) {
-						if (rs.next()) {
-							name.setText(rs.getString("full_name"));
-							String g = rs.getString("gender");
-							if (g != null)
-								gender.getSelectionModel().select(Gender.valueOf(g));
-							iso.setSelected(rs.getInt("isolation") == 1);
-						}
+						return rs.next() ? new Triple<String, String, Boolean>(rs.getString("full_name"), rs.getString("gender"),
+								rs.getInt("isolation") == 1) : null;
 					}
 				}
-			} catch (Exception ignore) {
-			}
+			}, p -> {
+				if (p == null) {
+					name.clear();
+					iso.setSelected(false);
+					return;
+				}
+				name.setText(p.a);
+				if (p.b != null)
+					gender.getSelectionModel().select(Gender.valueOf(p.b));
+				iso.setSelected(p.c);
+			});
 		};
 
 		ward.focusedProperty().addListener((o, a, b) -> {
@@ -818,42 +833,50 @@ public class CareHomeApp extends Application {
 		d.showAndWait().ifPresent(ok -> {
 			if (!ok)
 				return;
-			try {
-				String pid = svc.patientIdInBed(ward.getValue(), room.getValue(), bed.getValue());
-				if (pid == null) {
-					showError("Update Resident", "Selected bed is vacant.");
-					return;
-				}
+			String w = ward.getValue();
+			int rm = room.getValue(), bd = bed.getValue();
+			String nm = name.getText().trim();
+			Gender g = gender.getValue();
+			boolean isolation = iso.isSelected();
+			ui.submit("Update Resident", () -> {
+				String pid = svc.patientIdInBed(w, rm, bd);
+				if (pid == null)
+					throw new IllegalArgumentException("Selected bed is vacant.");
 				try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
 						java.sql.PreparedStatement ps = c.prepareStatement(
 								"UPDATE patients SET full_name=?, gender=?, isolation=? WHERE id=?")) {
-					ps.setString(1, name.getText().trim());
-					ps.setString(2, gender.getValue().name());
-					ps.setInt(3, iso.isSelected() ? 1 : 0);
+					ps.setString(1, nm);
+					ps.setString(2, g.name());
+					ps.setInt(3, isolation ? 1 : 0);
 					ps.setString(4, pid);
 					ps.executeUpdate();
 				}
+				ChangeFeed.publish(Change.Kind.PATIENT_UPDATED, pid, null);
+				audit(AuditEvent.of(ActionType.UPDATE_RESIDENT, currentUserId).patient(pid)
+						.details(g.name() + (isolation ? " isolation" : "")));
+				return pid;
+			}, pid -> {
 				info("Update Resident", "Updated " + pid);
-				audit("UPDATE_RESIDENT", "pid=" + pid + " name=" + name.getText().trim() + " gender="
-						+ gender.getValue().name() + " iso=" + (iso.isSelected() ? "1" : "0"));
-				refreshBeds();
-			} catch (Exception ex) {
-				showError("Update Resident", ex.getMessage());
-			}
+			});
 		});
 	}
 
 	private void showRosterDashboard() {
+		ui.load("Roster Dashboard", () -> new String[] { teamRosterSummaryFromDB(), doctorMinutesSummaryFromDB() },
+				texts -> showRosterDashboard(texts[0], texts[1]));
+	}
+
+	private void showRosterDashboard(String teamText, String doctorText) {
 		TabPane tabs = new TabPane();
 
-		TextArea team = new TextArea(teamRosterSummaryFromDB());
+		TextArea team = new TextArea(teamText);
 		team.setEditable(false);
 		team.setWrapText(true);
 		BorderPane p1 = new BorderPane(team);
 		Tab t1 = new Tab("Team (Week)", p1);
 		t1.setClosable(false);
 
-		TextArea docs = new TextArea(doctorMinutesSummaryFromDB());
+		TextArea docs = new TextArea(doctorText);
 		docs.setEditable(false);
 		docs.setWrapText(true);
 		BorderPane p2 = new BorderPane(docs);
@@ -899,28 +922,43 @@ public class CareHomeApp extends Application {
 			String base = ward + "-R" + room + "-B" + bedNum;
 			return isVacant() ? base + "\n[vacant]" : base + "\n" + patientId;
 		}
+
+		// everything the bed button shows; a refresh leaves the button alone when this is unchanged
+		boolean sameAs(BedCell o) {
+			return id == o.id && room == o.room && bedNum == o.bedNum && isolation == o.isolation
+					&& gender == o.gender && java.util.Objects.equals(ward, o.ward)
+					&& java.util.Objects.equals(patientId, o.patientId);
+		}
 	}
 
-	private java.util.List<BedCell> loadBedCellsFromDB() {
+	// all beds when ids is null, otherwise just those
+	private java.util.List<BedCell> loadBedCellsFromDB(java.util.Set<Integer> ids) {
 		java.util.List<BedCell> out = new java.util.ArrayList<>();
+		String where = ids == null ? ""
+				: "WHERE b.id IN (" + String.join(",", java.util.Collections.nCopies(ids.size(), "?")) + ") ";
 		String sql = "SELECT b.id, b.ward, b.room, b.bed_num, p.id AS pid, p.gender, p.isolation " + "FROM beds b "
-				+ "LEFT JOIN patients p ON p.bed_id = b.id " + "ORDER BY b.ward, b.room, b.bed_num";
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
-				java.sql.Statement st = c.createStatement();
-				java.sql.ResultSet rs = st.executeQuery(sql)) {
-			while (rs.next()) {
-				int id = rs.getInt("id");
-				String ward = rs.getString("ward");
-				int room = rs.getInt("room");
-				int bedNum = rs.getInt("bed_num");
-				String pid = rs.getString("pid");
-				String gstr = rs.getString("gender");
-				Gender g = (pid == null || gstr == null) ? null : Gender.valueOf(gstr.toUpperCase());
-				boolean iso = (pid != null) && rs.getInt("isolation") == 1;
-				out.add(new BedCell(id, ward, room, bedNum, pid, g, iso));
+				+ "LEFT JOIN patients p ON p.bed_id = b.id " + where + "ORDER BY b.ward, b.room, b.bed_num";
+		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.read();
+				java.sql.PreparedStatement ps = c.prepareStatement(sql)) {
+			int i = 1;
+			if (ids != null)
+				for (int id : ids)
+					ps.setInt(i++, id);
+			try (java.sql.ResultSet rs = ps.executeQuery()) {
+				while (rs.next()) {
+					int id = rs.getInt("id");
+					String ward = rs.getString("ward");
+					int room = rs.getInt("room");
+					int bedNum = rs.getInt("bed_num");
+					String pid = rs.getString("pid");
+					String gstr = rs.getString("gender");
+					Gender g = (pid == null || gstr == null) ? null : Gender.valueOf(gstr.toUpperCase());
+					boolean iso = (pid != null) && rs.getInt("isolation") == 1;
+					out.add(new BedCell(id, ward, room, bedNum, pid, g, iso));
+				}
 			}
-		} catch (Exception e) {
-			showError("DB Error", e.getMessage());
+		} catch (java.sql.SQLException e) {
+			throw new RuntimeException("load beds failed: " + e.getMessage(), e);
 		}
 		return out;
 	}
@@ -934,7 +972,7 @@ public class CareHomeApp extends Application {
 			out.append("Archived: ").append(OffsetDateTime.now()).append("\n");
 			out.append("Patient: ").append(patientId).append("\n\n");
 
-			try (var c = rmit.s4134401.carehome.util.DB.get();
+			try (var c = rmit.s4134401.carehome.util.DB.read();
 					var ps = c.prepareStatement("SELECT full_name, gender, isolation FROM patients WHERE id=?")) {
 				ps.setString(1, patientId);
 				try (var rs = ps.executeQuery()) {
@@ -947,17 +985,17 @@ public class CareHomeApp extends Application {
 			}
 
 			out.append("=== PRESCRIPTIONS ===\n");
-			try (var c = rmit.s4134401.carehome.util.DB.get(); var ps = c.prepareStatement("""
+			try (var c = rmit.s4134401.carehome.util.DB.read(); var ps = c.prepareStatement("""
 					    SELECT p.id, p.day, p.doctor_id, l.medicine, l.dose, l.times
 					    FROM prescriptions p
-					    LEFT JOIN prescription_lines l ON l.prescription_id = p.id
+					    LEFT JOIN rx_lines l ON l.rx_id = p.id
 					    WHERE p.patient_id=?
 					    ORDER BY p.id, l.id
 					""")) {
 				ps.setString(1, patientId);
 				try (var rs = ps.executeQuery()) {
 					while (rs.next()) {
-						out.append("RX#").append(rs.getInt(1)).append("  day=").append(rs.getString(2))
+						out.append("RX#").append(rs.getInt(1)).append("  day=").append(DayTime.day(rs.getInt(2)))
 								.append("  doctor=").append(rs.getString(3)).append("  ").append(rs.getString(4))
 								.append("  ").append(rs.getString(5)).append("  @ ").append(rs.getString(6))
 								.append("\n");
@@ -966,8 +1004,8 @@ public class CareHomeApp extends Application {
 			}
 
 			out.append("\n=== ADMINISTRATIONS ===\n");
-			try (var c = rmit.s4134401.carehome.util.DB.get(); var ps = c.prepareStatement("""
-					    SELECT medicine, dose, day, time, staff_id, is_update
+			try (var c = rmit.s4134401.carehome.util.DB.read(); var ps = c.prepareStatement("""
+					    SELECT medicine, dose, day, time_min, staff_id, is_correction
 					    FROM administrations
 					    WHERE patient_id=?
 					    ORDER BY id
@@ -975,7 +1013,7 @@ public class CareHomeApp extends Application {
 				ps.setString(1, patientId);
 				try (var rs = ps.executeQuery()) {
 					while (rs.next()) {
-						out.append(rs.getString(3)).append(" ").append(rs.getString(4)).append("  ")
+						out.append(DayTime.day(rs.getInt(3))).append(" ").append(DayTime.time(rs.getInt(4))).append("  ")
 								.append(rs.getString(1)).append("  ").append(rs.getString(2)).append("  by ")
 								.append(rs.getString(5)).append(rs.getInt(6) == 1 ? "  [UPDATE]\n" : "\n");
 					}
@@ -983,7 +1021,7 @@ public class CareHomeApp extends Application {
 			}
 
 			Files.write(Path.of(fname), out.toString().getBytes(StandardCharsets.UTF_8));
-			audit("ARCHIVE", "Archived " + patientId + " -> " + fname);
+			audit(AuditEvent.of(ActionType.ARCHIVE, currentUserId).patient(patientId).details(fname));
 		} catch (Exception e) {
 		}
 	}
@@ -1033,6 +1071,9 @@ public class CareHomeApp extends Application {
 		miAddStaff = new MenuItem("Add Staff…");
 		miAddStaff.setOnAction(e -> promptAddAnyStaff());
 
+		miImport = new MenuItem("Import Facility CSV…");
+		miImport.setOnAction(e -> promptImportFacility(stage));
+
 		miModifyStaff = new MenuItem("Modify Staff Details…");
 		miModifyStaff.setOnAction(e -> promptModifyStaff());
 
@@ -1045,7 +1086,7 @@ public class CareHomeApp extends Application {
 		miResetPw = new MenuItem("Reset Another User’s Password…");
 		miResetPw.setOnAction(e -> promptResetUserPassword());
 
-		staff.getItems().setAll(miAddStaff, new SeparatorMenuItem(), miModifyStaff, new SeparatorMenuItem(),
+		staff.getItems().setAll(miAddStaff, miImport, new SeparatorMenuItem(), miModifyStaff, new SeparatorMenuItem(),
 				miShowStaff, new SeparatorMenuItem(), miChangePw, miResetPw);
 
 		Menu schedule = new Menu("Schedule");
@@ -1064,28 +1105,24 @@ public class CareHomeApp extends Application {
 		miRosterDashboard.setOnAction(e -> showRosterDashboard());
 
 		miExportRoster = new MenuItem("Export Week to roster_week.txt");
-		miExportRoster.setOnAction(e -> {
-			try {
-				String text = teamRosterSummaryFromDB();
-				java.nio.file.Files.write(java.nio.file.Paths.get("roster_week.txt"),
-						text.getBytes(java.nio.charset.StandardCharsets.UTF_8));
-				info("Export", "Saved roster_week.txt in the app folder.");
-				setStatus("Exported roster_week.txt");
-			} catch (Exception ex) {
-				showError("Export failed", ex.getMessage());
-			}
-		});
+		miExportRoster.setOnAction(e -> ui.submit("Export Roster", () -> {
+			String text = teamRosterSummaryFromDB();
+			java.nio.file.Files.write(java.nio.file.Paths.get("roster_week.txt"),
+					text.getBytes(java.nio.charset.StandardCharsets.UTF_8));
+			return null;
+		}, v -> {
+			info("Export", "Saved roster_week.txt in the app folder.");
+			setStatus("Exported roster_week.txt");
+		}));
 
 		miCheckCompliance = new MenuItem("Check Compliance");
-		miCheckCompliance.setOnAction(e -> {
-			try {
-				svc.checkCompliance();
-				info("Compliance", "All good");
-				setStatus("Compliance OK");
-			} catch (Exception ex) {
-				showError("Compliance failure", ex.getMessage());
-			}
-		});
+		miCheckCompliance.setOnAction(e -> ui.submit("Compliance", () -> {
+			svc.checkCompliance();
+			return null;
+		}, v -> {
+			info("Compliance", "All good");
+			setStatus("Compliance OK");
+		}));
 
 		schedule.getItems().setAll(miAssignShift, miRemoveShift, new SeparatorMenuItem(), miSetDocMins, miRemoveDocMins,
 				miRosterDashboard, miExportRoster, new SeparatorMenuItem(), miCheckCompliance);
@@ -1126,7 +1163,7 @@ public class CareHomeApp extends Application {
 	private String nextPatientId() {
 		int max = 0;
 		String sql = "SELECT id FROM patients";
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
+		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.read();
 				java.sql.Statement st = c.createStatement();
 				java.sql.ResultSet rs = st.executeQuery(sql)) {
 			while (rs.next()) {
@@ -1153,45 +1190,157 @@ public class CareHomeApp extends Application {
 		}
 	}
 
+	private static final int AUDIT_PAGE = 200;
+
+	// the table only materialises visible rows; reaching the last loaded row fetches the next page
 	private void showAuditLog() {
-		String sql = "SELECT * FROM audit ORDER BY rowid DESC LIMIT 200";
-		StringBuilder sb = new StringBuilder();
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
-				java.sql.Statement st = c.createStatement();
-				java.sql.ResultSet rs = st.executeQuery(sql)) {
+		TableView<AuditEvent> table = new TableView<>();
+		table.getColumns().add(auditColumn("#", e -> e.id, 60));
+		table.getColumns().add(auditColumn("When", e -> e.when, 180));
+		table.getColumns().add(auditColumn("Staff", e -> e.staffId, 70));
+		table.getColumns().add(auditColumn("Type", e -> e.type, 120));
+		table.getColumns().add(auditColumn("Patient", e -> e.patientId, 70));
+		table.getColumns().add(auditColumn("From Bed", e -> e.fromBedId, 70));
+		table.getColumns().add(auditColumn("Bed", e -> e.bedId, 50));
+		table.getColumns().add(auditColumn("Day", e -> e.day, 90));
+		table.getColumns().add(auditColumn("Time", e -> e.time, 60));
+		table.getColumns().add(auditColumn("Medicine", e -> e.medicine, 100));
+		table.getColumns().add(auditColumn("Details", e -> e.details, 260));
+		table.setPrefSize(1100, 560);
+		table.setPlaceholder(new Label("(no audit entries)"));
+
+		ComboBox<ActionType> type = new ComboBox<>();
+		type.getItems().add(null);
+		type.getItems().addAll(ActionType.values());
+		type.setPromptText("All types");
+		TextField staff = new TextField();
+		staff.setPromptText("Staff id");
+		staff.setPrefColumnCount(6);
+		TextField query = new TextField();
+		query.setPromptText("Search (patient, medicine, staff, text)");
+		Button apply = new Button("Apply");
+		Label state = new Label();
+
+		// search results are ranked and paged by offset; browsing is keyset-paged by id
+		long[] beforeId = { Long.MAX_VALUE };
+		int[] searchOffset = { 0 };
+		boolean[] more = { true };
+		int[] generation = { 0 };
+		java.util.concurrent.atomic.AtomicReference<javafx.concurrent.Task<List<AuditEvent>>> loading =
+				new java.util.concurrent.atomic.AtomicReference<>();
+
+		Runnable loadMore = () -> {
+			if (!more[0] || loading.get() != null)
+				return;
+			String q = query.getText().trim();
+			ActionType t = type.getValue();
+			String sid = staff.getText().trim().isEmpty() ? null : staff.getText().trim();
+			long before = beforeId[0];
+			int offset = searchOffset[0];
+			int gen = generation[0];
+			javafx.concurrent.Task<List<AuditEvent>> task = new javafx.concurrent.Task<>() {
+				@Override
+				protected List<AuditEvent> call() {
+					return q.isEmpty() ? auditRepo().page(before, t, sid, AUDIT_PAGE)
+							: auditRepo().search(q, offset, AUDIT_PAGE);
+				}
+			};
+			task.setOnSucceeded(ev -> {
+				if (gen != generation[0])
+					return;
+				loading.set(null);
+				List<AuditEvent> rows = task.getValue();
+				if (rows.size() < AUDIT_PAGE)
+					more[0] = false;
+				if (!rows.isEmpty()) {
+					beforeId[0] = rows.get(rows.size() - 1).id;
+					searchOffset[0] += rows.size();
+					table.getItems().addAll(rows);
+				}
+				state.setText(table.getItems().size() + " rows" + (more[0] ? "" : " (end)"));
+			});
+			task.setOnFailed(ev -> {
+				if (gen != generation[0])
+					return;
+				loading.set(null);
+				more[0] = false;
+				state.setText("Load failed: " + task.getException().getMessage());
+			});
+			loading.set(task);
+			state.setText("Loading...");
+			ui.execute("Loading audit", task, true);
+		};
 
-			java.sql.ResultSetMetaData md = rs.getMetaData();
-			int n = md.getColumnCount();
+		Runnable reload = () -> {
+			generation[0]++;
+			javafx.concurrent.Task<List<AuditEvent>> running = loading.getAndSet(null);
+			if (running != null)
+				running.cancel();
+			table.getItems().clear();
+			beforeId[0] = Long.MAX_VALUE;
+			searchOffset[0] = 0;
+			more[0] = true;
+			boolean searching = !query.getText().trim().isEmpty();
+			type.setDisable(searching);
+			staff.setDisable(searching);
+			loadMore.run();
+		};
 
-			for (int i = 1; i <= n; i++) {
-				if (i > 1)
-					sb.append(" | ");
-				sb.append(md.getColumnLabel(i));
+		table.setRowFactory(tv -> new TableRow<>() {
+			@Override
+			protected void updateItem(AuditEvent item, boolean empty) {
+				super.updateItem(item, empty);
+				if (!empty && getIndex() >= tv.getItems().size() - 1)
+					loadMore.run();
 			}
-			sb.append("\n").append("-".repeat(80)).append("\n");
+		});
+		apply.setOnAction(e -> reload.run());
+		query.setOnAction(e -> reload.run());
+		staff.setOnAction(e -> reload.run());
+		type.setOnAction(e -> reload.run());
+
+		HBox bar = new HBox(8, new Label("Type:"), type, new Label("Staff:"), staff, query, apply, state);
+		bar.setAlignment(Pos.CENTER_LEFT);
+		HBox.setHgrow(query, Priority.ALWAYS);
+		VBox box = new VBox(8, bar, table);
+		box.setPadding(new Insets(8));
+		VBox.setVgrow(table, Priority.ALWAYS);
 
-			while (rs.next()) {
-				for (int i = 1; i <= n; i++) {
-					if (i > 1)
-						sb.append(" | ");
-					sb.append(String.valueOf(rs.getObject(i)));
-				}
-				sb.append("\n");
-			}
-		} catch (Exception e) {
-			showError("Audit", "Could not read audit table: " + e.getMessage());
-			return;
-		}
-		if (sb.length() == 0)
-			sb.append("(no audit entries)");
-		showLongInfo("Audit (latest first)", sb.toString());
+		Dialog<Void> d = new Dialog<>();
+		d.setTitle("Audit (latest first)");
+		d.setResizable(true);
+		d.getDialogPane().getButtonTypes().add(ButtonType.CLOSE);
+		d.getDialogPane().setContent(box);
+		reload.run();
+		d.showAndWait();
+		generation[0]++;
+		javafx.concurrent.Task<List<AuditEvent>> running = loading.getAndSet(null);
+		if (running != null)
+			running.cancel();
+	}
+
+	private static <T> TableColumn<AuditEvent, T> auditColumn(String title,
+			java.util.function.Function<AuditEvent, T> value, double width) {
+		TableColumn<AuditEvent, T> col = new TableColumn<>(title);
+		col.setCellValueFactory(c -> new javafx.beans.property.ReadOnlyObjectWrapper<>(value.apply(c.getValue())));
+		col.setPrefWidth(width);
+		col.setSortable(false);
+		return col;
+	}
+
+	private rmit.s4134401.carehome.repo.AuditRepository auditRepo() {
+		return auditFile != null ? auditFile : auditLog;
 	}
 
 	private void showCurrentPatients() {
+		ui.load("Current Patients", this::currentPatientsText, body -> showLongInfo("Current Patients", body));
+	}
+
+	private String currentPatientsText() throws java.sql.SQLException {
 		StringBuilder sb = new StringBuilder();
 		String sql = "SELECT b.ward, b.room, b.bed_num, p.* " + "FROM beds b LEFT JOIN patients p ON p.bed_id=b.id "
 				+ "WHERE p.id IS NOT NULL " + "ORDER BY b.ward, b.room, b.bed_num";
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
+		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.read();
 				java.sql.Statement st = c.createStatement();
 				java.sql.ResultSet rs = st.executeQuery(sql)) {
 			while (rs.next()) {
@@ -1213,12 +1362,8 @@ public class CareHomeApp extends Application {
 						(nm == null || nm.isBlank() ? "(no name on file)" : nm), iso ? "  [isolation]" : "");
 				sb.append(line).append('\n');
 			}
-		} catch (Exception ex) {
-			showError("Current Patients", ex.getMessage());
-			return;
 		}
-		String body = sb.length() == 0 ? "(no occupied beds)" : sb.toString();
-		showLongInfo("Current Patients", body);
+		return sb.length() == 0 ? "(no occupied beds)" : sb.toString();
 	}
 
 	private void switchUser(Stage stage) {
@@ -1247,20 +1392,21 @@ public class CareHomeApp extends Application {
 			userBadge.setText("Not signed in");
 			return;
 		}
-		String nm = lookupStaffName(currentUserId);
-		String who = (nm == null || nm.isBlank()) ? currentUserId : (nm + " (" + currentUserId + ")");
-		userBadge.setText(who + " — " + currentUserRole);
+		String id = currentUserId;
+		Role role = currentUserRole;
+		userBadge.setText(id + " — " + role);
+		ui.load("Loading user", () -> lookupStaffName(id), nm -> {
+			if (!id.equals(currentUserId))
+				return;
+			String who = (nm == null || nm.isBlank()) ? id : (nm + " (" + id + ")");
+			userBadge.setText(who + " — " + role);
+		});
 	}
 
 	private String lookupStaffName(String id) {
-		String sql = "SELECT name FROM staff WHERE id=? LIMIT 1";
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
-				java.sql.PreparedStatement ps = c.prepareStatement(sql)) {
-			ps.setString(1, id);
-			try (java.sql.ResultSet rs = ps.executeQuery()) {
-				return rs.next() ? rs.getString(1) : null;
-			}
-		} catch (Exception ignore) {
+		try {
+			return staff.nameOf(id).orElse(null);
+		} catch (RuntimeException ignore) {
 			return null;
 		}
 	}
@@ -1298,20 +1444,17 @@ public class CareHomeApp extends Application {
 				showError("Reset Password", "User ID required.");
 				return;
 			}
-			try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
-					java.sql.PreparedStatement ps = c.prepareStatement("UPDATE staff SET password=? WHERE id=?")) {
-				ps.setString(1, t.b.trim());
-				ps.setString(2, t.a.trim());
-				int rows = ps.executeUpdate();
-				if (rows == 0) {
-					showError("Reset Password", "No such user: " + t.a);
-					return;
+			ui.submit("Reset Password", () -> {
+				try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
+						java.sql.PreparedStatement ps = c.prepareStatement("UPDATE staff SET password=? WHERE id=?")) {
+					ps.setString(1, t.b.trim());
+					ps.setString(2, t.a.trim());
+					if (ps.executeUpdate() == 0)
+						throw new IllegalArgumentException("No such user: " + t.a);
 				}
-				info("Reset Password", "Password updated for " + t.a);
-			} catch (Exception ex) {
-				showError("Reset Password", ex.getMessage());
-			}
-			audit("RESET_PASSWORD", "target=" + t.a);
+				return null;
+			}, v -> info("Reset Password", "Password updated for " + t.a));
+			audit(ActionType.RESET_PASSWORD, t.a);
 		});
 
 	}
@@ -1343,20 +1486,18 @@ public class CareHomeApp extends Application {
 			}
 
 			String sql = "UPDATE staff SET password=? WHERE id=? AND password=?";
-			try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
-					java.sql.PreparedStatement ps = c.prepareStatement(sql)) {
-				ps.setString(1, t.b.trim());
-				ps.setString(2, currentUserId.trim());
-				ps.setString(3, t.a.trim());
-				int rows = ps.executeUpdate();
-				if (rows == 0) {
-					showError("Change Password", "Current password is incorrect.");
-					return;
+			String me = currentUserId.trim();
+			ui.submit("Change Password", () -> {
+				try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
+						java.sql.PreparedStatement ps = c.prepareStatement(sql)) {
+					ps.setString(1, t.b.trim());
+					ps.setString(2, me);
+					ps.setString(3, t.a.trim());
+					if (ps.executeUpdate() == 0)
+						throw new IllegalArgumentException("Current password is incorrect.");
 				}
-				info("Change Password", "Password updated successfully!");
-			} catch (Exception ex) {
-				showError("Change Password", ex.getMessage());
-			}
+				return null;
+			}, v -> info("Change Password", "Password updated successfully!"));
 		});
 	}
 
@@ -1368,8 +1509,10 @@ public class CareHomeApp extends Application {
 		TextField managerId = new TextField(currentUserId);
 		managerId.setEditable(false);
 
-		TextField tfAutoId = new TextField(nextPatientId());
+		TextField tfAutoId = new TextField();
 		tfAutoId.setEditable(false);
+		tfAutoId.setPromptText("assigning…");
+		ui.load("Next patient id", this::nextPatientId, tfAutoId::setText);
 
 		TextField name = new TextField();
 		name.setPromptText("Full name (required)");
@@ -1410,6 +1553,7 @@ public class CareHomeApp extends Application {
 				new Label("Full name:"), name, new Label("Gender:"), gender, new Label("Isolation:"), iso,
 				new Label("Ward:"), ward, new Label("Room (1-6):"), room, new Label("Bed (1-4):"), bed);
 		d.getDialogPane().setContent(gp);
+		d.getDialogPane().lookupButton(ButtonType.OK).disableProperty().bind(tfAutoId.textProperty().isEmpty());
 		d.setResultConverter(btn -> btn == ButtonType.OK);
 
 		d.showAndWait().ifPresent(ok -> {
@@ -1441,16 +1585,18 @@ public class CareHomeApp extends Application {
 				return;
 			}
 
-			try {
-				String newPid = tfAutoId.getText().trim();
-				svc.admitPatient(managerId.getText().trim(), newPid, name.getText().trim(), gender.getValue(),
-						iso.isSelected(), ward.getValue(), rm, bd);
-				setStatus("Admitted " + newPid + " (" + name.getText().trim() + ") to " + ward.getValue() + "-R" + rm
-						+ "-B" + bd);
-				refreshBeds();
-			} catch (Exception ex) {
-				showError("Admit failed", ex.getMessage());
-			}
+			String newPid = tfAutoId.getText().trim();
+			String mgr = managerId.getText().trim();
+			String nm = name.getText().trim();
+			Gender g = gender.getValue();
+			boolean isolation = iso.isSelected();
+			String w = ward.getValue();
+			ui.submit("Admit Patient", () -> {
+				svc.admitPatient(mgr, newPid, nm, g, isolation, w, rm, bd);
+				return null;
+			}, v -> {
+				setStatus("Admitted " + newPid + " (" + nm + ") to " + w + "-R" + rm + "-B" + bd);
+			});
 		});
 	}
 
@@ -1510,15 +1656,18 @@ public class CareHomeApp extends Application {
 				return;
 			}
 
-			try {
-				String pid = svc.patientIdInBed(fromWard.getValue(), fromRoom.getValue(), fromBed.getValue());
-				if (pid == null) {
-					showError("Move Patient", "Source bed is vacant.");
-					return;
-				}
+			String nurse = nurseId.getText().trim();
+			DayOfWeek dy = day.getValue();
+			LocalTime at = LocalTime.of(hour.getValue(), 0);
+			String fw = fromWard.getValue(), tw = toWard.getValue();
+			int fr = fromRoom.getValue(), fb = fromBed.getValue();
+			ui.submit("Move Patient", () -> {
+				String pid = svc.patientIdInBed(fw, fr, fb);
+				if (pid == null)
+					throw new IllegalArgumentException("Source bed is vacant.");
 
 				boolean requiresIso = false;
-				try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
+				try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.read();
 						java.sql.PreparedStatement ps = c
 								.prepareStatement("SELECT isolation FROM patients WHERE id=?")) {
 					ps.setString(1, pid);
@@ -1528,27 +1677,17 @@ public class CareHomeApp extends Application {
 					}
 				}
 
-				if (requiresIso && targetRoom != 1) {
-					showError("Move Patient", "This resident requires isolation → move only to Room 1 (single-bed).");
-					return;
-				}
-				if (!requiresIso && targetRoom == 1) {
-					showError("Move Patient", "Room 1 is reserved for isolation patients only.");
-					return;
-				}
-				if (requiresIso && targetBed != 1) {
-					showError("Move Patient", "Isolation rooms have only Bed 1.");
-					return;
-				}
-
-				svc.movePatient(nurseId.getText().trim(), day.getValue(), java.time.LocalTime.of(hour.getValue(), 0),
-						fromWard.getValue(), fromRoom.getValue(), fromBed.getValue(), toWard.getValue(), targetRoom,
-						targetBed);
-				setStatus("Moved " + pid + " to " + toWard.getValue() + "-R" + targetRoom + "-B" + targetBed);
-				refreshBeds();
-			} catch (Exception ex) {
-				showError("Move failed", ex.getMessage());
-			}
+				if (requiresIso && targetRoom != 1)
+					throw new IllegalArgumentException(
+							"This resident requires isolation → move only to Room 1 (single-bed).");
+				if (!requiresIso && targetRoom == 1)
+					throw new IllegalArgumentException("Room 1 is reserved for isolation patients only.");
+				if (requiresIso && targetBed != 1)
+					throw new IllegalArgumentException("Isolation rooms have only Bed 1.");
+
+				svc.movePatient(nurse, dy, at, fw, fr, fb, tw, targetRoom, targetBed);
+				return pid;
+			}, pid -> setStatus("Moved " + pid + " to " + tw + "-R" + targetRoom + "-B" + targetBed));
 		});
 	}
 
@@ -1592,48 +1731,50 @@ public class CareHomeApp extends Application {
 		d.showAndWait().ifPresent(ok -> {
 			if (!ok)
 				return;
-			try {
-				String pid = svc.patientIdInBed(ward.getValue(), room.getValue(), bed.getValue());
-				if (pid == null) {
+			String w = ward.getValue();
+			int rm = room.getValue(), bd = bed.getValue();
+			ui.load("Resident Details", () -> residentDetailsText(w, rm, bd), msg -> {
+				if (msg == null)
 					info("Resident Details", "Bed is vacant.");
-					return;
-				}
+				else
+					showLongInfo("Resident Details", msg);
+			});
+		});
+	}
 
-				String fullName = null, gender = null;
-				boolean iso = false;
-				try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
-						java.sql.PreparedStatement ps = c
-								.prepareStatement("SELECT full_name, gender, isolation FROM patients WHERE id=?")) {
-					ps.setString(1, pid);
-					try (java.sql.ResultSet rs = ps.executeQuery()) {
-						if (rs.next()) {
-							fullName = rs.getString("full_name");
-							gender = rs.getString("gender");
-							iso = rs.getInt("isolation") == 1;
-						}
-					}
-				}
+	// null when the bed is vacant
+	private String residentDetailsText(String ward, int room, int bed) throws java.sql.SQLException {
+		String pid = svc.patientIdInBed(ward, room, bed);
+		if (pid == null)
+			return null;
 
-				java.util.List<Prescription> rxs = svc.loadPrescriptionsForPatient(pid);
-				java.util.List<MedicationAdministration> admins = svc.administrationsForPatient(pid);
+		String fullName = null, gender = null;
+		boolean iso = false;
+		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.read();
+				java.sql.PreparedStatement ps = c
+						.prepareStatement("SELECT full_name, gender, isolation FROM patients WHERE id=?")) {
+			ps.setString(1, pid);
+			try (java.sql.ResultSet rs = ps.executeQuery()) {
+				if (rs.next()) {
+					fullName = rs.getString("full_name");
+					gender = rs.getString("gender");
+					iso = rs.getInt("isolation") == 1;
+				}
+			}
+		}
 
-				String rxText = rxs.isEmpty() ? "(no prescriptions)"
-						: rxs.stream().map(Prescription::toString).reduce((a, b) -> a + "\n" + b).get();
-				String adText = admins.isEmpty() ? "(no administrations)"
-						: admins.stream().map(Object::toString).reduce((a, b) -> a + "\n" + b).get();
+		java.util.List<Prescription> rxs = svc.loadPrescriptionsForPatient(pid);
+		java.util.List<MedicationAdministration> admins = svc.administrationsForPatient(pid);
 
-				String header = (fullName == null || fullName.isBlank()) ? "Patient ID: " + pid
-						: fullName + "  (" + pid + ")";
+		String rxText = rxs.isEmpty() ? "(no prescriptions)"
+				: rxs.stream().map(Prescription::toString).reduce((a, b) -> a + "\n" + b).get();
+		String adText = admins.isEmpty() ? "(no administrations)"
+				: admins.stream().map(Object::toString).reduce((a, b) -> a + "\n" + b).get();
 
-				String msg = header + "\n" + (gender == null ? "" : gender + (iso ? " (isolation)" : "") + "\n")
-						+ ward.getValue() + "-R" + room.getValue() + "-B" + bed.getValue() + "\n\n" + "Prescriptions:\n"
-						+ rxText + "\n\n" + "Administrations:\n" + adText;
+		String header = (fullName == null || fullName.isBlank()) ? "Patient ID: " + pid : fullName + "  (" + pid + ")";
 
-				showLongInfo("Resident Details", msg);
-			} catch (Exception ex) {
-				showError("Resident Details", ex.getMessage());
-			}
-		});
+		return header + "\n" + (gender == null ? "" : gender + (iso ? " (isolation)" : "") + "\n") + ward + "-R" + room
+				+ "-B" + bed + "\n\n" + "Prescriptions:\n" + rxText + "\n\n" + "Administrations:\n" + adText;
 	}
 
 	private void promptDischargePatient() {
@@ -1654,36 +1795,29 @@ public class CareHomeApp extends Application {
 		d.showAndWait().ifPresent(ok -> {
 			if (!ok)
 				return;
-			try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get()) {
-				String findSql = "SELECT p.id AS pid " + "FROM patients p " + "JOIN beds b ON p.bed_id=b.id "
-						+ "WHERE b.ward=? AND b.room=? AND b.bed_num=? " + "LIMIT 1";
-				try (java.sql.PreparedStatement ps = c.prepareStatement(findSql)) {
-					ps.setString(1, ward.getValue());
-					ps.setInt(2, room.getValue());
-					ps.setInt(3, bed.getValue());
-					try (java.sql.ResultSet rs = ps.executeQuery()) {
-						if (!rs.next()) {
-							info("Discharge", "Selected bed is vacant.");
-							return;
-						}
-						String pid = rs.getString("pid");
-
-						try (java.sql.PreparedStatement upd = c
-								.prepareStatement("UPDATE patients SET bed_id=NULL WHERE id=?")) {
-							upd.setString(1, pid);
-							upd.executeUpdate();
-						}
-						setStatus("Discharged " + pid + " from " + ward.getValue() + "-R" + room.getValue() + "-B"
-								+ bed.getValue());
-						archivePatientToFile(pid);
-						audit("DISCHARGE", "pid=" + pid + " from " + ward.getValue() + "-R" + room.getValue() + "-B"
-								+ bed.getValue());
-						refreshBeds();
-					}
+			String w = ward.getValue();
+			int rm = room.getValue(), bd = bed.getValue();
+			String loc = w + "-R" + rm + "-B" + bd;
+			ui.submit("Discharge", () -> {
+				String pid = rmit.s4134401.carehome.util.DB.callInTransaction(() -> {
+					Integer bid = beds.findBedId(w, rm, bd).orElse(null);
+					String occupant = bid == null ? null : patients.findOccupantByBedId(bid).orElse(null);
+					if (occupant != null)
+						patients.vacateBed(bid);
+					return occupant;
+				});
+				if (pid == null)
+					return null;
+				archivePatientToFile(pid);
+				audit(AuditEvent.of(ActionType.DISCHARGE, currentUserId).patient(pid).details(loc));
+				return pid;
+			}, pid -> {
+				if (pid == null) {
+					info("Discharge", "Selected bed is vacant.");
+					return;
 				}
-			} catch (Exception ex) {
-				showError("Discharge failed", ex.getMessage());
-			}
+				setStatus("Discharged " + pid + " from " + loc);
+			});
 		});
 	}
 
@@ -1711,27 +1845,23 @@ public class CareHomeApp extends Application {
 		d.showAndWait().ifPresent(ok -> {
 			if (!ok)
 				return;
-			try {
-				String pid = svc.patientIdInBed(ward.getValue(), room.getValue(), bed.getValue());
-				if (pid == null) {
-					showError("Add Prescription", "Chosen bed is vacant");
-					return;
-				}
-				if (!doctorExists(doctorId.getText())) {
-					showError("Add Prescription", "Doctor '" + doctorId.getText() + "' does not exist.");
-					return;
-				}
-				if (!doctorOnDuty(doctorId.getText(), day.getValue(), 60)) {
-					showError("Add Prescription", "Doctor '" + doctorId.getText().trim()
-							+ "' is not rostered for at least 60 minutes on " + day.getValue() + ".");
-					return;
-				}
-				svc.doctorAddPrescription(doctorId.getText().trim(), pid, day.getValue(), med.getText().trim(),
-						dose.getText().trim(), times.getText().trim());
-				setStatus("RX added for " + pid);
-			} catch (Exception ex) {
-				showError("Add Prescription", ex.getMessage());
-			}
+			String doc = doctorId.getText().trim();
+			DayOfWeek dy = day.getValue();
+			String w = ward.getValue();
+			int rm = room.getValue(), bd = bed.getValue();
+			String m = med.getText().trim(), ds = dose.getText().trim(), ts = times.getText().trim();
+			ui.submit("Add Prescription", () -> {
+				String pid = svc.patientIdInBed(w, rm, bd);
+				if (pid == null)
+					throw new IllegalArgumentException("Chosen bed is vacant");
+				if (!doctorExists(doc))
+					throw new IllegalArgumentException("Doctor '" + doc + "' does not exist.");
+				if (!doctorOnDuty(doc, dy, 60))
+					throw new IllegalArgumentException(
+							"Doctor '" + doc + "' is not rostered for at least 60 minutes on " + dy + ".");
+				svc.doctorAddPrescription(doc, pid, dy, m, ds, ts);
+				return pid;
+			}, pid -> setStatus("RX added for " + pid));
 		});
 	}
 
@@ -1759,23 +1889,21 @@ public class CareHomeApp extends Application {
 		d.showAndWait().ifPresent(ok -> {
 			if (!ok)
 				return;
-			try {
-				String pid = svc.patientIdInBed(ward.getValue(), room.getValue(), bed.getValue());
-				if (pid == null) {
-					showError("Administer", "Chosen bed is vacant");
-					return;
-				}
-				if (!nurseExists(nurseId.getText())) {
-					showError("Administer Medication", "Nurse '" + nurseId.getText() + "' does not exist.");
-					return;
-				}
-				svc.administerMedication(nurseId.getText().trim(), day.getValue(), LocalTime.of(hour.getValue(), 0),
-						pid, med.getText().trim(), dose.getText().trim());
-				setStatus("Medication administered");
-				refreshBeds();
-			} catch (Exception ex) {
-				showError("Administer Medication", ex.getMessage());
-			}
+			String nurse = nurseId.getText().trim();
+			DayOfWeek dy = day.getValue();
+			LocalTime at = LocalTime.of(hour.getValue(), 0);
+			String w = ward.getValue();
+			int rm = room.getValue(), bd = bed.getValue();
+			String m = med.getText().trim(), ds = dose.getText().trim();
+			ui.submit("Administer Medication", () -> {
+				String pid = svc.patientIdInBed(w, rm, bd);
+				if (pid == null)
+					throw new IllegalArgumentException("Chosen bed is vacant");
+				if (!nurseExists(nurse))
+					throw new IllegalArgumentException("Nurse '" + nurse + "' does not exist.");
+				svc.administerMedication(nurse, dy, at, pid, m, ds);
+				return null;
+			}, v -> setStatus("Medication administered"));
 		});
 	}
 
@@ -1810,25 +1938,21 @@ public class CareHomeApp extends Application {
 		d.showAndWait().ifPresent(ok -> {
 			if (!ok)
 				return;
-			try {
-				String pid = svc.patientIdInBed(ward.getValue(), room.getValue(), bed.getValue());
-				if (pid == null) {
-					showError("Update Administration", "Chosen bed is vacant");
-					return;
-				}
-				if (!nurseExists(nurseId.getText())) {
-					showError("Update Administration", "Nurse '" + nurseId.getText() + "' does not exist.");
-					return;
-				}
-
-				svc.updateAdministrationDose(nurseId.getText().trim(), day.getValue(), LocalTime.of(hour.getValue(), 0),
-						pid, med.getText().trim(), newDose.getText().trim(), true);
-
-				info("Update Administration", "Dose updated for " + pid);
-				refreshBeds();
-			} catch (Exception ex) {
-				showError("Update Administration", ex.getMessage());
-			}
+			String nurse = nurseId.getText().trim();
+			DayOfWeek dy = day.getValue();
+			LocalTime at = LocalTime.of(hour.getValue(), 0);
+			String w = ward.getValue();
+			int rm = room.getValue(), bd = bed.getValue();
+			String m = med.getText().trim(), ds = newDose.getText().trim();
+			ui.submit("Update Administration", () -> {
+				String pid = svc.patientIdInBed(w, rm, bd);
+				if (pid == null)
+					throw new IllegalArgumentException("Chosen bed is vacant");
+				if (!nurseExists(nurse))
+					throw new IllegalArgumentException("Nurse '" + nurse + "' does not exist.");
+				svc.updateAdministrationDose(nurse, dy, at, pid, m, ds, true);
+				return pid;
+			}, pid -> info("Update Administration", "Dose updated for " + pid));
 		});
 	}
 
@@ -1864,16 +1988,12 @@ public class CareHomeApp extends Application {
 		d.showAndWait().ifPresent(t -> {
 			if (t == null)
 				return;
-			try {
-				if (!doctorExists(t.b)) {
-					showError("Set minutes failed", "Doctor '" + t.b + "' does not exist.");
-					return;
-				}
+			ui.submit("Set minutes", () -> {
+				if (!doctorExists(t.b))
+					throw new IllegalArgumentException("Doctor '" + t.b + "' does not exist.");
 				svc.setDoctorMinutes(t.a, t.b, t.c, t.d);
-				setStatus("Doctor minutes set for " + t.b + " on " + t.c + " = " + t.d);
-			} catch (Exception ex) {
-				showError("Set minutes failed", ex.getMessage());
-			}
+				return null;
+			}, v -> setStatus("Doctor minutes set for " + t.b + " on " + t.c + " = " + t.d));
 		});
 	}
 
@@ -1897,19 +2017,20 @@ public class CareHomeApp extends Application {
 		d.showAndWait().ifPresent(t -> {
 			if (t == null)
 				return;
-			try (var c = rmit.s4134401.carehome.util.DB.get();
-					var ps = c.prepareStatement("DELETE FROM doctor_minutes WHERE doctor_id=? AND day=?")) {
-				ps.setString(1, t.a);
-				ps.setString(2, t.b.name());
-				int rows = ps.executeUpdate();
+			ui.submit("Remove Doctor Minutes", () -> {
+				try (var c = rmit.s4134401.carehome.util.DB.get();
+						var ps = c.prepareStatement("DELETE FROM doctor_minutes WHERE doctor_id=? AND day=?")) {
+					ps.setString(1, t.a);
+					ps.setInt(2, DayTime.day(t.b));
+					return ps.executeUpdate();
+				}
+			}, rows -> {
 				if (rows > 0)
 					info("Remove Doctor Minutes", "Removed entry for " + t.a + " on " + t.b);
 				else
 					info("Remove Doctor Minutes", "No entry found for that doctor/day.");
 				setStatus("Doctor minutes removed");
-			} catch (Exception ex) {
-				showError("Remove Doctor Minutes", ex.getMessage());
-			}
+			});
 		});
 	}
 
@@ -1934,18 +2055,12 @@ public class CareHomeApp extends Application {
 						? new Quad<>(managerId.getText(), nurseId.getText(), day.getValue(),
 								shift.getSelectionModel().getSelectedIndex() == 0)
 						: null);
-		d.showAndWait().ifPresent(t -> {
-			try {
-				if (!nurseExists(t.b)) {
-					showError("Assign shift failed", "Nurse '" + t.b + "' does not exist.");
-					return;
-				}
-				svc.assignNurseShift(t.a, t.b, t.c, t.d);
-				setStatus("Shift assigned");
-			} catch (Exception ex) {
-				showError("Assign shift failed", ex.getMessage());
-			}
-		});
+		d.showAndWait().ifPresent(t -> ui.submit("Assign shift", () -> {
+			if (!nurseExists(t.b))
+				throw new IllegalArgumentException("Nurse '" + t.b + "' does not exist.");
+			svc.assignNurseShift(t.a, t.b, t.c, t.d);
+			return null;
+		}, v -> setStatus("Shift assigned")));
 	}
 
 	private void promptRemoveShift() {
@@ -1969,14 +2084,10 @@ public class CareHomeApp extends Application {
 						? new Quad<>(managerId.getText(), nurseId.getText(), day.getValue(),
 								shift.getSelectionModel().getSelectedIndex() == 0)
 						: null);
-		d.showAndWait().ifPresent(t -> {
-			try {
-				svc.removeNurseShift(t.a, t.b, t.c, t.d);
-				setStatus("Shift removed");
-			} catch (Exception ex) {
-				showError("Remove shift failed", ex.getMessage());
-			}
-		});
+		d.showAndWait().ifPresent(t -> ui.submit("Remove shift", () -> {
+			svc.removeNurseShift(t.a, t.b, t.c, t.d);
+			return null;
+		}, v -> setStatus("Shift removed")));
 	}
 
 	private Node buildBedPane() {
@@ -1993,7 +2104,17 @@ public class CareHomeApp extends Application {
 		return scroller;
 	}
 
-	private Node buildWardColumn(String wardName, java.util.List<BedCell> allCells) {
+	// the bed grid is built once; refreshes patch it by bed id instead of rebuilding it
+	private final Map<Integer, BedCell> shownCells = new HashMap<>();
+	private final Map<Integer, Button> bedButtons = new HashMap<>();
+	private final Map<String, GridPane> wardRooms = new HashMap<>();
+	private final Map<String, FlowPane> roomBeds = new HashMap<>();
+
+	private GridPane wardColumn(String wardName) {
+		GridPane roomsGrid = wardRooms.get(wardName);
+		if (roomsGrid != null)
+			return roomsGrid;
+
 		VBox column = new VBox(12);
 		column.setFillWidth(true);
 		column.setPrefWidth(460);
@@ -2005,23 +2126,34 @@ public class CareHomeApp extends Application {
 				-fx-text-fill: #2b2b2b;
 				""");
 
-		GridPane roomsGrid = new GridPane();
+		roomsGrid = new GridPane();
 		roomsGrid.setHgap(12);
 		roomsGrid.setVgap(12);
+		wardRooms.put(wardName, roomsGrid);
 
-		for (int room = 1; room <= 6; room++) {
-			Node roomCard = buildRoomCard(wardName, room, allCells);
-			int r = (room - 1) / 2;
-			int c = (room - 1) % 2;
-			roomsGrid.add(roomCard, c, r);
-		}
+		for (int room = 1; room <= 6; room++)
+			roomBeds(wardName, room);
 
 		column.getChildren().addAll(title, roomsGrid);
 		VBox.setVgrow(roomsGrid, Priority.ALWAYS);
-		return column;
+		HBox.setHgrow(column, Priority.ALWAYS);
+		column.setUserData(wardName);
+
+		// wards stay in name order
+		int at = 0;
+		while (at < wardsRoot.getChildren().size()
+				&& ((String) wardsRoot.getChildren().get(at).getUserData()).compareTo(wardName) < 0)
+			at++;
+		wardsRoot.getChildren().add(at, column);
+		return roomsGrid;
 	}
 
-	private Node buildRoomCard(String ward, int room, java.util.List<BedCell> allCells) {
+	private FlowPane roomBeds(String ward, int room) {
+		String key = ward + "-R" + room;
+		FlowPane bedFlow = roomBeds.get(key);
+		if (bedFlow != null)
+			return bedFlow;
+
 		VBox card = new VBox(8);
 		card.setPadding(new Insets(10));
 		card.setStyle("""
@@ -2040,33 +2172,53 @@ public class CareHomeApp extends Application {
 				-fx-text-fill: #333;
 				""");
 
-		FlowPane bedFlow = new FlowPane();
+		bedFlow = new FlowPane();
 		bedFlow.setHgap(8);
 		bedFlow.setVgap(8);
 		bedFlow.setPrefWrapLength(220);
+		roomBeds.put(key, bedFlow);
 
-		java.util.List<BedCell> beds = new java.util.ArrayList<>();
-		for (BedCell bc : allCells) {
-			if (ward.equals(bc.ward) && room == bc.room)
-				beds.add(bc);
-		}
+		card.getChildren().addAll(header, bedFlow);
+		wardColumn(ward).add(card, (room - 1) % 2, (room - 1) / 2);
+		return bedFlow;
+	}
 
-		beds.sort(java.util.Comparator.comparingInt(b -> b.bedNum));
+	private void addBedButton(BedCell bc) {
+		Button btn = new Button();
+		btn.setPrefSize(100, 52);
+		btn.setUserData(bc.bedNum);
+		// looks the cell up on click so later refreshes never need to rebind the handler
+		btn.setOnAction(e -> onBedClickedDB(shownCells.get(bc.id)));
+		bedButtons.put(bc.id, btn);
 
-		for (BedCell bc : beds) {
-			Button btn = new Button(bc.cellLabel());
-			btn.setPrefSize(100, 52);
-			styleBedButtonDB(btn, bc);
-			btn.setOnAction(e -> onBedClickedDB(bc));
-			bedFlow.getChildren().add(btn);
-		}
+		// beds stay in bed-number order within the room
+		List<Node> flow = roomBeds(bc.ward, bc.room).getChildren();
+		int at = 0;
+		while (at < flow.size() && (Integer) flow.get(at).getUserData() < bc.bedNum)
+			at++;
+		flow.add(at, btn);
+	}
 
-		card.getChildren().addAll(header, bedFlow);
-		return card;
+	private void removeBedButton(BedCell bc) {
+		Button btn = bedButtons.remove(bc.id);
+		FlowPane flow = roomBeds.get(bc.ward + "-R" + bc.room);
+		if (btn != null && flow != null)
+			flow.getChildren().remove(btn);
 	}
 
 	private HBox buildStatusBar() {
-		HBox hb = new HBox(20, userBadge, new Region(), status);
+		ProgressIndicator spinner = new ProgressIndicator();
+		spinner.setPrefSize(16, 16);
+		Label working = new Label();
+		working.textProperty().bind(ui.current());
+		Button cancel = new Button("Cancel");
+		cancel.setOnAction(e -> ui.cancelAll());
+		HBox busy = new HBox(6, spinner, working, cancel);
+		busy.setAlignment(Pos.CENTER_LEFT);
+		busy.visibleProperty().bind(ui.busy().greaterThan(0));
+		busy.managedProperty().bind(busy.visibleProperty());
+
+		HBox hb = new HBox(20, userBadge, new Region(), busy, status);
 		HBox.setHgrow(hb.getChildren().get(1), Priority.ALWAYS);
 		hb.setPadding(new Insets(6, 10, 6, 10));
 		hb.setAlignment(Pos.CENTER_LEFT);
@@ -2074,69 +2226,132 @@ public class CareHomeApp extends Application {
 		return hb;
 	}
 
+	// beds waiting to be reloaded, fed by ChangeFeed from any thread
+	private final java.util.Set<Integer> dirtyBeds = new java.util.HashSet<>();
+	private boolean allBedsDirty, bedsDrainQueued;
+	// FX thread only: one bed load at a time, so results are applied in the order they were read
+	private boolean bedsLoading;
+	private ChangeFeed.Subscription changes;
+
 	private void refreshBeds() {
-		wardsRoot.getChildren().clear();
+		synchronized (dirtyBeds) {
+			allBedsDirty = true;
+		}
+		drainBedChanges();
+	}
+
+	// occupancy changes reload just their beds; anything without a bed, or from another process,
+	// reloads the grid, which still only touches the buttons that differ
+	private void onChange(Change c) {
+		switch (c.kind) {
+		case AUDIT, ROSTER, ADMITTED:
+			return;
+		default:
+		}
+		synchronized (dirtyBeds) {
+			if (c.bedId != null && !c.reloadAll())
+				dirtyBeds.add(c.bedId);
+			else
+				allBedsDirty = true;
+			if (bedsDrainQueued)
+				return;
+			bedsDrainQueued = true;
+		}
+		Platform.runLater(this::drainBedChanges);
+	}
 
-		java.util.List<BedCell> cells = loadBedCellsFromDB();
+	private void drainBedChanges() {
+		if (bedsLoading)
+			return;
+		java.util.Set<Integer> ids;
+		boolean all;
+		synchronized (dirtyBeds) {
+			bedsDrainQueued = false;
+			all = allBedsDirty;
+			ids = all ? null : new java.util.HashSet<>(dirtyBeds);
+			allBedsDirty = false;
+			dirtyBeds.clear();
+		}
+		if (!all && ids.isEmpty())
+			return;
+		bedsLoading = true;
+		javafx.concurrent.Task<java.util.List<BedCell>> t = ui.load("Loading beds", () -> loadBedCellsFromDB(ids),
+				cells -> {
+					if (all)
+						showBeds(cells);
+					else
+						applyBedCells(cells);
+				});
+		// whatever arrived while this load ran goes next
+		t.runningProperty().addListener((o, was, running) -> {
+			if (!running) {
+				bedsLoading = false;
+				drainBedChanges();
+			}
+		});
+	}
 
-		Node wardA = buildWardColumn("A", cells);
-		Node wardB = buildWardColumn("B", cells);
+	// touches only the buttons whose cell changed; unchanged beds keep their nodes as they are
+	private void showBeds(java.util.List<BedCell> cells) {
+		wardColumn("A");
+		wardColumn("B");
 
-		wardsRoot.getChildren().addAll(wardA, wardB);
-		HBox.setHgrow(wardA, Priority.ALWAYS);
-		HBox.setHgrow(wardB, Priority.ALWAYS);
+		java.util.Set<Integer> gone = new java.util.HashSet<>(shownCells.keySet());
+		for (BedCell bc : cells)
+			gone.remove(bc.id);
+		applyBedCells(cells);
+		for (Integer id : gone) {
+			removeBedButton(shownCells.remove(id));
+		}
 
-		setStatus("Beds: " + cells.size());
+		// not setStatus: that audits, and another terminal would see the write and refresh in turn
+		status.setText("Beds: " + cells.size());
 	}
 
-	private boolean nurseExists(String id) {
-		String sql = "SELECT 1 FROM staff WHERE id=? AND role='NURSE' LIMIT 1";
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
-				java.sql.PreparedStatement ps = c.prepareStatement(sql)) {
-			ps.setString(1, id.trim());
-			try (java.sql.ResultSet rs = ps.executeQuery()) {
-				return rs.next();
-			}
-		} catch (Exception e) {
-			showError("DB Error", e.getMessage());
-			return false;
+	private void applyBedCells(java.util.List<BedCell> cells) {
+		for (BedCell bc : cells) {
+			BedCell old = shownCells.put(bc.id, bc);
+			if (old != null && old.sameAs(bc))
+				continue;
+			if (old != null && (!old.ward.equals(bc.ward) || old.room != bc.room || old.bedNum != bc.bedNum))
+				removeBedButton(old);
+			if (!bedButtons.containsKey(bc.id))
+				addBedButton(bc);
+			Button btn = bedButtons.get(bc.id);
+			btn.setText(bc.cellLabel());
+			styleBedButtonDB(btn, bc);
 		}
 	}
 
+	private boolean nurseExists(String id) {
+		return staff.roleOf(id.trim()).orElse(null) == Role.NURSE;
+	}
+
 	private boolean doctorExists(String id) {
-		String sql = "SELECT 1 FROM staff WHERE id=? AND role='DOCTOR' LIMIT 1";
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
-				java.sql.PreparedStatement ps = c.prepareStatement(sql)) {
-			ps.setString(1, id.trim());
-			try (java.sql.ResultSet rs = ps.executeQuery()) {
-				return rs.next();
-			}
-		} catch (Exception e) {
-			showError("DB Error", e.getMessage());
-			return false;
-		}
+		return staff.roleOf(id.trim()).orElse(null) == Role.DOCTOR;
 	}
 
 	private java.util.List<String> loadStaffFromDB() {
 		java.util.List<String> rows = new java.util.ArrayList<>();
 		String sql = "SELECT id, name, role FROM staff ORDER BY role, id";
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
+		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.read();
 				java.sql.Statement st = c.createStatement();
 				java.sql.ResultSet rs = st.executeQuery(sql)) {
 			while (rs.next()) {
 				rows.add(String.format("%-6s  %-6s  %s", rs.getString("role"), rs.getString("id"),
 						rs.getString("name")));
 			}
-		} catch (Exception e) {
-			showError("DB Error", e.getMessage());
+		} catch (java.sql.SQLException e) {
+			throw new RuntimeException("load staff failed: " + e.getMessage(), e);
 		}
 		return rows;
 	}
 
 	private void showStaffList() {
-		java.util.List<String> lines = loadStaffFromDB();
-		String body = lines.isEmpty() ? "(no staff)" : String.join("\n", lines);
-		showLongInfo("Staff (role  id  name)", body);
+		ui.load("Loading staff", this::loadStaffFromDB, lines -> {
+			String body = lines.isEmpty() ? "(no staff)" : String.join("\n", lines);
+			showLongInfo("Staff (role  id  name)", body);
+		});
 	}
 
 	private void onBedClickedDB(BedCell b) {
@@ -2144,18 +2359,24 @@ public class CareHomeApp extends Application {
 			info("Bed", b.ward + "-R" + b.room + "-B" + b.bedNum + "\n[vacant]");
 			return;
 		}
-		String name = null;
-		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
+		ui.load("Resident", () -> lookupPatientName(b.patientId), name -> showBedResident(b, name));
+	}
+
+	private String lookupPatientName(String patientId) {
+		try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.read();
 				java.sql.PreparedStatement ps = c.prepareStatement("SELECT * FROM patients WHERE id=? LIMIT 1")) {
-			ps.setString(1, b.patientId);
+			ps.setString(1, patientId);
 			try (java.sql.ResultSet rs = ps.executeQuery()) {
 				if (rs.next()) {
-					name = safeGetString(rs, "full_name");
+					return safeGetString(rs, "full_name");
 				}
 			}
 		} catch (Exception ignore) {
 		}
+		return null;
+	}
 
+	private void showBedResident(BedCell b, String name) {
 		String nameLine = (name == null || name.isBlank()) ? b.patientId + " — (no name on file)"
 				: b.patientId + " — " + name;
 
@@ -2212,7 +2433,7 @@ public class CareHomeApp extends Application {
 
 	private void setStatus(String s) {
 		status.setText(s);
-		audit("STATUS", s);
+		audit(ActionType.STATUS, s);
 	}
 
 	private static final class Triple<A, B, C> {
@@ -2241,110 +2462,56 @@ public class CareHomeApp extends Application {
 		}
 	}
 
-	private void ensureAuditTable() {
-		String create = """
-				    CREATE TABLE IF NOT EXISTS audit(
-				      id INTEGER PRIMARY KEY AUTOINCREMENT,
-				      staff_id TEXT,
-				      action TEXT NOT NULL,
-				      details TEXT
-				    )
-				""";
-		try (var c = rmit.s4134401.carehome.util.DB.get(); var st = c.createStatement()) {
-			st.execute(create);
 
-			boolean hasTs = false;
-			try (var rs = st.executeQuery("PRAGMA table_info(audit)")) {
-				while (rs.next()) {
-					if ("ts".equalsIgnoreCase(rs.getString("name"))) {
-						hasTs = true;
-						break;
-					}
-				}
-			}
-			if (!hasTs) {
-				st.execute("ALTER TABLE audit ADD COLUMN ts TEXT");
-			}
-			st.execute("UPDATE audit SET ts = COALESCE(ts, datetime('now'))");
-
-			boolean hasAction = false, hasType = false;
-			try (var rs = st.executeQuery("PRAGMA table_info(audit)")) {
-				while (rs.next()) {
-					String n = rs.getString("name");
-					if ("action".equalsIgnoreCase(n))
-						hasAction = true;
-					if ("type".equalsIgnoreCase(n))
-						hasType = true;
-				}
-			}
-			if (!hasAction) {
-				st.execute("ALTER TABLE audit ADD COLUMN action TEXT");
-				if (hasType) {
-					st.execute("UPDATE audit SET action = COALESCE(action, type)");
-				}
-			}
+	private void audit(ActionType type, String details) {
+		audit(AuditEvent.of(type, currentUserId).details(details));
+	}
 
+	private void audit(AuditEvent e) {
+		try {
+			auditRepo().record(e);
 		} catch (Exception ignore) {
 		}
 	}
 
-	private void audit(String action, String details) {
-		try (var c = rmit.s4134401.carehome.util.DB.get()) {
-			try (var ps = c.prepareStatement("INSERT INTO audit(ts, staff_id, action, details) VALUES(?,?,?,?)")) {
-				ps.setString(1, java.time.OffsetDateTime.now().toString());
-				ps.setString(2, currentUserId);
-				ps.setString(3, action);
-				ps.setString(4, details);
-				ps.executeUpdate();
-				return;
-			}
-		} catch (Exception e) {
-		}
-		try (var c2 = rmit.s4134401.carehome.util.DB.get();
-				var ps2 = c2.prepareStatement("INSERT INTO audit(staff_id, action, details) VALUES(?,?,?)")) {
-			ps2.setString(1, currentUserId);
-			ps2.setString(2, action);
-			ps2.setString(3, details);
-			ps2.executeUpdate();
-		} catch (Exception ignore) {
-		}
+	// staff, shifts and residents from one CSV (format in FacilityImport); nothing is written if any row fails
+	private void promptImportFacility(Stage stage) {
+		javafx.stage.FileChooser fc = new javafx.stage.FileChooser();
+		fc.setTitle("Import Facility CSV");
+		fc.getExtensionFilters().add(new javafx.stage.FileChooser.ExtensionFilter("CSV", "*.csv", "*.txt"));
+		java.io.File f = fc.showOpenDialog(stage);
+		if (f == null)
+			return;
+		String who = currentUserId;
+		ui.submit("Import", () -> {
+			try (var in = Files.newBufferedReader(f.toPath(), StandardCharsets.UTF_8)) {
+				return svc.importFacility(who, in);
+			}
+		}, r -> {
+			info("Import", "Imported " + r);
+			setStatus("Imported " + f.getName());
+		});
 	}
 
 	private void exportAuditToFile() {
 		java.nio.file.Path out = java.nio.file.Path.of("audit_latest.txt").toAbsolutePath();
+		ui.submit("Export Logs", () -> writeAuditExport(out),
+				rows -> info("Export Logs", "Saved " + out + " (" + rows + " rows)"));
+	}
 
-		try (var c = rmit.s4134401.carehome.util.DB.get(); var st = c.createStatement()) {
-
-			java.util.Set<String> cols = new java.util.HashSet<>();
-			try (var rs = st.executeQuery("PRAGMA table_info(audit)")) {
-				while (rs.next())
-					cols.add(rs.getString("name").toLowerCase());
-			}
-
-			String tsExpr = cols.contains("ts") ? "ts" : "datetime('now') AS ts";
-			String staffExpr = cols.contains("staff_id") ? "staff_id" : "NULL AS staff_id";
-			String actionExpr = cols.contains("action") ? "action" : cols.contains("type") ? "type" : "'-' AS action";
-			String detailsExpr = cols.contains("details") ? "details"
-					: cols.contains("message") ? "message" : "NULL AS details";
-			String idOrRowid = cols.contains("id") ? "id" : "rowid";
-
-			String sql = "SELECT " + tsExpr + ", " + staffExpr + ", " + actionExpr + ", " + detailsExpr
-					+ " FROM audit ORDER BY " + idOrRowid + " DESC LIMIT 1000";
-
-			try (var rs = st.executeQuery(sql)) {
-				StringBuilder sb = new StringBuilder();
-				int rows = 0;
-				while (rs.next()) {
-					rows++;
-					sb.append(rs.getString(1)).append(" | ").append(rs.getString(2)).append(" | ")
-							.append(rs.getString(3)).append(" | ").append(rs.getString(4)).append('\n');
-				}
-				java.nio.file.Files.writeString(out, sb.toString(), java.nio.charset.StandardCharsets.UTF_8);
-				info("Export Logs", "Saved " + out + " (" + rows + " rows)");
-			}
-		} catch (Exception e) {
-			showError("Export Logs", "Failed to export audit: " + e.getMessage());
+	private int writeAuditExport(java.nio.file.Path out) throws Exception {
+		List<AuditEvent> rows;
+		if (auditFile != null) {
+			rows = auditFile.latest(1000);
+		} else {
+			auditLog.flush();
+			rows = auditLog.page(Long.MAX_VALUE, null, null, 1000);
 		}
+		StringBuilder sb = new StringBuilder();
+		for (var e : rows)
+			sb.append(e).append('\n');
+		java.nio.file.Files.writeString(out, sb.toString(), java.nio.charset.StandardCharsets.UTF_8);
+		return rows.size();
 	}
 
 	private void savePatientsSnapshot(String filePath) {
@@ -2352,7 +2519,7 @@ public class CareHomeApp extends Application {
 		json.append("{\"ts\":\"").append(OffsetDateTime.now()).append("\",");
 
 		json.append("\"patients\":[");
-		try (var c = rmit.s4134401.carehome.util.DB.get();
+		try (var c = rmit.s4134401.carehome.util.DB.read();
 				var st = c.createStatement();
 				var rs = st.executeQuery("SELECT id, full_name, gender, isolation, bed_id FROM patients ORDER BY id")) {
 			boolean first = true;
@@ -2371,7 +2538,7 @@ public class CareHomeApp extends Application {
 		json.append("],");
 
 		json.append("\"prescriptions\":[");
-		try (var c = rmit.s4134401.carehome.util.DB.get();
+		try (var c = rmit.s4134401.carehome.util.DB.read();
 				var st = c.createStatement();
 				var rs = st.executeQuery("SELECT * FROM prescriptions ORDER BY id")) {
 			boolean first = true;
@@ -2382,24 +2549,24 @@ public class CareHomeApp extends Application {
 				json.append('{').append("\"id\":").append(rs.getInt("id")).append(',').append("\"patient_id\":\"")
 						.append(rs.getString("patient_id")).append("\",").append("\"doctor_id\":\"")
 						.append(rs.getString("doctor_id")).append("\",").append("\"day\":")
-						.append(toJson(rs.getString("day"))).append(',').append("\"created_ts\":")
-						.append(toJson(rs.getString("created_ts"))).append('}');
+						.append(toJson(DayTime.day(rs.getInt("day")).name())).append(',').append("\"created_ts\":")
+						.append(toJson(DayTime.instant(rs.getLong("created_ms")).toString())).append('}');
 			}
 		} catch (Exception ignore) {
 		}
 		json.append("],");
 
 		json.append("\"prescription_lines\":[");
-		try (var c = rmit.s4134401.carehome.util.DB.get();
+		try (var c = rmit.s4134401.carehome.util.DB.read();
 				var st = c.createStatement();
-				var rs = st.executeQuery("SELECT * FROM prescription_lines ORDER BY id")) {
+				var rs = st.executeQuery("SELECT * FROM rx_lines ORDER BY id")) {
 			boolean first = true;
 			while (rs.next()) {
 				if (!first)
 					json.append(',');
 				first = false;
 				json.append('{').append("\"id\":").append(rs.getInt("id")).append(',').append("\"prescription_id\":")
-						.append(rs.getInt("prescription_id")).append(',').append("\"medicine\":")
+						.append(rs.getInt("rx_id")).append(',').append("\"medicine\":")
 						.append(toJson(rs.getString("medicine"))).append(',').append("\"dose\":")
 						.append(toJson(rs.getString("dose"))).append(',').append("\"times\":")
 						.append(toJson(rs.getString("times"))).append('}');
@@ -2409,7 +2576,7 @@ public class CareHomeApp extends Application {
 		json.append("],");
 
 		json.append("\"administrations\":[");
-		try (var c = rmit.s4134401.carehome.util.DB.get();
+		try (var c = rmit.s4134401.carehome.util.DB.read();
 				var st = c.createStatement();
 				var rs = st.executeQuery("SELECT * FROM administrations ORDER BY id")) {
 			boolean first = true;
@@ -2421,10 +2588,10 @@ public class CareHomeApp extends Application {
 						.append(rs.getString("patient_id")).append("\",").append("\"medicine\":")
 						.append(toJson(rs.getString("medicine"))).append(',').append("\"dose\":")
 						.append(toJson(rs.getString("dose"))).append(',').append("\"day\":")
-						.append(toJson(rs.getString("day"))).append(',').append("\"time\":")
-						.append(toJson(rs.getString("time"))).append(',').append("\"staff_id\":")
+						.append(toJson(DayTime.day(rs.getInt("day")).name())).append(',').append("\"time\":")
+						.append(toJson(DayTime.time(rs.getInt("time_min")).toString())).append(',').append("\"staff_id\":")
 						.append(toJson(rs.getString("staff_id"))).append(',').append("\"is_update\":")
-						.append(rs.getInt("is_update")).append('}');
+						.append(rs.getInt("is_correction")).append('}');
 			}
 		} catch (Exception ignore) {
 		}
@@ -2432,7 +2599,7 @@ public class CareHomeApp extends Application {
 
 		try {
 			Files.write(Path.of(filePath), json.toString().getBytes(StandardCharsets.UTF_8));
-			audit("SNAPSHOT_SAVE", "Saved patient snapshot -> " + filePath);
+			audit(ActionType.SNAPSHOT_SAVE, filePath);
 		} catch (Exception e) {
 		}
 	}
@@ -2444,60 +2611,65 @@ public class CareHomeApp extends Application {
 	}
 
 	private void restorePatientsSnapshot(String filePath) {
-		try {
-			String json = Files.readString(Path.of(filePath), StandardCharsets.UTF_8);
-			int i = json.indexOf("\"patients\":[");
-			if (i < 0)
-				throw new RuntimeException("patients[] not found");
-			int start = i + "\"patients\":[".length();
-			int end = json.indexOf("]", start);
-			String body = json.substring(start, end);
-
-			try (var c = rmit.s4134401.carehome.util.DB.get()) {
-				String[] items = body.split("\\},\\{");
-				for (String raw : items) {
-					String item = raw.replace("{", "").replace("}", "");
-					Map<String, String> kv = new HashMap<>();
-					for (String part : item.split(",\"")) {
-						String p = part.replaceFirst("^\"", "");
-						int colon = p.indexOf("\":");
-						if (colon < 0)
-							continue;
-						String k = p.substring(0, colon);
-						String v = p.substring(colon + 2);
-						kv.put(k, v);
-					}
-					String id = stripJson(kv.get("id"));
-					String fullName = stripJson(kv.get("full_name"));
-					String gender = stripJson(kv.get("gender"));
-					int isolation = Integer.parseInt(kv.get("isolation"));
-					String bedIdStr = kv.get("bed_id");
-					Integer bedId = "null".equals(bedIdStr) ? null : Integer.valueOf(bedIdStr);
-
-					try (var up = c.prepareStatement("""
-							    INSERT INTO patients(id, full_name, gender, isolation, bed_id)
-							    VALUES(?,?,?,?,?)
-							    ON CONFLICT(id) DO UPDATE SET full_name=excluded.full_name,
-							                                 gender=excluded.gender,
-							                                 isolation=excluded.isolation,
-							                                 bed_id=excluded.bed_id
-							""")) {
-						up.setString(1, id);
-						up.setString(2, fullName);
-						up.setString(3, gender);
-						up.setInt(4, isolation);
-						if (bedId == null)
-							up.setNull(5, java.sql.Types.INTEGER);
-						else
-							up.setInt(5, bedId);
-						up.executeUpdate();
-					}
+		ui.submit("Restore Snapshot", () -> {
+			readPatientsSnapshot(filePath);
+			return null;
+		}, null);
+	}
+
+	private void readPatientsSnapshot(String filePath) throws Exception {
+		String json = Files.readString(Path.of(filePath), StandardCharsets.UTF_8);
+		int i = json.indexOf("\"patients\":[");
+		if (i < 0)
+			throw new RuntimeException("patients[] not found");
+		int start = i + "\"patients\":[".length();
+		int end = json.indexOf("]", start);
+		String body = json.substring(start, end);
+
+		try (var c = rmit.s4134401.carehome.util.DB.get()) {
+			String[] items = body.split("\\},\\{");
+			for (String raw : items) {
+				String item = raw.replace("{", "").replace("}", "");
+				Map<String, String> kv = new HashMap<>();
+				for (String part : item.split(",\"")) {
+					String p = part.replaceFirst("^\"", "");
+					int colon = p.indexOf("\":");
+					if (colon < 0)
+						continue;
+					String k = p.substring(0, colon);
+					String v = p.substring(colon + 2);
+					kv.put(k, v);
+				}
+				String id = stripJson(kv.get("id"));
+				String fullName = stripJson(kv.get("full_name"));
+				String gender = stripJson(kv.get("gender"));
+				int isolation = Integer.parseInt(kv.get("isolation"));
+				String bedIdStr = kv.get("bed_id");
+				Integer bedId = "null".equals(bedIdStr) ? null : Integer.valueOf(bedIdStr);
+
+				try (var up = c.prepareStatement("""
+						    INSERT INTO patients(id, full_name, gender, isolation, bed_id)
+						    VALUES(?,?,?,?,?)
+						    ON CONFLICT(id) DO UPDATE SET full_name=excluded.full_name,
+						                                 gender=excluded.gender,
+						                                 isolation=excluded.isolation,
+						                                 bed_id=excluded.bed_id
+						""")) {
+					up.setString(1, id);
+					up.setString(2, fullName);
+					up.setString(3, gender);
+					up.setInt(4, isolation);
+					if (bedId == null)
+						up.setNull(5, java.sql.Types.INTEGER);
+					else
+						up.setInt(5, bedId);
+					up.executeUpdate();
 				}
 			}
-			audit("SNAPSHOT_RESTORE", "Restored patients from " + filePath);
-		} catch (Exception e) {
-			showError("Restore Snapshot", e.getMessage());
 		}
+		// any bed may have changed
+		ChangeFeed.publish(Change.Kind.PATIENT_UPDATED, null, null);
+		audit(ActionType.SNAPSHOT_RESTORE, filePath);
 	}
 
 	private static String stripJson(String v) {
@@ -2511,7 +2683,31 @@ public class CareHomeApp extends Application {
 		return v;
 	}
 
+	@Override
+	public void stop() {
+		if (changes != null)
+			changes.close();
+		ui.shutdown();
+		// drains the audit queue before the pools close
+		rmit.s4134401.carehome.util.DB.shutdown();
+		Metrics.stopDump();
+	}
+
+	// --jfr keeps a rolling flight recording on disk (carehome.jfr.dir, default "jfr", the last
+	// carehome.jfr.maxAgeMinutes, default 30); every other argument goes to JavaFX
 	public static void main(String[] args) {
-		launch(args);
+		List<String> rest = new ArrayList<>();
+		boolean jfr = false;
+		for (String a : args) {
+			if ("--jfr".equals(a))
+				jfr = true;
+			else
+				rest.add(a);
+		}
+		if (jfr)
+			Jfr.startContinuous(Path.of(System.getProperty("carehome.jfr.dir", "jfr")),
+					java.time.Duration.ofMinutes(Long.getLong("carehome.jfr.maxAgeMinutes", 30)),
+					Long.getLong("carehome.jfr.maxSizeMb", 250) * 1024 * 1024);
+		launch(rest.toArray(new String[0]));
 	}
 }
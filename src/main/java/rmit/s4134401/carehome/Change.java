@@ -0,0 +1,32 @@
+package rmit.s4134401.carehome;
+
+// One committed change, as seen by ChangeFeed subscribers. key is the patient, nurse or doctor
+// the change is about when there is one; bedId is set for occupancy changes.
+public final class Change {
+    public enum Kind {
+        ADMITTED, BED_ASSIGNED, BED_VACATED, PATIENT_UPDATED, ROSTER, AUDIT,
+        // another process wrote to the database; what changed is unknown
+        EXTERNAL,
+        // the subscriber asked to resume from a sequence the feed no longer holds
+        RESYNC
+    }
+
+    public final long seq;
+    public final Kind kind;
+    public final String key;
+    public final Integer bedId;
+
+    public Change(long seq, Kind kind, String key, Integer bedId){
+        this.seq = seq; this.kind = kind; this.key = key; this.bedId = bedId;
+    }
+
+    // true when the subscriber can't patch its view and has to reload it
+    public boolean reloadAll(){
+        return kind == Kind.EXTERNAL || kind == Kind.RESYNC;
+    }
+
+    @Override
+    public String toString(){
+        return "#" + seq + " " + kind + (key == null ? "" : " " + key) + (bedId == null ? "" : " bed=" + bedId);
+    }
+}
@@ -14,6 +14,7 @@ public class Patient implements Serializable {
     }
 
     public String id(){ return patientId; }
+    public String fullName(){ return fullName; }
     public Gender gender(){ return gender; }
     public boolean needsIsolation(){ return isolation; }
 
@@ -0,0 +1,41 @@
+package rmit.s4134401.carehome;
+
+import java.util.HashMap;
+import java.util.Map;
+
+// Every member of staff as id -> (role, name), tagged with the staff_version counter it was read
+// at. Immutable: a change makes a new directory.
+public final class StaffDirectory {
+    public static final class Entry {
+        public final Role role;
+        public final String name;
+
+        public Entry(Role role, String name){
+            this.role = role; this.name = name;
+        }
+    }
+
+    private final long version;
+    private final Map<String, Entry> byId;
+
+    public StaffDirectory(long version, Map<String, Entry> byId){
+        this.version = version;
+        this.byId = Map.copyOf(byId);
+    }
+
+    public long version(){ return version; }
+
+    // null when there is no such staff member
+    public Entry get(String id){
+        return id == null ? null : byId.get(id);
+    }
+
+    public int size(){ return byId.size(); }
+
+    // this directory with `changes` applied, at `version`
+    public StaffDirectory with(Map<String, Entry> changes, long version){
+        Map<String, Entry> next = new HashMap<>(byId);
+        next.putAll(changes);
+        return new StaffDirectory(version, next);
+    }
+}
@@ -0,0 +1,160 @@
+package rmit.s4134401.carehome;
+
+import javafx.application.Platform;
+import javafx.beans.property.ReadOnlyIntegerProperty;
+import javafx.beans.property.ReadOnlyIntegerWrapper;
+import javafx.beans.property.ReadOnlyStringProperty;
+import javafx.beans.property.ReadOnlyStringWrapper;
+import javafx.concurrent.Task;
+import javafx.concurrent.WorkerStateEvent;
+import rmit.s4134401.carehome.util.Metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+// Runs the UI's database work on daemon threads: reads on a small pool, writes one at a time in the
+// order they were submitted, so two quick clicks commit in click order. Results, failures and
+// cancellations are handed back on the FX thread; busy()/current() drive the indicator in the status bar.
+// Everything except the work itself must be called from the FX thread.
+final class UiWorker {
+    private final ExecutorService pool;
+    private final ExecutorService writes = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "carehome-ui-writer");
+        t.setDaemon(true);
+        return t;
+    });
+    private final BiConsumer<String, Throwable> onError;
+    private final Consumer<String> onCancelled;
+    private final ReadOnlyIntegerWrapper busy = new ReadOnlyIntegerWrapper();
+    private final ReadOnlyStringWrapper current = new ReadOnlyStringWrapper("");
+    private final Set<Task<?>> cancellable = new LinkedHashSet<>();
+    private final ScheduledExecutorService probe = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "carehome-fx-probe");
+        t.setDaemon(true);
+        return t;
+    });
+
+    UiWorker(int threads, BiConsumer<String, Throwable> onError, Consumer<String> onCancelled) {
+        this.pool = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "carehome-ui-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        this.onError = onError;
+        this.onCancelled = onCancelled;
+    }
+
+    // reads: the user may cancel them, in which case onDone is never called
+    <T> Task<T> load(String what, Callable<T> work, Consumer<T> onDone) {
+        return start(what, work, onDone, true);
+    }
+
+    // writes: always run to completion so the UI never reports a half-known outcome, and never
+    // alongside another write
+    <T> Task<T> submit(String what, Callable<T> work, Consumer<T> onDone) {
+        return start(what, work, onDone, false);
+    }
+
+    private <T> Task<T> start(String what, Callable<T> work, Consumer<T> onDone, boolean canCancel) {
+        long queued = System.nanoTime();
+        Task<T> task = new Task<>() {
+            @Override
+            protected T call() throws Exception {
+                long t0 = System.nanoTime();
+                Metrics.timer("ui.queue").record(t0 - queued);
+                Metrics.Timer t = Metrics.timer("ui.work");
+                try {
+                    return work.call();
+                } catch (Exception | Error e) {
+                    t.failed(e);
+                    throw e;
+                } finally {
+                    t.record(System.nanoTime() - t0);
+                }
+            }
+        };
+        task.setOnSucceeded(e -> {
+            if (onDone != null) {
+                long t0 = System.nanoTime();
+                onDone.accept(task.getValue());
+                Metrics.timer("ui.callback").record(System.nanoTime() - t0);
+            }
+        });
+        task.setOnFailed(e -> onError.accept(what, task.getException()));
+        task.setOnCancelled(e -> onCancelled.accept(what));
+        return execute(what, task, canCancel);
+    }
+
+    // for callers that build their own Task and handle its outcome themselves; one that can't be
+    // cancelled is a write and queues behind the other writes
+    <T> Task<T> execute(String what, Task<T> task, boolean canCancel) {
+        if (!Platform.isFxApplicationThread())
+            throw new IllegalStateException("UiWorker tasks start on the FX thread");
+        task.addEventHandler(WorkerStateEvent.WORKER_STATE_SUCCEEDED, e -> finished(task));
+        task.addEventHandler(WorkerStateEvent.WORKER_STATE_FAILED, e -> finished(task));
+        task.addEventHandler(WorkerStateEvent.WORKER_STATE_CANCELLED, e -> finished(task));
+        if (canCancel)
+            cancellable.add(task);
+        busy.set(busy.get() + 1);
+        current.set(what);
+        (canCancel ? pool : writes).execute(task);
+        return task;
+    }
+
+    private void finished(Task<?> task) {
+        cancellable.remove(task);
+        busy.set(busy.get() - 1);
+        if (busy.get() == 0)
+            current.set("");
+    }
+
+    void cancelAll() {
+        for (Task<?> t : new ArrayList<>(cancellable))
+            t.cancel(true);
+    }
+
+    ReadOnlyIntegerProperty busy() {
+        return busy.getReadOnlyProperty();
+    }
+
+    ReadOnlyStringProperty current() {
+        return current.getReadOnlyProperty();
+    }
+
+    // every second, how long a runLater waits for the FX thread (fx.lag); a busy or blocked
+    // FX thread shows up here rather than in the database timings
+    void probeFxThread() {
+        probe.scheduleAtFixedRate(() -> {
+            long sent = System.nanoTime();
+            Platform.runLater(() -> Metrics.timer("fx.lag").record(System.nanoTime() - sent));
+        }, 1, 1, TimeUnit.SECONDS);
+    }
+
+    // reads are abandoned; writes already submitted finish first, so they land before the database closes
+    void shutdown() {
+        pool.shutdownNow();
+        probe.shutdownNow();
+        writes.shutdown();
+        try {
+            if (!writes.awaitTermination(10, TimeUnit.SECONDS))
+                writes.shutdownNow();
+        } catch (InterruptedException e) {
+            writes.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // same text the handlers used to show from their own catch blocks
+    static String messageOf(Throwable t) {
+        String msg = t.getMessage();
+        return msg == null || msg.isBlank() ? t.getClass().getSimpleName() : msg;
+    }
+}
@@ -8,5 +8,7 @@ import java.util.List;
 
 public interface AdministrationRepository {
     void add(String patientId, String medicine, String dose, DayOfWeek day, LocalTime time, String staffId, boolean correction);
+    // non-correction rows, one batch
+    void addAll(List<MedicationAdministration> batch);
     List<MedicationAdministration> listForPatient(String patientId);
 }
@@ -1,9 +1,30 @@
 package rmit.s4134401.carehome.repo;
 
 import rmit.s4134401.carehome.ActionType;
+import rmit.s4134401.carehome.AuditEvent;
 
 import java.time.Instant;
+import java.util.List;
 
 public interface AuditRepository {
-    void log(Instant when, String staffId, ActionType type, String details);
+    void record(AuditEvent event);
+
+    default void recordAll(List<AuditEvent> events) {
+        for (AuditEvent e : events) record(e);
+    }
+
+    default void log(Instant when, String staffId, ActionType type, String details) {
+        record(AuditEvent.of(type, staffId).when(when).details(details));
+    }
+
+    // all newest first
+    List<AuditEvent> byPatient(String patientId, int limit);
+    List<AuditEvent> byStaff(String staffId, int limit);
+    List<AuditEvent> byType(ActionType type, int limit);
+    // from inclusive, to exclusive
+    List<AuditEvent> between(Instant from, Instant to, int limit);
+    // keyset paging: rows with id < beforeId (Long.MAX_VALUE for the first page); null filters match anything
+    List<AuditEvent> page(long beforeId, ActionType type, String staffId, int limit);
+    // free-text search over details, type, patient, medicine and staff; best match first
+    List<AuditEvent> search(String text, int offset, int limit);
 }
@@ -1,9 +1,23 @@
 package rmit.s4134401.carehome.repo;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface BedRepository {
     Optional<Integer> findBedId(String ward, int room, int bedNum);
     List<int[]> listCoords(); 
+    // every bed id, keyed by coordinate(ward, room, bedNum)
+    Map<String, Integer> allBedIds();
+    // adds beds 1..beds of a room, keeping any that already exist; returns how many were new
+    int addRoom(String ward, int room, int beds);
+
+    static String coordinate(String ward, int room, int bedNum){
+        return room(ward, room) + "-B" + bedNum;
+    }
+
+    // the room part of a coordinate
+    static String room(String ward, int room){
+        return ward + "-R" + room;
+    }
 }
@@ -1,14 +1,22 @@
 package rmit.s4134401.carehome.repo;
 
+import rmit.s4134401.carehome.Shift;
+
 import java.time.DayOfWeek;
 import java.time.LocalTime;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 
 public interface NurseRosterRepository {
     void addShift(String nurseId, DayOfWeek day, LocalTime start, LocalTime end);
+    // returns how many were new
+    int addAll(Map<String, ? extends Collection<Shift>> shiftsByNurse);
     int removeShift(String nurseId, DayOfWeek day, LocalTime start, LocalTime end);
     List<int[]> listShiftsFor(String nurseId); 
     long totalHoursFor(String nurseId, DayOfWeek day);
     boolean hasShift(String nurseId, DayOfWeek day, LocalTime t);
     boolean dayCovered(DayOfWeek day, LocalTime start, LocalTime end);
+    // every rostered shift, by nurse
+    Map<String, List<Shift>> allShifts();
 }
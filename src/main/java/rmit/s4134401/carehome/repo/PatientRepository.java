@@ -1,13 +1,23 @@
 package rmit.s4134401.carehome.repo;
 
 import rmit.s4134401.carehome.Gender;
+import rmit.s4134401.carehome.Patient;
 
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public interface PatientRepository {
     void add(String id, String fullName, Gender gender, boolean isolation);
+    void addAll(List<Patient> patients);
     Optional<String> findOccupantByBedId(int bedId);     
     void assignToBed(String patientId, int bedId);       
     void vacateBed(int bedId);                           
+    // patient id -> bed id
+    void assignAll(Map<String, Integer> beds);
     boolean existsPatientId(String patientId);
+    // bed id -> patient id for every occupied bed
+    Map<Integer, String> occupancy();
+    // bed id -> gender of its occupant
+    Map<Integer, Gender> occupantGenders();
 }
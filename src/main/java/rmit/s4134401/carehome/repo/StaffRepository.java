@@ -2,14 +2,26 @@ package rmit.s4134401.carehome.repo;
 
 import rmit.s4134401.carehome.Role;
 import rmit.s4134401.carehome.Staff;
+import rmit.s4134401.carehome.StaffDirectory;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
 public interface StaffRepository {
     void add(Staff s);
+    void addAll(Collection<? extends Staff> staff);
     Optional<Staff> find(String id);
     void rename(String id, String newName);
     void setPassword(String id, String pw);
     Map<Role, Long> countsByRole();
+    // ids in id order
+    List<String> idsByRole(Role role);
+    Optional<Role> roleOf(String id);
+    Optional<String> nameOf(String id);
+    // the whole staff table, read in one statement together with its staff_version
+    StaffDirectory directory();
+    // staff_version: moves on every insert, delete, or change of name or role
+    long directoryVersion();
 }
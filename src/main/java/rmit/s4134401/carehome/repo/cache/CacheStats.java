@@ -0,0 +1,41 @@
+package rmit.s4134401.carehome.repo.cache;
+
+import rmit.s4134401.carehome.util.Metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Hit/miss counters for one cache; a miss is any lookup that had to go to the database.
+public final class CacheStats {
+    private final String name;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+
+    public CacheStats(String name){
+        this.name = name;
+        // the newest cache of a name is the one reported
+        Metrics.gauge("cache." + name + ".hits", this::hits);
+        Metrics.gauge("cache." + name + ".misses", this::misses);
+        Metrics.gauge("cache." + name + ".loads", this::loads);
+    }
+
+    void hit(){ hits.increment(); }
+    void miss(){ misses.increment(); }
+    void load(){ loads.increment(); }
+
+    public String name(){ return name; }
+    public long hits(){ return hits.sum(); }
+    public long misses(){ return misses.sum(); }
+    // full reloads of the cached table, after a cold start or an invalidation
+    public long loads(){ return loads.sum(); }
+
+    public double hitRatio(){
+        long h = hits(), m = misses();
+        return h + m == 0 ? 0 : (double) h / (h + m);
+    }
+
+    @Override
+    public String toString(){
+        return String.format("%s: %d hits, %d misses (%.1f%%), %d loads", name, hits(), misses(), hitRatio() * 100, loads());
+    }
+}
@@ -0,0 +1,87 @@
+package rmit.s4134401.carehome.repo.cache;
+
+import rmit.s4134401.carehome.repo.BedRepository;
+import rmit.s4134401.carehome.util.DB;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Beds are seeded by the schema and only added in bulk (addRoom), so the coordinate -> id map is
+// loaded once, dropped when rooms are added, and every findBedId in between is a hash lookup.
+public final class CachingBedRepository implements BedRepository {
+    private final BedRepository delegate;
+    private final CacheStats stats = new CacheStats("beds");
+    private volatile Map<String, Integer> ids;
+    // the unit of work on this thread that has added beds not yet committed; its reads skip the map
+    private final ThreadLocal<Long> pendingTx = new ThreadLocal<>();
+
+    public CachingBedRepository(BedRepository delegate){
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Optional<Integer> findBedId(String ward, int room, int bedNum){
+        if (pending()) return delegate.findBedId(ward, room, bedNum);
+        Map<String, Integer> m = ids;
+        if (m == null) {
+            stats.miss();
+            m = load();
+        } else {
+            stats.hit();
+        }
+        // the map holds every bed, so absent means no such bed
+        return Optional.ofNullable(m.get(BedRepository.coordinate(ward, room, bedNum)));
+    }
+
+    private synchronized Map<String, Integer> load(){
+        if (ids == null) {
+            stats.load();
+            ids = Map.copyOf(delegate.allBedIds());
+        }
+        return ids;
+    }
+
+    @Override
+    public int addRoom(String ward, int room, int beds){
+        return DB.callInTransaction(() -> {
+            int added = delegate.addRoom(ward, room, beds);
+            if (added > 0) {
+                pendingTx.set(DB.transactionId());
+                // before the writer is handed on, so the next unit of work finds the new beds
+                DB.onCommit(this::invalidate);
+            }
+            return added;
+        });
+    }
+
+    private boolean pending(){
+        Long tx = pendingTx.get();
+        if (tx == null) return false;
+        if (tx == DB.transactionId()) return true;
+        // committed (and dropped) or rolled back since
+        pendingTx.remove();
+        return false;
+    }
+
+    @Override
+    public List<int[]> listCoords(){
+        return delegate.listCoords();
+    }
+
+    @Override
+    public Map<String, Integer> allBedIds(){
+        if (pending()) return delegate.allBedIds();
+        Map<String, Integer> m = ids;
+        return m != null ? m : load();
+    }
+
+    // synchronized with load(), so a load that read the old rows can't put them back afterwards
+    public synchronized void invalidate(){
+        ids = null;
+    }
+
+    public CacheStats stats(){
+        return stats;
+    }
+}
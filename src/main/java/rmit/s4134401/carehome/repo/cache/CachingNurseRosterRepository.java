@@ -0,0 +1,176 @@
+package rmit.s4134401.carehome.repo.cache;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rmit.s4134401.carehome.Shift;
+import rmit.s4134401.carehome.repo.NurseRosterRepository;
+import rmit.s4134401.carehome.util.ChangeFeed;
+import rmit.s4134401.carehome.util.DB;
+
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+// Answers the on-shift, hours and coverage checks from a RosterIndex instead of SQL.
+// Writes go to the database first and reach the index once their unit of work commits, before the
+// writer is handed on, so the next unit of work never checks against a roster missing them. Until
+// then the writing thread reads through to the database, so it sees its own uncommitted shifts and
+// nobody else does.
+public final class CachingNurseRosterRepository implements NurseRosterRepository, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(CachingNurseRosterRepository.class);
+
+    private final NurseRosterRepository delegate;
+    private final CacheStats stats = new CacheStats("roster");
+    private final ChangeFeed.Subscription changes;
+
+    // null until loaded, and again after an invalidation
+    private volatile RosterIndex index;
+    // set when the table holds a shift the index can't represent; reads go to the database until
+    // the next invalidation
+    private volatile boolean bypass;
+    // guarded by this; moves whenever the committed roster does, so a load that raced it is not kept
+    private long version;
+    // the unit of work on this thread that has roster writes not yet committed
+    private final ThreadLocal<Long> pendingTx = new ThreadLocal<>();
+
+    public CachingNurseRosterRepository(NurseRosterRepository delegate){
+        this.delegate = delegate;
+        this.changes = ChangeFeed.subscribe(ChangeFeed.lastSeq(), c -> { if (c.reloadAll()) invalidate(); });
+    }
+
+    @Override
+    public boolean hasShift(String nurseId, DayOfWeek day, LocalTime t){
+        RosterIndex ix = index();
+        return ix != null ? ix.hasShift(nurseId, day, t) : delegate.hasShift(nurseId, day, t);
+    }
+
+    @Override
+    public long totalHoursFor(String nurseId, DayOfWeek day){
+        RosterIndex ix = index();
+        return ix != null ? ix.totalHoursFor(nurseId, day) : delegate.totalHoursFor(nurseId, day);
+    }
+
+    @Override
+    public boolean dayCovered(DayOfWeek day, LocalTime start, LocalTime end){
+        RosterIndex ix = index();
+        return ix != null ? ix.dayCovered(day, start, end) : delegate.dayCovered(day, start, end);
+    }
+
+    @Override
+    public void addShift(String nurseId, DayOfWeek day, LocalTime start, LocalTime end){
+        DB.inTransaction(() -> {
+            delegate.addShift(nurseId, day, start, end);
+            changed(nurseId, day, start, end, true);
+        });
+    }
+
+    @Override
+    public int addAll(Map<String, ? extends Collection<Shift>> shiftsByNurse){
+        return DB.callInTransaction(() -> {
+            int added = delegate.addAll(shiftsByNurse);
+            // cheaper to reload once than to rebuild the index per shift
+            pendingTx.set(DB.transactionId());
+            DB.onCommit(this::invalidate);
+            return added;
+        });
+    }
+
+    @Override
+    public int removeShift(String nurseId, DayOfWeek day, LocalTime start, LocalTime end){
+        return DB.callInTransaction(() -> {
+            int removed = delegate.removeShift(nurseId, day, start, end);
+            if (removed > 0) changed(nurseId, day, start, end, false);
+            return removed;
+        });
+    }
+
+    @Override
+    public List<int[]> listShiftsFor(String nurseId){
+        return delegate.listShiftsFor(nurseId);
+    }
+
+    @Override
+    public Map<String, List<Shift>> allShifts(){
+        return delegate.allShifts();
+    }
+
+    public CacheStats stats(){
+        return stats;
+    }
+
+    public synchronized void invalidate(){
+        version++;
+        index = null;
+        bypass = false;
+    }
+
+    @Override
+    public void close(){
+        changes.close();
+    }
+
+    // the index to answer from, or null to ask the database
+    private RosterIndex index(){
+        Long tx = pendingTx.get();
+        if (tx != null) {
+            if (tx == DB.transactionId()) {
+                stats.miss();
+                return null;
+            }
+            // committed (and applied) or rolled back since
+            pendingTx.remove();
+        }
+        RosterIndex ix = index;
+        if (ix != null) {
+            stats.hit();
+            return ix;
+        }
+        stats.miss();
+        return bypass ? null : load();
+    }
+
+    private RosterIndex load(){
+        long v;
+        synchronized (this) {
+            if (index != null || bypass) return index;
+            v = version;
+        }
+        RosterIndex ix;
+        try {
+            Map<String, List<Shift>> all = delegate.allShifts();
+            boolean fits = all.values().stream().flatMap(List::stream).allMatch(RosterIndex::fits);
+            ix = fits ? RosterIndex.of(all) : null;
+        } catch (IllegalArgumentException e) {
+            // a row with end <= start
+            ix = null;
+        }
+        synchronized (this) {
+            stats.load();
+            if (version == v) {
+                index = ix;
+                if (ix == null) {
+                    bypass = true;
+                    log.info("roster has shifts off the quarter hour; checks go to the database");
+                }
+            }
+        }
+        return ix;
+    }
+
+    private void changed(String nurseId, DayOfWeek day, LocalTime start, LocalTime end, boolean add){
+        pendingTx.set(DB.transactionId());
+        DB.onCommit(() -> apply(nurseId, day, start, end, add));
+    }
+
+    private synchronized void apply(String nurseId, DayOfWeek day, LocalTime start, LocalTime end, boolean add){
+        version++;
+        if (index == null) return;
+        if (!end.isAfter(start) || !RosterIndex.fits(start) || !RosterIndex.fits(end)) {
+            index = null;
+            return;
+        }
+        index = index.with(nurseId, new Shift(day, start, end), add);
+    }
+}
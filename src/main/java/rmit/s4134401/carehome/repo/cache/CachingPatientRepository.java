@@ -0,0 +1,216 @@
+package rmit.s4134401.carehome.repo.cache;
+
+import rmit.s4134401.carehome.Change;
+import rmit.s4134401.carehome.Gender;
+import rmit.s4134401.carehome.Patient;
+import rmit.s4134401.carehome.repo.PatientRepository;
+import rmit.s4134401.carehome.util.ChangeFeed;
+import rmit.s4134401.carehome.util.DB;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+// Write-through bed -> occupant index in front of a PatientRepository.
+// Committed state lives in an immutable map that readers use without locking. Writes made inside
+// a unit of work go to a per-thread overlay first, so the writer reads its own changes while
+// nobody else sees them; the overlay is folded into the shared map as the unit of work commits,
+// before the writer is handed on (DB.onCommit), and simply forgotten if it rolls back. A write
+// outside a unit of work gets one of its own. Another process's commits are noticed when a unit
+// of work begins (an EXTERNAL change), so a bed check under the write lock never trusts a stale map.
+public final class CachingPatientRepository implements PatientRepository, AutoCloseable {
+    private final PatientRepository delegate;
+    private final CacheStats stats = new CacheStats("occupancy");
+    private final ChangeFeed.Subscription changes;
+
+    // null until loaded, and again after an invalidation
+    private volatile Map<Integer, String> occupants;
+    // guarded by this; moves whenever committed occupancy does, so a load that raced it is not kept
+    private long version;
+
+    private static final class Pending {
+        final long txId;
+        // empty = vacated in this unit of work
+        final Map<Integer, Optional<String>> beds = new HashMap<>();
+        // a bulk write: too many to track, so reads go to the database and the map is reloaded
+        boolean bulk;
+        Pending(long txId){ this.txId = txId; }
+    }
+    private final ThreadLocal<Pending> pending = new ThreadLocal<>();
+
+    public CachingPatientRepository(PatientRepository delegate){
+        this.delegate = delegate;
+        // writes this cache did not see: other processes, or bulk updates made with plain SQL
+        this.changes = ChangeFeed.subscribe(ChangeFeed.lastSeq(), c -> {
+            if (c.reloadAll() || (c.kind == Change.Kind.PATIENT_UPDATED && c.key == null)) invalidate();
+        });
+    }
+
+    @Override
+    public Optional<String> findOccupantByBedId(int bedId){
+        Pending p = current();
+        if (p != null && p.bulk) {
+            stats.miss();
+            return delegate.findOccupantByBedId(bedId);
+        }
+        if (p != null && p.beds.containsKey(bedId)) {
+            stats.hit();
+            return p.beds.get(bedId);
+        }
+        Map<Integer, String> m = occupants;
+        if (m != null) {
+            stats.hit();
+            return Optional.ofNullable(m.get(bedId));
+        }
+        stats.miss();
+        // a load now would read this unit of work's uncommitted rows into the shared map
+        if (p != null) return delegate.findOccupantByBedId(bedId);
+        return Optional.ofNullable(load().get(bedId));
+    }
+
+    @Override
+    public Map<Integer, String> occupancy(){
+        Pending p = current();
+        if (p != null) return delegate.occupancy();
+        Map<Integer, String> m = occupants;
+        return m != null ? m : load();
+    }
+
+    @Override
+    public void add(String id, String fullName, Gender gender, boolean isolation){
+        delegate.add(id, fullName, gender, isolation);
+    }
+
+    @Override
+    public void addAll(List<Patient> patients){
+        delegate.addAll(patients);
+    }
+
+    @Override
+    public void assignToBed(String patientId, int bedId){
+        DB.inTransaction(() -> {
+            delegate.assignToBed(patientId, bedId);
+            changed(bedId, patientId);
+        });
+    }
+
+    @Override
+    public void vacateBed(int bedId){
+        DB.inTransaction(() -> {
+            delegate.vacateBed(bedId);
+            changed(bedId, null);
+        });
+    }
+
+    @Override
+    public void assignAll(Map<String, Integer> beds){
+        DB.inTransaction(() -> {
+            delegate.assignAll(beds);
+            pending(DB.transactionId()).bulk = true;
+        });
+    }
+
+    @Override
+    public Map<Integer, Gender> occupantGenders(){
+        return delegate.occupantGenders();
+    }
+
+    @Override
+    public boolean existsPatientId(String patientId){
+        return delegate.existsPatientId(patientId);
+    }
+
+    public CacheStats stats(){
+        return stats;
+    }
+
+    public synchronized void invalidate(){
+        version++;
+        occupants = null;
+    }
+
+    @Override
+    public void close(){
+        changes.close();
+    }
+
+    private Map<Integer, String> load(){
+        long v;
+        synchronized (this) {
+            if (occupants != null) return occupants;
+            v = version;
+        }
+        Map<Integer, String> m = Map.copyOf(delegate.occupancy());
+        synchronized (this) {
+            stats.load();
+            if (version == v) occupants = m;
+        }
+        return m;
+    }
+
+    private Pending current(){
+        Pending p = pending.get();
+        if (p != null && p.txId != DB.transactionId()) {
+            // left behind by a unit of work that rolled back
+            pending.remove();
+            return null;
+        }
+        return p;
+    }
+
+    // inside the write's unit of work
+    private void changed(int bedId, String patientId){
+        Pending p = pending(DB.transactionId());
+        if (p.bulk) return;
+        // a patient is in at most one bed: assigning moves them out of the old one
+        if (patientId != null) {
+            Integer old = bedOf(p, patientId);
+            if (old != null && old != bedId) p.beds.put(old, Optional.empty());
+        }
+        p.beds.put(bedId, Optional.ofNullable(patientId));
+    }
+
+    private Pending pending(long tx){
+        Pending p = current();
+        if (p == null) {
+            Pending fresh = new Pending(tx);
+            pending.set(fresh);
+            DB.onCommit(() -> {
+                pending.remove();
+                if (fresh.bulk) invalidate();
+                else apply(fresh.beds);
+            });
+            p = fresh;
+        }
+        return p;
+    }
+
+    private Integer bedOf(Pending p, String patientId){
+        for (Map.Entry<Integer, Optional<String>> e : p.beds.entrySet()) {
+            if (e.getValue().filter(patientId::equals).isPresent()) return e.getKey();
+        }
+        Map<Integer, String> m = occupants;
+        if (m == null) return null;
+        for (Map.Entry<Integer, String> e : m.entrySet()) {
+            if (patientId.equals(e.getValue()) && !p.beds.containsKey(e.getKey())) return e.getKey();
+        }
+        return null;
+    }
+
+    private synchronized void apply(Map<Integer, Optional<String>> beds){
+        version++;
+        Map<Integer, String> m = occupants;
+        if (m == null) return;
+        Map<Integer, String> next = new HashMap<>(m);
+        beds.forEach((bed, pid) -> {
+            if (pid.isPresent()) {
+                next.values().remove(pid.get());
+                next.put(bed, pid.get());
+            } else {
+                next.remove(bed);
+            }
+        });
+        occupants = Map.copyOf(next);
+    }
+}
@@ -0,0 +1,215 @@
+package rmit.s4134401.carehome.repo.cache;
+
+import rmit.s4134401.carehome.Role;
+import rmit.s4134401.carehome.Staff;
+import rmit.s4134401.carehome.StaffDirectory;
+import rmit.s4134401.carehome.repo.StaffRepository;
+import rmit.s4134401.carehome.util.ChangeFeed;
+import rmit.s4134401.carehome.util.DB;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+// Staff directory in front of a StaffRepository, so role and name lookups (every authorisation
+// check) are a hash lookup in an immutable StaffDirectory that is only ever swapped whole.
+// The staff_version counter, moved by triggers on any change to the staff table by anyone, says
+// when it is stale: it is read again once the directory is carehome.staff.recheckMillis old
+// (default 1000), or straight away after another process writes, and a mismatch reloads the lot.
+// add/addAll/rename run in a unit of work and build the next directory on the side, which the
+// writer reads and which replaces the shared one once the unit of work commits, before the writer
+// is handed on.
+public final class CachingStaffRepository implements StaffRepository, AutoCloseable {
+    private final StaffRepository delegate;
+    private final CacheStats stats = new CacheStats("staff");
+    private final long recheckNanos;
+    private final ChangeFeed.Subscription changes;
+
+    // null until loaded
+    private volatile StaffDirectory directory;
+    // System.nanoTime() when directory's version was last confirmed against the database
+    private volatile long checkedAt;
+    private volatile boolean recheck;
+
+    private static final class Pending {
+        final long txId;
+        // this unit of work's directory; null when it can't be kept up to date, and reads go to the database
+        StaffDirectory view;
+        Pending(long txId, StaffDirectory view){ this.txId = txId; this.view = view; }
+    }
+    private final ThreadLocal<Pending> pending = new ThreadLocal<>();
+
+    public CachingStaffRepository(StaffRepository delegate){
+        this(delegate, Duration.ofMillis(Long.getLong("carehome.staff.recheckMillis", 1000)));
+    }
+
+    public CachingStaffRepository(StaffRepository delegate, Duration recheckAfter){
+        this.delegate = delegate;
+        this.recheckNanos = recheckAfter.toNanos();
+        // another process wrote something; it may have been staff
+        this.changes = ChangeFeed.subscribe(ChangeFeed.lastSeq(), c -> {
+            if (c.reloadAll()) recheck();
+        });
+    }
+
+    @Override
+    public Optional<Role> roleOf(String id){
+        StaffDirectory d = view();
+        if (d == null) return delegate.roleOf(id);
+        StaffDirectory.Entry e = d.get(id);
+        return e == null ? Optional.empty() : Optional.of(e.role);
+    }
+
+    @Override
+    public Optional<String> nameOf(String id){
+        StaffDirectory d = view();
+        if (d == null) return delegate.nameOf(id);
+        StaffDirectory.Entry e = d.get(id);
+        return e == null ? Optional.empty() : Optional.of(e.name);
+    }
+
+    @Override
+    public StaffDirectory directory(){
+        StaffDirectory d = view();
+        return d != null ? d : delegate.directory();
+    }
+
+    @Override
+    public long directoryVersion(){
+        return delegate.directoryVersion();
+    }
+
+    @Override
+    public void add(Staff s){
+        write(() -> delegate.add(s), d -> Map.of(s.id(), new StaffDirectory.Entry(s.role(), s.name())));
+    }
+
+    @Override
+    public void addAll(Collection<? extends Staff> staff){
+        write(() -> delegate.addAll(staff), d -> {
+            Map<String, StaffDirectory.Entry> m = new HashMap<>();
+            for (Staff s : staff) m.put(s.id(), new StaffDirectory.Entry(s.role(), s.name()));
+            return m;
+        });
+    }
+
+    @Override
+    public void rename(String id, String newName){
+        write(() -> delegate.rename(id, newName), d -> {
+            StaffDirectory.Entry e = d.get(id);
+            return e == null ? Map.of() : Map.of(id, new StaffDirectory.Entry(e.role, newName));
+        });
+    }
+
+    // passwords aren't in the directory
+    @Override
+    public void setPassword(String id, String pw){
+        delegate.setPassword(id, pw);
+    }
+
+    @Override
+    public Optional<Staff> find(String id){
+        return delegate.find(id);
+    }
+
+    @Override
+    public Map<Role, Long> countsByRole(){
+        return delegate.countsByRole();
+    }
+
+    @Override
+    public List<String> idsByRole(Role role){
+        return delegate.idsByRole(role);
+    }
+
+    public CacheStats stats(){
+        return stats;
+    }
+
+    // the next lookup confirms the version first, e.g. after writing staff with plain SQL
+    public void recheck(){
+        recheck = true;
+    }
+
+    @Override
+    public void close(){
+        changes.close();
+    }
+
+    // the directory lookups on this thread should use, or null to ask the database
+    private StaffDirectory view(){
+        Pending p = current();
+        if (p != null) {
+            if (p.view == null) stats.miss();
+            else stats.hit();
+            return p.view;
+        }
+        StaffDirectory d = directory;
+        long now = System.nanoTime();
+        if (d != null && !recheck && now - checkedAt < recheckNanos) {
+            stats.hit();
+            return d;
+        }
+        stats.miss();
+        // cleared first, so a request that arrives while we read is not lost
+        recheck = false;
+        if (d != null && delegate.directoryVersion() == d.version()) {
+            checkedAt = now;
+            return d;
+        }
+        StaffDirectory fresh = delegate.directory();
+        stats.load();
+        long tx = DB.transactionId();
+        // read on the unit of work's connection: only shared if it commits
+        if (tx != 0) pending(tx, fresh);
+        else install(fresh, now);
+        return fresh;
+    }
+
+    private void write(Runnable work, Function<StaffDirectory, Map<String, StaffDirectory.Entry>> changes){
+        DB.inTransaction(() -> {
+            Pending p = current();
+            if (p == null) {
+                // only build on the shared directory if nobody has changed staff since it was read
+                StaffDirectory d = directory;
+                p = pending(DB.transactionId(), d != null && delegate.directoryVersion() == d.version() ? d : null);
+            }
+            work.run();
+            // this unit of work holds the write lock now, so the version is ours alone until it commits
+            if (p.view != null) p.view = p.view.with(changes.apply(p.view), delegate.directoryVersion());
+        });
+    }
+
+    private Pending current(){
+        Pending p = pending.get();
+        if (p != null && p.txId != DB.transactionId()) {
+            // left behind by a unit of work that rolled back
+            pending.remove();
+            return null;
+        }
+        return p;
+    }
+
+    private Pending pending(long tx, StaffDirectory view){
+        Pending p = new Pending(tx, view);
+        pending.set(p);
+        DB.onCommit(() -> {
+            pending.remove();
+            if (p.view != null) install(p.view, System.nanoTime());
+            else recheck();
+        });
+        return p;
+    }
+
+    // the counter only goes up, so an older directory never replaces a newer one
+    private synchronized void install(StaffDirectory d, long confirmedAt){
+        StaffDirectory cur = directory;
+        if (cur != null && cur.version() > d.version()) return;
+        directory = d;
+        checkedAt = confirmedAt;
+    }
+}
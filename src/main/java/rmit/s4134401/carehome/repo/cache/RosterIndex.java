@@ -0,0 +1,119 @@
+package rmit.s4134401.carehome.repo.cache;
+
+import rmit.s4134401.carehome.Shift;
+
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+// Immutable snapshot of the roster. Each nurse's week is 7 x 96 quarter-hour slots, two longs per
+// day: slot q of day d is bit q % 64 of word 2d + q / 64, set when some shift of theirs covers it.
+// Only shifts that start and end on a quarter hour fit; see fits().
+final class RosterIndex {
+    private static final int WORDS_PER_DAY = 2;
+
+    private final Map<String, Set<Shift>> shifts;
+    private final Map<String, long[]> weeks;
+    // whole hours per day, summed shift by shift the way the SQL did (overlaps count twice)
+    private final Map<String, long[]> hours;
+    // exact shift -> how many nurses work it
+    private final Map<Shift, Integer> coverage;
+
+    private RosterIndex(Map<String, Set<Shift>> shifts, Map<String, long[]> weeks, Map<String, long[]> hours,
+                        Map<Shift, Integer> coverage){
+        this.shifts = shifts;
+        this.weeks = weeks;
+        this.hours = hours;
+        this.coverage = coverage;
+    }
+
+    static RosterIndex of(Map<String, ? extends Collection<Shift>> all){
+        RosterIndex ix = new RosterIndex(new HashMap<>(), new HashMap<>(), new HashMap<>(), new HashMap<>());
+        all.forEach((nurse, theirs) -> {
+            if (theirs.isEmpty()) return;
+            Set<Shift> copy = Set.copyOf(theirs);
+            ix.put(nurse, copy);
+            for (Shift s : copy) ix.coverage.merge(s, 1, Integer::sum);
+        });
+        return ix;
+    }
+
+    // a new snapshot with one shift added or removed. The maps are copied entry by entry but the
+    // arrays and shift sets in them are shared; only this nurse's week and hours are recomputed.
+    RosterIndex with(String nurseId, Shift s, boolean add){
+        Set<Shift> theirs = shifts.getOrDefault(nurseId, Set.of());
+        if (theirs.contains(s) == add) return this;
+        Set<Shift> changed = new HashSet<>(theirs);
+        if (add) changed.add(s); else changed.remove(s);
+
+        RosterIndex next = new RosterIndex(new HashMap<>(shifts), new HashMap<>(weeks), new HashMap<>(hours),
+                new HashMap<>(coverage));
+        if (changed.isEmpty()) {
+            next.shifts.remove(nurseId);
+            next.weeks.remove(nurseId);
+            next.hours.remove(nurseId);
+        } else {
+            next.put(nurseId, Set.copyOf(changed));
+        }
+        if (add) next.coverage.merge(s, 1, Integer::sum);
+        else next.coverage.computeIfPresent(s, (k, n) -> n == 1 ? null : n - 1);
+        return next;
+    }
+
+    // (re)builds one nurse's slots and hours from their shifts
+    private void put(String nurse, Set<Shift> theirs){
+        long[] w = new long[7 * WORDS_PER_DAY];
+        long[] h = new long[7];
+        for (Shift sh : theirs) {
+            int d = sh.day.ordinal();
+            setRange(w, d, slot(sh.start), slot(sh.end));
+            h[d] += sh.hours();
+        }
+        shifts.put(nurse, theirs);
+        weeks.put(nurse, w);
+        hours.put(nurse, h);
+    }
+
+    static boolean fits(LocalTime t){
+        return t.getMinute() % 15 == 0 && t.getSecond() == 0 && t.getNano() == 0;
+    }
+
+    static boolean fits(Shift s){
+        return fits(s.start) && fits(s.end);
+    }
+
+    static int slot(LocalTime t){
+        return t.getHour() * 4 + t.getMinute() / 15;
+    }
+
+    boolean hasShift(String nurseId, DayOfWeek day, LocalTime t){
+        long[] w = weeks.get(nurseId);
+        if (w == null) return false;
+        int q = slot(t);
+        return (w[day.ordinal() * WORDS_PER_DAY + (q >>> 6)] & (1L << q)) != 0;
+    }
+
+    long totalHoursFor(String nurseId, DayOfWeek day){
+        long[] h = hours.get(nurseId);
+        return h == null ? 0 : h[day.ordinal()];
+    }
+
+    boolean dayCovered(DayOfWeek day, LocalTime start, LocalTime end){
+        return end.isAfter(start) && coverage.containsKey(new Shift(day, start, end));
+    }
+
+    // sets slots [from, to) of one day
+    private static void setRange(long[] w, int day, int from, int to){
+        int base = day * WORDS_PER_DAY;
+        for (int word = from >>> 6; word <= (to - 1) >>> 6; word++) {
+            int lo = Math.max(from, word << 6) - (word << 6);
+            int hi = Math.min(to, (word + 1) << 6) - (word << 6);
+            long mask = hi == 64 ? -1L << lo : ((1L << hi) - 1) & (-1L << lo);
+            w[base + word] |= mask;
+        }
+    }
+}
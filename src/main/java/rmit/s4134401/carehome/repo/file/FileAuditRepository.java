@@ -0,0 +1,441 @@
+package rmit.s4134401.carehome.repo.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rmit.s4134401.carehome.ActionType;
+import rmit.s4134401.carehome.AuditEvent;
+import rmit.s4134401.carehome.Change;
+import rmit.s4134401.carehome.repo.AuditRepository;
+import rmit.s4134401.carehome.repo.jdbc.JdbcAuditRepository;
+import rmit.s4134401.carehome.util.ChangeFeed;
+import rmit.s4134401.carehome.util.DB;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+// Audit trail kept in rolling, fixed-size segment files under one directory.
+// Segment layout: [magic][version][base seq] then records of
+//   [int len][long seq][long epoch millis][staff][type][patient][bed][from bed][day][second of day][medicine]
+//   [details][int crc32][int len]
+// The trailing len lets the "latest N" views walk backwards without an index.
+public final class FileAuditRepository implements AuditRepository, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(FileAuditRepository.class);
+
+    private static final int MAGIC = 0x41554454; // "AUDT"
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+    private static final int FRAME = 12;          // leading len + crc + trailing len
+    private static final int INDEX_EVERY = 64;    // one sparse index entry per this many records
+    public static final int DEFAULT_SEGMENT_BYTES = 8 * 1024 * 1024;
+
+    private static final class Segment {
+        final Path file;
+        final long baseSeq;
+        final MappedByteBuffer buf;
+        volatile int end = HEADER;     // first free byte; readers never look past it
+        volatile long lastSeq;         // baseSeq - 1 while empty
+        // sparse index: seq -> offset for every INDEX_EVERY-th record
+        long[] idxSeq = new long[16];
+        int[] idxPos = new int[16];
+        volatile int idxSize;
+
+        Segment(Path file, long baseSeq, MappedByteBuffer buf) {
+            this.file = file; this.baseSeq = baseSeq; this.buf = buf; this.lastSeq = baseSeq - 1;
+        }
+
+        void index(long seq, int pos) {
+            if (idxSize == idxSeq.length) {
+                idxSeq = Arrays.copyOf(idxSeq, idxSize * 2);
+                idxPos = Arrays.copyOf(idxPos, idxSize * 2);
+            }
+            idxSeq[idxSize] = seq;
+            idxPos[idxSize] = pos;
+            idxSize = idxSize + 1;
+        }
+
+        // offset of the last indexed record at or before seq
+        int floor(long seq) {
+            int n = idxSize; long[] s = idxSeq; int[] p = idxPos;  // size first: it publishes the arrays
+            int lo = 0, hi = n - 1, at = HEADER;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (s[mid] <= seq) { at = p[mid]; lo = mid + 1; } else hi = mid - 1;
+            }
+            return at;
+        }
+    }
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+    private final CRC32 crc = new CRC32();  // guarded by this
+    private boolean closed;                 // guarded by this
+
+    public FileAuditRepository(Path dir) {
+        this(dir, DEFAULT_SEGMENT_BYTES);
+    }
+
+    public FileAuditRepository(Path dir, int segmentBytes) {
+        if (segmentBytes < 4096) throw new IllegalArgumentException("segmentBytes >= 4096");
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        try {
+            Files.createDirectories(dir);
+            List<Path> files;
+            try (Stream<Path> s = Files.list(dir)) {
+                files = s.filter(p -> p.getFileName().toString().endsWith(".seg")).sorted().toList();
+            }
+            for (Path f : files) segments.add(recover(f));
+            if (segments.isEmpty()) segments.add(create(1));
+        } catch (IOException e) {
+            throw new RuntimeException("open audit log failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void record(AuditEvent event) {
+        // same rule as the SQLite writers: nothing is recorded for a rolled-back unit of work
+        DB.afterCommit(() -> append(event));
+    }
+
+    // there is no index on the typed fields here; these scan backwards from the tail
+    @Override
+    public List<AuditEvent> byPatient(String patientId, int limit) {
+        return scan(e -> patientId.equals(e.patientId), limit);
+    }
+
+    @Override
+    public List<AuditEvent> byStaff(String staffId, int limit) {
+        return scan(e -> staffId.equals(e.staffId), limit);
+    }
+
+    @Override
+    public List<AuditEvent> byType(ActionType type, int limit) {
+        return scan(e -> e.type == type, limit);
+    }
+
+    @Override
+    public List<AuditEvent> between(Instant from, Instant to, int limit) {
+        return scan(e -> !e.when.isBefore(from) && e.when.isBefore(to), limit);
+    }
+
+    @Override
+    public List<AuditEvent> page(long beforeId, ActionType type, String staffId, int limit) {
+        return scanBefore(beforeId, e -> (type == null || e.type == type)
+                && (staffId == null || staffId.equals(e.staffId)), limit);
+    }
+
+    // no ranking without an index: every word must prefix a word of the event, newest first
+    @Override
+    public List<AuditEvent> search(String text, int offset, int limit) {
+        String[] words = text == null ? new String[0]
+                : text.toLowerCase().replaceAll("[^\\p{L}\\p{N}]+", " ").trim().split(" +");
+        if (words.length == 0 || words[0].isEmpty()) return List.of();
+        List<AuditEvent> hits = scan(e -> {
+            String hay = " " + (e.staffId + " " + e.type + " " + e.patientId + " " + e.medicine + " " + e.details)
+                    .toLowerCase().replaceAll("[^\\p{L}\\p{N}]+", " ");
+            for (String w : words) if (!hay.contains(" " + w)) return false;
+            return true;
+        }, offset + limit);
+        return hits.subList(Math.min(offset, hits.size()), hits.size());
+    }
+
+    public synchronized long append(AuditEvent e) {
+        if (closed) throw new IllegalStateException("audit log closed");
+        byte[] staff = utf8(e.staffId);
+        byte[] t = utf8(e.type.name());
+        byte[] patient = utf8(e.patientId);
+        byte[] medicine = utf8(e.medicine);
+        byte[] d = utf8(e.details);
+        int len = 8 + 8 + 2 + size(staff) + 2 + t.length + 2 + size(patient) + 4 + 4 + 1 + 4 + 2 + size(medicine)
+                + 4 + d.length;
+        if (HEADER + FRAME + len + 4 > segmentBytes)
+            throw new IllegalArgumentException("audit record too large: " + len + " bytes");
+
+        Segment seg = active();
+        if (seg.end + FRAME + len + 4 > seg.buf.capacity()) seg = roll(seg);
+
+        long seq = seg.lastSeq + 1;
+        int pos = seg.end;
+        ByteBuffer b = seg.buf.duplicate();
+        b.position(pos + 4);
+        b.putLong(seq);
+        b.putLong(e.when.toEpochMilli());
+        putShortBytes(b, staff);
+        putShortBytes(b, t);
+        putShortBytes(b, patient);
+        b.putInt(e.bedId == null ? Integer.MIN_VALUE : e.bedId);
+        b.putInt(e.fromBedId == null ? Integer.MIN_VALUE : e.fromBedId);
+        b.put((byte) (e.day == null ? -1 : e.day.ordinal()));
+        b.putInt(e.time == null ? -1 : e.time.toSecondOfDay());
+        putShortBytes(b, medicine);
+        b.putInt(d.length).put(d);
+        crc.reset();
+        crc.update(seg.buf.duplicate().position(pos + 4).limit(pos + 4 + len));
+        b.putInt((int) crc.getValue());
+        b.putInt(len);
+        // terminator so recovery stops here even if older bytes follow
+        b.putInt(0);
+        // the length goes in last: a torn write leaves a zero length that recovery treats as the end
+        seg.buf.putInt(pos, len);
+
+        if ((seq - seg.baseSeq) % INDEX_EVERY == 0) seg.index(seq, pos);
+        seg.lastSeq = seq;
+        seg.end = pos + FRAME + len;
+        ChangeFeed.publish(Change.Kind.AUDIT, e.staffId, null);
+        return seq;
+    }
+
+    public long lastSeq() {
+        return active().lastSeq;
+    }
+
+    // newest first, read straight out of the mapped segments
+    public List<AuditEvent> latest(int n) {
+        List<AuditEvent> out = new ArrayList<>(Math.max(0, Math.min(n, 1024)));
+        List<Segment> segs = segments;
+        for (int i = segs.size() - 1; i >= 0 && out.size() < n; i--) {
+            Segment s = segs.get(i);
+            ByteBuffer b = s.buf.duplicate();
+            int pos = s.end;
+            while (pos > HEADER && out.size() < n) {
+                int len = b.getInt(pos - 4);
+                pos -= FRAME + len;
+                out.add(decode(b, pos));
+            }
+        }
+        return out;
+    }
+
+    // oldest first, starting at seq; the sparse index bounds the scan to INDEX_EVERY records
+    public List<AuditEvent> readFrom(long seq, int limit) {
+        List<AuditEvent> out = new ArrayList<>(Math.max(0, Math.min(limit, 1024)));
+        List<Segment> segs = segments;
+        int first = 0;
+        for (int i = segs.size() - 1; i >= 0; i--) {
+            if (segs.get(i).baseSeq <= seq) { first = i; break; }
+        }
+        for (int i = first; i < segs.size() && out.size() < limit; i++) {
+            Segment s = segs.get(i);
+            ByteBuffer b = s.buf.duplicate();
+            int end = s.end;
+            int pos = i == first ? s.floor(seq) : HEADER;
+            while (pos < end && out.size() < limit) {
+                int len = b.getInt(pos);
+                if (b.getLong(pos + 4) >= seq) out.add(decode(b, pos));
+                pos += FRAME + len;
+            }
+        }
+        return out;
+    }
+
+    // replaces the contents of the SQLite audit table with this log, e.g. after restoring segments.
+    // Table ids are the log's seqs, so keyset pages (page(beforeId...)) line up across the two.
+    // Rows with an id the log also has are taken to be copies and replaced; rows past the log's
+    // last seq were only ever written to SQLite, and the rebuild refuses to drop them unless
+    // discardNewer is set.
+    public int rebuildTable() {
+        return rebuildTable(false);
+    }
+
+    public int rebuildTable(boolean discardNewer) {
+        JdbcAuditRepository table = new JdbcAuditRepository();
+        long last = lastSeq();
+        return DB.callInTransaction(() -> {
+            try (Connection c = DB.get(); Statement st = c.createStatement()) {
+                long newer;
+                try (ResultSet rs = st.executeQuery("SELECT COUNT(*) FROM audit WHERE id > " + last)) {
+                    newer = rs.next() ? rs.getLong(1) : 0;
+                }
+                if (newer > 0 && !discardNewer)
+                    throw new IllegalStateException(newer + " audit rows are newer than the log (seq " + last + ")");
+                int deleted = st.executeUpdate("DELETE FROM audit");
+                if (deleted > 0) log.warn("rebuilding audit table: {} rows replaced, {} of them not in the log", deleted, newer);
+            } catch (SQLException e) {
+                throw new RuntimeException("rebuild audit table failed: " + e.getMessage(), e);
+            }
+            int rows = 0;
+            long next = 1;
+            List<AuditEvent> chunk;
+            while (next <= last && !(chunk = readFrom(next, (int) Math.min(1000, last - next + 1))).isEmpty()) {
+                table.restoreAll(chunk);
+                rows += chunk.size();
+                next = chunk.get(chunk.size() - 1).id + 1;
+            }
+            // AUTOINCREMENT never goes below the highest id it has handed out; new rows follow the log
+            try (Connection c = DB.get(); Statement st = c.createStatement()) {
+                st.executeUpdate("DELETE FROM sqlite_sequence WHERE name='audit'");
+                st.executeUpdate("INSERT INTO sqlite_sequence(name, seq) VALUES('audit', " + last + ")");
+            } catch (SQLException e) {
+                throw new RuntimeException("rebuild audit table failed: " + e.getMessage(), e);
+            }
+            return rows;
+        });
+    }
+
+    // pushes dirty pages to disk; the OS writes them back on its own otherwise
+    public synchronized void flush() {
+        active().buf.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) return;
+        closed = true;
+        for (Segment s : segments) s.buf.force();
+    }
+
+    private List<AuditEvent> scan(Predicate<AuditEvent> match, int limit) {
+        return scanBefore(Long.MAX_VALUE, match, limit);
+    }
+
+    // newest first from the record just below seq "before"; the sparse index finds where to start
+    private List<AuditEvent> scanBefore(long before, Predicate<AuditEvent> match, int limit) {
+        List<AuditEvent> out = new ArrayList<>();
+        List<Segment> segs = segments;
+        for (int i = segs.size() - 1; i >= 0 && out.size() < limit; i--) {
+            Segment s = segs.get(i);
+            if (s.baseSeq >= before) continue;
+            ByteBuffer b = s.buf.duplicate();
+            int pos = s.end;
+            if (s.lastSeq >= before) {
+                pos = s.floor(before);
+                while (b.getLong(pos + 4) < before) pos += FRAME + b.getInt(pos);
+            }
+            while (pos > HEADER && out.size() < limit) {
+                pos -= FRAME + b.getInt(pos - 4);
+                AuditEvent e = decode(b, pos);
+                if (match.test(e)) out.add(e);
+            }
+        }
+        return out;
+    }
+
+    private Segment active() {
+        return segments.get(segments.size() - 1);
+    }
+
+    private Segment roll(Segment full) {
+        full.buf.force();
+        Segment next = create(full.lastSeq + 1);
+        segments.add(next);
+        return next;
+    }
+
+    private Segment create(long baseSeq) {
+        Path f = dir.resolve(String.format("%020d.seg", baseSeq));
+        try (FileChannel ch = FileChannel.open(f, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            buf.putInt(0, MAGIC).putInt(4, VERSION).putLong(8, baseSeq).putInt(HEADER, 0);
+            return new Segment(f, baseSeq, buf);
+        } catch (IOException e) {
+            throw new RuntimeException("create audit segment failed: " + e.getMessage(), e);
+        }
+    }
+
+    // rebuilds end, lastSeq and the sparse index by walking the records until the first bad frame
+    private Segment recover(Path f) throws IOException {
+        MappedByteBuffer buf;
+        try (FileChannel ch = FileChannel.open(f, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long size = ch.size();
+            if (size < HEADER || size > Integer.MAX_VALUE) throw new IOException("bad audit segment size: " + f);
+            buf = ch.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION) throw new IOException("not an audit segment: " + f);
+        Segment s = new Segment(f, buf.getLong(8), buf);
+        int cap = buf.capacity();
+        int pos = HEADER;
+        CRC32 check = new CRC32();
+        while (pos + 4 <= cap) {
+            int len = buf.getInt(pos);
+            if (len <= 0 || pos + FRAME + len > cap || buf.getInt(pos + 8 + len) != len) break;
+            check.reset();
+            check.update(buf.duplicate().position(pos + 4).limit(pos + 4 + len));
+            if ((int) check.getValue() != buf.getInt(pos + 4 + len)) break;
+            long seq = buf.getLong(pos + 4);
+            if (seq != s.lastSeq + 1) break;
+            if ((seq - s.baseSeq) % INDEX_EVERY == 0) s.index(seq, pos);
+            s.lastSeq = seq;
+            pos += FRAME + len;
+        }
+        if (pos + 4 <= cap && buf.getInt(pos) != 0) {
+            log.warn("audit segment {} truncated at offset {}", f.getFileName(), pos);
+            buf.putInt(pos, 0);
+        }
+        s.end = pos;
+        return s;
+    }
+
+    private static AuditEvent decode(ByteBuffer b, int pos) {
+        int p = pos + 4;
+        long seq = b.getLong(p); p += 8;
+        long millis = b.getLong(p); p += 8;
+        int sl = b.getShort(p); p += 2;
+        String staff = str(b, p, sl);
+        p += Math.max(sl, 0);
+        int tl = b.getShort(p); p += 2;
+        String type = str(b, p, tl);
+        p += tl;
+        int pl = b.getShort(p); p += 2;
+        String patient = str(b, p, pl);
+        p += Math.max(pl, 0);
+        int bi = b.getInt(p); p += 4;
+        Integer bed = bi == Integer.MIN_VALUE ? null : bi;
+        int fi = b.getInt(p); p += 4;
+        Integer fromBed = fi == Integer.MIN_VALUE ? null : fi;
+        byte di = b.get(p); p += 1;
+        DayOfWeek day = di < 0 ? null : DayOfWeek.values()[di];
+        int sec = b.getInt(p); p += 4;
+        LocalTime time = sec < 0 ? null : LocalTime.ofSecondOfDay(sec);
+        int ml = b.getShort(p); p += 2;
+        String medicine = str(b, p, ml);
+        p += Math.max(ml, 0);
+        int dl = b.getInt(p); p += 4;
+        String details = str(b, p, dl);
+        return new AuditEvent(seq, Instant.ofEpochMilli(millis), staff, ActionType.parse(type), patient, bed, fromBed, day,
+                time, medicine, details);
+    }
+
+    // a negative length encodes null
+    private static String str(ByteBuffer b, int pos, int len) {
+        if (len < 0) return null;
+        byte[] a = new byte[len];
+        b.get(pos, a);
+        return new String(a, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String s) {
+        return s == null ? null : s.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static int size(byte[] v) {
+        return v == null ? 0 : v.length;
+    }
+
+    private static void putShortBytes(ByteBuffer b, byte[] v) {
+        if (v == null) { b.putShort((short) -1); return; }
+        if (v.length > Short.MAX_VALUE) throw new IllegalArgumentException("audit field too long");
+        b.putShort((short) v.length).put(v);
+    }
+}
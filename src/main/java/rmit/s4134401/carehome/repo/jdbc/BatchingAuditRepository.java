@@ -0,0 +1,291 @@
+package rmit.s4134401.carehome.repo.jdbc;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rmit.s4134401.carehome.ActionType;
+import rmit.s4134401.carehome.AuditEvent;
+import rmit.s4134401.carehome.Change;
+import rmit.s4134401.carehome.repo.AuditRepository;
+import rmit.s4134401.carehome.util.ChangeFeed;
+import rmit.s4134401.carehome.util.DB;
+import rmit.s4134401.carehome.util.Metrics;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+public final class BatchingAuditRepository implements AuditRepository, AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(BatchingAuditRepository.class);
+
+    public enum Durability {
+        // return as soon as the entry is queued; a clean shutdown still flushes everything
+        FIRE_AND_FORGET,
+        // return once the batch holding the entry has committed
+        WAIT_FOR_FLUSH
+    }
+
+    private static final int MAX_BATCH = 256;
+    private static final long RETRY_MS = 200;
+    // only SQLITE_BUSY/LOCKED is retried, and for about 10 s; anything else fails the same way again
+    private static final int MAX_ATTEMPTS = 50;
+    // dropped sequence numbers remembered for failing waiters; the oldest go past this
+    private static final int MAX_DROPPED = 10_000;
+
+    private static final class Entry {
+        final long seq;
+        final AuditEvent event;
+        Entry(long seq, AuditEvent event) { this.seq = seq; this.event = event; }
+    }
+
+    private final Durability durability;
+    private final JdbcAuditRepository reads = new JdbcAuditRepository();
+    private final BlockingQueue<Entry> queue;
+    private final Thread writer;
+    private final Object putLock = new Object();
+    private final Object lock = new Object();
+    // "flushed >= n" means 1..n are written. Entries written straight through can land ahead of
+    // lower ones still queued, so those wait in `ahead` until the gap below them closes.
+    private volatile long enqueued;   // written under putLock
+    private long flushed;             // guarded by lock
+    private final TreeSet<Long> ahead = new TreeSet<>();   // guarded by lock
+    // entries given up on and logged; they count as flushed, but a waiter on them is told
+    private final TreeSet<Long> dropped = new TreeSet<>(); // guarded by lock
+    // what the writer thread was holding when close() stopped it; close() writes it
+    private final List<Entry> handedBack = new ArrayList<>();   // guarded by lock
+    private volatile boolean closed;
+
+    public BatchingAuditRepository() {
+        this(Durability.valueOf(System.getProperty("carehome.audit.durability", "FIRE_AND_FORGET").toUpperCase()),
+                Integer.getInteger("carehome.audit.queue", 10_000));
+    }
+
+    public BatchingAuditRepository(Durability durability, int capacity) {
+        if (durability == null) throw new IllegalArgumentException("null durability");
+        if (capacity < 1) throw new IllegalArgumentException("capacity >= 1");
+        this.durability = durability;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::drainLoop, "audit-writer");
+        this.writer.setDaemon(true);
+        this.writer.start();
+        DB.onShutdown(this::close);
+    }
+
+    public Durability durability() { return durability; }
+
+    @Override
+    public void record(AuditEvent event) {
+        // inside a unit of work the entry is only queued if the work commits
+        DB.afterCommit(() -> submit(event));
+    }
+
+    // queries flush first so they see everything logged before the call
+    @Override
+    public List<AuditEvent> byPatient(String patientId, int limit) {
+        flush();
+        return reads.byPatient(patientId, limit);
+    }
+
+    @Override
+    public List<AuditEvent> byStaff(String staffId, int limit) {
+        flush();
+        return reads.byStaff(staffId, limit);
+    }
+
+    @Override
+    public List<AuditEvent> byType(ActionType type, int limit) {
+        flush();
+        return reads.byType(type, limit);
+    }
+
+    @Override
+    public List<AuditEvent> between(Instant from, Instant to, int limit) {
+        flush();
+        return reads.between(from, to, limit);
+    }
+
+    @Override
+    public List<AuditEvent> page(long beforeId, ActionType type, String staffId, int limit) {
+        flush();
+        return reads.page(beforeId, type, staffId, limit);
+    }
+
+    @Override
+    public List<AuditEvent> search(String text, int offset, int limit) {
+        flush();
+        return reads.search(text, offset, limit);
+    }
+
+    // blocks until everything queued before this call is in the database; throws if some of it
+    // had to be dropped
+    public void flush() {
+        long from;
+        synchronized (lock) { from = flushed; }
+        awaitFlushed(from, enqueued);
+    }
+
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        // not interrupted: a write in progress finishes, and a busy retry hands its batch back
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // whatever the writer did not get to (or arrived late) is written here
+        List<Entry> rest = new ArrayList<>();
+        synchronized (lock) {
+            rest.addAll(handedBack);
+            handedBack.clear();
+        }
+        queue.drainTo(rest);
+        rest.sort(java.util.Comparator.comparingLong(e -> e.seq));
+        for (int i = 0; i < rest.size(); i += MAX_BATCH)
+            writeBatch(rest.subList(i, Math.min(rest.size(), i + MAX_BATCH)), null);
+    }
+
+    private void submit(AuditEvent event) {
+        // after close, or when waiting would need the writer connection this thread already holds,
+        // write straight through
+        if (closed || (durability == Durability.WAIT_FOR_FLUSH && DB.holdsWriter())) {
+            long seq;
+            synchronized (putLock) { seq = ++enqueued; }
+            writeBatch(List.of(new Entry(seq, event)), null);
+            synchronized (lock) {
+                if (dropped.contains(seq)) throw new RuntimeException("audit entry not written: " + event);
+            }
+            return;
+        }
+        long seq;
+        try {
+            synchronized (putLock) {
+                seq = enqueued + 1;
+                // a full queue applies back-pressure rather than dropping entries
+                queue.put(new Entry(seq, event));
+                enqueued = seq;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("audit log interrupted", e);
+        }
+        if (durability == Durability.WAIT_FOR_FLUSH) awaitFlushed(seq - 1, seq);
+    }
+
+    // waits for from+1..seq, then fails if any of them were dropped
+    private void awaitFlushed(long from, long seq) {
+        synchronized (lock) {
+            while (flushed < seq && !(closed && !writer.isAlive() && queue.isEmpty())) {
+                try {
+                    lock.wait(100);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (seq > from && !dropped.subSet(from + 1, true, seq, true).isEmpty())
+                throw new RuntimeException("audit entries not written: " + dropped.subSet(from + 1, true, seq, true));
+        }
+    }
+
+    private void drainLoop() {
+        List<Entry> batch = new ArrayList<>(MAX_BATCH);
+        List<Entry> left = new ArrayList<>();
+        while (!closed) {
+            try {
+                Entry first = queue.poll(200, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                queue.drainTo(batch, MAX_BATCH - 1);
+                writeBatch(batch, left);
+                if (!left.isEmpty()) {
+                    synchronized (lock) { handedBack.addAll(left); }
+                    left.clear();
+                }
+            } catch (InterruptedException e) {
+                // nothing interrupts us; just look at closed again
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    // Writes batch, retrying while the database is busy. An entry that still fails is logged and
+    // dropped; a batch that fails for another reason is split to find the bad entries, so the rest
+    // still go in. With handBack set (the writer thread), a busy batch goes there once close() has
+    // been called, for close() to write.
+    private void writeBatch(List<Entry> batch, List<Entry> handBack) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                write(batch);
+                settled(batch, false);
+                return;
+            } catch (RuntimeException e) {
+                boolean busy = Metrics.busy(e);
+                if (busy && attempt < MAX_ATTEMPTS) {
+                    if (handBack != null && closed) {
+                        handBack.addAll(batch);
+                        return;
+                    }
+                    log.warn("audit batch of {} busy, retrying: {}", batch.size(), e.getMessage());
+                    try {
+                        Thread.sleep(RETRY_MS);
+                    } catch (InterruptedException ie) {
+                        // our caller gave up waiting; stop retrying rather than leave flush() hanging
+                        Thread.currentThread().interrupt();
+                        attempt = MAX_ATTEMPTS;
+                    }
+                    if (attempt < MAX_ATTEMPTS) continue;
+                }
+                if (!busy && batch.size() > 1) {
+                    int mid = batch.size() / 2;
+                    writeBatch(batch.subList(0, mid), handBack);
+                    writeBatch(batch.subList(mid, batch.size()), handBack);
+                    return;
+                }
+                for (Entry x : batch)
+                    log.error("audit entry {} dropped after {} attempt(s): {} [{}]", x.seq, attempt, e.getMessage(), x.event);
+                settled(batch, true);
+                return;
+            }
+        }
+    }
+
+    private void settled(List<Entry> batch, boolean lost) {
+        synchronized (lock) {
+            for (Entry e : batch) {
+                if (e.seq > flushed) ahead.add(e.seq);
+                if (lost) dropped.add(e.seq);
+            }
+            while (ahead.remove(flushed + 1)) flushed++;
+            while (dropped.size() > MAX_DROPPED) dropped.pollFirst();
+            lock.notifyAll();
+        }
+    }
+
+    // one transaction and one multi-row INSERT per batch
+    private static void write(List<Entry> batch) {
+        StringBuilder sql = new StringBuilder("INSERT INTO audit(" + JdbcAuditRepository.COLUMNS + ") VALUES ");
+        for (int i = 0; i < batch.size(); i++) sql.append(i == 0 ? "" : ",").append(JdbcAuditRepository.PARAMS);
+        DB.inTransaction(() -> {
+            try (Connection c = DB.get(); PreparedStatement ps = c.prepareStatement(sql.toString())) {
+                int p = 1;
+                for (Entry e : batch) {
+                    JdbcAuditRepository.bind(ps, p, e.event);
+                    p += JdbcAuditRepository.PARAM_COUNT;
+                }
+                ps.executeUpdate();
+                ChangeFeed.publish(Change.Kind.AUDIT, null, null);
+            } catch (SQLException e) {
+                throw new RuntimeException("audit batch failed: " + e.getMessage(), e);
+            }
+        });
+    }
+}
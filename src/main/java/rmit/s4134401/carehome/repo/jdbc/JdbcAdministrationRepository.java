@@ -3,6 +3,7 @@ package rmit.s4134401.carehome.repo.jdbc;
 import rmit.s4134401.carehome.MedicationAdministration;
 import rmit.s4134401.carehome.repo.AdministrationRepository;
 import rmit.s4134401.carehome.util.DB;
+import rmit.s4134401.carehome.util.DayTime;
 
 import java.sql.*;
 import java.time.DayOfWeek;
@@ -16,13 +17,13 @@ public class JdbcAdministrationRepository implements AdministrationRepository {
                     String staffId, boolean correction) {
         try (Connection c = DB.get();
              PreparedStatement ps = c.prepareStatement(
-                     "INSERT INTO administrations(patient_id,medicine,dose,day,time,staff_id,is_correction) " +
+                     "INSERT INTO administrations(patient_id,medicine,dose,day,time_min,staff_id,is_correction) " +
                              "VALUES(?,?,?,?,?,?,?)")) {
             ps.setString(1, patientId);
             ps.setString(2, medicine);
             ps.setString(3, dose);
-            ps.setString(4, day.name());
-            ps.setString(5, time.toString());
+            ps.setInt(4, DayTime.day(day));
+            ps.setInt(5, DayTime.minutes(time));
             ps.setString(6, staffId);
             ps.setInt(7, correction ? 1 : 0);
             ps.executeUpdate();
@@ -31,18 +32,38 @@ public class JdbcAdministrationRepository implements AdministrationRepository {
         }
     }
 
+    public void addAll(List<MedicationAdministration> batch) {
+        try (Connection c = DB.get();
+             PreparedStatement ps = c.prepareStatement(
+                     "INSERT INTO administrations(patient_id,medicine,dose,day,time_min,staff_id,is_correction) " +
+                             "VALUES(?,?,?,?,?,?,0)")) {
+            for (MedicationAdministration a : batch) {
+                ps.setString(1, a.patientId());
+                ps.setString(2, a.medicine());
+                ps.setString(3, a.dose());
+                ps.setInt(4, DayTime.day(a.day()));
+                ps.setInt(5, DayTime.minutes(a.time()));
+                ps.setString(6, a.staffId());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException("add administrations failed: " + e.getMessage(), e);
+        }
+    }
+
     public List<MedicationAdministration> listForPatient(String patientId) {
         List<MedicationAdministration> out = new ArrayList<MedicationAdministration>();
-        try (Connection c = DB.get();
+        try (Connection c = DB.read();
              PreparedStatement ps = c.prepareStatement(
-                     "SELECT medicine,dose,day,time,staff_id FROM administrations WHERE patient_id=? ORDER BY id")) {
+                     "SELECT medicine,dose,day,time_min,staff_id FROM administrations WHERE patient_id=? ORDER BY id")) {
             ps.setString(1, patientId);
             ResultSet rs = ps.executeQuery();
             while (rs.next()) {
                 String med = rs.getString(1);
                 String dose = rs.getString(2);
-                DayOfWeek day = DayOfWeek.valueOf(rs.getString(3));
-                LocalTime t = LocalTime.parse(rs.getString(4));
+                DayOfWeek day = DayTime.day(rs.getInt(3));
+                LocalTime t = DayTime.time(rs.getInt(4));
                 String staff = rs.getString(5);
                 out.add(new MedicationAdministration(patientId, med, dose, day, t, staff));
             }
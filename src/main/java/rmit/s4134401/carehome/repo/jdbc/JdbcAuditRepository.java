@@ -2,45 +2,178 @@ package rmit.s4134401.carehome.repo.jdbc;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.Statement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
 import rmit.s4134401.carehome.ActionType;
+import rmit.s4134401.carehome.AuditEvent;
+import rmit.s4134401.carehome.Change;
 import rmit.s4134401.carehome.repo.AuditRepository;
+import rmit.s4134401.carehome.util.ChangeFeed;
 import rmit.s4134401.carehome.util.DB;
+import rmit.s4134401.carehome.util.DayTime;
 
 public final class JdbcAuditRepository implements AuditRepository {
+    static final String COLUMNS = "when_ts, when_ms, staff_id, type, patient_id, bed_id, day, time_min, medicine, details, from_bed_id";
+    static final String PARAMS = "(?,?,?,?,?,?,?,?,?,?,?)";
+    static final int PARAM_COUNT = 11;
 
-    public JdbcAuditRepository() {
-        ensureTable();
-    }
-
-    private void ensureTable() {
-        try (Connection c = DB.get(); Statement st = c.createStatement()) {
-            st.execute("""
-                CREATE TABLE IF NOT EXISTS audit(
-                  id INTEGER PRIMARY KEY AUTOINCREMENT,
-                  when_ts TEXT NOT NULL,
-                  staff_id TEXT NOT NULL,
-                  type TEXT NOT NULL,
-                  details TEXT NOT NULL
-                )
-            """);
-        } catch (Exception e) {
-            throw new RuntimeException("ensureTable failed: " + e.getMessage(), e);
+    private static final String SELECT = "SELECT id, " + COLUMNS + " FROM audit ";
+    // the FTS table shares column names with audit, so these are qualified
+    private static final String SEARCH = "SELECT a.id, a." + COLUMNS.replace(", ", ", a.")
+            + " FROM audit_fts JOIN audit a ON a.id = audit_fts.rowid WHERE audit_fts MATCH ? "
+            + "ORDER BY audit_fts.rank, a.id DESC LIMIT ? OFFSET ?";
+
+    @Override
+    public void record(AuditEvent e) {
+        try (Connection c = DB.get();
+             PreparedStatement ps = c.prepareStatement("INSERT INTO audit(" + COLUMNS + ") VALUES" + PARAMS)) {
+            bind(ps, 1, e);
+            ps.executeUpdate();
+            ChangeFeed.publish(Change.Kind.AUDIT, e.staffId, null);
+        } catch (Exception ex) {
+            throw new RuntimeException("audit log failed: " + ex.getMessage(), ex);
         }
     }
 
+    // one prepared statement for the lot; callers wrap it in a unit of work
     @Override
-    public void log(java.time.Instant when, String staffId, ActionType type, String details) {
+    public void recordAll(List<AuditEvent> events) {
         try (Connection c = DB.get();
-             PreparedStatement ps = c.prepareStatement(
-                     "INSERT INTO audit(when_ts, staff_id, type, details) VALUES(?,?,?,?)")) {
-            ps.setString(1, java.time.OffsetDateTime.now().toString());
-            ps.setString(2, staffId);
-            ps.setString(3, type.name());
-            ps.setString(4, details);
-            ps.executeUpdate();
-        } catch (Exception e) {
-            throw new RuntimeException("audit log failed: " + e.getMessage(), e);
+             PreparedStatement ps = c.prepareStatement("INSERT INTO audit(" + COLUMNS + ") VALUES" + PARAMS)) {
+            for (AuditEvent e : events) {
+                bind(ps, 1, e);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            if (!events.isEmpty()) ChangeFeed.publish(Change.Kind.AUDIT, null, null);
+        } catch (SQLException ex) {
+            throw new RuntimeException("audit log failed: " + ex.getMessage(), ex);
         }
     }
+
+    // inserts events under their own ids, e.g. copied from another audit log; callers wrap it in a unit of work
+    public void restoreAll(List<AuditEvent> events) {
+        try (Connection c = DB.get();
+             PreparedStatement ps = c.prepareStatement("INSERT INTO audit(id, " + COLUMNS + ") VALUES"
+                     + PARAMS.replace("(", "(?,"))) {
+            for (AuditEvent e : events) {
+                ps.setLong(1, e.id);
+                bind(ps, 2, e);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            if (!events.isEmpty()) ChangeFeed.publish(Change.Kind.AUDIT, null, null);
+        } catch (SQLException ex) {
+            throw new RuntimeException("audit restore failed: " + ex.getMessage(), ex);
+        }
+    }
+
+    // each query below is answered from one of the idx_audit_* indexes, newest first
+    @Override
+    public List<AuditEvent> byPatient(String patientId, int limit) {
+        return query("WHERE patient_id=? ORDER BY id DESC LIMIT ?", patientId, limit);
+    }
+
+    @Override
+    public List<AuditEvent> byStaff(String staffId, int limit) {
+        return query("WHERE staff_id=? ORDER BY id DESC LIMIT ?", staffId, limit);
+    }
+
+    @Override
+    public List<AuditEvent> byType(ActionType type, int limit) {
+        return query("WHERE type=? ORDER BY id DESC LIMIT ?", type.name(), limit);
+    }
+
+    @Override
+    public List<AuditEvent> between(Instant from, Instant to, int limit) {
+        return query("WHERE when_ms>=? AND when_ms<? ORDER BY when_ms DESC, id DESC LIMIT ?",
+                from.toEpochMilli(), to.toEpochMilli(), limit);
+    }
+
+    // no OFFSET: each page starts from the last id seen, so page 1000 costs the same as page 1
+    @Override
+    public List<AuditEvent> page(long beforeId, ActionType type, String staffId, int limit) {
+        List<Object> args = new ArrayList<>();
+        StringBuilder where = new StringBuilder("WHERE id < ?");
+        args.add(beforeId);
+        if (type != null) { where.append(" AND type=?"); args.add(type.name()); }
+        if (staffId != null) { where.append(" AND staff_id=?"); args.add(staffId); }
+        where.append(" ORDER BY id DESC LIMIT ?");
+        args.add(limit);
+        return query(where.toString(), args.toArray());
+    }
+
+    @Override
+    public List<AuditEvent> search(String text, int offset, int limit) {
+        String match = matchExpression(text);
+        if (match.isEmpty()) return List.of();
+        // bm25 rank from the audit_fts index; ties go to the newer row
+        return select(SEARCH, match, limit, offset);
+    }
+
+    // every word must appear, each as a prefix; quoting keeps user input out of the FTS5 query syntax
+    static String matchExpression(String text) {
+        StringBuilder sb = new StringBuilder();
+        if (text == null) return "";
+        for (String word : text.trim().split("\\s+")) {
+            if (word.isEmpty()) continue;
+            if (sb.length() > 0) sb.append(' ');
+            sb.append('"').append(word.replace("\"", "\"\"")).append("\"*");
+        }
+        return sb.toString();
+    }
+
+    // binds one event's PARAM_COUNT columns starting at index i
+    static void bind(PreparedStatement ps, int i, AuditEvent e) throws SQLException {
+        ps.setString(i, e.when.atZone(ZoneId.systemDefault()).toOffsetDateTime().toString());
+        ps.setLong(i + 1, e.when.toEpochMilli());
+        ps.setString(i + 2, e.staffId);
+        ps.setString(i + 3, e.type.name());
+        ps.setString(i + 4, e.patientId);
+        if (e.bedId == null) ps.setNull(i + 5, Types.INTEGER); else ps.setInt(i + 5, e.bedId);
+        if (e.day == null) ps.setNull(i + 6, Types.INTEGER); else ps.setInt(i + 6, DayTime.day(e.day));
+        if (e.time == null) ps.setNull(i + 7, Types.INTEGER); else ps.setInt(i + 7, DayTime.minutes(e.time));
+        ps.setString(i + 8, e.medicine);
+        ps.setString(i + 9, e.details);
+        if (e.fromBedId == null) ps.setNull(i + 10, Types.INTEGER); else ps.setInt(i + 10, e.fromBedId);
+    }
+
+    private static List<AuditEvent> query(String where, Object... args) {
+        return select(SELECT + where, args);
+    }
+
+    private static List<AuditEvent> select(String sql, Object... args) {
+        List<AuditEvent> out = new ArrayList<>();
+        try (Connection c = DB.read(); PreparedStatement ps = c.prepareStatement(sql)) {
+            for (int i = 0; i < args.length; i++) ps.setObject(i + 1, args[i]);
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) out.add(read(rs));
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("audit query failed: " + e.getMessage(), e);
+        }
+        return out;
+    }
+
+    private static AuditEvent read(ResultSet rs) throws SQLException {
+        int bed = rs.getInt("bed_id");
+        Integer bedId = rs.wasNull() ? null : bed;
+        int from = rs.getInt("from_bed_id");
+        Integer fromBedId = rs.wasNull() ? null : from;
+        int d = rs.getInt("day");
+        DayOfWeek day = rs.wasNull() ? null : DayTime.day(d);
+        int t = rs.getInt("time_min");
+        LocalTime time = rs.wasNull() ? null : DayTime.time(t);
+        return new AuditEvent(rs.getLong("id"), Instant.ofEpochMilli(rs.getLong("when_ms")), rs.getString("staff_id"),
+                ActionType.parse(rs.getString("type")), rs.getString("patient_id"), bedId, fromBedId,
+                day, time,
+                rs.getString("medicine"), rs.getString("details"));
+    }
 }
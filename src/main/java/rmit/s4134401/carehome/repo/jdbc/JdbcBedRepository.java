@@ -5,13 +5,15 @@ import rmit.s4134401.carehome.util.DB;
 
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class JdbcBedRepository implements BedRepository {
 
     public Optional<Integer> findBedId(String ward, int room, int bedNum) {
-        try (Connection c = DB.get();
+        try (Connection c = DB.read();
              PreparedStatement ps = c.prepareStatement(
                      "SELECT id FROM beds WHERE ward=? AND room=? AND bed_num=?")) {
             ps.setString(1, ward);
@@ -27,7 +29,7 @@ public class JdbcBedRepository implements BedRepository {
 
     public List<int[]> listCoords() {
         List<int[]> out = new ArrayList<int[]>();
-        try (Connection c = DB.get();
+        try (Connection c = DB.read();
              Statement st = c.createStatement();
              ResultSet rs = st.executeQuery("SELECT id, room, bed_num FROM beds ORDER BY ward, room, bed_num")) {
             while (rs.next()) {
@@ -38,4 +40,37 @@ public class JdbcBedRepository implements BedRepository {
             throw new RuntimeException("listCoords failed: " + e.getMessage(), e);
         }
     }
+
+    public int addRoom(String ward, int room, int beds) {
+        try (Connection c = DB.get();
+             PreparedStatement ps = c.prepareStatement(
+                     "INSERT OR IGNORE INTO beds(ward,room,bed_num) VALUES(?,?,?)")) {
+            for (int b = 1; b <= beds; b++) {
+                ps.setString(1, ward);
+                ps.setInt(2, room);
+                ps.setInt(3, b);
+                ps.addBatch();
+            }
+            int added = 0;
+            for (int n : ps.executeBatch()) if (n > 0) added++;
+            return added;
+        } catch (SQLException e) {
+            throw new RuntimeException("addRoom failed: " + e.getMessage(), e);
+        }
+    }
+
+    public Map<String, Integer> allBedIds() {
+        Map<String, Integer> out = new HashMap<>();
+        try (Connection c = DB.read();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT id, ward, room, bed_num FROM beds")) {
+            while (rs.next()) {
+                out.put(BedRepository.coordinate(rs.getString("ward"), rs.getInt("room"), rs.getInt("bed_num")),
+                        rs.getInt("id"));
+            }
+            return out;
+        } catch (SQLException e) {
+            throw new RuntimeException("allBedIds failed: " + e.getMessage(), e);
+        }
+    }
 }
@@ -1,7 +1,10 @@
 package rmit.s4134401.carehome.repo.jdbc;
 
+import rmit.s4134401.carehome.Change;
 import rmit.s4134401.carehome.repo.DoctorMinutesRepository;
+import rmit.s4134401.carehome.util.ChangeFeed;
 import rmit.s4134401.carehome.util.DB;
+import rmit.s4134401.carehome.util.DayTime;
 
 import java.sql.*;
 import java.time.DayOfWeek;
@@ -15,9 +18,10 @@ public class JdbcDoctorMinutesRepository implements DoctorMinutesRepository {
              PreparedStatement ps = c.prepareStatement(
                      "INSERT INTO doctor_minutes(day,minutes) VALUES(?,?) " +
                      "ON CONFLICT(day) DO UPDATE SET minutes=excluded.minutes")) {
-            ps.setString(1, day.name());
+            ps.setInt(1, DayTime.day(day));
             ps.setInt(2, minutes);
             ps.executeUpdate();
+            ChangeFeed.publish(Change.Kind.ROSTER, null, null);
         } catch (SQLException e) {
             throw new RuntimeException("setMinutes failed: " + e.getMessage(), e);
         }
@@ -30,18 +34,19 @@ public class JdbcDoctorMinutesRepository implements DoctorMinutesRepository {
             "ON CONFLICT(doctor_id, day) DO UPDATE SET minutes=excluded.minutes";
         try (var c = DB.get(); var ps = c.prepareStatement(sql)) {
             ps.setString(1, doctorId);                 
-            ps.setString(2, day.name());
+            ps.setInt(2, DayTime.day(day));
             ps.setInt(3, minutes);
             ps.executeUpdate();
+            ChangeFeed.publish(Change.Kind.ROSTER, doctorId, null);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
     public int getMinutes(DayOfWeek day) {
-        try (var c = DB.get();
+        try (var c = DB.read();
              var ps = c.prepareStatement("SELECT COALESCE(SUM(minutes),0) FROM doctor_minutes WHERE day=?")) {
-            ps.setString(1, day.name());
+            ps.setInt(1, DayTime.day(day));
             try (var rs = ps.executeQuery()) { return rs.next() ? rs.getInt(1) : 0; }
         } catch (SQLException e) { throw new RuntimeException("getMinutes failed: " + e.getMessage(), e); }
     }
@@ -51,11 +56,11 @@ public class JdbcDoctorMinutesRepository implements DoctorMinutesRepository {
     public Map<DayOfWeek, Integer> all() {
         Map<DayOfWeek, Integer> m = new EnumMap<>(DayOfWeek.class);
         String sql = "SELECT day, SUM(minutes) AS minutes FROM doctor_minutes GROUP BY day";
-        try (Connection c = DB.get();
+        try (Connection c = DB.read();
              Statement st = c.createStatement();
              ResultSet rs = st.executeQuery(sql)) {
             while (rs.next()) {
-                m.put(DayOfWeek.valueOf(rs.getString("day")), rs.getInt("minutes"));
+                m.put(DayTime.day(rs.getInt("day")), rs.getInt("minutes"));
             }
         } catch (SQLException e) {
             throw new RuntimeException("all minutes failed: " + e.getMessage(), e);
@@ -1,40 +1,71 @@
 package rmit.s4134401.carehome.repo.jdbc;
 
+import rmit.s4134401.carehome.Change;
+import rmit.s4134401.carehome.Shift;
 import rmit.s4134401.carehome.repo.NurseRosterRepository;
+import rmit.s4134401.carehome.util.ChangeFeed;
 import rmit.s4134401.carehome.util.DB;
+import rmit.s4134401.carehome.util.DayTime;
 
 import java.sql.*;
 import java.time.DayOfWeek;
 import java.time.LocalTime;
-import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 public class JdbcNurseRosterRepository implements NurseRosterRepository {
 
     public void addShift(String nurseId, DayOfWeek day, LocalTime start, LocalTime end) {
         try (Connection c = DB.get();
              PreparedStatement ps = c.prepareStatement(
-                     "INSERT OR IGNORE INTO nurse_shifts(nurse_id,day,start,end) VALUES(?,?,?,?)")) {
+                     "INSERT OR IGNORE INTO nurse_shifts(nurse_id,day,start_min,end_min) VALUES(?,?,?,?)")) {
             ps.setString(1, nurseId);
-            ps.setString(2, day.name());
-            ps.setString(3, start.toString());
-            ps.setString(4, end.toString());
-            ps.executeUpdate();
+            ps.setInt(2, DayTime.day(day));
+            ps.setInt(3, DayTime.minutes(start));
+            ps.setInt(4, DayTime.minutes(end));
+            if (ps.executeUpdate() > 0) ChangeFeed.publish(Change.Kind.ROSTER, nurseId, null);
         } catch (SQLException e) {
             throw new RuntimeException("addShift failed: " + e.getMessage(), e);
         }
     }
 
+    // one prepared statement for the lot; callers wrap it in a unit of work
+    public int addAll(Map<String, ? extends Collection<Shift>> shiftsByNurse) {
+        try (Connection c = DB.get();
+             PreparedStatement ps = c.prepareStatement(
+                     "INSERT OR IGNORE INTO nurse_shifts(nurse_id,day,start_min,end_min) VALUES(?,?,?,?)")) {
+            for (Map.Entry<String, ? extends Collection<Shift>> e : shiftsByNurse.entrySet()) {
+                for (Shift s : e.getValue()) {
+                    ps.setString(1, e.getKey());
+                    ps.setInt(2, DayTime.day(s.day));
+                    ps.setInt(3, DayTime.minutes(s.start));
+                    ps.setInt(4, DayTime.minutes(s.end));
+                    ps.addBatch();
+                }
+            }
+            int added = 0;
+            for (int n : ps.executeBatch()) if (n > 0) added++;
+            if (added > 0) ChangeFeed.publish(Change.Kind.ROSTER, null, null);
+            return added;
+        } catch (SQLException e) {
+            throw new RuntimeException("addAll shifts failed: " + e.getMessage(), e);
+        }
+    }
+
     public int removeShift(String nurseId, DayOfWeek day, LocalTime start, LocalTime end) {
         try (Connection c = DB.get();
              PreparedStatement ps = c.prepareStatement(
-                     "DELETE FROM nurse_shifts WHERE nurse_id=? AND day=? AND start=? AND end=?")) {
+                     "DELETE FROM nurse_shifts WHERE nurse_id=? AND day=? AND start_min=? AND end_min=?")) {
             ps.setString(1, nurseId);
-            ps.setString(2, day.name());
-            ps.setString(3, start.toString());
-            ps.setString(4, end.toString());
-            return ps.executeUpdate();
+            ps.setInt(2, DayTime.day(day));
+            ps.setInt(3, DayTime.minutes(start));
+            ps.setInt(4, DayTime.minutes(end));
+            int removed = ps.executeUpdate();
+            if (removed > 0) ChangeFeed.publish(Change.Kind.ROSTER, nurseId, null);
+            return removed;
         } catch (SQLException e) {
             throw new RuntimeException("removeShift failed: " + e.getMessage(), e);
         }
@@ -42,16 +73,13 @@ public class JdbcNurseRosterRepository implements NurseRosterRepository {
 
     public List<int[]> listShiftsFor(String nurseId) {
         List<int[]> out = new ArrayList<int[]>();
-        try (Connection c = DB.get();
+        try (Connection c = DB.read();
              PreparedStatement ps = c.prepareStatement(
-                     "SELECT day,start,end FROM nurse_shifts WHERE nurse_id=?")) {
+                     "SELECT day,start_min,end_min FROM nurse_shifts WHERE nurse_id=?")) {
             ps.setString(1, nurseId);
             ResultSet rs = ps.executeQuery();
             while (rs.next()) {
-                DayOfWeek d = DayOfWeek.valueOf(rs.getString(1));
-                LocalTime s = LocalTime.parse(rs.getString(2));
-                LocalTime e = LocalTime.parse(rs.getString(3));
-                out.add(new int[]{ d.ordinal(), s.getHour(), e.getHour() });
+                out.add(new int[]{ rs.getInt(1), rs.getInt(2) / 60, rs.getInt(3) / 60 });
             }
             return out;
         } catch (SQLException e) {
@@ -60,32 +88,27 @@ public class JdbcNurseRosterRepository implements NurseRosterRepository {
     }
 
     public long totalHoursFor(String nurseId, DayOfWeek day) {
-        long sum = 0L;
-        try (Connection c = DB.get();
+        // whole hours per shift, then summed
+        try (Connection c = DB.read();
              PreparedStatement ps = c.prepareStatement(
-                     "SELECT start,end FROM nurse_shifts WHERE nurse_id=? AND day=?")) {
+                     "SELECT COALESCE(SUM((end_min - start_min) / 60),0) FROM nurse_shifts WHERE nurse_id=? AND day=?")) {
             ps.setString(1, nurseId);
-            ps.setString(2, day.name());
+            ps.setInt(2, DayTime.day(day));
             ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                LocalTime s = LocalTime.parse(rs.getString(1));
-                LocalTime e = LocalTime.parse(rs.getString(2));
-                sum += Duration.between(s, e).toHours();
-            }
-            return sum;
+            return rs.next() ? rs.getLong(1) : 0L;
         } catch (SQLException e) {
             throw new RuntimeException("totalHoursFor failed: " + e.getMessage(), e);
         }
     }
 
     public boolean hasShift(String nurseId, DayOfWeek day, LocalTime t) {
-        try (Connection c = DB.get();
+        try (Connection c = DB.read();
              PreparedStatement ps = c.prepareStatement(
-                     "SELECT 1 FROM nurse_shifts WHERE nurse_id=? AND day=? AND start<=? AND end>?")) {
+                     "SELECT 1 FROM nurse_shifts WHERE nurse_id=? AND day=? AND start_min<=? AND end_min>?")) {
             ps.setString(1, nurseId);
-            ps.setString(2, day.name());
-            ps.setString(3, t.toString());
-            ps.setString(4, t.toString());
+            ps.setInt(2, DayTime.day(day));
+            ps.setInt(3, DayTime.minutes(t));
+            ps.setInt(4, DayTime.minutes(t));
             ResultSet rs = ps.executeQuery();
             return rs.next();
         } catch (SQLException e) {
@@ -94,16 +117,32 @@ public class JdbcNurseRosterRepository implements NurseRosterRepository {
     }
 
     public boolean dayCovered(DayOfWeek day, LocalTime start, LocalTime end) {
-        try (Connection c = DB.get();
+        try (Connection c = DB.read();
              PreparedStatement ps = c.prepareStatement(
-                     "SELECT 1 FROM nurse_shifts WHERE day=? AND start=? AND end=? LIMIT 1")) {
-            ps.setString(1, day.name());
-            ps.setString(2, start.toString());
-            ps.setString(3, end.toString());
+                     "SELECT 1 FROM nurse_shifts WHERE day=? AND start_min=? AND end_min=? LIMIT 1")) {
+            ps.setInt(1, DayTime.day(day));
+            ps.setInt(2, DayTime.minutes(start));
+            ps.setInt(3, DayTime.minutes(end));
             ResultSet rs = ps.executeQuery();
             return rs.next();
         } catch (SQLException e) {
             throw new RuntimeException("dayCovered failed: " + e.getMessage(), e);
         }
     }
+
+    public Map<String, List<Shift>> allShifts() {
+        Map<String, List<Shift>> out = new HashMap<>();
+        try (Connection c = DB.read();
+             PreparedStatement ps = c.prepareStatement(
+                     "SELECT nurse_id,day,start_min,end_min FROM nurse_shifts")) {
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) {
+                out.computeIfAbsent(rs.getString(1), k -> new ArrayList<>()).add(new Shift(
+                        DayTime.day(rs.getInt(2)), DayTime.time(rs.getInt(3)), DayTime.time(rs.getInt(4))));
+            }
+            return out;
+        } catch (SQLException e) {
+            throw new RuntimeException("allShifts failed: " + e.getMessage(), e);
+        }
+    }
 }
@@ -1,10 +1,16 @@
 package rmit.s4134401.carehome.repo.jdbc;
 
+import rmit.s4134401.carehome.Change;
 import rmit.s4134401.carehome.Gender;
+import rmit.s4134401.carehome.Patient;
 import rmit.s4134401.carehome.repo.PatientRepository;
+import rmit.s4134401.carehome.util.ChangeFeed;
 import rmit.s4134401.carehome.util.DB;
 
 import java.sql.*;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 public class JdbcPatientRepository implements PatientRepository {
@@ -18,13 +24,34 @@ public class JdbcPatientRepository implements PatientRepository {
             ps.setString(3, gender.name());
             ps.setInt(4, isolation ? 1 : 0);
             ps.executeUpdate();
+            ChangeFeed.publish(Change.Kind.ADMITTED, id, null);
         } catch (SQLException e) {
             throw new RuntimeException("add patient failed: " + e.getMessage(), e);
         }
     }
 
-    public Optional<String> findOccupantByBedId(int bedId) {
+    // one prepared statement for the lot; callers wrap it in a unit of work
+    public void addAll(List<Patient> patients) {
         try (Connection c = DB.get();
+             PreparedStatement ps = c.prepareStatement(
+                     "INSERT INTO patients(id,full_name,gender,isolation,bed_id) VALUES(?,?,?,?,NULL)")) {
+            for (Patient p : patients) {
+                ps.setString(1, p.id());
+                ps.setString(2, p.fullName());
+                ps.setString(3, p.gender().name());
+                ps.setInt(4, p.needsIsolation() ? 1 : 0);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            // one change for the lot; subscribers reload rather than replay thousands
+            if (!patients.isEmpty()) ChangeFeed.publish(Change.Kind.PATIENT_UPDATED, null, null);
+        } catch (SQLException e) {
+            throw new RuntimeException("add patients failed: " + e.getMessage(), e);
+        }
+    }
+
+    public Optional<String> findOccupantByBedId(int bedId) {
+        try (Connection c = DB.read();
              PreparedStatement ps = c.prepareStatement(
                      "SELECT id FROM patients WHERE bed_id=?")) {
             ps.setInt(1, bedId);
@@ -43,6 +70,7 @@ public class JdbcPatientRepository implements PatientRepository {
             ps.setInt(1, bedId);
             ps.setString(2, patientId);
             ps.executeUpdate();
+            ChangeFeed.publish(Change.Kind.BED_ASSIGNED, patientId, bedId);
         } catch (SQLException e) {
             throw new RuntimeException("assignToBed failed: " + e.getMessage(), e);
         }
@@ -53,14 +81,30 @@ public class JdbcPatientRepository implements PatientRepository {
              PreparedStatement ps = c.prepareStatement(
                      "UPDATE patients SET bed_id=NULL WHERE bed_id=?")) {
             ps.setInt(1, bedId);
-            ps.executeUpdate();
+            if (ps.executeUpdate() > 0) ChangeFeed.publish(Change.Kind.BED_VACATED, null, bedId);
         } catch (SQLException e) {
             throw new RuntimeException("vacateBed failed: " + e.getMessage(), e);
         }
     }
 
-    public boolean existsPatientId(String patientId) {
+    public void assignAll(Map<String, Integer> beds) {
         try (Connection c = DB.get();
+             PreparedStatement ps = c.prepareStatement(
+                     "UPDATE patients SET bed_id=? WHERE id=?")) {
+            for (Map.Entry<String, Integer> e : beds.entrySet()) {
+                ps.setInt(1, e.getValue());
+                ps.setString(2, e.getKey());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            if (!beds.isEmpty()) ChangeFeed.publish(Change.Kind.PATIENT_UPDATED, null, null);
+        } catch (SQLException e) {
+            throw new RuntimeException("assignAll failed: " + e.getMessage(), e);
+        }
+    }
+
+    public boolean existsPatientId(String patientId) {
+        try (Connection c = DB.read();
              PreparedStatement ps = c.prepareStatement(
                      "SELECT 1 FROM patients WHERE id=?")) {
             ps.setString(1, patientId);
@@ -70,4 +114,29 @@ public class JdbcPatientRepository implements PatientRepository {
             throw new RuntimeException("existsPatientId failed: " + e.getMessage(), e);
         }
     }
+
+    public Map<Integer, String> occupancy() {
+        Map<Integer, String> out = new HashMap<>();
+        try (Connection c = DB.read();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT bed_id, id FROM patients WHERE bed_id IS NOT NULL")) {
+            while (rs.next()) out.put(rs.getInt(1), rs.getString(2));
+            return out;
+        } catch (SQLException e) {
+            throw new RuntimeException("occupancy failed: " + e.getMessage(), e);
+        }
+    }
+
+    public Map<Integer, Gender> occupantGenders() {
+        Map<Integer, Gender> out = new HashMap<>();
+        try (Connection c = DB.read();
+             PreparedStatement ps = c.prepareStatement(
+                     "SELECT bed_id, gender FROM patients WHERE bed_id IS NOT NULL")) {
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) out.put(rs.getInt(1), Gender.valueOf(rs.getString(2).toUpperCase()));
+            return out;
+        } catch (SQLException e) {
+            throw new RuntimeException("occupantGenders failed: " + e.getMessage(), e);
+        }
+    }
 }
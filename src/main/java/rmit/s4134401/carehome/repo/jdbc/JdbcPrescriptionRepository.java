@@ -3,6 +3,7 @@ package rmit.s4134401.carehome.repo.jdbc;
 import rmit.s4134401.carehome.Prescription;
 import rmit.s4134401.carehome.repo.PrescriptionRepository;
 import rmit.s4134401.carehome.util.DB;
+import rmit.s4134401.carehome.util.DayTime;
 
 import java.sql.*;
 import java.time.DayOfWeek;
@@ -14,12 +15,12 @@ public class JdbcPrescriptionRepository implements PrescriptionRepository {
     public int createPrescription(String patientId, String doctorId, DayOfWeek day, Instant createdTs) {
         try (Connection c = DB.get();
              PreparedStatement ps = c.prepareStatement(
-                     "INSERT INTO prescriptions(patient_id,doctor_id,day,created_ts) VALUES(?,?,?,?)",
+                     "INSERT INTO prescriptions(patient_id,doctor_id,day,created_ms) VALUES(?,?,?,?)",
                      Statement.RETURN_GENERATED_KEYS)) {
             ps.setString(1, patientId);
             ps.setString(2, doctorId);
-            ps.setString(3, day.name());
-            ps.setString(4, createdTs.toString());
+            ps.setInt(3, DayTime.day(day));
+            ps.setLong(4, DayTime.millis(createdTs));
             ps.executeUpdate();
             ResultSet keys = ps.getGeneratedKeys();
             if (keys.next()) return keys.getInt(1);
@@ -45,7 +46,7 @@ public class JdbcPrescriptionRepository implements PrescriptionRepository {
 
     public List<Prescription> loadForPatient(String patientId) {
         Map<Integer, Prescription> map = new LinkedHashMap<Integer, Prescription>();
-        try (Connection c = DB.get()) {
+        try (Connection c = DB.read()) {
             PreparedStatement ps = c.prepareStatement(
                     "SELECT id FROM prescriptions WHERE patient_id=? ORDER BY id");
             ps.setString(1, patientId);
@@ -23,8 +23,26 @@ public class JdbcStaffRepository implements StaffRepository {
         }
     }
 
-    public Optional<Staff> find(String id) {
+    // one prepared statement for the lot; callers wrap it in a unit of work
+    public void addAll(Collection<? extends Staff> staff) {
         try (Connection c = DB.get();
+             PreparedStatement ps = c.prepareStatement(
+                     "INSERT INTO staff(id,name,role,password) VALUES(?,?,?,?)")) {
+            for (Staff s : staff) {
+                ps.setString(1, s.id());
+                ps.setString(2, s.name());
+                ps.setString(3, s.role().name());
+                ps.setString(4, s.getPassword() == null ? "" : s.getPassword());
+                ps.addBatch();
+            }
+            ps.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException("add staff failed: " + e.getMessage(), e);
+        }
+    }
+
+    public Optional<Staff> find(String id) {
+        try (Connection c = DB.read();
              PreparedStatement ps = c.prepareStatement(
                      "SELECT id,name,role,password FROM staff WHERE id=?")) {
             ps.setString(1, id);
@@ -70,7 +88,7 @@ public class JdbcStaffRepository implements StaffRepository {
 
     public Map<Role, Long> countsByRole() {
         Map<Role, Long> out = new EnumMap<Role, Long>(Role.class);
-        try (Connection c = DB.get();
+        try (Connection c = DB.read();
              Statement st = c.createStatement();
              ResultSet rs = st.executeQuery("SELECT role, COUNT(*) cnt FROM staff GROUP BY role")) {
             while (rs.next()) {
@@ -81,4 +99,68 @@ public class JdbcStaffRepository implements StaffRepository {
             throw new RuntimeException("countsByRole failed: " + e.getMessage(), e);
         }
     }
+
+    public List<String> idsByRole(Role role) {
+        List<String> out = new ArrayList<String>();
+        try (Connection c = DB.read();
+             PreparedStatement ps = c.prepareStatement("SELECT id FROM staff WHERE role=? ORDER BY id")) {
+            ps.setString(1, role.name());
+            ResultSet rs = ps.executeQuery();
+            while (rs.next()) out.add(rs.getString(1));
+            return out;
+        } catch (SQLException e) {
+            throw new RuntimeException("idsByRole failed: " + e.getMessage(), e);
+        }
+    }
+
+    public Optional<Role> roleOf(String id) {
+        try (Connection c = DB.read();
+             PreparedStatement ps = c.prepareStatement("SELECT role FROM staff WHERE id=?")) {
+            ps.setString(1, id);
+            ResultSet rs = ps.executeQuery();
+            return rs.next() ? Optional.of(Role.valueOf(rs.getString(1))) : Optional.empty();
+        } catch (SQLException e) {
+            throw new RuntimeException("roleOf failed: " + e.getMessage(), e);
+        }
+    }
+
+    public Optional<String> nameOf(String id) {
+        try (Connection c = DB.read();
+             PreparedStatement ps = c.prepareStatement("SELECT name FROM staff WHERE id=?")) {
+            ps.setString(1, id);
+            ResultSet rs = ps.executeQuery();
+            return rs.next() ? Optional.of(rs.getString(1)) : Optional.empty();
+        } catch (SQLException e) {
+            throw new RuntimeException("nameOf failed: " + e.getMessage(), e);
+        }
+    }
+
+    // one statement, so the version matches the rows even while another process writes
+    public StaffDirectory directory() {
+        Map<String, StaffDirectory.Entry> out = new HashMap<String, StaffDirectory.Entry>();
+        long version = 0;
+        try (Connection c = DB.read();
+             Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT v.version, s.id, s.role, s.name FROM staff_version v "
+                     + "LEFT JOIN staff s ON 1=1 WHERE v.id=1")) {
+            while (rs.next()) {
+                version = rs.getLong(1);
+                String id = rs.getString(2);
+                if (id != null) out.put(id, new StaffDirectory.Entry(Role.valueOf(rs.getString(3)), rs.getString(4)));
+            }
+            return new StaffDirectory(version, out);
+        } catch (SQLException e) {
+            throw new RuntimeException("load staff directory failed: " + e.getMessage(), e);
+        }
+    }
+
+    public long directoryVersion() {
+        try (Connection c = DB.read();
+             PreparedStatement ps = c.prepareStatement("SELECT version FROM staff_version WHERE id=1")) {
+            ResultSet rs = ps.executeQuery();
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw new RuntimeException("read staff_version failed: " + e.getMessage(), e);
+        }
+    }
 }
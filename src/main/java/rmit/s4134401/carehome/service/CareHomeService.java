@@ -2,9 +2,11 @@ package rmit.s4134401.carehome.service;
 
 import rmit.s4134401.carehome.*;
 import rmit.s4134401.carehome.repo.*;
+import rmit.s4134401.carehome.util.DB;
+import rmit.s4134401.carehome.util.Jfr;
+import rmit.s4134401.carehome.util.Metrics;
 
 import java.time.DayOfWeek;
-import java.time.Instant;
 import java.time.LocalTime;
 
 import rmit.s4134401.carehome.repo.PrescriptionRepository;
@@ -42,38 +44,90 @@ public class CareHomeService {
 		this.adminRepo = adminRepo;
 	}
 
+	// one unit of work, timed as service.<op> (rule violations count as errors) and recorded as a
+	// flight recorder event with the acting staff member and how it ended
+	private static void timed(String op, String staffId, Runnable work) {
+		timedCall(op, staffId, () -> {
+			work.run();
+			return null;
+		});
+	}
+
+	private static <T> T timedCall(String op, String staffId, java.util.function.Supplier<T> work) {
+		Jfr.ServiceOperation event = new Jfr.ServiceOperation();
+		event.begin();
+		String outcome = "failed";
+		try {
+			T out = Metrics.time("service." + op, () -> DB.callInTransaction(work));
+			outcome = "ok";
+			return out;
+		} catch (RuntimeException e) {
+			outcome = outcome(e);
+			throw e;
+		} finally {
+			event.end();
+			if (event.shouldCommit()) {
+				event.operation = op;
+				event.staffId = staffId;
+				event.outcome = outcome;
+				event.commit();
+			}
+		}
+	}
+
+	// "rejected" for a business rule or bad input, "busy" when SQLite was locked, else "failed"
+	private static String outcome(RuntimeException e) {
+		if (e instanceof RosterException || e instanceof ComplianceException || e instanceof AuthorizationException
+				|| e instanceof NotAuthorisedException || e instanceof NotRosteredException
+				|| e instanceof IllegalArgumentException)
+			return "rejected";
+		return Metrics.busy(e) ? "busy" : "failed";
+	}
+
 	public void addDoctor(String id, String name) {
-		staffRepo.add(new Doctor(id, name));
-		auditRepo.log(Instant.now(), id, ActionType.ADD_STAFF, "added DOCTOR " + id + " " + name);
+		timed("addDoctor", null, () -> {
+			staffRepo.add(new Doctor(id, name));
+			auditRepo.record(AuditEvent.of(ActionType.ADD_STAFF, id).details("DOCTOR " + name));
+		});
 	}
 
 	public void addNurse(String id, String name) {
-		staffRepo.add(new Nurse(id, name));
-		auditRepo.log(Instant.now(), id, ActionType.ADD_STAFF, "added NURSE " + id + " " + name);
+		timed("addNurse", null, () -> {
+			staffRepo.add(new Nurse(id, name));
+			auditRepo.record(AuditEvent.of(ActionType.ADD_STAFF, id).details("NURSE " + name));
+		});
 	}
 
 	public void addManager(String id, String name) {
-		staffRepo.add(new Manager(id, name));
-		auditRepo.log(Instant.now(), id, ActionType.ADD_STAFF, "added MANAGER " + id + " " + name);
+		timed("addManager", null, () -> {
+			staffRepo.add(new Manager(id, name));
+			auditRepo.record(AuditEvent.of(ActionType.ADD_STAFF, id).details("MANAGER " + name));
+		});
 	}
 
 	public void renameStaff(String managerId, String staffId, String newName) {
-		staffRepo.rename(staffId, newName);
-		auditRepo.log(Instant.now(), managerId, ActionType.RENAME_STAFF, "renamed " + staffId + " to " + newName);
+		timed("renameStaff", managerId, () -> {
+			staffRepo.rename(staffId, newName);
+			auditRepo.record(AuditEvent.of(ActionType.RENAME_STAFF, managerId).details(staffId + " -> " + newName));
+		});
 	}
 
 	public void setStaffPassword(String managerId, String staffId, String newPass) {
-		staffRepo.setPassword(staffId, newPass);
-		auditRepo.log(Instant.now(), managerId, ActionType.SET_PASSWORD, "set password for " + staffId);
+		timed("setStaffPassword", managerId, () -> {
+			staffRepo.setPassword(staffId, newPass);
+			auditRepo.record(AuditEvent.of(ActionType.SET_PASSWORD, managerId).details(staffId));
+		});
 	}
 
 	public void setDoctorMinutes(String managerId, String doctorId, DayOfWeek day, int minutes) {
-		ensureRole(managerId, "MANAGER");
-		if (minutes < 0)
-			throw new IllegalArgumentException("minutes >= 0");
-		docMinRepo.upsertDoctorMinutes(doctorId, day, minutes);
-		auditRepo.log(Instant.now(), managerId, ActionType.SET_DOCTOR_MINUTES,
-				"set doctor minutes " + doctorId + " " + day + "=" + minutes);
+		timed("setDoctorMinutes", managerId, () -> {
+			ensureRole(managerId, "MANAGER");
+			if (minutes < 0)
+				throw new IllegalArgumentException("minutes >= 0");
+			docMinRepo.upsertDoctorMinutes(doctorId, day, minutes);
+			auditRepo.record(AuditEvent.of(ActionType.SET_DOCTOR_MINUTES, managerId).at(day, null)
+					.details(doctorId + "=" + minutes));
+		});
 	}
 
 	private boolean doctorOk(DayOfWeek day) {
@@ -81,27 +135,29 @@ public class CareHomeService {
 	}
 
 	public void assignNurseShift(String managerId, String nurseId, DayOfWeek day, boolean shiftA) {
-		ensureRole(managerId, "MANAGER");
-		LocalTime s = shiftA ? SHIFT_A_START : SHIFT_B_START;
-		LocalTime e = shiftA ? SHIFT_A_END : SHIFT_B_END;
-		long current = nurseRepo.totalHoursFor(nurseId, day);
-		long add = (long) java.time.Duration.between(s, e).toHours();
-		if (current + add > 8L)
-			throw new RosterException("Assigning exceeds 8h on " + day);
-		nurseRepo.addShift(nurseId, day, s, e);
-		auditRepo.log(Instant.now(), managerId, ActionType.SHIFT_ASSIGN,
-				"assigned " + nurseId + " " + day + " " + (shiftA ? "A" : "B"));
+		timed("assignNurseShift", managerId, () -> {
+			ensureRole(managerId, "MANAGER");
+			LocalTime s = shiftA ? SHIFT_A_START : SHIFT_B_START;
+			LocalTime e = shiftA ? SHIFT_A_END : SHIFT_B_END;
+			long current = nurseRepo.totalHoursFor(nurseId, day);
+			long add = (long) java.time.Duration.between(s, e).toHours();
+			if (current + add > 8L)
+				throw new RosterException("Assigning exceeds 8h on " + day);
+			nurseRepo.addShift(nurseId, day, s, e);
+			auditRepo.record(AuditEvent.of(ActionType.SHIFT_ASSIGN, managerId).at(day, s).details(nurseId));
+		});
 	}
 
 	public void removeNurseShift(String managerId, String nurseId, DayOfWeek day, boolean shiftA) {
-		ensureRole(managerId, "MANAGER");
-		LocalTime s = shiftA ? SHIFT_A_START : SHIFT_B_START;
-		LocalTime e = shiftA ? SHIFT_A_END : SHIFT_B_END;
-		int removed = nurseRepo.removeShift(nurseId, day, s, e);
-		if (removed == 0)
-			throw new RosterException("Shift not found");
-		auditRepo.log(Instant.now(), managerId, ActionType.SHIFT_REMOVE,
-				"removed " + nurseId + " " + day + " " + (shiftA ? "A" : "B"));
+		timed("removeNurseShift", managerId, () -> {
+			ensureRole(managerId, "MANAGER");
+			LocalTime s = shiftA ? SHIFT_A_START : SHIFT_B_START;
+			LocalTime e = shiftA ? SHIFT_A_END : SHIFT_B_END;
+			int removed = nurseRepo.removeShift(nurseId, day, s, e);
+			if (removed == 0)
+				throw new RosterException("Shift not found");
+			auditRepo.record(AuditEvent.of(ActionType.SHIFT_REMOVE, managerId).at(day, s).details(nurseId));
+		});
 	}
 
 	private boolean nurseOnShift(String nurseId, DayOfWeek day, LocalTime t) {
@@ -110,88 +166,177 @@ public class CareHomeService {
 
 	public void admitPatient(String managerId, String patientId, String fullName, Gender gender, boolean isolation,
 			String ward, int room, int bedNum) {
-		ensureRole(managerId, "MANAGER");
-		if (patientRepo.existsPatientId(patientId))
-			throw new IllegalArgumentException("patient id exists: " + patientId);
-		Integer bedId = bedRepo.findBedId(ward, room, bedNum).orElse(null);
-		if (bedId == null)
-			throw new IllegalArgumentException("unknown bed");
-		if (patientRepo.findOccupantByBedId(bedId).isPresent())
-			throw new RosterException("Bed occupied");
-
-		patientRepo.add(patientId, fullName, gender, isolation);
-		patientRepo.assignToBed(patientId, bedId);
-		auditRepo.log(Instant.now(), managerId, ActionType.ADMIT,
-		        "admitted " + patientId + " -> " + ward + "-R" + room + "-B" + bedNum);
-		audit(managerId, "ADMIT",
-		        "pid=" + patientId + " -> " + ward + "-R" + room + "-B" + bedNum);
-
-		
+		timed("admitPatient", managerId, () -> {
+			ensureRole(managerId, "MANAGER");
+			if (patientRepo.existsPatientId(patientId))
+				throw new IllegalArgumentException("patient id exists: " + patientId);
+			Integer bedId = bedRepo.findBedId(ward, room, bedNum).orElse(null);
+			if (bedId == null)
+				throw new IllegalArgumentException("unknown bed");
+			if (patientRepo.findOccupantByBedId(bedId).isPresent())
+				throw new RosterException("Bed occupied");
+
+			patientRepo.add(patientId, fullName, gender, isolation);
+			patientRepo.assignToBed(patientId, bedId);
+			auditRepo.record(AuditEvent.of(ActionType.ADMIT, managerId).patient(patientId).bed(bedId));
+		});
 	}
 
 	public void movePatient(String nurseId, DayOfWeek day, LocalTime now, String fromWard, int fromRoom, int fromBedNum,
 			String toWard, int toRoom, int toBedNum) {
-		ensureRole(nurseId, "NURSE");
-		ensureNurseRostered(nurseId, day, now);
-		if (!nurseOnShift(nurseId, day, now))
-			throw new AuthorizationException("Nurse not on shift");
-		Integer fromId = bedRepo.findBedId(fromWard, fromRoom, fromBedNum).orElse(null);
-		Integer toId = bedRepo.findBedId(toWard, toRoom, toBedNum).orElse(null);
-		if (fromId == null || toId == null)
-			throw new IllegalArgumentException("unknown bed");
-
-		String pid = patientRepo.findOccupantByBedId(fromId).orElse(null);
-		if (pid == null)
-			throw new RosterException("Source bed vacant");
-		if (patientRepo.findOccupantByBedId(toId).isPresent())
-			throw new RosterException("Destination occupied");
-
-		patientRepo.vacateBed(fromId);
-		patientRepo.assignToBed(pid, toId);
-		auditRepo.log(Instant.now(), nurseId, ActionType.MOVE, "moved " + pid + " from " + fromWard + "-R" + fromRoom
-				+ "-B" + fromBedNum + " to " + toWard + "-R" + toRoom + "-B" + toBedNum + " @ " + day + " " + now);
-		
-		audit(nurseId, "MOVE",
-		        "day=" + day + " time=" + now +
-		        " " + fromWard + "-R" + fromRoom + "-B" + fromBedNum +
-		        " -> " + toWard + "-R" + toRoom + "-B" + toBedNum);
+		timed("movePatient", nurseId, () -> {
+			ensureRole(nurseId, "NURSE");
+			ensureNurseRostered(nurseId, day, now);
+			if (!nurseOnShift(nurseId, day, now))
+				throw new AuthorizationException("Nurse not on shift");
+			Integer fromId = bedRepo.findBedId(fromWard, fromRoom, fromBedNum).orElse(null);
+			Integer toId = bedRepo.findBedId(toWard, toRoom, toBedNum).orElse(null);
+			if (fromId == null || toId == null)
+				throw new IllegalArgumentException("unknown bed");
+
+			String pid = patientRepo.findOccupantByBedId(fromId).orElse(null);
+			if (pid == null)
+				throw new RosterException("Source bed vacant");
+			if (patientRepo.findOccupantByBedId(toId).isPresent())
+				throw new RosterException("Destination occupied");
+
+			patientRepo.vacateBed(fromId);
+			patientRepo.assignToBed(pid, toId);
+			auditRepo.record(AuditEvent.of(ActionType.MOVE, nurseId).patient(pid).bed(toId).movedFrom(fromId)
+					.at(day, now));
+		});
+	}
+
+	public FacilityImport.Result importFacility(String managerId, java.io.Reader csv) {
+		return importFacility(managerId, FacilityImport.fromCsv(csv));
+	}
 
+	// All or nothing: every record is checked in memory against the same rules as the one-at-a-time
+	// paths (8h per nurse per day, isolation only in a single room, one gender per shared room) and
+	// against what is already stored; then the lot goes in as batched inserts in one unit of work.
+	public FacilityImport.Result importFacility(String managerId, FacilityImport batch) {
+		return timedCall("importFacility", managerId, () -> {
+			ensureRole(managerId, "MANAGER");
+			java.util.List<String> problems = new java.util.ArrayList<>();
+
+			java.util.Map<String, Role> roles = new java.util.HashMap<>();
+			for (Staff s : batch.staff) {
+				if (roles.putIfAbsent(s.id(), s.role()) != null || staffRepo.find(s.id()).isPresent())
+					problems.add("staff " + s.id() + ": id already in use");
+			}
+
+			java.util.Map<String, java.util.List<Shift>> rostered = nurseRepo.allShifts();
+			for (java.util.Map.Entry<String, java.util.List<Shift>> e : batch.shifts.entrySet()) {
+				String nurseId = e.getKey();
+				Role role = roles.containsKey(nurseId) ? roles.get(nurseId)
+						: staffRepo.find(nurseId).map(Staff::role).orElse(null);
+				if (role != Role.NURSE) {
+					problems.add("shifts for " + nurseId + ": not a nurse");
+					continue;
+				}
+				java.util.Set<Shift> theirs = new java.util.HashSet<>(rostered.getOrDefault(nurseId, java.util.List.of()));
+				long[] hours = new long[7];
+				for (Shift s : theirs)
+					hours[s.day.ordinal()] += s.hours();
+				for (Shift s : e.getValue()) {
+					// already rostered: the insert is a no-op
+					if (!theirs.add(s))
+						continue;
+					if ((hours[s.day.ordinal()] += s.hours()) > 8L)
+						problems.add("shift " + nurseId + " " + s + ": exceeds 8h on " + s.day);
+				}
+			}
+
+			java.util.Map<String, Integer> bedIds = bedRepo.allBedIds();
+			java.util.Map<String, Integer> roomSize = new java.util.HashMap<>();
+			java.util.Map<Integer, String> roomOfBed = new java.util.HashMap<>();
+			bedIds.forEach((coord, id) -> {
+				String room = coord.substring(0, coord.lastIndexOf("-B"));
+				roomSize.merge(room, 1, Integer::sum);
+				roomOfBed.put(id, room);
+			});
+			java.util.Map<Integer, Gender> occupied = new java.util.HashMap<>(patientRepo.occupantGenders());
+			java.util.Map<String, java.util.Set<Gender>> roomGenders = new java.util.HashMap<>();
+			occupied.forEach((bed, g) -> roomGenders.computeIfAbsent(roomOfBed.get(bed), k -> java.util.EnumSet.noneOf(Gender.class)).add(g));
+
+			java.util.Set<String> ids = new java.util.HashSet<>();
+			java.util.Map<String, Integer> placements = new java.util.LinkedHashMap<>();
+			for (Patient p : batch.residents) {
+				if (!ids.add(p.id()) || patientRepo.existsPatientId(p.id()))
+					problems.add("resident " + p.id() + ": id already in use");
+				Bed at = batch.beds.get(p.id());
+				if (at == null)
+					continue;
+				String room = BedRepository.room(at.ward(), at.room());
+				Integer bedId = bedIds.get(BedRepository.coordinate(at.ward(), at.room(), at.bedNum()));
+				if (bedId == null) {
+					problems.add("resident " + p.id() + ": unknown bed " + at);
+				} else if (occupied.containsKey(bedId)) {
+					problems.add("resident " + p.id() + ": bed " + at + " occupied");
+				} else if (p.needsIsolation() && roomSize.get(room) > 1) {
+					problems.add("resident " + p.id() + ": isolation needs a single room, " + room + " is shared");
+				} else if (roomSize.get(room) > 1
+						&& !roomGenders.getOrDefault(room, java.util.Set.of()).stream().allMatch(g -> g == p.gender())) {
+					problems.add("resident " + p.id() + ": " + room + " is not " + p.gender());
+				} else {
+					occupied.put(bedId, p.gender());
+					roomGenders.computeIfAbsent(room, k -> java.util.EnumSet.noneOf(Gender.class)).add(p.gender());
+					placements.put(p.id(), bedId);
+				}
+			}
+
+			if (!problems.isEmpty()) {
+				String shown = String.join("; ", problems.subList(0, Math.min(20, problems.size())));
+				throw new RosterException("import rejected, " + problems.size() + " problem(s): " + shown
+						+ (problems.size() > 20 ? "; ..." : ""));
+			}
+
+			staffRepo.addAll(batch.staff);
+			int shifts = nurseRepo.addAll(batch.shifts);
+			patientRepo.addAll(batch.residents);
+			patientRepo.assignAll(placements);
+			FacilityImport.Result result = new FacilityImport.Result(batch.staff.size(), shifts, batch.residents.size(),
+					placements.size());
+			auditRepo.record(AuditEvent.of(ActionType.IMPORT, managerId).details(result.toString()));
+			return result;
+		});
 	}
 
 	public void checkCompliance() {
-		DayOfWeek[] days = DayOfWeek.values();
-		for (int i = 0; i < days.length; i++) {
-			DayOfWeek d = days[i];
-			boolean a = nurseRepo.dayCovered(d, SHIFT_A_START, SHIFT_A_END);
-			boolean b = nurseRepo.dayCovered(d, SHIFT_B_START, SHIFT_B_END);
-			if (!a || !b)
-				throw new ComplianceException("Coverage missing on " + d + (a ? "" : " [A]") + (b ? "" : " [B]"));
-		}
-		for (int i = 0; i < days.length; i++) {
-			DayOfWeek d = days[i];
-			if (!doctorOk(d))
-				throw new ComplianceException("Doctor <60 mins on " + d);
-		}
-		auditRepo.log(Instant.now(), "system", ActionType.COMPLIANCE_CHECK, "full system compliance checked");
+		timed("checkCompliance", null, () -> {
+			DayOfWeek[] days = DayOfWeek.values();
+			for (int i = 0; i < days.length; i++) {
+				DayOfWeek d = days[i];
+				boolean a = nurseRepo.dayCovered(d, SHIFT_A_START, SHIFT_A_END);
+				boolean b = nurseRepo.dayCovered(d, SHIFT_B_START, SHIFT_B_END);
+				if (!a || !b)
+					throw new ComplianceException("Coverage missing on " + d + (a ? "" : " [A]") + (b ? "" : " [B]"));
+			}
+			for (int i = 0; i < days.length; i++) {
+				DayOfWeek d = days[i];
+				if (!doctorOk(d))
+					throw new ComplianceException("Doctor <60 mins on " + d);
+			}
+			auditRepo.record(AuditEvent.of(ActionType.COMPLIANCE_CHECK, "system"));
+		});
 	}
 
 	public void doctorAddPrescription(String doctorId, String patientId, DayOfWeek day, String medicine, String dose,
 			String times) {
-		ensureRole(doctorId, "DOCTOR");
-		ensureDoctorMinutes(doctorId, day, 60);
-		if (!doctorOk(day))
-			throw new AuthorizationException("Doctor not rostered \u226560 mins today");
-		int rxId = rxRepo.createPrescription(patientId, doctorId, day, java.time.Instant.now());
-		rxRepo.addLine(rxId, medicine, dose, times);
-		auditRepo.log(java.time.Instant.now(), doctorId, ActionType.RX_ADD,
-				"RX for " + patientId + " on " + day + ": " + medicine + " " + dose + " @ " + times);
-		audit(doctorId, "RX_ADD",
-		        "pid=" + patientId + " day=" + day + " " + medicine + " " + dose + " @ " + times);
-
+		timed("doctorAddPrescription", doctorId, () -> {
+			ensureRole(doctorId, "DOCTOR");
+			ensureDoctorMinutes(doctorId, day, 60);
+			if (!doctorOk(day))
+				throw new AuthorizationException("Doctor not rostered \u226560 mins today");
+			int rxId = rxRepo.createPrescription(patientId, doctorId, day, java.time.Instant.now());
+			rxRepo.addLine(rxId, medicine, dose, times);
+			auditRepo.record(AuditEvent.of(ActionType.RX_ADD, doctorId).patient(patientId).at(day, null).medicine(medicine)
+					.details(dose + " @ " + times));
+		});
 	}
 
 	public java.util.List<Prescription> loadPrescriptionsForPatient(String patientId) {
-		return rxRepo.loadForPatient(patientId);
+		return Metrics.time("service.loadPrescriptionsForPatient", () -> rxRepo.loadForPatient(patientId));
 	}
 
 	public String patientIdInBed(String ward, int room, int bedNum) {
@@ -203,89 +348,56 @@ public class CareHomeService {
 
 	public void administerMedication(String nurseId, DayOfWeek day, LocalTime time, String patientId, String medicine,
 			String dose) {
-		ensureRole(nurseId, "NURSE");
-		if (!nurseOnShift(nurseId, day, time))
-		    throw new AuthorizationException("Nurse not on shift");
-		adminRepo.add(patientId, medicine, dose, day, time, nurseId, false);
-		auditRepo.log(java.time.Instant.now(), nurseId, ActionType.MED_ADMIN,
-				"admin " + medicine + " " + dose + " to " + patientId + " @ " + day + " " + time);
-		audit(nurseId, "ADMINISTER",
-		        "pid=" + patientId + " day=" + day + " time=" + time + " " + medicine + " " + dose);
+		timed("administerMedication", nurseId, () -> {
+			ensureRole(nurseId, "NURSE");
+			if (!nurseOnShift(nurseId, day, time))
+			    throw new AuthorizationException("Nurse not on shift");
+			adminRepo.add(patientId, medicine, dose, day, time, nurseId, false);
+			auditRepo.record(AuditEvent.of(ActionType.MED_ADMIN, nurseId).patient(patientId).at(day, time).medicine(medicine)
+					.details(dose));
+		});
 	}
 
 	public void updateAdministrationDose(String staffId, DayOfWeek day, LocalTime atTime, String patientId,
 			String medicine, String newDose, boolean isDoctor) {
-		if (isDoctor) {
-			if (!doctorOk(day))
-				throw new AuthorizationException("Doctor not rostered today");
-		} else {
-			if (!nurseOnShift(staffId, day, atTime))
-				throw new AuthorizationException("Nurse not on shift");
-		}
-		adminRepo.add(patientId, medicine, newDose, day, atTime, staffId, true);
-		auditRepo.log(java.time.Instant.now(), staffId, ActionType.MED_UPDATE,
-				"update " + patientId + " " + medicine + " @ " + day + " " + atTime + " -> " + newDose);
-		audit(staffId, "MED_UPDATE",
-		        "pid=" + patientId + " " + medicine + " @ " + day + " " + atTime + " -> " + newDose);
-
+		timed("updateAdministrationDose", staffId, () -> {
+			if (isDoctor) {
+				if (!doctorOk(day))
+					throw new AuthorizationException("Doctor not rostered today");
+			} else {
+				if (!nurseOnShift(staffId, day, atTime))
+					throw new AuthorizationException("Nurse not on shift");
+			}
+			adminRepo.add(patientId, medicine, newDose, day, atTime, staffId, true);
+			auditRepo.record(AuditEvent.of(ActionType.MED_UPDATE, staffId).patient(patientId).at(day, atTime)
+					.medicine(medicine).details(newDose));
+		});
 	}
 
 	public java.util.List<MedicationAdministration> administrationsForPatient(String patientId) {
-		return adminRepo.listForPatient(patientId);
+		return Metrics.time("service.administrationsForPatient", () -> adminRepo.listForPatient(patientId));
 	}
 	
-	private void audit(String staffId, String action, String details) {
-	    try (var c = rmit.s4134401.carehome.util.DB.get();
-	         var ps = c.prepareStatement("INSERT INTO audit(ts, staff_id, action, details) VALUES(?,?,?,?)")) {
-	        ps.setString(1, java.time.OffsetDateTime.now().toString());
-	        ps.setString(2, staffId);
-	        ps.setString(3, action);
-	        ps.setString(4, details);
-	        ps.executeUpdate();
-	    } catch (Exception ignore) { }
-	}
-
-	private String staffRoleOf(String staffId) {
-	    try (var c = rmit.s4134401.carehome.util.DB.get();
-	         var ps = c.prepareStatement("SELECT role FROM staff WHERE id=?")) {
-	        ps.setString(1, staffId);
-	        try (var rs = ps.executeQuery()) { return rs.next() ? rs.getString(1) : null; }
-	    } catch (Exception e) { return null; }
-	}
-
+	// a hash lookup when staffRepo is a CachingStaffRepository
 	private void ensureRole(String staffId, String requiredRole) {
-	    String have = staffRoleOf(staffId);
+	    String have = staffRepo.roleOf(staffId).map(Role::name).orElse(null);
 	    if (!requiredRole.equals(have)) {
 	        throw new NotAuthorisedException(requiredRole + " only");
 	    }
 	}
 
+	// unlike nurseOnShift this counts the shift's last minute too
 	private void ensureNurseRostered(String nurseId, java.time.DayOfWeek day, java.time.LocalTime time) {
-	    String t = time.toString(); 
-	    String sql = """
-	        SELECT 1 FROM nurse_shifts
-	        WHERE nurse_id=? AND day=? AND ? >= start AND ? <= end
-	        LIMIT 1
-	        """;
-	    try (var c = rmit.s4134401.carehome.util.DB.get();
-	         var ps = c.prepareStatement(sql)) {
-	        ps.setString(1, nurseId);
-	        ps.setString(2, day.name());
-	        ps.setString(3, t);
-	        ps.setString(4, t);
-	        try (var rs = ps.executeQuery()) {
-	            if (!rs.next()) throw new NotRosteredException("Nurse not rostered at " + day + " " + t);
-	        }
-	    } catch (NotRosteredException e) { throw e; }
-	      catch (Exception e) { throw new NotRosteredException("Roster check failed"); }
+		if (!nurseRepo.hasShift(nurseId, day, time) && !nurseRepo.hasShift(nurseId, day, time.minusNanos(1)))
+			throw new NotRosteredException("Nurse not rostered at " + day + " " + time);
 	}
 
 	private void ensureDoctorMinutes(String doctorId, java.time.DayOfWeek day, int requiredMinutes) {
 	    String sql = "SELECT COALESCE(SUM(minutes),0) FROM doctor_minutes WHERE doctor_id=? AND day=?";
-	    try (var c = rmit.s4134401.carehome.util.DB.get();
+	    try (var c = DB.read();
 	         var ps = c.prepareStatement(sql)) {
 	        ps.setString(1, doctorId);
-	        ps.setString(2, day.name());
+	        ps.setInt(2, rmit.s4134401.carehome.util.DayTime.day(day));
 	        try (var rs = ps.executeQuery()) {
 	            int mins = rs.next() ? rs.getInt(1) : 0;
 	            if (mins < requiredMinutes) throw new NotRosteredException("Doctor not rostered enough on " + day);
@@ -0,0 +1,318 @@
+package rmit.s4134401.carehome.service;
+
+import rmit.s4134401.carehome.*;
+import rmit.s4134401.carehome.repo.AdministrationRepository;
+import rmit.s4134401.carehome.repo.AuditRepository;
+import rmit.s4134401.carehome.repo.BedRepository;
+import rmit.s4134401.carehome.repo.PrescriptionRepository;
+import rmit.s4134401.carehome.repo.jdbc.*;
+import rmit.s4134401.carehome.util.DB;
+import rmit.s4134401.carehome.util.SchemaMigrator;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+// Builds a synthetic facility into a freshly migrated database: wards laid out like the seeded
+// ones (room 1 single, room 2 two beds, the rest four), staff, a weekly roster, residents, their
+// prescriptions and `weeks` of administrations with an audit row each. The same settings and seed
+// give the same rows.
+//
+// The rules hold as in the app: staff, shifts and placements go through
+// CareHomeService.importFacility, so the 8h cap, isolation in single rooms and one gender per
+// shared room are checked as for any import; every day has shift A and B covered and every doctor
+// at least 60 minutes; each administration is a dose a prescription asks for, given at one of its
+// times by a nurse on shift. The history is written in batches of `batch` rows per unit of work.
+public final class DatasetGenerator {
+    static final String MANAGER = "m1";
+    private static final String[] MEDICINES = {
+            "Paracetamol", "Amoxicillin", "Metformin", "Atorvastatin", "Amlodipine", "Omeprazole",
+            "Salbutamol", "Warfarin", "Furosemide", "Sertraline", "Levothyroxine", "Donepezil"};
+    private static final String[] DOSES = {"5mg", "10mg", "20mg", "250mg", "500mg", "1g"};
+    // every time falls inside shift A or B
+    private static final String[] SCHEDULES = {
+            "08:00", "12:00", "21:00", "08:00,20:00", "09:00,17:00", "08:00,14:00,20:00"};
+    private static final String[] FIRST = {
+            "Alice", "Bruce", "Chloe", "David", "Edith", "Frank", "Grace", "Harold", "Irene", "James",
+            "Karen", "Leonard", "Mabel", "Norman", "Olive", "Peter", "Ruth", "Stanley", "Thelma", "Walter"};
+    private static final String[] LAST = {
+            "Anderson", "Brown", "Clarke", "Davies", "Evans", "Fraser", "Green", "Hughes", "Jones", "King",
+            "Lee", "Martin", "Nguyen", "O'Brien", "Patel", "Roberts", "Smith", "Taylor", "Walker", "Young"};
+
+    private final CareHomeService svc;
+    private final BedRepository beds;
+    private final PrescriptionRepository rxRepo;
+    private final AdministrationRepository adminRepo;
+    private final AuditRepository auditRepo;
+
+    private long seed = 1;
+    private int wards = 2;
+    private int roomsPerWard = 6;
+    private double occupancy = 0.9;
+    // share of single rooms given to isolation residents
+    private double isolation = 0.5;
+    private int doctors;
+    private int nurses;
+    private int weeks = 4;
+    private LocalDate start = LocalDate.of(2024, 1, 1);
+    private int batch = 20_000;
+
+    public DatasetGenerator(CareHomeService svc, BedRepository beds, PrescriptionRepository rxRepo,
+                            AdministrationRepository adminRepo, AuditRepository auditRepo){
+        this.svc = svc;
+        this.beds = beds;
+        this.rxRepo = rxRepo;
+        this.adminRepo = adminRepo;
+        this.auditRepo = auditRepo;
+    }
+
+    // straight onto the JDBC repositories of the database DB was initialised with
+    public static DatasetGenerator jdbc(){
+        BedRepository beds = new JdbcBedRepository();
+        PrescriptionRepository rx = new JdbcPrescriptionRepository();
+        AdministrationRepository admin = new JdbcAdministrationRepository();
+        AuditRepository audit = new JdbcAuditRepository();
+        CareHomeService svc = new CareHomeService(new JdbcStaffRepository(), beds, new JdbcPatientRepository(),
+                new JdbcNurseRosterRepository(), new JdbcDoctorMinutesRepository(), audit, rx, admin);
+        return new DatasetGenerator(svc, beds, rx, admin, audit);
+    }
+
+    public DatasetGenerator seed(long seed){ this.seed = seed; return this; }
+    public DatasetGenerator wards(int wards){ this.wards = positive("wards", wards); return this; }
+    public DatasetGenerator roomsPerWard(int rooms){ this.roomsPerWard = positive("rooms", rooms); return this; }
+    public DatasetGenerator occupancy(double share){ this.occupancy = share("occupancy", share); return this; }
+    public DatasetGenerator isolation(double share){ this.isolation = share("isolation", share); return this; }
+    // 0 (the default) sizes the staff from the bed count
+    public DatasetGenerator doctors(int doctors){ this.doctors = Math.max(0, doctors); return this; }
+    public DatasetGenerator nurses(int nurses){ this.nurses = Math.max(0, nurses); return this; }
+    public DatasetGenerator weeks(int weeks){ this.weeks = Math.max(0, weeks); return this; }
+    public DatasetGenerator start(LocalDate start){ this.start = start; return this; }
+    public DatasetGenerator batch(int rows){ this.batch = positive("batch", rows); return this; }
+
+    public Result generate(){
+        Random rnd = new Random(seed);
+        Result out = new Result();
+
+        List<int[]> layout = new ArrayList<>();
+        DB.inTransaction(() -> {
+            for (int w = 0; w < wards; w++) {
+                for (int room = 1; room <= roomsPerWard; room++) {
+                    int size = room == 1 ? 1 : room == 2 ? 2 : 4;
+                    out.beds += beds.addRoom(ward(w), room, size);
+                    layout.add(new int[]{ w, room, size });
+                }
+            }
+        });
+        int bedCount = layout.stream().mapToInt(r -> r[2]).sum();
+        int doctorCount = doctors > 0 ? doctors : Math.max(1, bedCount / 40);
+        // two per shift at the least, so every day keeps both shifts covered
+        int nurseCount = Math.max(4, nurses > 0 ? nurses : bedCount / 5);
+
+        svc.addManager(MANAGER, "Manager One");
+        FacilityImport facility = new FacilityImport();
+        for (int i = 1; i <= doctorCount; i++) facility.staff(withPassword(new Doctor("d" + i, name(rnd))));
+        for (int i = 1; i <= nurseCount; i++) facility.staff(withPassword(new Nurse("n" + i, name(rnd))));
+
+        // nurse i works shift A (even i) or B (odd) five days a week; pairs start their week three
+        // days apart so no day is left without either shift
+        List<List<String>> onA = new ArrayList<>(), onB = new ArrayList<>();
+        for (int d = 0; d < 7; d++) { onA.add(new ArrayList<>()); onB.add(new ArrayList<>()); }
+        for (int i = 0; i < nurseCount; i++) {
+            String id = "n" + (i + 1);
+            boolean a = i % 2 == 0;
+            for (int d = 0; d < 7; d++) {
+                if ((i / 2 * 3 + d) % 7 >= 5) continue;
+                DayOfWeek day = DayOfWeek.of(d + 1);
+                facility.shift(id, a ? new Shift(day, CareHomeService.SHIFT_A_START, CareHomeService.SHIFT_A_END)
+                        : new Shift(day, CareHomeService.SHIFT_B_START, CareHomeService.SHIFT_B_END));
+                (a ? onA : onB).get(d).add(id);
+            }
+        }
+
+        List<Patient> residents = new ArrayList<>();
+        for (int[] r : layout) {
+            boolean single = r[2] == 1;
+            Gender roomGender = rnd.nextBoolean() ? Gender.M : Gender.F;
+            for (int b = 1; b <= r[2]; b++) {
+                if (rnd.nextDouble() >= occupancy) continue;
+                Patient p = new Patient(String.format("r%06d", residents.size() + 1), name(rnd),
+                        single && rnd.nextBoolean() ? Gender.M : roomGender, single && rnd.nextDouble() < isolation);
+                facility.resident(p, ward(r[0]), r[1], b);
+                residents.add(p);
+            }
+        }
+        FacilityImport.Result imported = svc.importFacility(MANAGER, facility);
+        out.staff = imported.staff + 1;
+        out.shifts = imported.shifts;
+        out.residents = imported.residents;
+
+        DB.inTransaction(() -> {
+            for (int i = 1; i <= doctorCount; i++)
+                for (DayOfWeek d : DayOfWeek.values())
+                    svc.setDoctorMinutes(MANAGER, "d" + i, d, 60 + 15 * rnd.nextInt(5));
+        });
+        // the manager, the import and each doctor's minutes were audited by the service
+        out.audit += 2 + 7L * doctorCount;
+
+        // one to three prescriptions each, written by a doctor during the first week
+        List<Dose> doses = new ArrayList<>();
+        List<AuditEvent> rxEvents = new ArrayList<>();
+        DB.inTransaction(() -> {
+            for (Patient p : residents) {
+                int count = 1 + rnd.nextInt(3);
+                for (int k = 0; k < count; k++) {
+                    String doctor = "d" + (1 + rnd.nextInt(doctorCount));
+                    Instant when = start.plusDays(rnd.nextInt(7)).atTime(9 + rnd.nextInt(8), rnd.nextInt(60))
+                            .toInstant(ZoneOffset.UTC);
+                    DayOfWeek day = when.atZone(ZoneOffset.UTC).getDayOfWeek();
+                    String medicine = MEDICINES[rnd.nextInt(MEDICINES.length)];
+                    String dose = DOSES[rnd.nextInt(DOSES.length)];
+                    String times = SCHEDULES[rnd.nextInt(SCHEDULES.length)];
+                    int rxId = rxRepo.createPrescription(p.id(), doctor, day, when);
+                    rxRepo.addLine(rxId, medicine, dose, times);
+                    rxEvents.add(AuditEvent.of(ActionType.RX_ADD, doctor).when(when).patient(p.id()).at(day, null)
+                            .medicine(medicine).details(dose + " @ " + times));
+                    for (String t : times.split(","))
+                        doses.add(new Dose(p.id(), medicine, dose, LocalTime.parse(t)));
+                    out.prescriptions++;
+                }
+            }
+            auditRepo.recordAll(rxEvents);
+        });
+        out.audit += rxEvents.size();
+
+        // every scheduled dose, every day, by one of the nurses on shift at that time
+        List<MedicationAdministration> given = new ArrayList<>(batch);
+        List<AuditEvent> logged = new ArrayList<>(batch);
+        for (int day = 0; day < weeks * 7; day++) {
+            LocalDate date = start.plusDays(day);
+            DayOfWeek dow = date.getDayOfWeek();
+            int d = dow.ordinal();
+            for (Dose x : doses) {
+                List<String> a = onA.get(d), b = onB.get(d);
+                boolean useA = x.time.isBefore(CareHomeService.SHIFT_B_START)
+                        || (x.time.isBefore(CareHomeService.SHIFT_A_END) && rnd.nextBoolean());
+                List<String> pool = useA ? a : b;
+                String nurse = pool.get(rnd.nextInt(pool.size()));
+                given.add(new MedicationAdministration(x.patientId, x.medicine, x.dose, dow, x.time, nurse));
+                logged.add(AuditEvent.of(ActionType.MED_ADMIN, nurse).when(date.atTime(x.time).toInstant(ZoneOffset.UTC))
+                        .patient(x.patientId).at(dow, x.time).medicine(x.medicine).details(x.dose));
+                if (given.size() >= batch) flush(given, logged, out);
+            }
+        }
+        flush(given, logged, out);
+        return out;
+    }
+
+    private void flush(List<MedicationAdministration> given, List<AuditEvent> logged, Result out){
+        if (given.isEmpty()) return;
+        DB.inTransaction(() -> {
+            adminRepo.addAll(given);
+            auditRepo.recordAll(logged);
+        });
+        out.administrations += given.size();
+        out.audit += logged.size();
+        given.clear();
+        logged.clear();
+    }
+
+    // A..Z, then W27, W28, ...
+    static String ward(int index){
+        return index < 26 ? String.valueOf((char) ('A' + index)) : "W" + (index + 1);
+    }
+
+    private static String name(Random rnd){
+        return FIRST[rnd.nextInt(FIRST.length)] + " " + LAST[rnd.nextInt(LAST.length)];
+    }
+
+    // the id doubles as the password, as for the demo accounts
+    private static Staff withPassword(Staff s){
+        s.setPassword(s.id());
+        return s;
+    }
+
+    private static int positive(String what, int n){
+        if (n <= 0) throw new IllegalArgumentException(what + " must be > 0");
+        return n;
+    }
+
+    private static double share(String what, double x){
+        if (x < 0 || x > 1) throw new IllegalArgumentException(what + " must be within 0..1");
+        return x;
+    }
+
+    private static final class Dose {
+        final String patientId, medicine, dose;
+        final LocalTime time;
+        Dose(String patientId, String medicine, String dose, LocalTime time){
+            this.patientId = patientId; this.medicine = medicine; this.dose = dose; this.time = time;
+        }
+    }
+
+    // what a run wrote
+    public static final class Result {
+        public int beds;
+        public int staff;
+        public int shifts;
+        public int residents;
+        public int prescriptions;
+        public long administrations;
+        public long audit;
+
+        @Override
+        public String toString(){
+            return beds + " new beds, " + staff + " staff, " + shifts + " shifts, " + residents + " residents, "
+                    + prescriptions + " prescriptions, " + administrations + " administrations, " + audit + " audit rows";
+        }
+    }
+
+    // java ... DatasetGenerator <new db file> [seed=1] [wards=2] [rooms=6] [occupancy=0.9] [isolation=0.5]
+    //                           [doctors=auto] [nurses=auto] [weeks=4] [start=2024-01-01] [batch=20000]
+    public static void main(String[] args){
+        if (args.length == 0) {
+            System.err.println("usage: DatasetGenerator <new db file> [seed=N] [wards=N] [rooms=N] [occupancy=0..1] "
+                    + "[isolation=0..1] [doctors=N] [nurses=N] [weeks=N] [start=yyyy-mm-dd] [batch=N]");
+            System.exit(2);
+        }
+        Path file = Path.of(args[0]);
+        if (Files.exists(file)) {
+            System.err.println(file + " exists; generate into a new file");
+            System.exit(2);
+        }
+        DB.init(file.toString());
+        try {
+            SchemaMigrator.ensure();
+            DatasetGenerator g = jdbc();
+            for (int i = 1; i < args.length; i++) {
+                int eq = args[i].indexOf('=');
+                if (eq < 0) throw new IllegalArgumentException("expected key=value: " + args[i]);
+                String key = args[i].substring(0, eq), value = args[i].substring(eq + 1);
+                switch (key) {
+                    case "seed" -> g.seed(Long.parseLong(value));
+                    case "wards" -> g.wards(Integer.parseInt(value));
+                    case "rooms" -> g.roomsPerWard(Integer.parseInt(value));
+                    case "occupancy" -> g.occupancy(Double.parseDouble(value));
+                    case "isolation" -> g.isolation(Double.parseDouble(value));
+                    case "doctors" -> g.doctors(Integer.parseInt(value));
+                    case "nurses" -> g.nurses(Integer.parseInt(value));
+                    case "weeks" -> g.weeks(Integer.parseInt(value));
+                    case "start" -> g.start(LocalDate.parse(value));
+                    case "batch" -> g.batch(Integer.parseInt(value));
+                    default -> throw new IllegalArgumentException("unknown setting: " + key);
+                }
+            }
+            long t0 = System.nanoTime();
+            Result r = g.generate();
+            System.out.println(file + ": " + r + " in " + (System.nanoTime() - t0) / 1_000_000 + " ms");
+        } finally {
+            DB.shutdown();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package rmit.s4134401.carehome.service;
+
+import rmit.s4134401.carehome.*;
+
+import java.io.BufferedReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.time.DayOfWeek;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Stream;
+
+// Staff, nurse shifts and residents to load in one go through CareHomeService.importFacility.
+// Built in code or read as CSV, one record per line with the kind first:
+//   staff,<id>,<name>,<MANAGER|DOCTOR|NURSE>[,<password>]
+//   shift,<nurse id>,<MONDAY..SUNDAY>,<HH:mm start>,<HH:mm end>
+//   resident,<id>,<full name>,<M|F>,<isolation true|false>[,<ward>,<room>,<bed>]
+// Blank lines and lines starting with # are skipped; a field in double quotes may hold commas
+// ("" inside quotes is a literal quote).
+public final class FacilityImport {
+    final List<Staff> staff = new ArrayList<>();
+    final Map<String, List<Shift>> shifts = new LinkedHashMap<>();
+    final List<Patient> residents = new ArrayList<>();
+    // patient id -> bed, for residents that come with one
+    final Map<String, Bed> beds = new LinkedHashMap<>();
+
+    public FacilityImport staff(Staff s){
+        staff.add(s);
+        return this;
+    }
+
+    public FacilityImport shift(String nurseId, Shift s){
+        shifts.computeIfAbsent(nurseId, k -> new ArrayList<>()).add(s);
+        return this;
+    }
+
+    public FacilityImport resident(Patient p){
+        residents.add(p);
+        return this;
+    }
+
+    public FacilityImport resident(Patient p, String ward, int room, int bedNum){
+        residents.add(p);
+        beds.put(p.id(), new Bed(ward, room, bedNum));
+        return this;
+    }
+
+    public int size(){
+        return staff.size() + residents.size() + shifts.values().stream().mapToInt(List::size).sum();
+    }
+
+    public static FacilityImport fromCsv(Reader in){
+        try {
+            return fromLines(new BufferedReader(in).lines());
+        } catch (UncheckedIOException e) {
+            throw new RuntimeException("read import failed: " + e.getCause().getMessage(), e.getCause());
+        }
+    }
+
+    // malformed records fail with IllegalArgumentException naming the line
+    public static FacilityImport fromLines(Stream<String> lines){
+        FacilityImport out = new FacilityImport();
+        int n = 0;
+        for (Iterator<String> it = lines.iterator(); it.hasNext(); ) {
+            String line = it.next();
+            n++;
+            if (line.isBlank() || line.stripLeading().startsWith("#")) continue;
+            try {
+                out.add(split(line));
+            } catch (RuntimeException e) {
+                throw new IllegalArgumentException("line " + n + ": " + e.getMessage(), e);
+            }
+        }
+        return out;
+    }
+
+    private void add(List<String> f){
+        switch (f.get(0).toLowerCase(Locale.ROOT)) {
+            case "staff" -> {
+                need(f, 4, 5);
+                Staff s = switch (Role.valueOf(f.get(3).toUpperCase(Locale.ROOT))) {
+                    case MANAGER -> new Manager(f.get(1), f.get(2));
+                    case DOCTOR -> new Doctor(f.get(1), f.get(2));
+                    case NURSE -> new Nurse(f.get(1), f.get(2));
+                };
+                if (f.size() == 5) s.setPassword(f.get(4));
+                staff(s);
+            }
+            case "shift" -> {
+                need(f, 5, 5);
+                shift(f.get(1), new Shift(DayOfWeek.valueOf(f.get(2).toUpperCase(Locale.ROOT)),
+                        LocalTime.parse(f.get(3)), LocalTime.parse(f.get(4))));
+            }
+            case "resident" -> {
+                need(f, 5, 8);
+                Patient p = new Patient(f.get(1), f.get(2), Gender.valueOf(f.get(3).toUpperCase(Locale.ROOT)),
+                        Boolean.parseBoolean(f.get(4)));
+                if (f.size() == 8) resident(p, f.get(5), Integer.parseInt(f.get(6)), Integer.parseInt(f.get(7)));
+                else if (f.size() == 5) resident(p);
+                else throw new IllegalArgumentException("resident needs ward, room and bed together");
+            }
+            default -> throw new IllegalArgumentException("unknown record kind: " + f.get(0));
+        }
+    }
+
+    private static void need(List<String> f, int min, int max){
+        if (f.size() < min || f.size() > max)
+            throw new IllegalArgumentException(f.get(0) + " has " + f.size() + " fields");
+    }
+
+    static List<String> split(String line){
+        List<String> out = new ArrayList<>();
+        StringBuilder cur = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char ch = line.charAt(i);
+            if (quoted) {
+                if (ch != '"') cur.append(ch);
+                else if (i + 1 < line.length() && line.charAt(i + 1) == '"') { cur.append('"'); i++; }
+                else quoted = false;
+            } else if (ch == '"') {
+                quoted = true;
+            } else if (ch == ',') {
+                out.add(cur.toString().trim());
+                cur.setLength(0);
+            } else {
+                cur.append(ch);
+            }
+        }
+        if (quoted) throw new IllegalArgumentException("unterminated quote");
+        out.add(cur.toString().trim());
+        return out;
+    }
+
+    // what an import wrote
+    public static final class Result {
+        public final int staff;
+        public final int shifts;
+        public final int residents;
+        public final int placed;
+
+        Result(int staff, int shifts, int residents, int placed){
+            this.staff = staff; this.shifts = shifts; this.residents = residents; this.placed = placed;
+        }
+
+        @Override
+        public String toString(){
+            return staff + " staff, " + shifts + " shifts, " + residents + " residents (" + placed + " placed)";
+        }
+    }
+}
@@ -0,0 +1,380 @@
+package rmit.s4134401.carehome.service;
+
+import rmit.s4134401.carehome.*;
+import rmit.s4134401.carehome.repo.cache.CachingBedRepository;
+import rmit.s4134401.carehome.repo.cache.CachingNurseRosterRepository;
+import rmit.s4134401.carehome.repo.cache.CachingPatientRepository;
+import rmit.s4134401.carehome.repo.cache.CachingStaffRepository;
+import rmit.s4134401.carehome.repo.jdbc.*;
+import rmit.s4134401.carehome.util.ChangeFeed;
+import rmit.s4134401.carehome.util.DB;
+import rmit.s4134401.carehome.util.LatencyHistogram;
+import rmit.s4134401.carehome.util.Metrics;
+import rmit.s4134401.carehome.util.SchemaMigrator;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Headless terminals against one database file: `users` simulated nurses and doctors per process,
+// each calling CareHomeService in the weighted `mix` with exponentially distributed think time
+// around `think` ms, for `seconds`. With processes=N the same load runs in N JVMs at once, which is
+// where SQLite's file lock (and SQLITE_BUSY) comes in; within one JVM writers queue on the pool.
+// Reports per operation: throughput, p50/p99/p99.9/max latency, and outcomes split into ok, rejected
+// by a domain rule (occupied bed, nurse off shift, ...), SQLITE_BUSY/LOCKED, and other failures.
+//
+// java ... LoadDriver <db file> [users=16] [seconds=30] [think=200] [processes=1] [seed=1]
+//                     [mix=move:2,administer:6,prescribe:1,compliance:1]
+// A missing db file is first filled by DatasetGenerator with the same seed.
+public final class LoadDriver {
+    enum Op { MOVE, ADMINISTER, PRESCRIBE, COMPLIANCE }
+
+    private static final String[] MEDICINES = {"Paracetamol", "Amoxicillin", "Metformin", "Omeprazole", "Warfarin"};
+    private static final String[] DOSES = {"10mg", "250mg", "500mg"};
+
+    int users = 16;
+    int seconds = 30;
+    int thinkMs = 200;
+    int processes = 1;
+    long seed = 1;
+    final Map<Op, Integer> mix = new EnumMap<>(Map.of(Op.MOVE, 2, Op.ADMINISTER, 6, Op.PRESCRIBE, 1, Op.COMPLIANCE, 1));
+    // set in the worker processes: which one, and the wall-clock start shared with the parent
+    int worker;
+    long startAt;
+
+    final Map<Op, Tally> tallies = new EnumMap<>(Op.class);
+
+    private CareHomeService svc;
+    private final List<List<String[]>> onShift = new ArrayList<>();   // per day: {nurse, start, end}
+    private List<String> doctors;
+    private final List<String> residents = new ArrayList<>();
+    private final List<String> occupied = new ArrayList<>();          // coordinates
+    private final List<String> vacant = new ArrayList<>();
+
+    LoadDriver(){
+        for (Op op : Op.values()) tallies.put(op, new Tally());
+    }
+
+    static final class Tally {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder ok = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder busy = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        volatile String firstFailure;
+
+        long total(){ return ok.sum() + rejected.sum() + busy.sum() + failed.sum(); }
+    }
+
+    // runs this process's share; the caller has DB initialised and migrated
+    void run() throws InterruptedException {
+        wire();
+        if (startAt == 0) startAt = System.currentTimeMillis();
+        long sleep = startAt - System.currentTimeMillis();
+        if (sleep > 0) Thread.sleep(sleep);
+        long until = startAt + seconds * 1000L;
+
+        ExecutorService pool = userThreads();
+        for (int u = 0; u < users; u++) {
+            Random rnd = new Random(seed * 1_000_003L + worker * 10_007L + u);
+            pool.execute(() -> user(rnd, until));
+        }
+        pool.shutdown();
+        pool.awaitTermination(seconds + 60L, TimeUnit.SECONDS);
+    }
+
+    private void wire(){
+        CachingBedRepository beds = new CachingBedRepository(new JdbcBedRepository());
+        CachingPatientRepository patients = new CachingPatientRepository(new JdbcPatientRepository());
+        CachingNurseRosterRepository roster = new CachingNurseRosterRepository(new JdbcNurseRosterRepository());
+        BatchingAuditRepository audit = new BatchingAuditRepository();
+        DB.onShutdown(patients::close);
+        DB.onShutdown(roster::close);
+        CachingStaffRepository staff = new CachingStaffRepository(new JdbcStaffRepository());
+        DB.onShutdown(audit::close);
+        DB.onShutdown(staff::close);
+        svc = new CareHomeService(staff, beds, patients, roster, new JdbcDoctorMinutesRepository(), audit,
+                new JdbcPrescriptionRepository(), new JdbcAdministrationRepository());
+        // the other worker processes write the same file; the caches drop what they changed
+        ChangeFeed.watchExternalWrites(Duration.ofMillis(Long.getLong("carehome.feed.pollMillis", 1000)));
+
+        for (int d = 0; d < 7; d++) onShift.add(new ArrayList<>());
+        roster.allShifts().forEach((nurse, shifts) -> {
+            for (Shift s : shifts)
+                onShift.get(s.day.ordinal()).add(new String[]{ nurse, s.start.toString(), s.end.toString() });
+        });
+        doctors = staff.idsByRole(Role.DOCTOR);
+
+        Map<Integer, String> occupancy = patients.occupancy();
+        beds.allBedIds().forEach((coord, id) -> {
+            String pid = occupancy.get(id);
+            if (pid == null) {
+                vacant.add(coord);
+            } else {
+                occupied.add(coord);
+                residents.add(pid);
+            }
+        });
+        // HashMap order isn't stable; the seed should pick the same beds every run
+        vacant.sort(null);
+        occupied.sort(null);
+        residents.sort(null);
+        if (residents.isEmpty() || doctors.isEmpty() || onShift.stream().anyMatch(List::isEmpty))
+            throw new IllegalStateException("database needs residents, doctors and a nurse on every day");
+    }
+
+    private void user(Random rnd, long until){
+        int weights = mix.values().stream().mapToInt(Integer::intValue).sum();
+        while (System.currentTimeMillis() < until) {
+            int pick = rnd.nextInt(weights);
+            Op op = null;
+            for (Map.Entry<Op, Integer> e : mix.entrySet()) {
+                if ((pick -= e.getValue()) < 0) { op = e.getKey(); break; }
+            }
+            call(op, rnd);
+            if (thinkMs > 0) {
+                long pause = (long) (-Math.log(1 - rnd.nextDouble()) * thinkMs);
+                long left = until - System.currentTimeMillis();
+                if (left <= 0) break;
+                try {
+                    Thread.sleep(Math.min(pause, left));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void call(Op op, Random rnd){
+        Tally t = tallies.get(op);
+        String[] beds = null;
+        long t0 = System.nanoTime();
+        try {
+            switch (op) {
+                case MOVE -> {
+                    beds = reserve(rnd);
+                    if (beds == null) { t.rejected.increment(); return; }
+                    String[] shift = shift(rnd);
+                    String[] from = beds[0].split("-"), to = beds[1].split("-");
+                    svc.movePatient(shift[0], DayOfWeek.valueOf(shift[3]), LocalTime.parse(shift[4]),
+                            from[0], Integer.parseInt(from[1].substring(1)), Integer.parseInt(from[2].substring(1)),
+                            to[0], Integer.parseInt(to[1].substring(1)), Integer.parseInt(to[2].substring(1)));
+                    release(beds, true);
+                    beds = null;
+                }
+                case ADMINISTER -> {
+                    String[] shift = shift(rnd);
+                    svc.administerMedication(shift[0], DayOfWeek.valueOf(shift[3]), LocalTime.parse(shift[4]),
+                            residents.get(rnd.nextInt(residents.size())), MEDICINES[rnd.nextInt(MEDICINES.length)],
+                            DOSES[rnd.nextInt(DOSES.length)]);
+                }
+                case PRESCRIBE -> svc.doctorAddPrescription(doctors.get(rnd.nextInt(doctors.size())),
+                        residents.get(rnd.nextInt(residents.size())), DayOfWeek.of(1 + rnd.nextInt(7)),
+                        MEDICINES[rnd.nextInt(MEDICINES.length)], DOSES[rnd.nextInt(DOSES.length)], "08:00,20:00");
+                case COMPLIANCE -> svc.checkCompliance();
+            }
+            t.ok.increment();
+        } catch (RosterException | AuthorizationException | ComplianceException | NotAuthorisedException
+                 | NotRosteredException | IllegalArgumentException e) {
+            t.rejected.increment();
+        } catch (RuntimeException e) {
+            if (Metrics.busy(e)) {
+                t.busy.increment();
+            } else {
+                t.failed.increment();
+                if (t.firstFailure == null) t.firstFailure = e.toString();
+            }
+        } finally {
+            t.latency.record((System.nanoTime() - t0) / 1_000);
+            if (beds != null) release(beds, false);
+        }
+    }
+
+    // {nurse, start, end, day, a time inside the shift}
+    private String[] shift(Random rnd){
+        int d = rnd.nextInt(7);
+        List<String[]> today = onShift.get(d);
+        String[] s = today.get(rnd.nextInt(today.size()));
+        LocalTime start = LocalTime.parse(s[1]), end = LocalTime.parse(s[2]);
+        int span = (int) java.time.Duration.between(start, end).toMinutes();
+        return new String[]{ s[0], s[1], s[2], DayOfWeek.of(d + 1).name(), start.plusMinutes(rnd.nextInt(span)).toString() };
+    }
+
+    // takes an occupied and a vacant bed out of play for one move; null when either is gone
+    private synchronized String[] reserve(Random rnd){
+        if (occupied.isEmpty() || vacant.isEmpty()) return null;
+        return new String[]{ take(occupied, rnd), take(vacant, rnd) };
+    }
+
+    private synchronized void release(String[] beds, boolean moved){
+        occupied.add(moved ? beds[1] : beds[0]);
+        vacant.add(moved ? beds[0] : beds[1]);
+    }
+
+    private static String take(List<String> from, Random rnd){
+        int i = rnd.nextInt(from.size());
+        String out = from.get(i);
+        from.set(i, from.get(from.size() - 1));
+        from.remove(from.size() - 1);
+        return out;
+    }
+
+    // virtual threads when the runtime has them (21+), a thread per user otherwise
+    private static ExecutorService userThreads(){
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    // one line per operation, read back by the parent process
+    void emit(){
+        tallies.forEach((op, t) -> System.out.println("@op " + op + " " + t.ok.sum() + " " + t.rejected.sum() + " "
+                + t.busy.sum() + " " + t.failed.sum() + " " + t.latency.encode()));
+    }
+
+    void absorb(String line){
+        String[] f = line.split(" ");
+        Tally t = tallies.get(Op.valueOf(f[1]));
+        t.ok.add(Long.parseLong(f[2]));
+        t.rejected.add(Long.parseLong(f[3]));
+        t.busy.add(Long.parseLong(f[4]));
+        t.failed.add(Long.parseLong(f[5]));
+        t.latency.add(LatencyHistogram.decode(f[6]));
+    }
+
+    String report(){
+        StringBuilder sb = new StringBuilder(String.format("%d user(s) x %d process(es), %d s, think %d ms%n",
+                users, processes, seconds, thinkMs));
+        sb.append(String.format("%-11s %9s %9s %9s %9s %7s %7s %9s %9s %9s %9s%n", "operation", "calls", "ok/s",
+                "ok", "rejected", "busy", "failed", "p50 ms", "p99 ms", "p99.9 ms", "max ms"));
+        LatencyHistogram all = new LatencyHistogram();
+        long calls = 0, ok = 0, rejected = 0, busy = 0, failed = 0;
+        for (Map.Entry<Op, Tally> e : tallies.entrySet()) {
+            Tally t = e.getValue();
+            row(sb, e.getKey().name().toLowerCase(), t.total(), t.ok.sum(), t.rejected.sum(), t.busy.sum(), t.failed.sum(), t.latency);
+            all.add(t.latency);
+            calls += t.total(); ok += t.ok.sum(); rejected += t.rejected.sum(); busy += t.busy.sum(); failed += t.failed.sum();
+        }
+        row(sb, "all", calls, ok, rejected, busy, failed, all);
+        tallies.forEach((op, t) -> {
+            if (t.firstFailure != null) sb.append(op).append(" first failure: ").append(t.firstFailure).append('\n');
+        });
+        return sb.toString();
+    }
+
+    private void row(StringBuilder sb, String name, long calls, long ok, long rejected, long busy, long failed, LatencyHistogram h){
+        sb.append(String.format("%-11s %9d %9.1f %9d %9d %7d %7d %9.2f %9.2f %9.2f %9.2f%n", name, calls,
+                (double) ok / seconds, ok, rejected, busy, failed, h.percentile(0.50) / 1000.0,
+                h.percentile(0.99) / 1000.0, h.percentile(0.999) / 1000.0, h.max() / 1000.0));
+    }
+
+    private void set(String key, String value){
+        switch (key) {
+            case "users" -> users = Integer.parseInt(value);
+            case "seconds" -> seconds = Integer.parseInt(value);
+            case "think" -> thinkMs = Integer.parseInt(value);
+            case "processes" -> processes = Math.max(1, Integer.parseInt(value));
+            case "seed" -> seed = Long.parseLong(value);
+            case "worker" -> worker = Integer.parseInt(value);
+            case "startAt" -> startAt = Long.parseLong(value);
+            case "mix" -> {
+                mix.clear();
+                for (String part : value.split(",")) {
+                    String[] kv = part.split(":");
+                    int w = Integer.parseInt(kv[1]);
+                    if (w > 0) mix.put(Op.valueOf(kv[0].trim().toUpperCase()), w);
+                }
+                if (mix.isEmpty()) throw new IllegalArgumentException("mix has no operations");
+            }
+            default -> throw new IllegalArgumentException("unknown setting: " + key);
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("usage: LoadDriver <db file> [users=N] [seconds=N] [think=ms] [processes=N] [seed=N] "
+                    + "[mix=move:2,administer:6,prescribe:1,compliance:1]");
+            System.exit(2);
+        }
+        LoadDriver d = new LoadDriver();
+        List<String> settings = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            int eq = args[i].indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("expected key=value: " + args[i]);
+            d.set(args[i].substring(0, eq), args[i].substring(eq + 1));
+            settings.add(args[i]);
+        }
+        Path file = Path.of(args[0]);
+
+        if (d.worker > 0) {
+            DB.init(file.toString());
+            try {
+                d.run();
+            } finally {
+                DB.shutdown();
+            }
+            d.emit();
+            return;
+        }
+
+        boolean fresh = !Files.exists(file);
+        DB.init(file.toString());
+        try {
+            SchemaMigrator.ensure();
+            if (fresh) System.out.println(file + ": " + DatasetGenerator.jdbc().seed(d.seed).weeks(1).generate());
+
+            // the others get a moment to start their JVM and open the database
+            List<Process> others = new ArrayList<>();
+            List<Path> outputs = new ArrayList<>();
+            if (d.processes > 1) d.startAt = System.currentTimeMillis() + 3000;
+            for (int w = 1; w < d.processes; w++) {
+                Path out = Files.createTempFile("carehome-load-", ".out");
+                outputs.add(out);
+                others.add(spawn(file, settings, w, d.startAt, out));
+            }
+            d.run();
+            for (int i = 0; i < others.size(); i++) {
+                Process p = others.get(i);
+                if (p.waitFor() != 0) System.err.println("worker " + (i + 1) + " exited with " + p.exitValue());
+                for (String line : Files.readAllLines(outputs.get(i), StandardCharsets.UTF_8))
+                    if (line.startsWith("@op ")) d.absorb(line);
+                Files.deleteIfExists(outputs.get(i));
+            }
+        } finally {
+            DB.shutdown();
+        }
+        System.out.print(d.report());
+    }
+
+    private static Process spawn(Path file, List<String> settings, int worker, long startAt, Path out) throws IOException {
+        List<String> cmd = new ArrayList<>();
+        cmd.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        // the same database settings as this process
+        System.getProperties().stringPropertyNames().stream().filter(k -> k.startsWith("carehome."))
+                .forEach(k -> cmd.add("-D" + k + "=" + System.getProperty(k)));
+        cmd.add("-cp");
+        cmd.add(System.getProperty("java.class.path"));
+        cmd.add(LoadDriver.class.getName());
+        cmd.add(file.toString());
+        cmd.addAll(settings);
+        cmd.add("worker=" + worker);
+        cmd.add("startAt=" + startAt);
+        return new ProcessBuilder(cmd).redirectError(ProcessBuilder.Redirect.INHERIT)
+                .redirectOutput(out.toFile()).start();
+    }
+}
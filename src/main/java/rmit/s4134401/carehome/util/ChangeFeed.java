@@ -0,0 +1,133 @@
+package rmit.s4134401.carehome.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import rmit.s4134401.carehome.Change;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+// In-process feed of committed changes, published by the repositories. Every change gets the next
+// sequence number; the most recent ones are kept so a subscriber can resume where it left off.
+public final class ChangeFeed {
+    private static final Logger log = LoggerFactory.getLogger(ChangeFeed.class);
+
+    private static final int RETAINED = Integer.getInteger("carehome.feed.retained", 4096);
+
+    private static final Object lock = new Object();
+    private static final ArrayDeque<Change> recent = new ArrayDeque<>();
+    private static final List<Consumer<Change>> subscribers = new ArrayList<>();
+    private static long seq;
+
+    private static Thread watcher;
+
+    public interface Subscription extends AutoCloseable {
+        @Override
+        void close();
+    }
+
+    private ChangeFeed(){}
+
+    // call from inside the unit of work that made the change; it is only published if that commits
+    public static void publish(Change.Kind kind, String key, Integer bedId){
+        DB.afterCommit(() -> emit(kind, key, bedId));
+    }
+
+    private static void emit(Change.Kind kind, String key, Integer bedId){
+        synchronized (lock) {
+            Change c = new Change(++seq, kind, key, bedId);
+            recent.addLast(c);
+            if (recent.size() > RETAINED) recent.removeFirst();
+            for (Consumer<Change> s : subscribers) deliver(s, c);
+        }
+    }
+
+    // another process committed something; DB finds out when the writer is borrowed for a unit of work
+    static void external(){
+        emit(Change.Kind.EXTERNAL, null, null);
+    }
+
+    public static long lastSeq(){
+        synchronized (lock) {
+            return seq;
+        }
+    }
+
+    // Replays the retained changes after afterSeq, then delivers new ones as they commit: each once,
+    // in sequence order. Pass lastSeq() to only see what comes next. If changes after afterSeq have
+    // already been dropped, a single RESYNC is delivered instead of the replay.
+    // Listeners run on the publishing thread with the feed locked: keep them short and hand real
+    // work to another thread (e.g. Platform.runLater); they must not publish themselves.
+    public static Subscription subscribe(long afterSeq, Consumer<Change> listener){
+        synchronized (lock) {
+            Change oldest = recent.peekFirst();
+            if (afterSeq < seq && (oldest == null || oldest.seq > afterSeq + 1)) {
+                deliver(listener, new Change(seq, Change.Kind.RESYNC, null, null));
+            } else {
+                for (Change c : recent) if (c.seq > afterSeq) deliver(listener, c);
+            }
+            subscribers.add(listener);
+        }
+        return () -> {
+            synchronized (lock) {
+                subscribers.remove(listener);
+            }
+        };
+    }
+
+    private static void deliver(Consumer<Change> listener, Change c){
+        try {
+            listener.accept(c);
+        } catch (RuntimeException e) {
+            log.warn("change listener failed on {}", c, e);
+        }
+    }
+
+    // Polls PRAGMA data_version on a connection of its own (DataVersionWatch), which tells this
+    // process's own commits apart, so a move means another process wrote to the database; that is
+    // published as EXTERNAL. The poll never borrows the writer, so it doesn't wait on units of work.
+    public static synchronized void watchExternalWrites(Duration every){
+        if (watcher != null) return;
+        DataVersionWatch watch;
+        try {
+            watch = DB.watchDataVersion();
+        } catch (SQLException e) {
+            throw new RuntimeException("watch data_version failed: " + e.getMessage(), e);
+        }
+        Thread t = new Thread(() -> {
+            try (watch) {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        if (watch.poll()) emit(Change.Kind.EXTERNAL, null, null);
+                    } catch (SQLException e) {
+                        // e.g. SQLITE_BUSY while another process checkpoints; a write in the
+                        // meantime still shows up on the next poll
+                        log.debug("data_version poll failed: {}", e.getMessage());
+                    }
+                    Thread.sleep(every.toMillis());
+                }
+            } catch (InterruptedException e) {
+                // stopWatching
+            }
+        }, "carehome-data-version");
+        t.setDaemon(true);
+        t.start();
+        watcher = t;
+        DB.onShutdown(ChangeFeed::stopWatching);
+    }
+
+    public static synchronized void stopWatching(){
+        if (watcher == null) return;
+        watcher.interrupt();
+        try {
+            watcher.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        watcher = null;
+    }
+}
@@ -2,30 +2,380 @@ package rmit.s4134401.carehome.util;
 
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
 import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
 public final class DB {
-    private static HikariDataSource ds;
+    private static final Logger log = LoggerFactory.getLogger(DB.class);
+
+    // SQLite has a single writer, so the write pool holds exactly one connection
+    private static HikariDataSource writer;
+    private static HikariDataSource readers;
+    private static SqliteProfile profile;
+    private static String url;
+    // ChangeFeed's data_version watch, told when the writer is borrowed and given back
+    private static final AtomicReference<DataVersionWatch> watch = new AtomicReference<>();
+    // PRAGMA data_version as the writer last read it, and the pooled connection it was read on;
+    // only the thread holding the writer touches these
+    private static volatile Connection writerSeen;
+    private static volatile long writerVersion;
+
+    // the writer connection is thread-affine: nested get() calls on the owning thread share it
+    private static final class Held {
+        final Connection c;
+        int depth;
+        boolean inTx;
+        long txId;
+        // the watch this borrow was counted in
+        DataVersionWatch watch;
+        final List<Runnable> onCommit = new ArrayList<>();
+        final List<Runnable> afterCommit = new ArrayList<>();
+        Held(Connection c){ this.c = c; }
+    }
+    private static final ThreadLocal<Held> HELD = new ThreadLocal<>();
+    private static final AtomicLong txIds = new AtomicLong();
+
+    // run before the pools close, e.g. to flush buffered writes
+    private static final List<Runnable> shutdownHooks = new CopyOnWriteArrayList<>();
 
     private DB(){}
 
     public static synchronized void init(String sqliteFilePath){
-        if (ds != null) return;
-        HikariConfig cfg = new HikariConfig();
-        cfg.setJdbcUrl("jdbc:sqlite:" + sqliteFilePath);
-        cfg.setMaximumPoolSize(4);
-        cfg.setAutoCommit(true);
-        ds = new HikariDataSource(cfg);
+        init(sqliteFilePath, SqliteProfile.fromSystemProperties());
+    }
+
+    public static synchronized void init(String sqliteFilePath, SqliteProfile p){
+        if (writer != null) return;
+        url = "jdbc:sqlite:" + sqliteFilePath;
+
+        HikariConfig w = new HikariConfig();
+        w.setPoolName("carehome-writer");
+        w.setJdbcUrl(url);
+        w.setMaximumPoolSize(1);
+        w.setAutoCommit(true);
+        w.setDataSourceProperties(p.toDriverProperties(true));
+        writer = new HikariDataSource(w);
+
+        HikariConfig r = new HikariConfig();
+        r.setPoolName("carehome-reader");
+        r.setJdbcUrl(url);
+        r.setMaximumPoolSize(Integer.getInteger("carehome.db.readers",
+                Math.max(2, Runtime.getRuntime().availableProcessors())));
+        r.setAutoCommit(true);
+        r.setDataSourceProperties(p.toDriverProperties(false));
+        r.setConnectionInitSql("PRAGMA query_only = 1");
+        readers = new HikariDataSource(r);
+
+        profile = p;
+        writerSeen = null;
+        gauges("db.writer", () -> writer);
+        gauges("db.reader", () -> readers);
+        Metrics.gauge("db.statements.hits", StatementCache::hits);
+        Metrics.gauge("db.statements.misses", StatementCache::misses);
+        Metrics.gauge("db.statements.evictions", StatementCache::evictions);
+        Metrics.gauge("db.statements.idle", StatementCache::idleStatements);
+        selfCheck();
+        // the baseline other processes' commits are measured from
+        try (Connection c = writer.getConnection()) {
+            checkExternalWrites(c);
+        } catch (SQLException e) {
+            throw new RuntimeException("read data_version failed: " + e.getMessage(), e);
+        }
+    }
+
+    // read through the static field, so they follow a re-init and fail (and are skipped) after shutdown
+    private static void gauges(String prefix, Supplier<HikariDataSource> pool){
+        Metrics.gauge(prefix + ".active", () -> pool.get().getHikariPoolMXBean().getActiveConnections());
+        Metrics.gauge(prefix + ".idle", () -> pool.get().getHikariPoolMXBean().getIdleConnections());
+        Metrics.gauge(prefix + ".total", () -> pool.get().getHikariPoolMXBean().getTotalConnections());
+        Metrics.gauge(prefix + ".waiting", () -> pool.get().getHikariPoolMXBean().getThreadsAwaitingConnection());
+    }
+
+    public static synchronized SqliteProfile profile(){
+        return profile;
     }
 
+    // what SQLite actually runs with, read back from a pooled connection
+    public static Map<String, String> effectiveSettings(){
+        String[] pragmas = { "journal_mode", "synchronous", "mmap_size", "cache_size", "temp_store", "busy_timeout" };
+        Map<String, String> out = new LinkedHashMap<>();
+        try (Connection c = get(); Statement st = c.createStatement()) {
+            for (String p : pragmas) {
+                try (ResultSet rs = st.executeQuery("PRAGMA " + p)) {
+                    out.put(p, rs.next() ? rs.getString(1) : null);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException("read pragmas failed: " + e.getMessage(), e);
+        }
+        try (Connection c = readers.getConnection(); Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("PRAGMA query_only")) {
+            out.put("reader.query_only", rs.next() ? rs.getString(1) : null);
+        } catch (SQLException e) {
+            throw new RuntimeException("read pragmas failed: " + e.getMessage(), e);
+        }
+        return out;
+    }
+
+    private static void selfCheck(){
+        Map<String, String> eff = effectiveSettings();
+        log.info("SQLite requested: {}", profile);
+        log.info("SQLite effective: {}", eff);
+        // e.g. in-memory or read-only files silently stay on a rollback journal
+        if (!profile.journalMode.name().equalsIgnoreCase(eff.get("journal_mode"))) {
+            log.warn("journal_mode is {} (requested {})", eff.get("journal_mode"), profile.journalMode);
+        }
+    }
+
+    // read/write connection; use for anything that modifies the database
     public static Connection get() throws SQLException {
-        if (ds == null) throw new IllegalStateException("DB not initialised. Call DB.init().");
-        return ds.getConnection();
+        Held h = HELD.get();
+        if (h != null && h.c.isClosed()) {
+            HELD.remove();
+            if (h.watch != null) h.watch.abandoned();
+            h = null;
+        }
+        long waited = 0;
+        if (h == null) {
+            if (writer == null) throw new IllegalStateException("DB not initialised. Call DB.init().");
+            long t0 = System.nanoTime();
+            h = new Held(writer.getConnection());
+            waited = System.nanoTime() - t0;
+            Metrics.timer("db.writer.wait").record(waited);
+            h.watch = watch.get();
+            if (h.watch != null) h.watch.borrowed();
+            HELD.set(h);
+        }
+        h.depth++;
+        return SqlTrace.wrap(StatementCache.wrap(handle(h)), waited);
+    }
+
+    // query_only connection; inside a unit of work it returns the transaction's connection
+    // so reads see the transaction's own writes
+    public static Connection read() throws SQLException {
+        Held h = HELD.get();
+        if (h != null && h.inTx) return get();
+        if (readers == null) throw new IllegalStateException("DB not initialised. Call DB.init().");
+        long t0 = System.nanoTime();
+        Connection c = readers.getConnection();
+        long waited = System.nanoTime() - t0;
+        Metrics.timer("db.reader.wait").record(waited);
+        return SqlTrace.wrap(StatementCache.wrap(c), waited);
+    }
+
+    public static boolean inTransaction(){
+        Held h = HELD.get();
+        return h != null && h.inTx;
+    }
+
+    // identifies the current unit of work on this thread (0 outside one); never reused
+    public static long transactionId(){
+        Held h = HELD.get();
+        return h != null && h.inTx ? h.txId : 0;
+    }
+
+    // true while this thread has the writer connection borrowed (in or out of a transaction)
+    public static boolean holdsWriter(){
+        return HELD.get() != null;
+    }
+
+    // runs as soon as the current unit of work commits, before the writer goes back to the pool, so
+    // the next unit of work on any thread sees its effect (dropped on rollback; right away outside
+    // one). For caches of committed data: keep it short, it holds the writer.
+    public static void onCommit(Runnable action){
+        Held h = HELD.get();
+        if (h != null && h.inTx) h.onCommit.add(action);
+        else action.run();
+    }
+
+    // runs once the current unit of work commits (dropped on rollback), or right away outside one;
+    // after a commit an exception from it is logged, since the work it follows is already durable
+    public static void afterCommit(Runnable action){
+        Held h = HELD.get();
+        if (h != null && h.inTx) h.afterCommit.add(action);
+        else action.run();
+    }
+
+    // the writer's data_version only moves when another connection commits; `held` is the writer,
+    // borrowed by this thread. A replaced connection counts afresh, so that counts as a change too.
+    private static void checkExternalWrites(Connection held){
+        try {
+            Connection raw = held.unwrap(Connection.class);
+            long v;
+            try (Statement st = held.createStatement(); ResultSet rs = st.executeQuery("PRAGMA data_version")) {
+                v = rs.next() ? rs.getLong(1) : 0;
+            }
+            boolean moved = writerSeen != null && (raw != writerSeen || v != writerVersion);
+            writerSeen = raw;
+            writerVersion = v;
+            if (moved) ChangeFeed.external();
+        } catch (SQLException e) {
+            log.debug("data_version read failed: {}", e.getMessage());
+        }
+    }
+
+    // a query_only connection of its own, outside both pools, watching for other processes' commits;
+    // close it to stop
+    static synchronized DataVersionWatch watchDataVersion() throws SQLException {
+        if (writer == null) throw new IllegalStateException("DB not initialised. Call DB.init().");
+        Connection c = DriverManager.getConnection(url, profile.toDriverProperties(false));
+        try (Statement st = c.createStatement()) {
+            st.execute("PRAGMA query_only = 1");
+            DataVersionWatch w = new DataVersionWatch(c);
+            watch.set(w);
+            return w;
+        } catch (SQLException e) {
+            closeQuietly(c);
+            throw e;
+        }
+    }
+
+    // not synchronized: shutdown() holds the lock while its hooks wait for the watcher to close
+    static void unwatch(DataVersionWatch w){
+        watch.compareAndSet(w, null);
+    }
+
+    public static void onShutdown(Runnable hook){
+        shutdownHooks.add(hook);
+    }
+
+    public static void inTransaction(Runnable work){
+        callInTransaction(() -> { work.run(); return null; });
+    }
+
+    // one connection, one commit; DB.get() on this thread hands back the same connection,
+    // nested calls join the outer unit of work
+    public static <T> T callInTransaction(Supplier<T> work){
+        if (inTransaction()) return work.get();
+
+        Connection c;
+        try {
+            c = get();
+        } catch (SQLException e) {
+            throw new RuntimeException("begin transaction failed: " + e.getMessage(), e);
+        }
+        Held h = HELD.get();
+        try {
+            c.setAutoCommit(false);
+        } catch (SQLException e) {
+            closeQuietly(c);
+            throw new RuntimeException("begin transaction failed: " + e.getMessage(), e);
+        }
+
+        // the write lock is ours from here: anything another process committed since we last looked
+        // is published (EXTERNAL) before this unit of work reads a cache
+        checkExternalWrites(h.c);
+        h.inTx = true;
+        h.txId = txIds.incrementAndGet();
+        List<Runnable> applied = null;
+        List<Runnable> committed = null;
+        long t0 = System.nanoTime();
+        try {
+            T out = work.get();
+            long t1 = System.nanoTime();
+            c.commit();
+            Metrics.timer("db.commit").record(System.nanoTime() - t1);
+            applied = new ArrayList<>(h.onCommit);
+            committed = new ArrayList<>(h.afterCommit);
+            return out;
+        } catch (SQLException e) {
+            rollbackQuietly(c);
+            RuntimeException failed = new RuntimeException("commit failed: " + e.getMessage(), e);
+            Metrics.timer("db.commit").failed(failed);
+            throw failed;
+        } catch (RuntimeException | Error e) {
+            rollbackQuietly(c);
+            Metrics.counter("db.rollbacks").increment();
+            throw e;
+        } finally {
+            Metrics.timer("db.transaction").record(System.nanoTime() - t0);
+            h.inTx = false;
+            h.onCommit.clear();
+            h.afterCommit.clear();
+            try { c.setAutoCommit(true); } catch (SQLException ignore) {}
+            if (applied != null) runAll(applied);
+            closeQuietly(c);
+            if (committed != null) runAll(committed);
+        }
+    }
+
+    // the unit of work is durable by now: a failing action is logged, not reported as its failure
+    private static void runAll(List<Runnable> actions){
+        for (Runnable a : actions) {
+            try {
+                a.run();
+            } catch (RuntimeException e) {
+                Metrics.counter("db.afterCommit.failed").increment();
+                log.error("after-commit action failed", e);
+            }
+        }
+    }
+
+    private static void rollbackQuietly(Connection c){
+        try { c.rollback(); } catch (SQLException ignore) {}
+    }
+
+    private static void closeQuietly(Connection c){
+        try { c.close(); } catch (SQLException ignore) {}
+    }
+
+    // closing a handle only returns the writer to the pool once the outermost borrower is done
+    private static Connection handle(Held h){
+        boolean[] closed = { false };
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{ Connection.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "close":
+                            if (!closed[0]) {
+                                closed[0] = true;
+                                if (--h.depth == 0) {
+                                    HELD.remove();
+                                    if (h.watch != null) {
+                                        checkExternalWrites(h.c);
+                                        h.watch.released();
+                                    }
+                                    h.c.close();
+                                }
+                            }
+                            return null;
+                        case "isClosed":
+                            return closed[0] || h.c.isClosed();
+                        default:
+                            try {
+                                return method.invoke(h.c, args);
+                            } catch (InvocationTargetException e) {
+                                throw e.getCause();
+                            }
+                    }
+                });
     }
 
     public static synchronized void shutdown(){
-        if (ds != null) { ds.close(); ds = null; }
+        for (Runnable hook : shutdownHooks) {
+            try { hook.run(); } catch (RuntimeException e) { log.error("shutdown hook failed", e); }
+        }
+        shutdownHooks.clear();
+        if (readers != null) { readers.close(); readers = null; }
+        if (writer != null) { writer.close(); writer = null; profile = null; }
+        log.info("statement cache: {} hits, {} misses, {} evicted", StatementCache.hits(), StatementCache.misses(), StatementCache.evictions());
+        StatementCache.clear();
     }
 }
@@ -0,0 +1,87 @@
+package rmit.s4134401.carehome.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.atomic.AtomicLong;
+
+// PRAGMA data_version on a connection of its own, outside the pools, so polling it never waits on
+// or takes the writer. Its value moves whenever any other connection commits, this process's
+// writer included, so DB tells us each time the writer is given back: with the writer still held
+// nothing of ours can commit, and the value read then becomes the baseline. A poll only compares
+// while the writer is idle. What another process committed before that give-back, DB has already
+// seen on the writer's own data_version.
+final class DataVersionWatch implements AutoCloseable {
+    private static final Logger log = LoggerFactory.getLogger(DataVersionWatch.class);
+
+    private final Connection own;
+    // writer borrows begun and ended since the watch started
+    private final AtomicLong borrows = new AtomicLong();
+    private final AtomicLong releases = new AtomicLong();
+
+    // both guarded by this
+    private long baseline;
+    private boolean closed;
+
+    DataVersionWatch(Connection own) throws SQLException {
+        this.own = own;
+        this.baseline = version(own);
+    }
+
+    // true if another process has committed since the last call
+    boolean poll() throws SQLException {
+        long b = borrows.get();
+        synchronized (this) {
+            if (closed || b != releases.get()) return false;
+            long v = version(own);
+            // a borrow that began meanwhile may have committed: leave it to the next poll
+            if (b != borrows.get()) return false;
+            boolean moved = v != baseline;
+            baseline = v;
+            return moved;
+        }
+    }
+
+    void borrowed(){
+        borrows.incrementAndGet();
+    }
+
+    // the writer is still held, so its commits are in and no new ones can start
+    void released(){
+        try {
+            synchronized (this) {
+                if (closed) return;
+                baseline = version(own);
+            }
+        } catch (SQLException e) {
+            log.debug("data_version read failed: {}", e.getMessage());
+        } finally {
+            releases.incrementAndGet();
+        }
+    }
+
+    // the writer was dropped without being given back, e.g. it broke
+    void abandoned(){
+        releases.incrementAndGet();
+    }
+
+    @Override
+    public void close(){
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        DB.unwatch(this);
+        try { own.close(); } catch (SQLException ignore) {}
+    }
+
+    private static long version(Connection c) throws SQLException {
+        try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery("PRAGMA data_version")) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+}
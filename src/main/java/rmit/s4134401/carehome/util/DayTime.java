@@ -0,0 +1,50 @@
+package rmit.s4134401.carehome.util;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalTime;
+
+// How days and times are stored since schema step 8: a day is its DayOfWeek ordinal (MONDAY = 0),
+// a time of day is minutes since midnight, a timestamp is epoch millis.
+public final class DayTime {
+    private static final DayOfWeek[] DAYS = DayOfWeek.values();
+
+    private DayTime(){}
+
+    public static int day(DayOfWeek d){
+        return d.ordinal();
+    }
+
+    public static DayOfWeek day(int stored){
+        return DAYS[stored];
+    }
+
+    // seconds are dropped; nothing in the roster or the medication log is finer than a minute
+    public static int minutes(LocalTime t){
+        return t.getHour() * 60 + t.getMinute();
+    }
+
+    public static LocalTime time(int stored){
+        return LocalTime.of(stored / 60, stored % 60);
+    }
+
+    public static long millis(Instant ts){
+        return ts.toEpochMilli();
+    }
+
+    public static Instant instant(long stored){
+        return Instant.ofEpochMilli(stored);
+    }
+
+    // SQL converting a DayOfWeek.name() column; NULL for anything else
+    static String daySql(String col){
+        StringBuilder sb = new StringBuilder("CASE UPPER(TRIM(").append(col).append("))");
+        for (DayOfWeek d : DAYS) sb.append(" WHEN '").append(d.name()).append("' THEN ").append(d.ordinal());
+        return sb.append(" END").toString();
+    }
+
+    // SQL converting an "HH:mm[:ss]" column to minutes since midnight
+    static String minutesSql(String col){
+        return "(CAST(substr(" + col + ",1,2) AS INTEGER) * 60 + CAST(substr(" + col + ",4,2) AS INTEGER))";
+    }
+}
@@ -0,0 +1,133 @@
+package rmit.s4134401.carehome.util;
+
+import jdk.jfr.Category;
+import jdk.jfr.Configuration;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+// Flight recorder events for service operations and SQL statements, and the app's continuous
+// recording. Events cost next to nothing unless a recording has them enabled; the bundled
+// carehome.jfc turns them on (SQL above 1 ms) on top of the JDK's "default" settings.
+public final class Jfr {
+    public static final String RECORDING = "carehome";
+
+    private static Recording continuous;
+
+    private Jfr(){}
+
+    @Name("rmit.s4134401.carehome.ServiceOperation")
+    @Label("Service Operation")
+    @Category({ "Care Home" })
+    @Description("One CareHomeService unit of work")
+    @StackTrace(false)
+    public static final class ServiceOperation extends Event {
+        @Label("Operation")
+        public String operation;
+
+        @Label("Staff Id")
+        public String staffId;
+
+        @Label("Outcome")
+        @Description("ok, rejected (rule or input), busy (SQLite locked) or failed")
+        public String outcome;
+    }
+
+    @Name("rmit.s4134401.carehome.SqlStatement")
+    @Label("SQL Statement")
+    @Category({ "Care Home" })
+    @Description("One statement execution; a query lasts until its result set is read or closed")
+    @StackTrace(false)
+    public static final class SqlStatement extends Event {
+        @Label("SQL")
+        public String sql;
+
+        @Label("SQL Hash")
+        public String sqlHash;
+
+        @Label("Rows")
+        @Description("Rows changed by an update or batch; -1 for a query")
+        public long rows;
+
+        @Label("Pool Wait")
+        @Description("Time spent waiting for the connection, on its first statement only")
+        @Timespan(Timespan.NANOSECONDS)
+        public long poolWait;
+
+        @Label("In Transaction")
+        public boolean inTransaction;
+    }
+
+    // the same hash for the same text, across runs and processes
+    public static String hash(String sql){
+        return String.format("%08x", sql.hashCode());
+    }
+
+    // keeps the last maxAge (at most maxBytes) of recording under dir, from the JDK's "default"
+    // settings plus carehome.jfc; `jcmd <pid> JFR.dump name=carehome filename=...` or dump()
+    // writes it out, and it is written to dir/carehome-exit.jfr when the JVM exits
+    public static synchronized Recording startContinuous(Path dir, Duration maxAge, long maxBytes){
+        if (continuous != null) return continuous;
+        try {
+            Files.createDirectories(dir);
+            Recording r = new Recording(settings());
+            r.setName(RECORDING);
+            r.setToDisk(true);
+            r.setMaxAge(maxAge);
+            r.setMaxSize(maxBytes);
+            r.setDestination(dir.resolve("carehome-exit.jfr"));
+            r.setDumpOnExit(true);
+            r.start();
+            continuous = r;
+            return r;
+        } catch (IOException | ParseException e) {
+            throw new RuntimeException("start flight recording failed: " + e.getMessage(), e);
+        }
+    }
+
+    public static synchronized boolean recording(){
+        return continuous != null;
+    }
+
+    // what the continuous recording holds right now, written to `file`
+    public static synchronized void dump(Path file){
+        if (continuous == null) throw new IllegalStateException("no flight recording running");
+        try {
+            continuous.dump(file);
+        } catch (IOException e) {
+            throw new RuntimeException("dump flight recording failed: " + e.getMessage(), e);
+        }
+    }
+
+    public static synchronized void stop(){
+        if (continuous == null) return;
+        continuous.close();
+        continuous = null;
+    }
+
+    static Map<String, String> settings() throws IOException, ParseException {
+        Map<String, String> out = new HashMap<>(Configuration.getConfiguration("default").getSettings());
+        try (InputStream in = Jfr.class.getResourceAsStream("/carehome.jfc")) {
+            if (in == null) throw new IOException("carehome.jfc missing from the classpath");
+            Reader r = new InputStreamReader(in, StandardCharsets.UTF_8);
+            out.putAll(Configuration.create(r).getSettings());
+        }
+        return out;
+    }
+}
@@ -0,0 +1,101 @@
+package rmit.s4134401.carehome.util;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts of non-negative values (microseconds, say) in log-linear buckets: exact below 256, then
+// 128 buckets per power of two, so a reported percentile is within 1% of the true one. Recording
+// is one atomic increment and never blocks; histograms merge by adding counts, including across
+// processes through encode()/decode().
+public final class LatencyHistogram {
+    private static final int LINEAR = 256;
+    private static final int SUB_BITS = 7;
+    private static final int SUB = 1 << SUB_BITS;
+    private static final int BUCKETS = LINEAR + (63 - 8) * SUB;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    public void record(long value){
+        if (value < 0) value = 0;
+        counts.incrementAndGet(index(value));
+        total.increment();
+        sum.add(value);
+    }
+
+    public long count(){
+        return total.sum();
+    }
+
+    public double mean(){
+        long n = count();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+
+    // the value at quantile q (0..1): the upper edge of the bucket holding that rank, 0 when empty
+    public long percentile(double q){
+        long n = count();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(q * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) return upper(i);
+        }
+        return upper(BUCKETS - 1);
+    }
+
+    public long max(){
+        for (int i = BUCKETS - 1; i >= 0; i--) if (counts.get(i) > 0) return upper(i);
+        return 0;
+    }
+
+    public void add(LatencyHistogram other){
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = other.counts.get(i);
+            if (c != 0) counts.addAndGet(i, c);
+        }
+        total.add(other.total.sum());
+        sum.add(other.sum.sum());
+    }
+
+    // "sum;index:count,index:count,..." with only the non-empty buckets
+    public String encode(){
+        StringBuilder sb = new StringBuilder().append(sum.sum()).append(';');
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            if (c != 0) sb.append(i).append(':').append(c).append(',');
+        }
+        return sb.toString();
+    }
+
+    public static LatencyHistogram decode(String s){
+        LatencyHistogram h = new LatencyHistogram();
+        int semi = s.indexOf(';');
+        h.sum.add(Long.parseLong(s.substring(0, semi)));
+        for (String pair : s.substring(semi + 1).split(",")) {
+            if (pair.isEmpty()) continue;
+            int colon = pair.indexOf(':');
+            long c = Long.parseLong(pair.substring(colon + 1));
+            h.counts.addAndGet(Integer.parseInt(pair.substring(0, colon)), c);
+            h.total.add(c);
+        }
+        return h;
+    }
+
+    static int index(long v){
+        if (v < LINEAR) return (int) v;
+        int e = 63 - Long.numberOfLeadingZeros(v);
+        return LINEAR + (e - 8) * SUB + (int) ((v >>> (e - SUB_BITS)) & (SUB - 1));
+    }
+
+    // largest value that lands in bucket i
+    static long upper(int i){
+        if (i < LINEAR) return i;
+        int e = (i - LINEAR) / SUB + 8;
+        long sub = (i - LINEAR) % SUB;
+        long lo = (1L << e) | (sub << (e - SUB_BITS));
+        return lo + (1L << (e - SUB_BITS)) - 1;
+    }
+}
@@ -0,0 +1,283 @@
+package rmit.s4134401.carehome.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.JMException;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+// Process-wide counters, gauges and latency timers, by dotted name:
+//   service.<operation>          each CareHomeService call, including its unit of work
+//   repo.<repository>.<method>   each repository call made through instrument()
+//   db.writer.wait / reader.wait time to get a pooled connection; db.transaction, db.commit
+//   db.writer.* / db.reader.*    Hikari pool gauges (active, idle, total, waiting threads)
+//   ui.queue / ui.work / fx.lag  UI background work and how far behind the FX thread runs
+// Recording never blocks. Read it all through snapshot(), a file (startDump) or JMX (registerJmx).
+public final class Metrics {
+    private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+
+    private static final Map<String, LongAdder> counters = new ConcurrentHashMap<>();
+    private static final Map<String, Timer> timers = new ConcurrentHashMap<>();
+    private static final Map<String, Supplier<Number>> gauges = new ConcurrentHashMap<>();
+
+    private static ScheduledExecutorService dumper;
+    private static Path dumpFile;
+
+    private Metrics(){}
+
+    // latencies in microseconds, plus how many calls threw and how many of those were SQLITE_BUSY
+    public static final class Timer {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder busy = new LongAdder();
+
+        public void record(long nanos){
+            latency.record(nanos / 1_000);
+        }
+
+        public void failed(Throwable e){
+            errors.increment();
+            if (Metrics.busy(e)) busy.increment();
+        }
+
+        public long count(){ return latency.count(); }
+        public long errors(){ return errors.sum(); }
+        public long busy(){ return busy.sum(); }
+        public LatencyHistogram latency(){ return latency; }
+    }
+
+    public static LongAdder counter(String name){
+        return counters.computeIfAbsent(name, k -> new LongAdder());
+    }
+
+    public static Timer timer(String name){
+        return timers.computeIfAbsent(name, k -> new Timer());
+    }
+
+    // replaces any gauge of the same name
+    public static void gauge(String name, Supplier<Number> value){
+        gauges.put(name, value);
+    }
+
+    public static void time(String name, Runnable work){
+        time(name, () -> { work.run(); return null; });
+    }
+
+    public static <T> T time(String name, Supplier<T> work){
+        Timer t = timer(name);
+        long t0 = System.nanoTime();
+        try {
+            return work.get();
+        } catch (RuntimeException | Error e) {
+            t.failed(e);
+            throw e;
+        } finally {
+            t.record(System.nanoTime() - t0);
+        }
+    }
+
+    // the same object behind `type`, with every call timed as <prefix>.<method>
+    @SuppressWarnings("unchecked")
+    public static <T> T instrument(Class<T> type, T target, String prefix){
+        Map<String, Timer> byMethod = new ConcurrentHashMap<>();
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{ type }, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                try {
+                    return method.invoke(target, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+            Timer t = byMethod.computeIfAbsent(method.getName(), m -> timer(prefix + "." + m));
+            long t0 = System.nanoTime();
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                t.failed(e.getCause());
+                throw e.getCause();
+            } finally {
+                t.record(System.nanoTime() - t0);
+            }
+        });
+    }
+
+    // SQLITE_BUSY or SQLITE_LOCKED anywhere in the cause chain
+    public static boolean busy(Throwable e){
+        for (Throwable c = e; c != null; c = c.getCause()) {
+            if (c instanceof org.sqlite.SQLiteException s) {
+                String code = s.getResultCode().name();
+                if (code.startsWith("SQLITE_BUSY") || code.startsWith("SQLITE_LOCKED")) return true;
+            } else if (c instanceof SQLException && c.getMessage() != null
+                    && (c.getMessage().contains("SQLITE_BUSY") || c.getMessage().contains("SQLITE_LOCKED"))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // every value by name; a timer contributes <name>.count, .errors, .busy, .mean_ms, .p50_ms,
+    // .p99_ms, .p999_ms and .max_ms
+    public static Map<String, Number> snapshot(){
+        Map<String, Number> out = new TreeMap<>();
+        counters.forEach((k, v) -> out.put(k, v.sum()));
+        gauges.forEach((k, v) -> {
+            try {
+                out.put(k, v.get());
+            } catch (RuntimeException e) {
+                // a pool that has just closed, say
+            }
+        });
+        timers.forEach((k, t) -> {
+            LatencyHistogram h = t.latency;
+            out.put(k + ".count", h.count());
+            out.put(k + ".errors", t.errors());
+            out.put(k + ".busy", t.busy());
+            out.put(k + ".mean_ms", h.mean() / 1000.0);
+            out.put(k + ".p50_ms", h.percentile(0.50) / 1000.0);
+            out.put(k + ".p99_ms", h.percentile(0.99) / 1000.0);
+            out.put(k + ".p999_ms", h.percentile(0.999) / 1000.0);
+            out.put(k + ".max_ms", h.max() / 1000.0);
+        });
+        return out;
+    }
+
+    // one line per timer, counter and gauge
+    public static String dump(){
+        StringBuilder sb = new StringBuilder("# ").append(Instant.now()).append('\n');
+        new TreeMap<>(timers).forEach((k, t) -> {
+            LatencyHistogram h = t.latency;
+            if (h.count() == 0) return;
+            sb.append(String.format("%-48s count=%d errors=%d busy=%d mean=%.3fms p50=%.3fms p99=%.3fms p999=%.3fms max=%.3fms%n",
+                    k, h.count(), t.errors(), t.busy(), h.mean() / 1000.0, h.percentile(0.50) / 1000.0,
+                    h.percentile(0.99) / 1000.0, h.percentile(0.999) / 1000.0, h.max() / 1000.0));
+        });
+        new TreeMap<>(counters).forEach((k, v) -> sb.append(String.format("%-48s %d%n", k, v.sum())));
+        new TreeMap<>(gauges).forEach((k, v) -> {
+            Number n;
+            try {
+                n = v.get();
+            } catch (RuntimeException e) {
+                return;
+            }
+            sb.append(String.format("%-48s %s%n", k, n));
+        });
+        return sb.toString();
+    }
+
+    // rewrites `file` with dump() every `periodSeconds`, and once more from stopDump()
+    public static synchronized void startDump(Path file, long periodSeconds){
+        stopDump();
+        dumpFile = file;
+        dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "carehome-metrics");
+            t.setDaemon(true);
+            return t;
+        });
+        dumper.scheduleAtFixedRate(Metrics::writeDump, periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    public static synchronized void stopDump(){
+        if (dumper == null) return;
+        dumper.shutdownNow();
+        dumper = null;
+        writeDump();
+    }
+
+    private static void writeDump(){
+        Path file = dumpFile;
+        if (file == null) return;
+        try {
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            Files.writeString(tmp, dump(), StandardCharsets.UTF_8);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.warn("metrics dump to {} failed: {}", file, e.getMessage());
+        }
+    }
+
+    // every snapshot() entry as a read-only attribute of rmit.s4134401.carehome:type=Metrics
+    public static synchronized void registerJmx(){
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("rmit.s4134401.carehome:type=Metrics");
+            if (!server.isRegistered(name)) server.registerMBean(new Bean(), name);
+        } catch (JMException e) {
+            log.warn("metrics MBean not registered: {}", e.getMessage());
+        }
+    }
+
+    // drops everything recorded; the gauges stay
+    public static void reset(){
+        counters.clear();
+        timers.clear();
+    }
+
+    private static final class Bean implements DynamicMBean {
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Number n = snapshot().get(attribute);
+            if (n == null) throw new AttributeNotFoundException(attribute);
+            return n.doubleValue();
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes){
+            Map<String, Number> all = snapshot();
+            AttributeList out = new AttributeList();
+            for (String a : attributes) {
+                Number n = all.get(a);
+                if (n != null) out.add(new Attribute(a, n.doubleValue()));
+            }
+            return out;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute){
+            throw new UnsupportedOperationException("metrics are read-only");
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes){
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature){
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        // the attribute list is whatever has been recorded by the time a client asks
+        @Override
+        public MBeanInfo getMBeanInfo(){
+            MBeanAttributeInfo[] attrs = snapshot().keySet().stream()
+                    .map(k -> new MBeanAttributeInfo(k, "double", k, true, false, false))
+                    .toArray(MBeanAttributeInfo[]::new);
+            return new MBeanInfo(Metrics.class.getName(), "care home metrics", attrs, null, null, null);
+        }
+    }
+}
@@ -1,83 +1,376 @@
 package rmit.s4134401.carehome.util;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.sql.Statement;
+import java.time.OffsetDateTime;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public final class SchemaMigrator {
+    private static final Logger log = LoggerFactory.getLogger(SchemaMigrator.class);
+
     private SchemaMigrator(){}
 
+    // canonical table shapes; steps below only ever create these. Step 1's definitions stay as they
+    // shipped (they are checksummed); the four tables step 8 re-types have their current shape below
+    static final String STAFF =
+            "CREATE TABLE IF NOT EXISTS staff(" +
+            "id TEXT PRIMARY KEY, name TEXT NOT NULL, role TEXT NOT NULL, password TEXT NOT NULL DEFAULT '')";
+    static final String BEDS =
+            "CREATE TABLE IF NOT EXISTS beds(" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT, ward TEXT NOT NULL, room INTEGER NOT NULL, bed_num INTEGER NOT NULL," +
+            "UNIQUE(ward,room,bed_num))";
+    static final String PATIENTS =
+            "CREATE TABLE IF NOT EXISTS patients(" +
+            "id TEXT PRIMARY KEY, full_name TEXT NOT NULL, gender TEXT NOT NULL, isolation INTEGER NOT NULL," +
+            "bed_id INTEGER NULL, FOREIGN KEY(bed_id) REFERENCES beds(id))";
+    static final String NURSE_SHIFTS =
+            "CREATE TABLE IF NOT EXISTS nurse_shifts(" +
+            "nurse_id TEXT NOT NULL, day TEXT NOT NULL, start TEXT NOT NULL, end TEXT NOT NULL," +
+            "PRIMARY KEY(nurse_id,day,start,end))";
+    static final String DOCTOR_MINUTES =
+            "CREATE TABLE IF NOT EXISTS doctor_minutes(" +
+            "doctor_id TEXT NOT NULL, day TEXT NOT NULL, minutes INTEGER NOT NULL, PRIMARY KEY(doctor_id,day))";
+    static final String AUDIT =
+            "CREATE TABLE IF NOT EXISTS audit(" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT, when_ts TEXT NOT NULL, staff_id TEXT, type TEXT NOT NULL," +
+            "details TEXT NOT NULL DEFAULT '')";
+    static final String PRESCRIPTIONS =
+            "CREATE TABLE IF NOT EXISTS prescriptions(" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT, patient_id TEXT NOT NULL, doctor_id TEXT NOT NULL, day TEXT NOT NULL, created_ts TEXT NOT NULL)";
+    static final String RX_LINES =
+            "CREATE TABLE IF NOT EXISTS rx_lines(" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT, rx_id INTEGER NOT NULL, medicine TEXT NOT NULL, dose TEXT NOT NULL, times TEXT NOT NULL," +
+            "FOREIGN KEY(rx_id) REFERENCES prescriptions(id))";
+    static final String ADMINISTRATIONS =
+            "CREATE TABLE IF NOT EXISTS administrations(" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT, patient_id TEXT NOT NULL, medicine TEXT NOT NULL, dose TEXT NOT NULL," +
+            "day TEXT NOT NULL, time TEXT NOT NULL, staff_id TEXT NOT NULL, is_correction INTEGER NOT NULL DEFAULT 0)";
+
+    static final String NURSE_SHIFTS_8 =
+            "CREATE TABLE IF NOT EXISTS nurse_shifts(" +
+            "nurse_id TEXT NOT NULL, day INTEGER NOT NULL, start_min INTEGER NOT NULL, end_min INTEGER NOT NULL," +
+            "PRIMARY KEY(nurse_id,day,start_min,end_min))";
+    static final String DOCTOR_MINUTES_8 =
+            "CREATE TABLE IF NOT EXISTS doctor_minutes(" +
+            "doctor_id TEXT NOT NULL, day INTEGER NOT NULL, minutes INTEGER NOT NULL, PRIMARY KEY(doctor_id,day))";
+    static final String PRESCRIPTIONS_8 =
+            "CREATE TABLE IF NOT EXISTS prescriptions(" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT, patient_id TEXT NOT NULL, doctor_id TEXT NOT NULL, day INTEGER NOT NULL, created_ms INTEGER NOT NULL)";
+    static final String ADMINISTRATIONS_8 =
+            "CREATE TABLE IF NOT EXISTS administrations(" +
+            "id INTEGER PRIMARY KEY AUTOINCREMENT, patient_id TEXT NOT NULL, medicine TEXT NOT NULL, dose TEXT NOT NULL," +
+            "day INTEGER NOT NULL, time_min INTEGER NOT NULL, staff_id TEXT NOT NULL, is_correction INTEGER NOT NULL DEFAULT 0)";
+
+    // step 8 copies; rows whose day isn't a DayOfWeek name can't be placed and are dropped
+    private static final String COPY_NURSE_SHIFTS_8 =
+            "INSERT OR IGNORE INTO nurse_shifts_new(nurse_id, day, start_min, end_min) SELECT nurse_id, " +
+            DayTime.daySql("day") + ", " + DayTime.minutesSql("start") + ", " + DayTime.minutesSql("end") +
+            " FROM nurse_shifts WHERE " + DayTime.daySql("day") + " IS NOT NULL ORDER BY rowid";
+    private static final String COPY_DOCTOR_MINUTES_8 =
+            "INSERT OR REPLACE INTO doctor_minutes_new(doctor_id, day, minutes) SELECT doctor_id, " +
+            DayTime.daySql("day") + ", minutes FROM doctor_minutes WHERE " + DayTime.daySql("day") + " IS NOT NULL ORDER BY rowid";
+    private static final String COPY_PRESCRIPTIONS_8 =
+            "INSERT INTO prescriptions_new(id, patient_id, doctor_id, day, created_ms) SELECT id, patient_id, doctor_id, " +
+            DayTime.daySql("day") + ", CAST(ROUND((julianday(created_ts) - 2440587.5) * 86400000) AS INTEGER)" +
+            " FROM prescriptions WHERE " + DayTime.daySql("day") + " IS NOT NULL";
+    private static final String COPY_ADMINISTRATIONS_8 =
+            "INSERT INTO administrations_new(id, patient_id, medicine, dose, day, time_min, staff_id, is_correction) " +
+            "SELECT id, patient_id, medicine, dose, " + DayTime.daySql("day") + ", " + DayTime.minutesSql("time") +
+            ", staff_id, is_correction FROM administrations WHERE " + DayTime.daySql("day") + " IS NOT NULL";
+    // audit keeps its rows (and the full-text index keyed on their ids): its step 6 TEXT day and
+    // time columns are swapped for integer ones in place
+    private static final String[] AUDIT_8 = {
+            "ALTER TABLE audit ADD COLUMN day_num INTEGER",
+            "ALTER TABLE audit ADD COLUMN time_min INTEGER",
+            "UPDATE audit SET day_num = " + DayTime.daySql("day") + ", time_min = CASE WHEN time IS NULL THEN NULL ELSE "
+                    + DayTime.minutesSql("time") + " END WHERE day IS NOT NULL OR time IS NOT NULL",
+            "ALTER TABLE audit DROP COLUMN day",
+            "ALTER TABLE audit DROP COLUMN time",
+            "ALTER TABLE audit RENAME COLUMN day_num TO day"
+    };
+    // rebuilding drops the step 5 indexes on these tables
+    private static final String[] INDEXES_8 = {
+            "CREATE INDEX IF NOT EXISTS idx_administrations_patient ON administrations(patient_id)",
+            "CREATE INDEX IF NOT EXISTS idx_prescriptions_patient ON prescriptions(patient_id)",
+            // dayCovered probes by (day, start, end) for any nurse; covering
+            "CREATE INDEX IF NOT EXISTS idx_nurse_shifts_day ON nurse_shifts(day, start_min, end_min)",
+            "CREATE INDEX IF NOT EXISTS idx_doctor_minutes_day ON doctor_minutes(day, minutes)"
+    };
+
+    // wards A and B; room 1 has 1 bed, room 2 has 2, rooms 3-6 have 4
+    private static final String SEED_BEDS =
+            "INSERT OR IGNORE INTO beds(ward,room,bed_num) " +
+            "SELECT w,r,b FROM (SELECT 'A' w UNION SELECT 'B')," +
+            "(SELECT 1 r UNION SELECT 2 UNION SELECT 3 UNION SELECT 4 UNION SELECT 5 UNION SELECT 6)," +
+            "(SELECT 1 b UNION SELECT 2 UNION SELECT 3 UNION SELECT 4) " +
+            "WHERE (r=1 AND b<=1) OR (r=2 AND b<=2) OR r>=3 ORDER BY w,r,b";
+
+    @FunctionalInterface
+    private interface Body {
+        void apply(Connection c) throws SQLException;
+    }
+
+    private static final class Step {
+        final int version;
+        final String description;
+        final String checksum;
+        final Body body;
+
+        Step(int version, String description, String definition, Body body){
+            this.version = version;
+            this.description = description;
+            this.checksum = sha256(definition);
+            this.body = body;
+        }
+
+        static Step sql(int version, String description, String... statements){
+            return new Step(version, description, String.join(";\n", statements), c -> {
+                try (Statement st = c.createStatement()) {
+                    for (String s : statements) st.execute(s);
+                }
+            });
+        }
+    }
+
+    // append only: never edit or reorder a step that has shipped, add a new one instead
+    private static final List<Step> STEPS = List.of(
+            Step.sql(1, "core tables and bed layout",
+                    STAFF, BEDS, PATIENTS, NURSE_SHIFTS, DOCTOR_MINUTES, AUDIT,
+                    PRESCRIPTIONS, RX_LINES, ADMINISTRATIONS, SEED_BEDS),
+            new Step(2, "reconcile audit shape", AUDIT, SchemaMigrator::rebuildAudit),
+            new Step(3, "reconcile nurse_shifts shape", NURSE_SHIFTS, SchemaMigrator::rebuildNurseShifts),
+            new Step(4, "reconcile doctor_minutes shape", DOCTOR_MINUTES, SchemaMigrator::rebuildDoctorMinutes),
+            Step.sql(5, "secondary indexes",
+                    // findOccupantByBedId / vacateBed; (bed_id, id) answers "who is in bed N" from the index alone
+                    "CREATE INDEX IF NOT EXISTS idx_patients_bed ON patients(bed_id, id)",
+                    // listForPatient; rowid order inside the index already satisfies ORDER BY id
+                    "CREATE INDEX IF NOT EXISTS idx_administrations_patient ON administrations(patient_id)",
+                    "CREATE INDEX IF NOT EXISTS idx_prescriptions_patient ON prescriptions(patient_id)",
+                    "CREATE INDEX IF NOT EXISTS idx_rx_lines_rx ON rx_lines(rx_id)",
+                    "CREATE INDEX IF NOT EXISTS idx_audit_staff ON audit(staff_id)",
+                    // dayCovered probes by (day, start, end) for any nurse; covering
+                    "CREATE INDEX IF NOT EXISTS idx_nurse_shifts_day ON nurse_shifts(day, start, end)",
+                    // getMinutes sums per day across doctors; covering
+                    "CREATE INDEX IF NOT EXISTS idx_doctor_minutes_day ON doctor_minutes(day, minutes)"),
+            Step.sql(6, "typed audit columns",
+                    "ALTER TABLE audit ADD COLUMN when_ms INTEGER",
+                    "ALTER TABLE audit ADD COLUMN patient_id TEXT",
+                    "ALTER TABLE audit ADD COLUMN bed_id INTEGER",
+                    // a MOVE's source bed; bed_id is where the patient went
+                    "ALTER TABLE audit ADD COLUMN from_bed_id INTEGER",
+                    "ALTER TABLE audit ADD COLUMN day TEXT",
+                    "ALTER TABLE audit ADD COLUMN time TEXT",
+                    "ALTER TABLE audit ADD COLUMN medicine TEXT",
+                    // when_ts is ISO-8601 with an offset, which julianday() understands
+                    "UPDATE audit SET when_ms = CAST(ROUND((julianday(when_ts) - 2440587.5) * 86400000) AS INTEGER)",
+                    // older rows have no patient; keep them out of the index
+                    "CREATE INDEX IF NOT EXISTS idx_audit_patient ON audit(patient_id) WHERE patient_id IS NOT NULL",
+                    "CREATE INDEX IF NOT EXISTS idx_audit_type ON audit(type)",
+                    "CREATE INDEX IF NOT EXISTS idx_audit_when ON audit(when_ms)"),
+            Step.sql(7, "audit full-text index",
+                    // external content: the text lives in audit only, triggers keep the index in step
+                    "CREATE VIRTUAL TABLE IF NOT EXISTS audit_fts USING fts5(" +
+                    "staff_id, type, patient_id, medicine, details, content='audit', content_rowid='id', prefix='2 3')",
+                    "CREATE TRIGGER IF NOT EXISTS audit_fts_ai AFTER INSERT ON audit BEGIN " +
+                    "INSERT INTO audit_fts(rowid, staff_id, type, patient_id, medicine, details) " +
+                    "VALUES (new.id, new.staff_id, new.type, new.patient_id, new.medicine, new.details); END",
+                    "CREATE TRIGGER IF NOT EXISTS audit_fts_ad AFTER DELETE ON audit BEGIN " +
+                    "INSERT INTO audit_fts(audit_fts, rowid, staff_id, type, patient_id, medicine, details) " +
+                    "VALUES ('delete', old.id, old.staff_id, old.type, old.patient_id, old.medicine, old.details); END",
+                    "CREATE TRIGGER IF NOT EXISTS audit_fts_au AFTER UPDATE ON audit BEGIN " +
+                    "INSERT INTO audit_fts(audit_fts, rowid, staff_id, type, patient_id, medicine, details) " +
+                    "VALUES ('delete', old.id, old.staff_id, old.type, old.patient_id, old.medicine, old.details); " +
+                    "INSERT INTO audit_fts(rowid, staff_id, type, patient_id, medicine, details) " +
+                    "VALUES (new.id, new.staff_id, new.type, new.patient_id, new.medicine, new.details); END",
+                    "INSERT INTO audit_fts(audit_fts) VALUES ('rebuild')"),
+            new Step(8, "integer day and time columns",
+                    String.join(";\n", NURSE_SHIFTS_8, COPY_NURSE_SHIFTS_8, DOCTOR_MINUTES_8, COPY_DOCTOR_MINUTES_8,
+                            PRESCRIPTIONS_8, COPY_PRESCRIPTIONS_8, ADMINISTRATIONS_8, COPY_ADMINISTRATIONS_8,
+                            String.join(";\n", AUDIT_8), String.join(";\n", INDEXES_8)),
+                    SchemaMigrator::integerDayTime),
+            Step.sql(9, "staff directory version",
+                    // one row; the staff directory cache reloads when it moves, whoever wrote
+                    "CREATE TABLE IF NOT EXISTS staff_version(id INTEGER PRIMARY KEY CHECK (id = 1), version INTEGER NOT NULL)",
+                    "INSERT OR IGNORE INTO staff_version(id, version) VALUES (1, 0)",
+                    "CREATE TRIGGER IF NOT EXISTS staff_version_ai AFTER INSERT ON staff BEGIN " +
+                    "UPDATE staff_version SET version = version + 1 WHERE id = 1; END",
+                    "CREATE TRIGGER IF NOT EXISTS staff_version_ad AFTER DELETE ON staff BEGIN " +
+                    "UPDATE staff_version SET version = version + 1 WHERE id = 1; END",
+                    // password changes don't touch the directory
+                    "CREATE TRIGGER IF NOT EXISTS staff_version_au AFTER UPDATE OF name, role, id ON staff BEGIN " +
+                    "UPDATE staff_version SET version = version + 1 WHERE id = 1; END"),
+            Step.sql(10, "one patient per bed",
+                    // the occupancy checks are the only other guard, and they are only as good as what they read
+                    "CREATE UNIQUE INDEX IF NOT EXISTS idx_patients_bed_unique ON patients(bed_id) WHERE bed_id IS NOT NULL",
+                    // at most one row per bed now, so the step 5 covering index saves nothing
+                    "DROP INDEX IF EXISTS idx_patients_bed")
+    );
+
+    // a database that is up to date costs one SELECT on schema_version
     public static void ensure(){
         try {
-            Connection c = DB.get();
-            Statement s = c.createStatement();
-
-            s.execute("CREATE TABLE IF NOT EXISTS staff(" +
-                    "id TEXT PRIMARY KEY, name TEXT NOT NULL, role TEXT NOT NULL, password TEXT NOT NULL DEFAULT '')");
-
-            s.execute("CREATE TABLE IF NOT EXISTS beds(" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT, ward TEXT NOT NULL, room INTEGER NOT NULL, bed_num INTEGER NOT NULL," +
-                    "UNIQUE(ward,room,bed_num))");
-
-            s.execute("CREATE TABLE IF NOT EXISTS patients(" +
-                    "id TEXT PRIMARY KEY, full_name TEXT NOT NULL, gender TEXT NOT NULL, isolation INTEGER NOT NULL," +
-                    "bed_id INTEGER NULL, FOREIGN KEY(bed_id) REFERENCES beds(id))");
-
-            s.execute("CREATE TABLE IF NOT EXISTS nurse_shifts(" +
-                    "nurse_id TEXT NOT NULL, day TEXT NOT NULL, start TEXT NOT NULL, end TEXT NOT NULL," +
-                    "PRIMARY KEY(nurse_id,day,start,end))");
-
-            s.execute("CREATE TABLE IF NOT EXISTS doctor_minutes(" +
-                    "day TEXT PRIMARY KEY, minutes INTEGER NOT NULL)");
-
-            s.execute("CREATE TABLE IF NOT EXISTS audit(" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT, when_ts TEXT NOT NULL, staff_id TEXT NOT NULL, type TEXT NOT NULL, details TEXT NOT NULL)");
-
-            s.execute("CREATE TABLE IF NOT EXISTS prescriptions(" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT, patient_id TEXT NOT NULL, doctor_id TEXT NOT NULL, day TEXT NOT NULL, created_ts TEXT NOT NULL)");
-            s.execute("CREATE TABLE IF NOT EXISTS rx_lines(" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT, rx_id INTEGER NOT NULL, medicine TEXT NOT NULL, dose TEXT NOT NULL, times TEXT NOT NULL," +
-                    "FOREIGN KEY(rx_id) REFERENCES prescriptions(id))");
-
-            s.execute("CREATE TABLE IF NOT EXISTS administrations(" +
-                    "id INTEGER PRIMARY KEY AUTOINCREMENT, patient_id TEXT NOT NULL, medicine TEXT NOT NULL, dose TEXT NOT NULL," +
-                    "day TEXT NOT NULL, time TEXT NOT NULL, staff_id TEXT NOT NULL, is_correction INTEGER NOT NULL DEFAULT 0)");
-            
-            s.execute("""
-            	    CREATE TABLE IF NOT EXISTS doctor_minutes_v2(
-            	        doctor_id TEXT,                 -- allow NULL for old rows
-            	        day       TEXT NOT NULL,
-            	        minutes   INTEGER NOT NULL,
-            	        PRIMARY KEY(doctor_id, day)
-            	    )
-            	""");
-            
-            s.execute("INSERT OR IGNORE INTO beds(id,ward,room,bed_num) " +
-                    "SELECT NULL,'A',r,b FROM (SELECT 1 r UNION SELECT 2 UNION SELECT 3 UNION SELECT 4 UNION SELECT 5 UNION SELECT 6)," +
-                    "(SELECT 1 b UNION SELECT 2 UNION SELECT 3 UNION SELECT 4) WHERE (r IN (1,2) AND b<=1) OR (r IN (3,4) AND b<=2) OR (r=5 AND b<=3) OR (r=6)");
-            s.execute("INSERT OR IGNORE INTO beds(id,ward,room,bed_num) " +
-                    "SELECT NULL,'B',r,b FROM (SELECT 1 r UNION SELECT 2 UNION SELECT 3 UNION SELECT 4 UNION SELECT 5 UNION SELECT 6)," +
-                    "(SELECT 1 b UNION SELECT 2 UNION SELECT 3 UNION SELECT 4) WHERE (r IN (1,2) AND b<=1) OR (r IN (3,4) AND b<=2) OR (r=5 AND b<=3) OR (r=6)");
-            
-            
-            s.execute("""
-            	    INSERT OR IGNORE INTO doctor_minutes_v2(doctor_id, day, minutes)
-            	    SELECT NULL, day, minutes FROM doctor_minutes
-            	""");
-            
-            s.execute("DROP TABLE IF EXISTS doctor_minutes");
-            s.execute("ALTER TABLE doctor_minutes_v2 RENAME TO doctor_minutes");
-            
-            s.close();
-            c.close();
-        } catch (Exception e){
+            try (Connection c = DB.get(); Statement st = c.createStatement()) {
+                st.execute("CREATE TABLE IF NOT EXISTS schema_version(" +
+                        "version INTEGER PRIMARY KEY, description TEXT NOT NULL, checksum TEXT NOT NULL, applied_at TEXT NOT NULL)");
+            }
+
+            Map<Integer, String> applied = appliedChecksums();
+            int ran = 0;
+            for (Step step : STEPS) {
+                String have = applied.get(step.version);
+                if (have != null) {
+                    if (!have.equals(step.checksum))
+                        throw new IllegalStateException("schema step " + step.version + " (" + step.description
+                                + ") changed after it was applied");
+                    continue;
+                }
+                if (apply(step)) ran++;
+            }
+
+            if (ran > 0) {
+                try (Connection c = DB.get(); Statement st = c.createStatement()) {
+                    st.execute("PRAGMA optimize");
+                }
+            }
+        } catch (SQLException e) {
             throw new RuntimeException("Schema ensure failed: " + e.getMessage(), e);
         }
-        
-        try (java.sql.Connection c = rmit.s4134401.carehome.util.DB.get();
-        	     java.sql.Statement st = c.createStatement()) {
-        	    st.executeUpdate(
-        	        "DELETE FROM doctor_minutes WHERE doctor_id IS NULL OR TRIM(doctor_id)=''");
-        	} catch (Exception ignore) {}
+    }
+
+    public static int currentVersion(){
+        try (Connection c = DB.read(); Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT COALESCE(MAX(version),0) FROM schema_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            throw new RuntimeException("read schema version failed: " + e.getMessage(), e);
+        }
+    }
+
+    private static Map<Integer, String> appliedChecksums() throws SQLException {
+        Map<Integer, String> out = new HashMap<>();
+        try (Connection c = DB.get(); Statement st = c.createStatement();
+             ResultSet rs = st.executeQuery("SELECT version, checksum FROM schema_version")) {
+            while (rs.next()) out.put(rs.getInt(1), rs.getString(2));
+        }
+        return out;
+    }
+
+    // false if another process applied the step between our check and our write lock
+    private static boolean apply(Step step){
+        return DB.callInTransaction(() -> {
+            try (Connection c = DB.get()) {
+                try (PreparedStatement ps = c.prepareStatement("SELECT 1 FROM schema_version WHERE version=?")) {
+                    ps.setInt(1, step.version);
+                    try (ResultSet rs = ps.executeQuery()) { if (rs.next()) return false; }
+                }
+                step.body.apply(c);
+                try (PreparedStatement ps = c.prepareStatement(
+                        "INSERT INTO schema_version(version, description, checksum, applied_at) VALUES(?,?,?,?)")) {
+                    ps.setInt(1, step.version);
+                    ps.setString(2, step.description);
+                    ps.setString(3, step.checksum);
+                    ps.setString(4, OffsetDateTime.now().toString());
+                    ps.executeUpdate();
+                }
+                log.info("schema step {} applied: {}", step.version, step.description);
+                return true;
+            } catch (SQLException e) {
+                throw new RuntimeException("schema step " + step.version + " failed: " + e.getMessage(), e);
+            }
+        });
+    }
+
+    // older builds created audit as (when_ts,type) or (ts,action), sometimes both
+    private static void rebuildAudit(Connection c) throws SQLException {
+        Set<String> cols = columns(c, "audit");
+        String sql = "INSERT INTO audit_new(id, when_ts, staff_id, type, details) SELECT "
+                + (cols.contains("id") ? "id" : "rowid") + ", "
+                + pick(cols, "datetime('now')", "when_ts", "ts") + ", "
+                + pick(cols, "NULL", "staff_id") + ", "
+                + pick(cols, "'-'", "type", "action") + ", "
+                + pick(cols, "''", "details", "message")
+                + " FROM audit";
+        rebuild(c, "audit", AUDIT, sql);
+    }
+
+    // one build created nurse_shifts with a surrogate id and no key; collapse duplicates
+    private static void rebuildNurseShifts(Connection c) throws SQLException {
+        rebuild(c, "nurse_shifts", NURSE_SHIFTS,
+                "INSERT OR IGNORE INTO nurse_shifts_new(nurse_id, day, start, end) " +
+                "SELECT nurse_id, day, start, end FROM nurse_shifts ORDER BY rowid");
+    }
+
+    // rows without a doctor cannot be attributed and were already being discarded
+    private static void rebuildDoctorMinutes(Connection c) throws SQLException {
+        Set<String> cols = columns(c, "doctor_minutes");
+        String sql = cols.contains("doctor_id")
+                ? "INSERT OR REPLACE INTO doctor_minutes_new(doctor_id, day, minutes) " +
+                  "SELECT doctor_id, day, minutes FROM doctor_minutes " +
+                  "WHERE doctor_id IS NOT NULL AND TRIM(doctor_id) <> '' ORDER BY rowid"
+                : null;
+        rebuild(c, "doctor_minutes", DOCTOR_MINUTES, sql);
+    }
+
+    private static void integerDayTime(Connection c) throws SQLException {
+        rebuild(c, "nurse_shifts", NURSE_SHIFTS_8, COPY_NURSE_SHIFTS_8);
+        rebuild(c, "doctor_minutes", DOCTOR_MINUTES_8, COPY_DOCTOR_MINUTES_8);
+        rebuild(c, "prescriptions", PRESCRIPTIONS_8, COPY_PRESCRIPTIONS_8);
+        rebuild(c, "administrations", ADMINISTRATIONS_8, COPY_ADMINISTRATIONS_8);
+        try (Statement st = c.createStatement()) {
+            for (String s : AUDIT_8) st.execute(s);
+            for (String s : INDEXES_8) st.execute(s);
+        }
+    }
 
+    private static void rebuild(Connection c, String table, String canonicalDdl, String copySql) throws SQLException {
+        try (Statement st = c.createStatement()) {
+            st.execute("DROP TABLE IF EXISTS " + table + "_new");
+            st.execute(canonicalDdl.replaceFirst("IF NOT EXISTS " + table + "\\(", table + "_new("));
+            if (copySql != null) st.execute(copySql);
+            st.execute("DROP TABLE " + table);
+            st.execute("ALTER TABLE " + table + "_new RENAME TO " + table);
+        }
+    }
+
+    private static Set<String> columns(Connection c, String table) throws SQLException {
+        Set<String> cols = new HashSet<>();
+        try (Statement st = c.createStatement(); ResultSet rs = st.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) cols.add(rs.getString("name").toLowerCase());
+        }
+        return cols;
+    }
+
+    private static String pick(Set<String> cols, String fallback, String... names){
+        StringBuilder sb = new StringBuilder();
+        int n = 0;
+        for (String name : names) {
+            if (!cols.contains(name)) continue;
+            sb.append(n++ == 0 ? "" : ", ").append(name);
+        }
+        if (n == 0) return fallback;
+        return "COALESCE(" + sb + ", " + fallback + ")";
+    }
+
+    private static String sha256(String s){
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
     }
 }
@@ -0,0 +1,169 @@
+package rmit.s4134401.carehome.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Statements slower than carehome.db.slowQueryMillis (default 100; negative turns it off), with
+// their bound parameters, go to the rmit.s4134401.carehome.slowquery logger, which logback.xml
+// writes to a rotating logs/slow-queries.log. The first time a statement is slow its
+// EXPLAIN QUERY PLAN goes to the log too, so a full scan or a missing index shows up there.
+// Text parameters are logged as their length only (names, passwords and notes stay out of the
+// file) unless -Dcarehome.db.slowQueryValues=true; even then password columns are masked.
+public final class SlowQueryLog {
+    private static final Logger log = LoggerFactory.getLogger("rmit.s4134401.carehome.slowquery");
+
+    // distinct SQL texts whose plan is kept; past this, slow statements are logged without one
+    private static final int MAX_PLANS = 1000;
+    private static final int MAX_VALUE = 80;
+
+    private static volatile long thresholdNanos = Long.getLong("carehome.db.slowQueryMillis", 100) * 1_000_000;
+    private static volatile boolean values = Boolean.getBoolean("carehome.db.slowQueryValues");
+
+    private static final Pattern SECRET = Pattern.compile("password|passwd|secret", Pattern.CASE_INSENSITIVE);
+    // the column a parameter is compared with or assigned to: "name = ?", "id<>?", "details LIKE ?"
+    private static final Pattern COMPARED = Pattern.compile("(\\w+)\\s*(?:=|<>|!=|<=|>=|<|>|\\blike)\\s*$", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INSERT = Pattern.compile(
+            "^\\s*insert\\s+(?:or\\s+\\w+\\s+)?into\\s+\\w+\\s*\\(([^)]*)\\)\\s*values\\s*\\(([^)]*)\\)", Pattern.CASE_INSENSITIVE);
+
+    private static final Map<String, String> plans = new ConcurrentHashMap<>();
+
+    private SlowQueryLog(){}
+
+    public static void threshold(long millis){
+        thresholdNanos = millis * 1_000_000;
+    }
+
+    public static long thresholdMillis(){
+        return thresholdNanos / 1_000_000;
+    }
+
+    // true logs text parameters in full (password columns still masked), false only their length
+    public static void values(boolean full){
+        values = full;
+    }
+
+    // SQL text -> the plan captured when it was first slow
+    public static Map<String, String> plans(){
+        return Map.copyOf(plans);
+    }
+
+    public static void clear(){
+        plans.clear();
+    }
+
+    static boolean enabled(){
+        return thresholdNanos >= 0;
+    }
+
+    static boolean slow(long nanos){
+        long t = thresholdNanos;
+        return t >= 0 && nanos >= t;
+    }
+
+    // `c` is the connection the statement ran on, still open, so the plan matches its schema
+    static void record(Connection c, String sql, SortedMap<Integer, Object> params, int batch, long nanos, long rows){
+        Metrics.counter("db.slow").increment();
+        String text = sql == null ? "<none>" : sql;
+        StringBuilder line = new StringBuilder()
+                .append(String.format("%.1f ms", nanos / 1e6));
+        // a query's rows aren't counted
+        if (rows >= 0) line.append(" rows=").append(rows);
+        if (batch > 0) line.append(" batch=").append(batch);
+        line.append(" sql=").append(text.replaceAll("\\s+", " ").trim());
+        if (!params.isEmpty()) line.append(" params=").append(format(sql, params));
+
+        String plan = null;
+        if (sql != null && !plans.containsKey(sql) && plans.size() < MAX_PLANS) {
+            plan = explain(c, sql, params);
+            if (plans.putIfAbsent(sql, plan) != null) plan = null;
+        }
+        if (plan != null) line.append('\n').append(plan.indent(4).stripTrailing());
+        log.warn(line.toString());
+    }
+
+    private static String explain(Connection c, String sql, SortedMap<Integer, Object> params){
+        // the three-argument prepareStatement is not cached, so the plan doesn't take a cache slot
+        try (PreparedStatement ps = c.prepareStatement("EXPLAIN QUERY PLAN " + sql,
+                ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            for (Map.Entry<Integer, Object> p : params.entrySet()) ps.setObject(p.getKey(), p.getValue());
+            StringBuilder sb = new StringBuilder("plan:");
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) sb.append('\n').append("  ").append(rs.getString("detail"));
+            }
+            // a plain INSERT has no plan steps
+            return sb.length() == 5 ? "plan: none" : sb.toString();
+        } catch (SQLException e) {
+            return "plan unavailable: " + e.getMessage();
+        }
+    }
+
+    static String format(String sql, SortedMap<Integer, Object> params){
+        boolean full = values;
+        Set<Integer> masked = full ? secretParams(sql) : Set.of();
+        StringBuilder sb = new StringBuilder("[");
+        for (Map.Entry<Integer, Object> p : params.entrySet()) {
+            if (sb.length() > 1) sb.append(", ");
+            Object v = p.getValue();
+            String s;
+            if (masked.contains(p.getKey())) s = "<masked>";
+            else if (v instanceof String str) s = full ? "'" + str + "'" : "text(" + str.length() + ")";
+            else if (v instanceof byte[] b) s = "bytes(" + b.length + ")";
+            else s = String.valueOf(v);
+            sb.append(p.getKey()).append('=').append(s.length() > MAX_VALUE ? s.substring(0, MAX_VALUE) + "..." : s);
+        }
+        return sb.append(']').toString();
+    }
+
+    // 1-based parameters bound to a password-like column; every parameter when the statement
+    // mentions one but its shape isn't one we can map
+    static Set<Integer> secretParams(String sql){
+        if (sql == null || !SECRET.matcher(sql).find()) return Set.of();
+        Set<Integer> out = new HashSet<>();
+        Matcher insert = INSERT.matcher(sql);
+        if (insert.find()) {
+            String[] cols = insert.group(1).split(",");
+            String[] vals = insert.group(2).split(",");
+            if (cols.length == vals.length && Arrays.stream(vals).allMatch(v -> v.trim().equals("?"))) {
+                // multi-row VALUES repeat the same columns
+                int n = (int) sql.chars().filter(ch -> ch == '?').count();
+                for (int k = 0; k < n; k++)
+                    if (SECRET.matcher(cols[k % cols.length]).find()) out.add(k + 1);
+                return out;
+            }
+        } else {
+            int k = 0;
+            boolean quoted = false;
+            for (int i = 0; i < sql.length(); i++) {
+                char ch = sql.charAt(i);
+                if (ch == '\'') quoted = !quoted;
+                if (ch != '?' || quoted) continue;
+                k++;
+                Matcher col = COMPARED.matcher(sql.substring(0, i));
+                if (!col.find()) return everything(sql);
+                if (SECRET.matcher(col.group(1)).find()) out.add(k);
+            }
+            return out;
+        }
+        return everything(sql);
+    }
+
+    private static Set<Integer> everything(String sql){
+        Set<Integer> all = new HashSet<>();
+        int n = (int) sql.chars().filter(ch -> ch == '?').count();
+        for (int k = 1; k <= n; k++) all.add(k);
+        return all;
+    }
+}
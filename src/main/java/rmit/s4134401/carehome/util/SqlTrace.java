@@ -0,0 +1,214 @@
+package rmit.s4134401.carehome.util;
+
+import jdk.jfr.EventType;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+// Times each statement run through a connection DB hands out and records it as a flight recorder
+// SqlStatement event. SQLite does most of a query's work in next(), so a query is timed from
+// execute until its statement is closed, re-bound or run again, or its connection is closed; the
+// result set itself is passed through untouched, so a query's rows are not counted. The
+// connection's pool wait goes on the first statement only, so summing events counts it once.
+// Statements over the SlowQueryLog threshold are logged there with the parameters they ran with.
+// With neither the event enabled nor the slow log on, connections are handed out unwrapped. A run
+// allocates nothing but its event, and that only while the event is enabled; the parameter map is
+// built only for a statement that turned out slow.
+final class SqlTrace {
+    private static final EventType EVENT = EventType.getEventType(Jfr.SqlStatement.class);
+    private static final Object UNBOUND = new Object();
+
+    private SqlTrace(){}
+
+    static Connection wrap(Connection c, long poolWaitNanos){
+        if (!EVENT.isEnabled() && !SlowQueryLog.enabled()) return c;
+        long[] wait = { poolWaitNanos };
+        List<Traced> statements = new ArrayList<>();
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{ Connection.class },
+                (proxy, method, args) -> {
+                    if ("close".equals(method.getName())) {
+                        for (Traced t : statements) t.finish();
+                        statements.clear();
+                    }
+                    Object r = invoke(c, method, args);
+                    Traced t;
+                    switch (method.getName()) {
+                        case "createStatement":
+                            t = new Traced((Statement) r, null, c, wait);
+                            break;
+                        case "prepareStatement":
+                        case "prepareCall":
+                            t = new Traced((Statement) r, (String) args[0], c, wait);
+                            break;
+                        default:
+                            return r;
+                    }
+                    statements.add(t);
+                    Class<? extends Statement> type = "createStatement".equals(method.getName()) ? Statement.class
+                            : "prepareCall".equals(method.getName()) ? CallableStatement.class : PreparedStatement.class;
+                    return statement(type, t, (Connection) proxy);
+                });
+    }
+
+    private static Object statement(Class<? extends Statement> type, Traced t, Connection connection){
+        return Proxy.newProxyInstance(
+                type.getClassLoader(),
+                new Class<?>[]{ type },
+                (proxy, method, args) -> {
+                    String name = method.getName();
+                    if ("getConnection".equals(name)) return connection;
+                    boolean bind = name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer;
+                    // closing, re-binding or re-running a statement resets it, ending its last query
+                    if (bind || "close".equals(name) || "clearParameters".equals(name) || name.startsWith("execute"))
+                        t.finish();
+                    if (bind) {
+                        t.bind((Integer) args[0], "setNull".equals(name) ? null : args[1]);
+                    } else if ("clearParameters".equals(name)) {
+                        t.clear();
+                    } else if ("addBatch".equals(name)) {
+                        t.batch++;
+                    } else if ("clearBatch".equals(name)) {
+                        t.batch = 0;
+                    }
+                    if (!name.startsWith("execute")) return invoke(t.st, method, args);
+
+                    String sql = args != null && args.length > 0 && args[0] instanceof String s ? s : t.prepared;
+                    t.start(sql);
+                    if (name.endsWith("Batch")) t.batch = 0;
+                    Object r;
+                    try {
+                        r = invoke(t.st, method, args);
+                    } catch (Throwable e) {
+                        t.finish();
+                        throw e;
+                    }
+                    // a query runs until the statement is reset; see finish()
+                    if (r instanceof ResultSet) return r;
+                    if (r instanceof Integer n) t.finish(n);
+                    else if (r instanceof Long n) t.finish(n);
+                    else if (r instanceof int[] counts) t.finish(sum(counts));
+                    else if (r instanceof long[] counts) t.finish(sum(counts));
+                    else t.finish(Boolean.TRUE.equals(r) ? -1 : t.st.getUpdateCount());
+                    return r;
+                });
+    }
+
+    // one statement handed out, and the run of it in progress if any. The parameters bound since
+    // the last clearParameters are kept by position as given, and only copied out for the slow log.
+    private static final class Traced {
+        final Statement st;
+        final String prepared;
+        final Connection connection;
+        final long[] wait;
+        Object[] params;
+        int bound;
+        int batch;
+
+        // the run in progress, if running
+        boolean running;
+        long t0;
+        String sql;
+        int runBatch;
+        long poolWait;
+        boolean inTransaction;
+        Jfr.SqlStatement event;
+
+        Traced(Statement st, String prepared, Connection connection, long[] wait){
+            this.st = st;
+            this.prepared = prepared;
+            this.connection = connection;
+            this.wait = wait;
+        }
+
+        void bind(int i, Object v){
+            if (!SlowQueryLog.enabled()) return;
+            if (params == null) params = new Object[Math.max(8, i + 1)];
+            else if (i >= params.length) params = Arrays.copyOf(params, Math.max(params.length * 2, i + 1));
+            if (i >= bound) {
+                Arrays.fill(params, bound, i, UNBOUND);
+                bound = i + 1;
+            }
+            params[i] = v;
+        }
+
+        void clear(){
+            bound = 0;
+        }
+
+        void start(String sql){
+            poolWait = wait[0];
+            wait[0] = 0;
+            this.sql = sql;
+            runBatch = batch;
+            inTransaction = DB.inTransaction();
+            if (EVENT.isEnabled()) {
+                event = new Jfr.SqlStatement();
+                event.begin();
+            }
+            running = true;
+            t0 = System.nanoTime();
+        }
+
+        // ends a query; its rows are not known
+        void finish(){
+            finish(-1);
+        }
+
+        void finish(long rows){
+            if (!running) return;
+            long nanos = System.nanoTime() - t0;
+            running = false;
+            Jfr.SqlStatement e = event;
+            event = null;
+            if (SlowQueryLog.slow(nanos)) SlowQueryLog.record(connection, sql, params(), runBatch, nanos, rows);
+            if (e == null) return;
+            e.end();
+            if (!e.shouldCommit()) return;
+            e.sql = sql;
+            e.sqlHash = sql == null ? null : Jfr.hash(sql);
+            e.rows = rows;
+            e.poolWait = poolWait;
+            e.inTransaction = inTransaction;
+            e.commit();
+        }
+
+        private SortedMap<Integer, Object> params(){
+            SortedMap<Integer, Object> m = new TreeMap<>();
+            for (int i = 1; i < bound; i++) if (params[i] != UNBOUND) m.put(i, params[i]);
+            return m;
+        }
+    }
+
+    private static long sum(int[] counts){
+        long n = 0;
+        for (int c : counts) n += Math.max(c, 0);
+        return n;
+    }
+
+    private static long sum(long[] counts){
+        long n = 0;
+        for (long c : counts) n += Math.max(c, 0);
+        return n;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package rmit.s4134401.carehome.util;
+
+import org.sqlite.SQLiteConfig;
+
+import java.util.Properties;
+
+public final class SqliteProfile {
+    public final SQLiteConfig.JournalMode journalMode;
+    public final SQLiteConfig.SynchronousMode synchronous;
+    public final long mmapSizeBytes;
+    public final int cacheSizeKb;
+    public final SQLiteConfig.TempStore tempStore;
+    public final int busyTimeoutMs;
+
+    public SqliteProfile(SQLiteConfig.JournalMode journalMode, SQLiteConfig.SynchronousMode synchronous,
+                         long mmapSizeBytes, int cacheSizeKb, SQLiteConfig.TempStore tempStore, int busyTimeoutMs) {
+        if (journalMode == null || synchronous == null || tempStore == null) throw new IllegalArgumentException("null profile field");
+        if (mmapSizeBytes < 0 || cacheSizeKb < 0 || busyTimeoutMs < 0) throw new IllegalArgumentException("negative profile value");
+        this.journalMode = journalMode;
+        this.synchronous = synchronous;
+        this.mmapSizeBytes = mmapSizeBytes;
+        this.cacheSizeKb = cacheSizeKb;
+        this.tempStore = tempStore;
+        this.busyTimeoutMs = busyTimeoutMs;
+    }
+
+    // WAL + NORMAL is durable across app crashes; only an OS crash can lose the last commits
+    public static SqliteProfile defaults() {
+        return new SqliteProfile(SQLiteConfig.JournalMode.WAL, SQLiteConfig.SynchronousMode.NORMAL,
+                64L * 1024 * 1024, 16 * 1024, SQLiteConfig.TempStore.MEMORY, 5000);
+    }
+
+    // e.g. -Dcarehome.db.journalMode=DELETE -Dcarehome.db.busyTimeoutMs=10000
+    public static SqliteProfile fromSystemProperties() {
+        SqliteProfile d = defaults();
+        return new SqliteProfile(
+                SQLiteConfig.JournalMode.valueOf(prop("journalMode", d.journalMode.name()).toUpperCase()),
+                SQLiteConfig.SynchronousMode.valueOf(prop("synchronous", d.synchronous.name()).toUpperCase()),
+                Long.parseLong(prop("mmapSizeBytes", String.valueOf(d.mmapSizeBytes))),
+                Integer.parseInt(prop("cacheSizeKb", String.valueOf(d.cacheSizeKb))),
+                SQLiteConfig.TempStore.valueOf(prop("tempStore", d.tempStore.name()).toUpperCase()),
+                Integer.parseInt(prop("busyTimeoutMs", String.valueOf(d.busyTimeoutMs))));
+    }
+
+    private static String prop(String key, String def) {
+        String v = System.getProperty("carehome.db." + key);
+        return v == null || v.isBlank() ? def : v.trim();
+    }
+
+    // the driver applies these on every physical connection it opens, so the whole pool shares them
+    Properties toDriverProperties(boolean writer) {
+        SQLiteConfig c = new SQLiteConfig();
+        // take the write lock at BEGIN so a transaction never has to upgrade a read lock mid-way
+        if (writer) c.setTransactionMode(SQLiteConfig.TransactionMode.IMMEDIATE);
+        c.setJournalMode(journalMode);
+        c.setSynchronous(synchronous);
+        c.setPragma(SQLiteConfig.Pragma.MMAP_SIZE, String.valueOf(mmapSizeBytes));
+        // negative cache_size is in KiB rather than pages
+        c.setCacheSize(-cacheSizeKb);
+        c.setTempStore(tempStore);
+        c.setBusyTimeout(busyTimeoutMs);
+        return c.toProperties();
+    }
+
+    @Override public String toString() {
+        return "journal_mode=" + journalMode + " synchronous=" + synchronous + " mmap_size=" + mmapSizeBytes
+                + " cache_size=-" + cacheSizeKb + " temp_store=" + tempStore + " busy_timeout=" + busyTimeoutMs;
+    }
+}
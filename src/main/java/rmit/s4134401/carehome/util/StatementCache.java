@@ -0,0 +1,184 @@
+package rmit.s4134401.carehome.util;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+// Prepared statements kept per physical connection and keyed by SQL text, so the repositories'
+// prepareStatement(sql) / close() pattern compiles each statement once per connection instead of
+// on every call. Closing a statement hands it back (reset, parameters cleared); the least recently
+// returned ones are closed for real past carehome.db.statementCache per connection (0 turns the
+// cache off). Only prepareStatement(String) is cached; the other overloads go to the pool as before.
+public final class StatementCache {
+    private static final int CAPACITY = Integer.getInteger("carehome.db.statementCache", 64);
+
+    // physical connection -> its idle statements; entries go once the pool closes the connection
+    private static final Map<Connection, StatementCache> caches = new ConcurrentHashMap<>();
+
+    private static final LongAdder hits = new LongAdder();
+    private static final LongAdder misses = new LongAdder();
+    private static final LongAdder evictions = new LongAdder();
+
+    // insertion order = order handed back, so the first entry is the least recently used
+    private final LinkedHashMap<String, PreparedStatement> idle = new LinkedHashMap<>();
+
+    private StatementCache(){}
+
+    public static long hits(){ return hits.sum(); }
+    public static long misses(){ return misses.sum(); }
+    public static long evictions(){ return evictions.sum(); }
+
+    public static double hitRatio(){
+        long h = hits(), m = misses();
+        return h + m == 0 ? 0 : (double) h / (h + m);
+    }
+
+    public static int idleStatements(){
+        int n = 0;
+        for (StatementCache c : caches.values()) synchronized (c) { n += c.idle.size(); }
+        return n;
+    }
+
+    // the connection handed to callers: same as pooled except for prepareStatement(String), and
+    // closing it hands back any statement the caller left open, as the pool would have closed it
+    static Connection wrap(Connection pooled) throws SQLException {
+        if (CAPACITY <= 0) return pooled;
+        Connection raw = pooled.unwrap(Connection.class);
+        StatementCache cache = caches.get(raw);
+        if (cache == null) {
+            caches.keySet().removeIf(StatementCache::isClosedQuietly);
+            cache = caches.computeIfAbsent(raw, k -> new StatementCache());
+        }
+        StatementCache owner = cache;
+        Set<Lease> leased = Collections.newSetFromMap(new IdentityHashMap<>());
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{ Connection.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "prepareStatement":
+                            if (args.length == 1) {
+                                String sql = (String) args[0];
+                                Lease l = new Lease(owner, sql, owner.take(raw, sql), (Connection) proxy, leased);
+                                leased.add(l);
+                                return l.handle;
+                            }
+                            break;
+                        case "close":
+                            for (Lease l : new ArrayList<>(leased)) l.release();
+                            break;
+                    }
+                    try {
+                        return method.invoke(pooled, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    static void clear(){
+        caches.clear();
+    }
+
+    private synchronized PreparedStatement take(Connection raw, String sql) throws SQLException {
+        PreparedStatement ps = idle.remove(sql);
+        if (ps != null) {
+            hits.increment();
+            return ps;
+        }
+        misses.increment();
+        return raw.prepareStatement(sql);
+    }
+
+    private synchronized void giveBack(String sql, PreparedStatement ps){
+        // the same SQL was prepared again while this one was out (a nested call); keep one
+        if (idle.containsKey(sql)) {
+            closeQuietly(ps);
+            return;
+        }
+        idle.put(sql, ps);
+        if (idle.size() > CAPACITY) {
+            Iterator<PreparedStatement> eldest = idle.values().iterator();
+            closeQuietly(eldest.next());
+            eldest.remove();
+            evictions.increment();
+        }
+    }
+
+    // one borrowing of a cached statement; the handle refuses use once it has been handed back
+    private static final class Lease {
+        final StatementCache owner;
+        final String sql;
+        final PreparedStatement ps;
+        final Set<Lease> leased;
+        final PreparedStatement handle;
+        ResultSet last;
+        boolean out = true;
+
+        Lease(StatementCache owner, String sql, PreparedStatement ps, Connection connection, Set<Lease> leased){
+            this.owner = owner; this.sql = sql; this.ps = ps; this.leased = leased;
+            this.handle = (PreparedStatement) Proxy.newProxyInstance(
+                    PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{ PreparedStatement.class },
+                    (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                release();
+                                return null;
+                            case "isClosed":
+                                return !out;
+                            case "getConnection":
+                                return connection;
+                        }
+                        if (!out) throw new SQLException("statement is closed");
+                        try {
+                            Object r = method.invoke(ps, args);
+                            if (r instanceof ResultSet && !"getGeneratedKeys".equals(method.getName())) last = (ResultSet) r;
+                            return r;
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+
+        void release(){
+            if (!out) return;
+            out = false;
+            leased.remove(this);
+            try {
+                // an unfinished result set keeps the statement (and its read snapshot) open
+                if (last != null) last.close();
+                ps.clearParameters();
+                ps.clearBatch();
+            } catch (SQLException e) {
+                closeQuietly(ps);
+                return;
+            }
+            owner.giveBack(sql, ps);
+        }
+    }
+
+    private static boolean isClosedQuietly(Connection c){
+        try {
+            return c.isClosed();
+        } catch (SQLException e) {
+            return true;
+        }
+    }
+
+    private static void closeQuietly(PreparedStatement ps){
+        try { ps.close(); } catch (SQLException ignore) {}
+    }
+}
@@ -5,8 +5,12 @@ import org.junit.jupiter.api.io.TempDir;
 import rmit.s4134401.carehome.*;
 import rmit.s4134401.carehome.repo.*;
 import rmit.s4134401.carehome.repo.jdbc.*;
+import rmit.s4134401.carehome.util.ChangeFeed;
 import rmit.s4134401.carehome.util.DB;
+import rmit.s4134401.carehome.util.Jfr;
+import rmit.s4134401.carehome.util.Metrics;
 import rmit.s4134401.carehome.util.SchemaMigrator;
+import rmit.s4134401.carehome.util.SlowQueryLog;
 
 import java.nio.file.Path;
 import java.time.DayOfWeek;
@@ -131,4 +135,820 @@ class CareHomeServiceAllTests {
         assertDoesNotThrow(() -> svc.renameStaff("mX", "nX", "NurseRenamed"));
         assertDoesNotThrow(() -> svc.setStaffPassword("mX", "nX", "newpass"));
     }
+
+    @Test
+    void testMutationRollsBackWhenUnitOfWorkFails() {
+        assertThrows(IllegalStateException.class, () -> DB.inTransaction(() -> {
+            staffRepo.add(new Nurse("nRollback", "Nurse Rollback"));
+            throw new IllegalStateException("boom");
+        }));
+        assertTrue(staffRepo.find("nRollback").isEmpty());
+
+        svc.admitPatient("mX", "pE", "Eve", Gender.F, false, "B", 3, 1);
+        assertThrows(RosterException.class,
+                () -> svc.admitPatient("mX", "pF", "Fay", Gender.F, false, "B", 3, 1));
+        assertFalse(patientRepo.existsPatientId("pF"));
+    }
+
+    @Test
+    void testConnectionProfileAppliedToPool() {
+        java.util.Map<String, String> eff = DB.effectiveSettings();
+        assertEquals("wal", eff.get("journal_mode").toLowerCase());
+        assertEquals("1", eff.get("synchronous"));
+        assertEquals("2", eff.get("temp_store"));
+        assertEquals(String.valueOf(DB.profile().busyTimeoutMs), eff.get("busy_timeout"));
+        assertEquals("1", eff.get("reader.query_only"));
+        assertThrows(java.sql.SQLException.class, () -> {
+            try (var c = DB.read(); var st = c.createStatement()) {
+                st.executeUpdate("DELETE FROM staff");
+            }
+        });
+    }
+
+    @Test
+    void testHotLookupsUseIndexes() throws Exception {
+        try (var c = DB.read(); var st = c.createStatement()) {
+            assertTrue(plan(st, "SELECT id FROM patients WHERE bed_id=1").contains("INDEX idx_patients_bed_unique (bed_id=?)"));
+            assertTrue(plan(st, "SELECT medicine FROM administrations WHERE patient_id='p1' ORDER BY id")
+                    .contains("idx_administrations_patient"));
+            assertTrue(plan(st, "SELECT 1 FROM nurse_shifts WHERE day=0 AND start_min=480 AND end_min=960")
+                    .contains("COVERING INDEX idx_nurse_shifts_day"));
+        }
+    }
+
+    @Test
+    void testMigrationReconcilesLegacyShapesOnce() throws Exception {
+        DB.shutdown();
+        DB.init(tmp.resolve("legacy_" + System.nanoTime() + ".db").toString());
+        try (var c = DB.get(); var st = c.createStatement()) {
+            st.execute("CREATE TABLE audit(id INTEGER PRIMARY KEY AUTOINCREMENT, staff_id TEXT, action TEXT NOT NULL, details TEXT, ts TEXT)");
+            st.execute("INSERT INTO audit(staff_id, action, details, ts) VALUES('m1','ADMIT','legacy row','2025-01-01T00:00')");
+            st.execute("CREATE TABLE nurse_shifts(id INTEGER PRIMARY KEY AUTOINCREMENT, nurse_id TEXT NOT NULL, day TEXT NOT NULL, start TEXT NOT NULL, end TEXT NOT NULL)");
+            st.execute("INSERT INTO nurse_shifts(nurse_id, day, start, end) VALUES('n1','MONDAY','08:00','16:00'),('n1','MONDAY','08:00','16:00')");
+            st.execute("CREATE TABLE doctor_minutes(day TEXT PRIMARY KEY, minutes INTEGER NOT NULL)");
+        }
+
+        SchemaMigrator.ensure();
+        SchemaMigrator.ensure();
+
+        try (var c = DB.read(); var st = c.createStatement()) {
+            try (var rs = st.executeQuery("SELECT when_ts, staff_id, type, details FROM audit")) {
+                assertTrue(rs.next());
+                assertEquals("2025-01-01T00:00", rs.getString(1));
+                assertEquals("ADMIT", rs.getString(3));
+                assertEquals("legacy row", rs.getString(4));
+            }
+            try (var rs = st.executeQuery("SELECT when_ms FROM audit")) {
+                assertEquals(java.time.Instant.parse("2025-01-01T00:00:00Z").toEpochMilli(), rs.getLong(1));
+            }
+            try (var rs = st.executeQuery("SELECT COUNT(*) FROM nurse_shifts")) {
+                assertEquals(1, rs.getInt(1));
+            }
+            // TEXT day/time carried over as integers
+            try (var rs = st.executeQuery("SELECT day, start_min, end_min FROM nurse_shifts")) {
+                assertEquals(List.of(0, 480, 960), List.of(rs.getInt(1), rs.getInt(2), rs.getInt(3)));
+            }
+            try (var rs = st.executeQuery("SELECT COUNT(*) FROM schema_version")) {
+                assertEquals(SchemaMigrator.currentVersion(), rs.getInt(1));
+            }
+        }
+        new JdbcDoctorMinutesRepository().upsertDoctorMinutes("dX", DayOfWeek.MONDAY, 90);
+        assertEquals(90, new JdbcDoctorMinutesRepository().getMinutes(DayOfWeek.MONDAY));
+        assertTrue(new JdbcNurseRosterRepository().hasShift("n1", DayOfWeek.MONDAY, LocalTime.of(15, 59)));
+        assertFalse(new JdbcNurseRosterRepository().hasShift("n1", DayOfWeek.MONDAY, LocalTime.of(16, 0)));
+    }
+
+    @Test
+    void testBatchedAuditFlushesOnShutdownAndSkipsRollbacks() throws Exception {
+        String file = tmp.resolve("audit_" + System.nanoTime() + ".db").toString();
+        DB.shutdown();
+        DB.init(file);
+        SchemaMigrator.ensure();
+        BatchingAuditRepository audit = new BatchingAuditRepository(BatchingAuditRepository.Durability.FIRE_AND_FORGET, 64);
+        for (int i = 0; i < 500; i++) audit.log(java.time.Instant.now(), "mX", ActionType.ADD_STAFF, "row " + i);
+        assertThrows(IllegalStateException.class, () -> DB.inTransaction(() -> {
+            audit.log(java.time.Instant.now(), "mX", ActionType.ADMIT, "rolled back");
+            throw new IllegalStateException("boom");
+        }));
+        DB.shutdown();
+
+        DB.init(file);
+        try (var c = DB.read(); var st = c.createStatement()) {
+            try (var rs = st.executeQuery("SELECT COUNT(*) FROM audit WHERE type='ADD_STAFF'")) {
+                assertEquals(500, rs.getInt(1));
+            }
+            try (var rs = st.executeQuery("SELECT COUNT(*) FROM audit WHERE type='ADMIT'")) {
+                assertEquals(0, rs.getInt(1));
+            }
+        }
+
+        BatchingAuditRepository sync = new BatchingAuditRepository(BatchingAuditRepository.Durability.WAIT_FOR_FLUSH, 64);
+        CareHomeService s = new CareHomeService(staffRepo, bedRepo, patientRepo, nurseRepo, docRepo, sync, rxRepo, adminRepo);
+        s.addNurse("nB", "Nurse B");
+        try (var c = DB.read(); var st = c.createStatement();
+             var rs = st.executeQuery("SELECT COUNT(*) FROM audit WHERE staff_id='nB'")) {
+            assertEquals(1, rs.getInt(1));
+        }
+
+        // an entry written straight through while an earlier one is still queued must not count
+        // the earlier one as flushed
+        Thread queued;
+        java.sql.Connection held = DB.get();
+        try {
+            queued = new Thread(() -> sync.log(java.time.Instant.now(), "mX", ActionType.ADD_STAFF, "queued first"));
+            queued.start();
+            while (queued.getState() != Thread.State.TIMED_WAITING && queued.isAlive()) Thread.sleep(5);
+            sync.log(java.time.Instant.now(), "mX", ActionType.ADD_STAFF, "written through");
+            queued.join(300);
+            assertTrue(queued.isAlive());
+        } finally {
+            held.close();
+        }
+        queued.join(5000);
+        assertFalse(queued.isAlive());
+        assertEquals(2, sync.byStaff("mX", 10).stream().filter(e -> e.details.startsWith("queued") || e.details.startsWith("written")).count());
+    }
+
+    @Test
+    void testBatchedAuditDropsABadEntryInsteadOfWedging() throws Exception {
+        try (var c = DB.get(); var st = c.createStatement()) {
+            st.execute("CREATE TRIGGER poison BEFORE INSERT ON audit WHEN new.details='poison' BEGIN SELECT RAISE(ABORT, 'poison row'); END");
+        }
+        BatchingAuditRepository audit = new BatchingAuditRepository(BatchingAuditRepository.Durability.FIRE_AND_FORGET, 64);
+        java.util.concurrent.CompletableFuture<Void> flush;
+        java.sql.Connection held = DB.get();
+        try {
+            for (String d : List.of("one", "two", "poison", "three", "four"))
+                audit.log(java.time.Instant.now(), "mZ", ActionType.ADD_STAFF, d);
+            Thread[] waiter = new Thread[1];
+            flush = java.util.concurrent.CompletableFuture.runAsync(() -> {
+                waiter[0] = Thread.currentThread();
+                audit.flush();
+            });
+            while (waiter[0] == null || waiter[0].getState() != Thread.State.TIMED_WAITING) Thread.sleep(5);
+        } finally {
+            held.close();
+        }
+        var failed = assertThrows(java.util.concurrent.ExecutionException.class, () -> flush.get(10, java.util.concurrent.TimeUnit.SECONDS));
+        assertTrue(failed.getCause().getMessage().contains("not written"), failed.getCause().getMessage());
+        assertEquals(List.of("four", "three", "two", "one"),
+                audit.byStaff("mZ", 10).stream().map(e -> e.details).toList());
+
+        BatchingAuditRepository sync = new BatchingAuditRepository(BatchingAuditRepository.Durability.WAIT_FOR_FLUSH, 64);
+        assertThrows(RuntimeException.class, () -> sync.log(java.time.Instant.now(), "mZ", ActionType.ADD_STAFF, "poison"));
+        sync.log(java.time.Instant.now(), "mZ", ActionType.ADD_STAFF, "five");
+        assertEquals(5, sync.byStaff("mZ", 10).size());
+        // inside a unit of work the entry is lost after the commit; the work itself still succeeded
+        DB.inTransaction(() -> {
+            patientRepo.add("pKept", "Kept", Gender.M, false);
+            sync.log(java.time.Instant.now(), "mZ", ActionType.ADD_STAFF, "poison");
+        });
+        assertTrue(patientRepo.existsPatientId("pKept"));
+        sync.close();
+        audit.close();
+    }
+
+    @Test
+    void testSegmentedAuditLogRollsRecoversAndRebuildsTable() throws Exception {
+        Path dir = tmp.resolve("audit_segments");
+        var fileLog = new rmit.s4134401.carehome.repo.file.FileAuditRepository(dir, 4096);
+        for (int i = 1; i <= 300; i++) fileLog.append(AuditEvent.of(ActionType.MED_ADMIN, "nX").patient("p" + (i % 3)).details("dose " + i));
+        fileLog.close();
+        try (var s = java.nio.file.Files.list(dir)) {
+            assertTrue(s.count() > 1);
+        }
+
+        var reopened = new rmit.s4134401.carehome.repo.file.FileAuditRepository(dir, 4096);
+        assertEquals(300, reopened.lastSeq());
+        var latest = reopened.latest(3);
+        assertEquals(List.of("dose 300", "dose 299", "dose 298"), latest.stream().map(e -> e.details).toList());
+        var from = reopened.readFrom(130, 2);
+        assertEquals(130, from.get(0).id);
+        assertEquals("p1", from.get(0).patientId);
+        assertEquals("dose 131", from.get(1).details);
+
+        assertEquals(300, reopened.rebuildTable());
+        try (var c = DB.read(); var st = c.createStatement();
+             var rs = st.executeQuery("SELECT COUNT(*), MIN(id), MAX(id), SUM(details = 'dose ' || id) FROM audit")) {
+            assertEquals(300, rs.getInt(1));
+            // table ids are the log's seqs
+            assertEquals(1, rs.getInt(2));
+            assertEquals(300, rs.getInt(3));
+            assertEquals(300, rs.getInt(4));
+        }
+        assertEquals(List.of(130L, 129L), auditRepo.page(131, null, null, 2).stream().map(e -> e.id).toList());
+
+        // a row only SQLite has isn't dropped unless asked
+        auditRepo.record(AuditEvent.of(ActionType.ADD_STAFF, "mX").details("table only"));
+        assertThrows(IllegalStateException.class, reopened::rebuildTable);
+        assertEquals(301, auditRepo.page(Long.MAX_VALUE, null, null, 1).get(0).id);
+        assertEquals(300, reopened.rebuildTable(true));
+        // and new rows carry on from the log's last seq
+        auditRepo.record(AuditEvent.of(ActionType.ADD_STAFF, "mX").details("after"));
+        assertEquals(301, auditRepo.page(Long.MAX_VALUE, null, null, 1).get(0).id);
+        reopened.close();
+
+        var moves = new rmit.s4134401.carehome.repo.file.FileAuditRepository(tmp.resolve("audit_moves"), 4096);
+        moves.append(AuditEvent.of(ActionType.MOVE, "nX").patient("p1").bed(4).movedFrom(3));
+        AuditEvent moved = moves.latest(1).get(0);
+        assertEquals(List.of(4, 3), java.util.Arrays.asList(moved.bedId, moved.fromBedId));
+        moves.close();
+    }
+
+    @Test
+    void testStructuredAuditEventsQueryableByColumn() throws Exception {
+        svc.setDoctorMinutes("mX", "dX", DayOfWeek.MONDAY, 120);
+        svc.assignNurseShift("mX", "nX", DayOfWeek.MONDAY, true);
+        svc.admitPatient("mX", "pA", "Ann", Gender.F, false, "A", 3, 1);
+        svc.doctorAddPrescription("dX", "pA", DayOfWeek.MONDAY, "Panadol", "500mg", "08:00");
+        svc.administerMedication("nX", DayOfWeek.MONDAY, LocalTime.of(9, 0), "pA", "Panadol", "500mg");
+        svc.movePatient("nX", DayOfWeek.MONDAY, LocalTime.of(10, 0), "A", 3, 1, "A", 3, 2);
+
+        List<AuditEvent> forPatient = auditRepo.byPatient("pA", 10);
+        assertEquals(List.of(ActionType.MOVE, ActionType.MED_ADMIN, ActionType.RX_ADD, ActionType.ADMIT),
+                forPatient.stream().map(e -> e.type).toList());
+        AuditEvent move = forPatient.get(0);
+        assertEquals(bedRepo.findBedId("A", 3, 2).orElseThrow(), move.bedId);
+        assertEquals(bedRepo.findBedId("A", 3, 1).orElseThrow(), move.fromBedId);
+        assertEquals("", move.details);
+        assertEquals(DayOfWeek.MONDAY, move.day);
+        assertEquals(LocalTime.of(10, 0), move.time);
+        try (var c = DB.read(); var st = c.createStatement();
+             var rs = st.executeQuery("SELECT day, time_min, typeof(day) FROM audit WHERE id = " + move.id)) {
+            assertEquals(List.of(0, 600), List.of(rs.getInt(1), rs.getInt(2)));
+            assertEquals("integer", rs.getString(3));
+        }
+        AuditEvent admin = forPatient.get(1);
+        assertEquals("Panadol", admin.medicine);
+        assertEquals("500mg", admin.details);
+
+        assertEquals(1, auditRepo.byType(ActionType.MED_ADMIN, 10).size());
+        assertEquals("NURSE Nurse X", auditRepo.byStaff("nX", 10).get(2).details);
+        assertEquals(3, auditRepo.byStaff("nX", 10).size()); // ADD_STAFF, MED_ADMIN, MOVE
+        java.time.Instant now = java.time.Instant.now();
+        assertTrue(auditRepo.between(now.minusSeconds(60), now.plusSeconds(1), 100).size() >= 6);
+        assertTrue(auditRepo.between(now.plusSeconds(60), now.plusSeconds(120), 100).isEmpty());
+
+        try (var c = DB.read(); var st = c.createStatement()) {
+            assertTrue(plan(st, "SELECT * FROM audit WHERE patient_id='pA' ORDER BY id DESC").contains("idx_audit_patient"));
+            assertTrue(plan(st, "SELECT * FROM audit WHERE type='MOVE' ORDER BY id DESC").contains("idx_audit_type"));
+            assertTrue(plan(st, "SELECT * FROM audit WHERE when_ms>=0 AND when_ms<1 ORDER BY when_ms DESC, id DESC")
+                    .contains("idx_audit_when"));
+        }
+    }
+
+    @Test
+    void testAuditFullTextSearchRanksAndPages() {
+        for (int i = 0; i < 30; i++)
+            auditRepo.record(AuditEvent.of(ActionType.MED_ADMIN, "nX").patient("p" + i).medicine("Panadol").details("500mg"));
+        auditRepo.record(AuditEvent.of(ActionType.STATUS, "mX").details("Panadol Panadol Panadol stock check"));
+        auditRepo.record(AuditEvent.of(ActionType.RX_ADD, "dX").patient("p7").medicine("Amoxicillin").details("250mg"));
+
+        List<AuditEvent> first = auditRepo.search("panad", 0, 10);
+        assertEquals(10, first.size());
+        assertEquals(ActionType.STATUS, first.get(0).type);
+        assertEquals(31, auditRepo.search("Panadol", 0, 100).size());
+        assertEquals(1, auditRepo.search("Panadol", 30, 10).size());
+        assertEquals(List.of("p7"), auditRepo.search("amox p7", 0, 10).stream().map(e -> e.patientId).toList());
+        assertTrue(auditRepo.search("\"unbalanced OR (", 0, 10).isEmpty());
+        assertTrue(auditRepo.search("   ", 0, 10).isEmpty());
+
+        try (var c = DB.get(); var st = c.createStatement()) {
+            st.executeUpdate("DELETE FROM audit WHERE type='STATUS'");
+        } catch (java.sql.SQLException e) {
+            fail(e);
+        }
+        assertEquals(30, auditRepo.search("Panadol", 0, 100).size());
+    }
+
+    @Test
+    void testAuditKeysetPagingWithFilters() throws Exception {
+        for (int i = 0; i < 25; i++)
+            auditRepo.record(AuditEvent.of(i % 2 == 0 ? ActionType.MED_ADMIN : ActionType.MOVE, i % 5 == 0 ? "nX" : "nY")
+                    .details("e" + i));
+
+        List<Long> seen = new java.util.ArrayList<>();
+        long before = Long.MAX_VALUE;
+        List<AuditEvent> page;
+        while (!(page = auditRepo.page(before, ActionType.MED_ADMIN, null, 4)).isEmpty()) {
+            page.forEach(e -> { assertEquals(ActionType.MED_ADMIN, e.type); seen.add(e.id); });
+            before = page.get(page.size() - 1).id;
+        }
+        assertEquals(13, seen.size());
+        assertEquals(seen.stream().sorted(java.util.Comparator.reverseOrder()).toList(), seen);
+        assertEquals(List.of("e20", "e10", "e0"),
+                auditRepo.page(Long.MAX_VALUE, ActionType.MED_ADMIN, "nX", 10).stream().map(e -> e.details).toList());
+
+        var fileLog = new rmit.s4134401.carehome.repo.file.FileAuditRepository(tmp.resolve("paged"), 4096);
+        for (int i = 1; i <= 200; i++) fileLog.append(AuditEvent.of(ActionType.STATUS, "mX").details("s" + i));
+        assertEquals(List.of("s129", "s128"),
+                fileLog.page(130, null, null, 2).stream().map(e -> e.details).toList());
+        fileLog.close();
+
+        try (var c = DB.read(); var st = c.createStatement()) {
+            assertTrue(plan(st, "SELECT * FROM audit WHERE id < 100 AND type='MOVE' ORDER BY id DESC LIMIT 10")
+                    .contains("idx_audit_type"));
+        }
+    }
+
+    @Test
+    void testChangeFeedOrdersResumesAndSeesOtherProcesses() throws Exception {
+        String file = tmp.resolve("feed_" + System.nanoTime() + ".db").toString();
+        DB.shutdown();
+        DB.init(file);
+        SchemaMigrator.ensure();
+        svc.addManager("mX", "Manager X");
+
+        long start = ChangeFeed.lastSeq();
+        List<Change> live = new java.util.concurrent.CopyOnWriteArrayList<>();
+        ChangeFeed.Subscription sub = ChangeFeed.subscribe(start, c -> { if (c.kind != Change.Kind.AUDIT) live.add(c); });
+        try {
+            svc.admitPatient("mX", "pA", "Ann", Gender.F, false, "A", 2, 1);
+            assertThrows(IllegalStateException.class, () -> DB.inTransaction(() -> {
+                patientRepo.add("pGhost", "Ghost", Gender.M, false);
+                throw new IllegalStateException("boom");
+            }));
+            int bed = bedRepo.findBedId("A", 2, 1).orElseThrow();
+            patientRepo.vacateBed(bed);
+        } finally {
+            sub.close();
+        }
+        assertEquals(List.of(Change.Kind.ADMITTED, Change.Kind.BED_ASSIGNED, Change.Kind.BED_VACATED),
+                live.stream().map(c -> c.kind).toList());
+        assertEquals("pA", live.get(1).key);
+        for (int i = 1; i < live.size(); i++) assertTrue(live.get(i).seq > live.get(i - 1).seq);
+
+        // a late subscriber resuming from the same point gets the same changes, same numbers
+        List<Change> replay = new java.util.ArrayList<>();
+        ChangeFeed.subscribe(start, c -> { if (c.kind != Change.Kind.AUDIT) replay.add(c); }).close();
+        assertEquals(live.stream().map(c -> c.seq).toList(), replay.stream().map(c -> c.seq).toList());
+
+        // writes through this process's own writer don't count as external; another connection's do
+        java.util.concurrent.BlockingQueue<Change> external = new java.util.concurrent.LinkedBlockingQueue<>();
+        sub = ChangeFeed.subscribe(ChangeFeed.lastSeq(), c -> { if (c.kind == Change.Kind.EXTERNAL) external.add(c); });
+        try {
+            ChangeFeed.watchExternalWrites(java.time.Duration.ofMillis(10));
+            // polling doesn't borrow the writer
+            long borrows = rmit.s4134401.carehome.util.Metrics.timer("db.writer.wait").count();
+            Thread.sleep(100);
+            assertEquals(borrows, rmit.s4134401.carehome.util.Metrics.timer("db.writer.wait").count());
+            svc.addNurse("nLocal", "Nurse Local");
+            DB.inTransaction(() -> svc.addNurse("nLocal2", "Nurse Local Two"));
+            assertNull(external.poll(200, java.util.concurrent.TimeUnit.MILLISECONDS));
+            try (var other = java.sql.DriverManager.getConnection("jdbc:sqlite:" + file);
+                 var st = other.createStatement()) {
+                st.executeUpdate("UPDATE patients SET full_name='Ann B' WHERE id='pA'");
+            }
+            assertNotNull(external.poll(5, java.util.concurrent.TimeUnit.SECONDS));
+        } finally {
+            sub.close();
+        }
+    }
+
+    @Test
+    void testOccupancyCacheStaysCoherentWithWritesAndRollbacks() throws Exception {
+        var beds = new rmit.s4134401.carehome.repo.cache.CachingBedRepository(bedRepo);
+        var patients = new rmit.s4134401.carehome.repo.cache.CachingPatientRepository(patientRepo);
+        try (patients) {
+            CareHomeService cached = new CareHomeService(staffRepo, beds, patients, nurseRepo, docRepo, auditRepo, rxRepo, adminRepo);
+            cached.assignNurseShift("mX", "nX", DayOfWeek.MONDAY, true);
+            cached.admitPatient("mX", "pA", "Ann", Gender.F, false, "A", 2, 1);
+            int b1 = beds.findBedId("A", 2, 1).orElseThrow(), b2 = beds.findBedId("A", 2, 2).orElseThrow();
+            assertEquals("pA", patients.findOccupantByBedId(b1).orElseThrow());
+
+            cached.movePatient("nX", DayOfWeek.MONDAY, LocalTime.of(9, 0), "A", 2, 1, "A", 2, 2);
+            assertTrue(patients.findOccupantByBedId(b1).isEmpty());
+            assertEquals("pA", patients.findOccupantByBedId(b2).orElseThrow());
+            assertEquals(patientRepo.occupancy(), patients.occupancy());
+            assertTrue(beds.findBedId("Z", 9, 9).isEmpty());
+
+            // the writer sees its own uncommitted move; once it rolls back nobody does
+            assertThrows(IllegalStateException.class, () -> DB.inTransaction(() -> {
+                patients.assignToBed("pA", b1);
+                assertEquals("pA", patients.findOccupantByBedId(b1).orElseThrow());
+                assertTrue(patients.findOccupantByBedId(b2).isEmpty());
+                throw new IllegalStateException("boom");
+            }));
+            assertTrue(patients.findOccupantByBedId(b1).isEmpty());
+            assertEquals("pA", patients.findOccupantByBedId(b2).orElseThrow());
+
+            // a write the cache never saw is picked up once someone announces it
+            try (var c = DB.get(); var st = c.createStatement()) {
+                st.executeUpdate("UPDATE patients SET bed_id=NULL WHERE id='pA'");
+            }
+            ChangeFeed.publish(Change.Kind.PATIENT_UPDATED, null, null);
+            assertTrue(patients.findOccupantByBedId(b2).isEmpty());
+
+            assertTrue(beds.stats().hits() > 0 && patients.stats().hits() > 0);
+            assertEquals(1, beds.stats().loads());
+            assertEquals(2, patients.stats().loads());
+        }
+    }
+
+    @Test
+    void testOccupancyCacheSeesOtherProcessesAtUnitOfWorkStart() throws Exception {
+        String file = tmp.resolve("occupancy_" + System.nanoTime() + ".db").toString();
+        DB.shutdown();
+        DB.init(file);
+        SchemaMigrator.ensure();
+        var patients = new rmit.s4134401.carehome.repo.cache.CachingPatientRepository(new JdbcPatientRepository());
+        try (patients) {
+            CareHomeService cached = new CareHomeService(new JdbcStaffRepository(), new JdbcBedRepository(), patients,
+                    new JdbcNurseRosterRepository(), new JdbcDoctorMinutesRepository(), new JdbcAuditRepository(),
+                    new JdbcPrescriptionRepository(), new JdbcAdministrationRepository());
+            cached.addManager("mX", "Manager X");
+            cached.admitPatient("mX", "pA", "Ann", Gender.F, false, "A", 2, 1);
+            cached.admitPatient("mX", "pB", "Bob", Gender.M, false, "A", 2, 2);
+            int b1 = new JdbcBedRepository().findBedId("A", 2, 1).orElseThrow();
+            int b3 = new JdbcBedRepository().findBedId("A", 3, 1).orElseThrow();
+            assertTrue(patients.findOccupantByBedId(b3).isEmpty());
+
+            // the shared map is folded in while the writer is still ours
+            java.util.concurrent.atomic.AtomicBoolean held = new java.util.concurrent.atomic.AtomicBoolean();
+            DB.inTransaction(() -> {
+                patients.assignToBed("pA", b3);
+                DB.onCommit(() -> held.set(DB.holdsWriter()));
+            });
+            assertTrue(held.get());
+            assertEquals("pA", patients.findOccupantByBedId(b3).orElseThrow());
+
+            try (var other = java.sql.DriverManager.getConnection("jdbc:sqlite:" + file);
+                 var st = other.createStatement()) {
+                st.executeUpdate("UPDATE patients SET bed_id=" + b1 + " WHERE id='pA'");
+                // one patient per bed, whoever writes it
+                assertThrows(java.sql.SQLException.class,
+                        () -> st.executeUpdate("UPDATE patients SET bed_id=" + b1 + " WHERE id='pB'"));
+            }
+            // no watch is running: the unit of work notices the other commit itself
+            assertEquals("pA", DB.callInTransaction(() -> patients.findOccupantByBedId(b1).orElseThrow()));
+            assertTrue(patients.findOccupantByBedId(b3).isEmpty());
+        }
+    }
+
+    @Test
+    void testRosterIndexAnswersLikeTheDatabase() throws Exception {
+        var roster = new rmit.s4134401.carehome.repo.cache.CachingNurseRosterRepository(nurseRepo);
+        try (roster) {
+            CareHomeService cached = new CareHomeService(staffRepo, bedRepo, patientRepo, roster, docRepo, auditRepo, rxRepo, adminRepo);
+            svc.addNurse("nY", "Nurse Y");
+            cached.assignNurseShift("mX", "nX", DayOfWeek.MONDAY, true);
+            cached.assignNurseShift("mX", "nY", DayOfWeek.MONDAY, false);
+            cached.assignNurseShift("mX", "nY", DayOfWeek.SUNDAY, false);
+            assertThrows(RosterException.class, () -> cached.assignNurseShift("mX", "nX", DayOfWeek.MONDAY, false));
+            roster.addShift("nX", DayOfWeek.FRIDAY, LocalTime.of(20, 0), LocalTime.of(23, 45));
+
+            for (String n : List.of("nX", "nY", "nZ")) {
+                for (DayOfWeek d : DayOfWeek.values()) {
+                    assertEquals(nurseRepo.totalHoursFor(n, d), roster.totalHoursFor(n, d), n + " " + d);
+                    for (int m = 0; m < 24 * 60; m += 5) {
+                        LocalTime t = LocalTime.of(m / 60, m % 60);
+                        assertEquals(nurseRepo.hasShift(n, d, t), roster.hasShift(n, d, t), n + " " + d + " " + t);
+                    }
+                }
+            }
+            assertTrue(roster.dayCovered(DayOfWeek.MONDAY, CareHomeService.SHIFT_A_START, CareHomeService.SHIFT_A_END));
+            assertTrue(roster.dayCovered(DayOfWeek.SUNDAY, CareHomeService.SHIFT_B_START, CareHomeService.SHIFT_B_END));
+            assertFalse(roster.dayCovered(DayOfWeek.SUNDAY, CareHomeService.SHIFT_A_START, CareHomeService.SHIFT_A_END));
+
+            // the writer sees its own uncommitted removal; after the rollback the shift is back
+            assertThrows(IllegalStateException.class, () -> DB.inTransaction(() -> {
+                roster.removeShift("nX", DayOfWeek.MONDAY, CareHomeService.SHIFT_A_START, CareHomeService.SHIFT_A_END);
+                assertFalse(roster.hasShift("nX", DayOfWeek.MONDAY, LocalTime.of(9, 0)));
+                throw new IllegalStateException("boom");
+            }));
+            assertTrue(roster.hasShift("nX", DayOfWeek.MONDAY, LocalTime.of(9, 0)));
+            cached.removeNurseShift("mX", "nX", DayOfWeek.MONDAY, true);
+            assertFalse(roster.hasShift("nX", DayOfWeek.MONDAY, LocalTime.of(9, 0)));
+            assertFalse(roster.dayCovered(DayOfWeek.MONDAY, CareHomeService.SHIFT_A_START, CareHomeService.SHIFT_A_END));
+            // the other nurses' entries carry over untouched
+            assertTrue(roster.dayCovered(DayOfWeek.MONDAY, CareHomeService.SHIFT_B_START, CareHomeService.SHIFT_B_END));
+            assertEquals(nurseRepo.totalHoursFor("nY", DayOfWeek.SUNDAY), roster.totalHoursFor("nY", DayOfWeek.SUNDAY));
+            assertEquals(1, roster.stats().loads());
+
+            // a shift the bitset can't hold sends checks back to SQL rather than answering wrongly
+            try (var c = DB.get(); var st = c.createStatement()) {
+                st.executeUpdate("INSERT INTO nurse_shifts(nurse_id,day,start_min,end_min) VALUES('nY',1,550,600)");
+            }
+            roster.invalidate();
+            assertTrue(roster.hasShift("nY", DayOfWeek.TUESDAY, LocalTime.of(9, 30)));
+            assertFalse(roster.hasShift("nY", DayOfWeek.TUESDAY, LocalTime.of(9, 5)));
+        }
+    }
+
+    @Test
+    void testPreparedStatementsAreReusedPerConnection() throws Exception {
+        svc.admitPatient("mX", "pA", "Ann", Gender.F, false, "A", 2, 1);
+        patientRepo.existsPatientId("pA");
+        long hits = rmit.s4134401.carehome.util.StatementCache.hits();
+        for (int i = 0; i < 20; i++) assertTrue(patientRepo.existsPatientId("pA"));
+        assertTrue(rmit.s4134401.carehome.util.StatementCache.hits() - hits >= 20);
+        assertTrue(rmit.s4134401.carehome.util.StatementCache.hitRatio() > 0);
+
+        String sql = "SELECT id FROM patients WHERE id=?";
+        DB.inTransaction(() -> {
+            try (var c = DB.get(); var outer = c.prepareStatement(sql)) {
+                outer.setString(1, "pA");
+                try (var rs = outer.executeQuery()) {
+                    assertTrue(rs.next());
+                    // same SQL while the first is mid-iteration gets its own statement
+                    try (var c2 = DB.get(); var inner = c2.prepareStatement(sql)) {
+                        inner.setString(1, "nobody");
+                        assertFalse(inner.executeQuery().next());
+                    }
+                    assertEquals("pA", rs.getString(1));
+                }
+                assertFalse(outer.isClosed());
+            } catch (java.sql.SQLException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        // a statement left open with an unfinished result set is reset when its connection closes,
+        // so it doesn't pin a read snapshot and the next user gets it clean
+        java.sql.PreparedStatement leaked;
+        try (var c = DB.read()) {
+            leaked = c.prepareStatement("SELECT id FROM patients");
+            leaked.executeQuery().next();
+        }
+        assertTrue(leaked.isClosed());
+        assertThrows(java.sql.SQLException.class, leaked::executeQuery);
+        svc.admitPatient("mX", "pB", "Bob", Gender.M, false, "A", 2, 2);
+        assertTrue(patientRepo.existsPatientId("pB"));
+    }
+
+    @Test
+    void testFacilityImportValidatesThenWritesInOneBatch() {
+        StringBuilder csv = new StringBuilder("# kind,...\n");
+        for (int i = 0; i < 500; i++) {
+            csv.append("staff,n").append(i).append(",\"Nurse, No. ").append(i).append("\",NURSE\n");
+            csv.append("shift,n").append(i).append(",").append(DayOfWeek.of(i % 7 + 1)).append(",08:00,16:00\n");
+        }
+        for (int i = 0; i < 2000; i++) csv.append("resident,r").append(i).append(",Resident ").append(i).append(",F,false\n");
+        csv.append("resident,iso,Iso,M,true,A,1,1\n");
+        csv.append("resident,w1,Wendy,F,false,A,3,1\n");
+        csv.append("resident,w2,Willa,F,false,A,3,2\n");
+
+        FacilityImport.Result r = svc.importFacility("mX", new java.io.StringReader(csv.toString()));
+        assertEquals(500, r.staff);
+        assertEquals(500, r.shifts);
+        assertEquals(2003, r.residents);
+        assertEquals(3, r.placed);
+        assertEquals("Nurse, No. 7", staffRepo.find("n7").orElseThrow().name());
+        assertTrue(nurseRepo.hasShift("n8", DayOfWeek.of(8 % 7 + 1), LocalTime.of(12, 0)));
+        assertEquals("w2", patientRepo.findOccupantByBedId(bedRepo.findBedId("A", 3, 2).orElseThrow()).orElseThrow());
+
+        // every rule is checked before anything is written
+        FacilityImport bad = new FacilityImport()
+                .staff(new Nurse("nNew", "New"))
+                .shift("n1", new Shift(DayOfWeek.TUESDAY, LocalTime.of(8, 0), LocalTime.of(16, 0)))
+                .shift("n1", new Shift(DayOfWeek.TUESDAY, LocalTime.of(14, 0), LocalTime.of(22, 0)))
+                .shift("mX", new Shift(DayOfWeek.TUESDAY, LocalTime.of(8, 0), LocalTime.of(16, 0)))
+                .resident(new Patient("m1", "Max", Gender.M, false), "A", 3, 3)
+                .resident(new Patient("iso2", "Ivy", Gender.F, true), "A", 2, 1)
+                .resident(new Patient("taken", "Tom", Gender.M, false), "A", 1, 1)
+                .resident(new Patient("r1", "Dup", Gender.F, false));
+        RosterException ex = assertThrows(RosterException.class, () -> svc.importFacility("mX", bad));
+        assertTrue(ex.getMessage().startsWith("import rejected, 6 problem(s)"), ex.getMessage());
+        assertTrue(staffRepo.find("nNew").isEmpty());
+
+        IllegalArgumentException parse = assertThrows(IllegalArgumentException.class,
+                () -> FacilityImport.fromLines(java.util.stream.Stream.of("staff,a,A,NURSE", "shift,a,MONDAY")));
+        assertTrue(parse.getMessage().startsWith("line 2:"));
+        assertThrows(NotAuthorisedException.class, () -> svc.importFacility("nX", new FacilityImport()));
+    }
+
+    @Test
+    void testDatasetGeneratorIsRepeatableAndKeepsTheRules() throws Exception {
+        DatasetGenerator.Result first = DatasetGenerator.jdbc().seed(7).wards(3).roomsPerWard(4).weeks(2).batch(500).generate();
+        assertEquals(11, first.beds);
+        assertTrue(first.residents > 0 && first.administrations > 0);
+        String rows = generatedRows();
+
+        assertDoesNotThrow(() -> svc.checkCompliance());
+        try (var c = DB.read(); var st = c.createStatement()) {
+            // every dose is one its resident was prescribed
+            assertEquals(0, count(st, "SELECT COUNT(*) FROM administrations a WHERE NOT EXISTS (SELECT 1 FROM prescriptions p "
+                    + "JOIN rx_lines l ON l.rx_id=p.id WHERE p.patient_id=a.patient_id AND l.medicine=a.medicine)"));
+            assertEquals(0, count(st, "SELECT COUNT(*) FROM patients p JOIN beds b ON b.id=p.bed_id WHERE p.isolation=1 AND b.room<>1"));
+            assertEquals(first.administrations, count(st, "SELECT COUNT(*) FROM audit WHERE type='MED_ADMIN'"));
+            try (var rs = st.executeQuery("SELECT DISTINCT staff_id, day, time_min FROM administrations")) {
+                while (rs.next())
+                    assertTrue(nurseRepo.hasShift(rs.getString(1), rmit.s4134401.carehome.util.DayTime.day(rs.getInt(2)),
+                            rmit.s4134401.carehome.util.DayTime.time(rs.getInt(3))));
+            }
+        }
+
+        // same seed, another database: the same rows
+        DB.shutdown();
+        DB.init(tmp.resolve("again.db").toString());
+        SchemaMigrator.ensure();
+        DatasetGenerator.Result again = DatasetGenerator.jdbc().seed(7).wards(3).roomsPerWard(4).weeks(2).batch(500).generate();
+        assertEquals(first.toString(), again.toString());
+        assertEquals(rows, generatedRows());
+    }
+
+    @Test
+    void testLoadDriverRunsTheMixAndReportsLatency() throws Exception {
+        rmit.s4134401.carehome.util.LatencyHistogram h = new rmit.s4134401.carehome.util.LatencyHistogram();
+        for (long v = 1; v <= 100_000; v++) h.record(v);
+        assertEquals(50_000, h.percentile(0.50), 500);
+        assertEquals(99_900, h.percentile(0.999), 1_000);
+        rmit.s4134401.carehome.util.LatencyHistogram copy = rmit.s4134401.carehome.util.LatencyHistogram.decode(h.encode());
+        copy.add(h);
+        assertEquals(200_000, copy.count());
+        assertEquals(h.percentile(0.99), copy.percentile(0.99));
+
+        DatasetGenerator.jdbc().weeks(0).generate();
+        LoadDriver d = new LoadDriver();
+        d.users = 4;
+        d.seconds = 1;
+        d.thinkMs = 0;
+        d.run();
+        long calls = 0;
+        for (LoadDriver.Tally t : d.tallies.values()) {
+            calls += t.total();
+            assertEquals(0, t.failed.sum() + t.busy.sum(), t.firstFailure);
+        }
+        assertTrue(calls > 0);
+        assertTrue(d.report().contains("p99.9 ms"));
+    }
+
+    @Test
+    void testMetricsRecordServiceRepositoryAndPoolTimings() throws Exception {
+        Metrics.reset();
+        StaffRepository staff = Metrics.instrument(StaffRepository.class, staffRepo, "repo.staff");
+        CareHomeService timed = new CareHomeService(staff, bedRepo, patientRepo, nurseRepo, docRepo, auditRepo, rxRepo, adminRepo);
+        timed.addNurse("n2", "Nurse Two");
+        assertThrows(RuntimeException.class, () -> timed.addNurse("n2", "Nurse Two"));
+
+        var snap = Metrics.snapshot();
+        assertEquals(2L, snap.get("service.addNurse.count"));
+        assertEquals(1L, snap.get("service.addNurse.errors"));
+        assertTrue(snap.get("repo.staff.add.count").longValue() >= 1);
+        assertTrue(snap.get("db.transaction.count").longValue() >= 2);
+        assertEquals(1L, snap.get("db.rollbacks"));
+        assertNotNull(snap.get("db.writer.active"));
+        assertNotNull(snap.get("db.reader.total"));
+        assertTrue(Metrics.dump().contains("service.addNurse"));
+
+        Path file = tmp.resolve("metrics.txt");
+        Metrics.startDump(file, 3600);
+        Metrics.stopDump();
+        assertTrue(java.nio.file.Files.readString(file).contains("repo.staff.add"));
+    }
+
+    @Test
+    void testFlightRecorderEventsForServiceAndSql() throws Exception {
+        Jfr.startContinuous(tmp.resolve("jfr"), java.time.Duration.ofMinutes(5), 20L * 1024 * 1024);
+        try (jdk.jfr.Recording sql = new jdk.jfr.Recording()) {
+            sql.enable(Jfr.SqlStatement.class).withoutThreshold();
+            sql.start();
+            svc.addNurse("n2", "Nurse Two");
+            svc.assignNurseShift("mX", "n2", DayOfWeek.MONDAY, true);
+            assertThrows(RosterException.class, () -> svc.assignNurseShift("mX", "n2", DayOfWeek.MONDAY, false));
+            staffRepo.find("n2");
+            sql.stop();
+
+            Path dump = tmp.resolve("incident.jfr");
+            Jfr.dump(dump);
+            List<jdk.jfr.consumer.RecordedEvent> ops = jdk.jfr.consumer.RecordingFile.readAllEvents(dump).stream()
+                    .filter(e -> e.getEventType().getName().equals("rmit.s4134401.carehome.ServiceOperation")).toList();
+            assertTrue(ops.stream().anyMatch(e -> e.getString("operation").equals("addNurse") && e.getString("outcome").equals("ok")));
+            assertTrue(ops.stream().anyMatch(e -> e.getString("operation").equals("assignNurseShift")
+                    && "mX".equals(e.getString("staffId")) && e.getString("outcome").equals("rejected")));
+
+            Path sqlFile = tmp.resolve("sql.jfr");
+            sql.dump(sqlFile);
+            List<jdk.jfr.consumer.RecordedEvent> stmts = jdk.jfr.consumer.RecordingFile.readAllEvents(sqlFile).stream()
+                    .filter(e -> e.getEventType().getName().equals("rmit.s4134401.carehome.SqlStatement")).toList();
+            assertTrue(stmts.stream().anyMatch(e -> e.getString("sql").startsWith("INSERT") && e.getLong("rows") == 1
+                    && e.getBoolean("inTransaction")));
+            jdk.jfr.consumer.RecordedEvent read = stmts.stream().filter(e -> e.getString("sql").startsWith("SELECT")
+                    && !e.getBoolean("inTransaction")).reduce((a, b) -> b).orElseThrow();
+            assertEquals(-1, read.getLong("rows"));
+            assertEquals(Jfr.hash(read.getString("sql")), read.getString("sqlHash"));
+        } finally {
+            Jfr.stop();
+        }
+    }
+
+    @Test
+    void testSlowQueriesAreLoggedWithParametersAndPlan() {
+        ch.qos.logback.classic.Logger slow = (ch.qos.logback.classic.Logger) org.slf4j.LoggerFactory.getLogger("rmit.s4134401.carehome.slowquery");
+        ch.qos.logback.core.read.ListAppender<ch.qos.logback.classic.spi.ILoggingEvent> lines = new ch.qos.logback.core.read.ListAppender<>();
+        lines.start();
+        slow.addAppender(lines);
+        long before = SlowQueryLog.thresholdMillis();
+        SlowQueryLog.clear();
+        try {
+            SlowQueryLog.threshold(0);
+            staffRepo.find("nX");
+            staffRepo.find("dX");
+            svc.assignNurseShift("mX", "nX", DayOfWeek.MONDAY, true);
+            SlowQueryLog.values(true);
+            staffRepo.setPassword("nX", "hunter2");
+            svc.addNurse("n9", "Nurse Nine");
+        } finally {
+            SlowQueryLog.values(false);
+            SlowQueryLog.threshold(before);
+            slow.detachAppender(lines);
+        }
+
+        String find = "SELECT id,name,role,password FROM staff WHERE id=?";
+        String plan = SlowQueryLog.plans().get(find);
+        assertNotNull(plan);
+        assertTrue(plan.contains("SEARCH staff USING"), plan);
+
+        List<String> logged = lines.list.stream().map(e -> e.getFormattedMessage()).toList();
+        List<String> finds = logged.stream().filter(l -> l.contains("sql=" + find)).toList();
+        assertEquals(2, finds.size());
+        // text values are only logged by length unless asked for
+        assertTrue(finds.get(0).contains("params=[1=text(2)]") && finds.get(0).contains("plan:"), finds.get(0));
+        // the plan only comes with the first occurrence
+        assertTrue(finds.get(1).contains("params=[1=text(2)]") && !finds.get(1).contains("plan:"), finds.get(1));
+        assertTrue(logged.stream().anyMatch(l -> l.contains("sql=INSERT") && l.contains("text(2)")));
+        assertTrue(logged.stream().noneMatch(l -> l.contains("hunter2")));
+        // and even in full, passwords are masked
+        assertTrue(logged.stream().anyMatch(l -> l.contains("sql=UPDATE staff SET password=?")
+                && l.contains("params=[1=<masked>, 2='nX']")), logged.toString());
+        assertTrue(logged.stream().anyMatch(l -> l.contains("sql=INSERT INTO staff")
+                && l.contains("1='n9', 2='Nurse Nine', 3='NURSE', 4=")
+                && !l.contains("4='")), logged.toString());
+    }
+
+    @Test
+    void testStaffDirectoryAnswersRoleChecksAndFollowsTheVersion() throws Exception {
+        try (rmit.s4134401.carehome.repo.cache.CachingStaffRepository staff =
+                     new rmit.s4134401.carehome.repo.cache.CachingStaffRepository(staffRepo, java.time.Duration.ofHours(1))) {
+            CareHomeService cached = new CareHomeService(staff, bedRepo, patientRepo, nurseRepo, docRepo, auditRepo, rxRepo, adminRepo);
+            cached.assignNurseShift("mX", "nX", DayOfWeek.MONDAY, true);
+            cached.removeNurseShift("mX", "nX", DayOfWeek.MONDAY, true);
+            assertThrows(NotAuthorisedException.class, () -> cached.assignNurseShift("nX", "nX", DayOfWeek.MONDAY, true));
+            assertEquals(1, staff.stats().loads());
+
+            // committed writes through the cache swap in a new directory rather than reloading it
+            cached.addManager("m2", "Manager Two");
+            cached.renameStaff("mX", "nX", "Nurse Renamed");
+            assertEquals(Role.MANAGER, staff.roleOf("m2").orElseThrow());
+            assertEquals("Nurse Renamed", staff.nameOf("nX").orElseThrow());
+            assertEquals(staffRepo.directoryVersion(), staff.directory().version());
+            // a write outside any unit of work gets one of its own and is installed the same way
+            staff.add(new Nurse("n9", "Nurse Nine"));
+            assertEquals(Role.NURSE, staff.roleOf("n9").orElseThrow());
+            assertEquals(1, staff.stats().loads());
+
+            // the writer sees its own uncommitted staff; nobody keeps them after a rollback
+            assertThrows(IllegalStateException.class, () -> DB.inTransaction(() -> {
+                staff.add(new Manager("m3", "Manager Three"));
+                assertEquals(Role.MANAGER, staff.roleOf("m3").orElseThrow());
+                throw new IllegalStateException("roll back");
+            }));
+            assertTrue(staff.roleOf("m3").isEmpty());
+            assertTrue(staffRepo.roleOf("m3").isEmpty());
+
+            // plain SQL, as another process would write it: the version moves and a recheck reloads
+            long before = staffRepo.directoryVersion();
+            try (var c = DB.get(); var st = c.createStatement()) {
+                st.executeUpdate("UPDATE staff SET role='NURSE' WHERE id='m2'");
+                st.executeUpdate("UPDATE staff SET password='x' WHERE id='nX'");
+            }
+            assertEquals(before + 1, staffRepo.directoryVersion());
+            assertEquals(Role.MANAGER, staff.roleOf("m2").orElseThrow());
+            staff.recheck();
+            assertEquals(Role.NURSE, staff.roleOf("m2").orElseThrow());
+            assertThrows(NotAuthorisedException.class, () -> cached.setDoctorMinutes("m2", "dX", DayOfWeek.MONDAY, 60));
+            assertEquals(2, staff.stats().loads());
+        }
+    }
+
+    private static String generatedRows() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        try (var c = DB.read(); var st = c.createStatement();
+             var rs = st.executeQuery("SELECT patient_id, medicine, dose, day, time_min, staff_id FROM administrations ORDER BY id")) {
+            while (rs.next())
+                for (int i = 1; i <= 6; i++) sb.append(rs.getString(i)).append(i == 6 ? '\n' : ',');
+        }
+        try (var c = DB.read(); var st = c.createStatement();
+             var rs = st.executeQuery("SELECT p.id, p.gender, p.isolation, b.ward, b.room, b.bed_num FROM patients p "
+                     + "JOIN beds b ON b.id=p.bed_id ORDER BY p.id")) {
+            while (rs.next())
+                for (int i = 1; i <= 6; i++) sb.append(rs.getString(i)).append(i == 6 ? '\n' : ',');
+        }
+        return sb.toString();
+    }
+
+    private static long count(java.sql.Statement st, String sql) throws java.sql.SQLException {
+        try (var rs = st.executeQuery(sql)) {
+            rs.next();
+            return rs.getLong(1);
+        }
+    }
+
+    private static String plan(java.sql.Statement st, String sql) throws java.sql.SQLException {
+        StringBuilder sb = new StringBuilder();
+        try (var rs = st.executeQuery("EXPLAIN QUERY PLAN " + sql)) {
+            while (rs.next()) sb.append(rs.getString("detail")).append('\n');
+        }
+        return sb.toString();
+    }
 }